@@ -1,4 +1,5 @@
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -34,8 +35,8 @@ public class Album implements Serializable {
      */
     public Album(String tituloAlbum, String artista, String editora, int anoLancamento) {
         this.nome = tituloAlbum;
-        this.interprete = artista;
-        this.editora = editora;
+        this.interprete = DicionarioTermos.INTERPRETES.canonico(artista);
+        this.editora = DicionarioTermos.EDITORAS.canonico(editora);
         this.anoLancamento = anoLancamento;
         this.duracao = 0;
         this.musicas = new HashMap<String,Musica>();
@@ -52,8 +53,8 @@ public class Album implements Serializable {
      */
     public Album(String tituloAlbum, String artista, String editora, int anoLancamento, int duracao, Map<String,Musica> musicas) {
         this.nome = tituloAlbum;
-        this.interprete = artista;
-        this.editora = editora;
+        this.interprete = DicionarioTermos.INTERPRETES.canonico(artista);
+        this.editora = DicionarioTermos.EDITORAS.canonico(editora);
         this.anoLancamento = anoLancamento;
         this.duracao = duracao;
         setMusicas(musicas);
@@ -70,7 +71,7 @@ public class Album implements Serializable {
         this.editora = a.getEditora();
         this.anoLancamento = a.getAnoLancamento();
         this.duracao = a.getDuracao();
-        this.musicas = a.getMusicas();
+        setMusicas(a.musicas);
     }
 
     /**
@@ -102,7 +103,7 @@ public class Album implements Serializable {
      * @param interprete novo intérprete
      */
     public void setInterprete(String interprete) {
-        this.interprete = interprete;
+        this.interprete = DicionarioTermos.INTERPRETES.canonico(interprete);
     }
 
     /**
@@ -118,7 +119,7 @@ public class Album implements Serializable {
      * @param editora nova editora
      */
     public void setEditora(String editora) {
-        this.editora = editora;
+        this.editora = DicionarioTermos.EDITORAS.canonico(editora);
     }
 
     /**
@@ -154,15 +155,11 @@ public class Album implements Serializable {
     }
 
     /**
-     * Devolve a lista de músicas do álbum, efetuando clone para evitar modificação da lista original.
+     * Devolve as músicas do álbum, numa vista só de leitura (sem cópia).
      * @return musicas
      */
     public Map<String, Musica> getMusicas() {
-        Map<String,Musica> musicasClone = new HashMap<String,Musica>();
-        for (Map.Entry<String,Musica> m : this.musicas.entrySet()) {
-            musicasClone.put(m.getKey(), m.getValue().clone());
-        }
-        return musicasClone;
+        return Collections.unmodifiableMap(this.musicas);
     }
 
     /**
@@ -252,4 +249,12 @@ public class Album implements Serializable {
         return this.nome + " - " + this.interprete + " - " + this.anoLancamento;
 
     }
+
+    /**
+     * Acesso direto às músicas, sem cópia. Usado apenas na persistência do estado.
+     * @return mapa interno de músicas
+     */
+    Map<String, Musica> musicasInternas() {
+        return this.musicas;
+    }
 }
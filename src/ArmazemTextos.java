@@ -0,0 +1,158 @@
+import java.io.*;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Armazém em disco das letras e dos caracteres musicais das músicas, endereçado pelo conteúdo: cada texto distinto é guardado uma única vez,
+ * comprimido, num ficheiro cujo nome é a sua ReferenciaTexto. As músicas guardam apenas a referência e os textos são lidos quando são
+ * necessários (ao reproduzir ou imprimir a letra), através de uma cache limitada dos textos usados mais recentemente.
+ * Os ficheiros nunca são alterados depois de escritos, pelo que o armazém pode ser partilhado por vários estados guardados.
+ * A diretoria e o tamanho da cache podem ser configurados através das propriedades spotifum.textos.dir e spotifum.textos.cache.
+ */
+public class ArmazemTextos {
+    private static ArmazemTextos instancia = null;
+
+    private final Path diretoria;
+    private final Map<ReferenciaTexto, List<String>> cache;
+    private final Set<ReferenciaTexto> guardados;
+
+    /**
+     * Construtor parametrizado. Aceita:
+     * @param diretoria diretoria onde os textos são guardados
+     * @param capacidadeCache nº máximo de textos mantidos em memória
+     */
+    public ArmazemTextos(Path diretoria, int capacidadeCache) {
+        this.diretoria = diretoria;
+        this.cache = new LinkedHashMap<ReferenciaTexto, List<String>>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<ReferenciaTexto, List<String>> e) {
+                return size() > capacidadeCache;
+            }
+        };
+        this.guardados = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Devolve o armazém usado pelas músicas, criando-o na primeira utilização.
+     * @return armazém
+     */
+    public static synchronized ArmazemTextos getInstancia() {
+        if (instancia == null) {
+            instancia = new ArmazemTextos(Paths.get(System.getProperty("spotifum.textos.dir", "textos")), Integer.getInteger("spotifum.textos.cache", 256));
+        }
+        return instancia;
+    }
+
+    /**
+     * Atualiza o armazém usado pelas músicas. As músicas já existentes continuam a resolver as suas referências no novo armazém.
+     * @param armazem novo armazém
+     */
+    public static synchronized void setInstancia(ArmazemTextos armazem) {
+        instancia = armazem;
+    }
+
+    /**
+     * Guarda um texto, caso ainda não esteja guardado.
+     * @param linhas linhas do texto
+     * @return referência do texto, ou null caso o texto não tenha linhas
+     */
+    public ReferenciaTexto guarda(List<String> linhas) {
+        if (linhas.isEmpty()) {
+            return null;
+        }
+        byte[] dados = codifica(linhas);
+        ReferenciaTexto ref = resumo(dados);
+        if (this.guardados.add(ref)) {
+            Path ficheiro = ficheiro(ref);
+            try {
+                if (!Files.exists(ficheiro)) {
+                    Files.createDirectories(ficheiro.getParent());
+                    // Escreve num ficheiro temporário, para que um ficheiro do armazém nunca fique incompleto
+                    Path temporario = Files.createTempFile(ficheiro.getParent(), ref.toString(), ".tmp");
+                    try (OutputStream out = new DeflaterOutputStream(Files.newOutputStream(temporario))) {
+                        out.write(dados);
+                    }
+                    Files.move(temporario, ficheiro, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                this.guardados.remove(ref);
+                throw new UncheckedIOException("Erro ao guardar texto " + ref + ": " + e.getMessage(), e);
+            }
+        }
+        synchronized (this.cache) {
+            this.cache.put(ref, Collections.unmodifiableList(new ArrayList<String>(linhas)));
+        }
+        return ref;
+    }
+
+    /**
+     * Devolve as linhas de um texto guardado.
+     * @param ref referência do texto (null para um texto sem linhas)
+     * @return linhas do texto, numa lista só de leitura
+     */
+    public List<String> le(ReferenciaTexto ref) {
+        if (ref == null) {
+            return Collections.emptyList();
+        }
+        synchronized (this.cache) {
+            List<String> linhas = this.cache.get(ref);
+            if (linhas != null) {
+                return linhas;
+            }
+        }
+        List<String> linhas;
+        try (InputStream in = new InflaterInputStream(Files.newInputStream(ficheiro(ref)))) {
+            linhas = Collections.unmodifiableList(descodifica(in.readAllBytes()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao ler texto " + ref + ": " + e.getMessage(), e);
+        }
+        this.guardados.add(ref);
+        synchronized (this.cache) {
+            this.cache.put(ref, linhas);
+        }
+        return linhas;
+    }
+
+    private Path ficheiro(ReferenciaTexto ref) {
+        String nome = ref.toString();
+        return this.diretoria.resolve(nome.substring(0, 2)).resolve(nome);
+    }
+
+    private static byte[] codifica(List<String> linhas) {
+        EscritorBinario s = new EscritorBinario();
+        s.escreveVarInt(linhas.size());
+        for (String l : linhas) {
+            s.escreveString(l);
+        }
+        return s.toByteArray();
+    }
+
+    private static List<String> descodifica(byte[] dados) throws IOException {
+        LeitorBinario s = new LeitorBinario(dados);
+        int n = s.leVarInt();
+        List<String> linhas = new ArrayList<String>(n);
+        for (int i = 0; i < n; i++) {
+            linhas.add(s.leString());
+        }
+        return linhas;
+    }
+
+    private static ReferenciaTexto resumo(byte[] dados) {
+        try {
+            byte[] h = MessageDigest.getInstance("SHA-256").digest(dados);
+            long alto = 0;
+            long baixo = 0;
+            for (int i = 0; i < 8; i++) {
+                alto = (alto << 8) | (h[i] & 0xFF);
+                baixo = (baixo << 8) | (h[i + 8] & 0xFF);
+            }
+            return new ReferenciaTexto(alto, baixo);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 não disponível", e);
+        }
+    }
+}
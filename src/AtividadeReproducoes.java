@@ -0,0 +1,83 @@
+/**
+ * Atividade de um utilizador: o nº de reproduções por dia, num anel com os dias mais recentes em que ouviu música, e o total desde sempre.
+ * Permite saber quantas reproduções um utilizador fez desde um dia sem percorrer o histórico, desde que esse dia esteja dentro do anel
+ * ou não seja posterior à primeira reprodução. Os dias são contados desde a época (UTC).
+ */
+public class AtividadeReproducoes {
+    /** Valor devolvido quando o nº de reproduções não pode ser calculado sem o histórico. */
+    public static final long DESCONHECIDO = -1;
+
+    private final int[] baldes;
+    private long ultimoDia;
+    private long primeiroDia;
+    private long total;
+
+    /**
+     * Construtor parametrizado. Aceita:
+     * @param dias nº de dias guardados no anel
+     */
+    public AtividadeReproducoes(int dias) {
+        if (dias < 1) {
+            throw new IllegalArgumentException("O nº de dias tem de ser positivo!");
+        }
+        this.baldes = new int[dias];
+        this.total = 0;
+    }
+
+    private int posicao(long dia) {
+        return (int) Math.floorMod(dia, (long) this.baldes.length);
+    }
+
+    /**
+     * Regista uma reprodução. As reproduções anteriores aos dias do anel só contam para o total.
+     * @param dia dia da reprodução
+     */
+    public void regista(long dia) {
+        if (this.total == 0) {
+            this.ultimoDia = dia;
+            this.primeiroDia = dia;
+        } else if (dia > this.ultimoDia) {
+            // Os dias entre o último registado e este ficam a zero, reutilizando as posições dos mais antigos
+            long limpar = Math.min(dia - this.ultimoDia, this.baldes.length);
+            for (long d = dia - limpar + 1; d <= dia; d++) {
+                this.baldes[posicao(d)] = 0;
+            }
+            this.ultimoDia = dia;
+        }
+        this.primeiroDia = Math.min(this.primeiroDia, dia);
+        if (dia > this.ultimoDia - this.baldes.length) {
+            this.baldes[posicao(dia)]++;
+        }
+        this.total++;
+    }
+
+    /**
+     * Devolve o nº de reproduções desde um dia (inclusive).
+     * @param dia dia
+     * @return nº de reproduções, ou DESCONHECIDO caso o dia seja anterior aos dias do anel e existam reproduções anteriores a eles
+     */
+    public long getReproducoesDesde(long dia) {
+        if (this.total == 0 || dia <= this.primeiroDia) {
+            return this.total;
+        }
+        if (dia > this.ultimoDia) {
+            return 0;
+        }
+        if (dia <= this.ultimoDia - this.baldes.length) {
+            return DESCONHECIDO;
+        }
+        long soma = 0;
+        for (long d = dia; d <= this.ultimoDia; d++) {
+            soma += this.baldes[posicao(d)];
+        }
+        return soma;
+    }
+
+    /**
+     * Devolve o nº de reproduções desde sempre.
+     * @return nº de reproduções
+     */
+    public long getTotal() {
+        return this.total;
+    }
+}
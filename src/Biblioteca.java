@@ -1,4 +1,5 @@
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -8,7 +9,7 @@ import java.util.Map;
 public class Biblioteca implements Serializable {
     private Map<String, Album> albunsGuardados;
     private Map<String, Playlist> playlistsGuardadas;
-    private Map<String, Musica> musicasGuardadas;
+    private ColecaoMusicas musicasGuardadas;
 
     /**
      * Constutor por omissão.
@@ -16,7 +17,7 @@ public class Biblioteca implements Serializable {
     public Biblioteca() {
         this.albunsGuardados = new HashMap<String, Album>();
         this.playlistsGuardadas = new HashMap<String, Playlist>();
-        this.musicasGuardadas = new HashMap<String,Musica>();
+        this.musicasGuardadas = new ColecaoMusicas();
     }
 
     /**
@@ -42,15 +43,11 @@ public class Biblioteca implements Serializable {
     }
 
     /**
-     * Devolve os álbuns guardados
+     * Devolve os álbuns guardados, numa vista só de leitura.
      * @return lista de álbuns guardados
      */
     public Map<String, Album> getAlbuns() {
-        Map<String, Album> albunsClone = new HashMap<String, Album>();
-        for (Map.Entry<String, Album> a : this.albunsGuardados.entrySet()) {
-            albunsClone.put(a.getKey(), a.getValue());
-        }
-        return albunsClone;
+        return Collections.unmodifiableMap(this.albunsGuardados);
     }
 
     /**
@@ -65,15 +62,11 @@ public class Biblioteca implements Serializable {
     }
 
     /**
-     * Devolve a lista de playlists guardadas.
+     * Devolve as playlists guardadas, numa vista só de leitura.
      * @return lista de playlists guardadas.
      */
     public Map<String, Playlist> getPlaylists() {
-        Map<String, Playlist> playlistsClone = new HashMap<String, Playlist>();
-        for (Map.Entry<String, Playlist> p : this.playlistsGuardadas.entrySet()) {
-            playlistsClone.put(p.getKey(), p.getValue());
-        }
-        return playlistsClone;
+        return Collections.unmodifiableMap(this.playlistsGuardadas);
     }
 
     /**
@@ -88,15 +81,11 @@ public class Biblioteca implements Serializable {
     }
 
     /**
-     * Devolve a lista de músicas guardadas.
+     * Devolve as músicas guardadas, numa vista só de leitura.
      * @return lista de músicas guardadas
      */
     public Map<String, Musica> getMusicas() {
-        Map<String, Musica> musicasClone = new HashMap<String, Musica>();
-        for (Map.Entry<String, Musica> m : this.musicasGuardadas.entrySet()) {
-            musicasClone.put(m.getKey(), m.getValue());
-        }
-        return musicasClone;
+        return Collections.unmodifiableMap(this.musicasGuardadas);
     }
 
     /**
@@ -104,7 +93,7 @@ public class Biblioteca implements Serializable {
      * @param musicas nova lista de músicas
      */
     public void setMusicas(Map<String, Musica> musicas) {
-        this.musicasGuardadas = new HashMap<String, Musica>();
+        this.musicasGuardadas = new ColecaoMusicas();
         for (Map.Entry<String, Musica> m : musicas.entrySet()) {
             this.musicasGuardadas.put(m.getKey(), m.getValue().clone());
         }
@@ -165,6 +154,25 @@ public class Biblioteca implements Serializable {
         this.musicasGuardadas.put(m.getNome(), m);
     }
 
+    /**
+     * Remove uma música das músicas guardadas, caso lá esteja.
+     * @param nome Nome da música a remover
+     */
+    public void removerMusica(String nome) {
+        this.musicasGuardadas.remove(nome);
+    }
+
+    /**
+     * Passa a resolver as músicas guardadas, e as das playlists guardadas, no registo de um modelo.
+     * @param registo registo de músicas do modelo
+     */
+    public void usaRegisto(RegistoMusicas registo) {
+        this.musicasGuardadas.usaRegisto(registo);
+        for (Playlist p : this.playlistsGuardadas.values()) {
+            p.usaRegisto(registo);
+        }
+    }
+
     /**
      * Calcula o hash code para uma biblioteca.
      * @return hash code
@@ -204,4 +212,28 @@ public class Biblioteca implements Serializable {
     public String toString() {
         return "MUSICAS\n" + this.musicasGuardadas.toString() + "\n\n" + "PLAYLISTS\n" + this.playlistsGuardadas.toString() + "\n\n" + "ALBUNS\n" + this.albunsGuardados.toString();
     }
+
+    /**
+     * Acesso direto aos álbuns guardados, sem cópia. Usado apenas na persistência do estado.
+     * @return mapa interno de álbuns
+     */
+    Map<String, Album> albunsInternos() {
+        return this.albunsGuardados;
+    }
+
+    /**
+     * Acesso direto às playlists guardadas, sem cópia. Usado apenas na persistência do estado.
+     * @return mapa interno de playlists
+     */
+    Map<String, Playlist> playlistsInternas() {
+        return this.playlistsGuardadas;
+    }
+
+    /**
+     * Acesso direto às músicas guardadas, sem cópia. Usado apenas na persistência do estado.
+     * @return mapa interno de músicas
+     */
+    ColecaoMusicas musicasInternas() {
+        return this.musicasGuardadas;
+    }
 }
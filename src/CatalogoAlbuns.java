@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * Mapa de álbuns do catálogo suportado por um segmento do ficheiro de estado. Os álbuns só são descodificados quando são acedidos.
+ * As alterações feitas depois do carregamento são mantidas em memória, por cima do segmento.
+ */
+public class CatalogoAlbuns extends AbstractMap<String, Album> {
+    private final SegmentoCatalogo segmento;
+    private final Map<String, Album> alterados;
+    private final Set<String> removidos;
+    private int tamanho;
+
+    /**
+     * Construtor parametrizado. Aceita:
+     * @param segmento segmento do catálogo
+     */
+    public CatalogoAlbuns(SegmentoCatalogo segmento) {
+        this.segmento = segmento;
+        this.alterados = new LinkedHashMap<String, Album>();
+        this.removidos = new HashSet<String>();
+        this.tamanho = segmento.getNumAlbunsCatalogo();
+    }
+
+    /**
+     * Devolve o índice no segmento de um álbum que ainda pertence ao catálogo.
+     * @param chave chave do álbum
+     * @return índice, ou -1 caso o álbum não esteja no segmento ou tenha sido removido ou substituído
+     */
+    private int noSegmento(Object chave) {
+        if (!(chave instanceof String) || this.removidos.contains(chave)) {
+            return -1;
+        }
+        return this.segmento.procuraAlbum((String) chave);
+    }
+
+    public Album get(Object chave) {
+        Album a = this.alterados.get(chave);
+        if (a != null) {
+            return a;
+        }
+        int i = noSegmento(chave);
+        return i < 0 ? null : this.segmento.album(i);
+    }
+
+    public boolean containsKey(Object chave) {
+        return this.alterados.containsKey(chave) || noSegmento(chave) >= 0;
+    }
+
+    public Album put(String chave, Album album) {
+        Album anterior = get(chave);
+        if (anterior == null) {
+            this.tamanho++;
+        }
+        if (this.segmento.procuraAlbum(chave) >= 0) {
+            this.removidos.add(chave);
+        }
+        this.alterados.put(chave, album);
+        return anterior;
+    }
+
+    public Album remove(Object chave) {
+        Album anterior = get(chave);
+        if (anterior == null) {
+            return null;
+        }
+        this.alterados.remove(chave);
+        if (chave instanceof String && this.segmento.procuraAlbum((String) chave) >= 0) {
+            this.removidos.add((String) chave);
+        }
+        this.tamanho--;
+        return anterior;
+    }
+
+    public int size() {
+        return this.tamanho;
+    }
+
+    public Set<Map.Entry<String, Album>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Album>>() {
+            public Iterator<Map.Entry<String, Album>> iterator() {
+                return new Iterador();
+            }
+
+            public int size() {
+                return CatalogoAlbuns.this.tamanho;
+            }
+        };
+    }
+
+    /**
+     * Devolve os álbuns que continham uma música com um dado nome quando o segmento foi escrito e que ainda pertencem ao catálogo.
+     * As alterações posteriores às músicas dos álbuns não são consideradas.
+     * @param nomeMusica nome da música
+     * @return lista de álbuns
+     */
+    public List<Album> albunsComMusica(String nomeMusica) {
+        List<Album> albuns = new ArrayList<Album>(1);
+        for (String chave : this.segmento.albunsComMusica(nomeMusica)) {
+            Album a = get(chave);
+            if (a != null) {
+                albuns.add(a);
+            }
+        }
+        return albuns;
+    }
+
+    /**
+     * Devolve todas as entradas do catálogo sem guardar os álbuns descodificados, para que a gravação do estado não obrigue a manter
+     * todo o catálogo em memória. Dentro da lista, cada registo corresponde a um único objeto.
+     * @return lista de entradas
+     */
+    public List<Map.Entry<String, Album>> entradasSemReter() {
+        Map<Integer, Album> albunsTemporarios = new HashMap<Integer, Album>();
+        Map<Integer, Musica> musicasTemporarias = new HashMap<Integer, Musica>();
+        List<Map.Entry<String, Album>> entradas = new ArrayList<Map.Entry<String, Album>>(this.tamanho);
+        try {
+            for (int p = 0; p < this.segmento.getCapacidadeCatalogo(); p++) {
+                String chave = this.segmento.chaveCatalogo(p);
+                if (chave != null && !this.removidos.contains(chave)) {
+                    Album a = this.segmento.album(this.segmento.albumCatalogo(p), albunsTemporarios, musicasTemporarias);
+                    entradas.add(new AbstractMap.SimpleImmutableEntry<String, Album>(chave, a));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao ler o catálogo: " + e.getMessage(), e);
+        }
+        entradas.addAll(this.alterados.entrySet());
+        return entradas;
+    }
+
+    /**
+     * Entrada do segmento cujo álbum só é descodificado quando o valor é pedido.
+     */
+    private class Entrada implements Map.Entry<String, Album> {
+        private final String chave;
+        private final int album;
+
+        Entrada(String chave, int album) {
+            this.chave = chave;
+            this.album = album;
+        }
+
+        public String getKey() {
+            return this.chave;
+        }
+
+        public Album getValue() {
+            return CatalogoAlbuns.this.segmento.album(this.album);
+        }
+
+        public Album setValue(Album valor) {
+            return CatalogoAlbuns.this.put(this.chave, valor);
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return this.chave.equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+        }
+
+        public int hashCode() {
+            return this.chave.hashCode() ^ Objects.hashCode(getValue());
+        }
+    }
+
+    /**
+     * Percorre primeiro as entradas do segmento que se mantêm e depois as alteradas.
+     */
+    private class Iterador implements Iterator<Map.Entry<String, Album>> {
+        private int posicao = 0;
+        private final Iterator<Map.Entry<String, Album>> outros = CatalogoAlbuns.this.alterados.entrySet().iterator();
+        private Map.Entry<String, Album> proxima = null;
+        private Map.Entry<String, Album> ultima = null;
+
+        private Map.Entry<String, Album> avanca() {
+            SegmentoCatalogo s = CatalogoAlbuns.this.segmento;
+            while (this.posicao < s.getCapacidadeCatalogo()) {
+                int p = this.posicao++;
+                String chave = s.chaveCatalogo(p);
+                if (chave != null && !CatalogoAlbuns.this.removidos.contains(chave)) {
+                    return new Entrada(chave, s.albumCatalogo(p));
+                }
+            }
+            return this.outros.hasNext() ? this.outros.next() : null;
+        }
+
+        public boolean hasNext() {
+            if (this.proxima == null) {
+                this.proxima = avanca();
+            }
+            return this.proxima != null;
+        }
+
+        public Map.Entry<String, Album> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            this.ultima = this.proxima;
+            this.proxima = null;
+            return this.ultima;
+        }
+
+        public void remove() {
+            if (this.ultima == null) {
+                throw new IllegalStateException();
+            }
+            if (this.ultima instanceof Entrada) {
+                CatalogoAlbuns.this.removidos.add(this.ultima.getKey());
+            } else {
+                this.outros.remove();
+            }
+            CatalogoAlbuns.this.tamanho--;
+            this.ultima = null;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+import java.util.*;
+
+/**
+ * Classificação dos utilizadores por pontos, ordenada por pontos (decrescente) e, em caso de empate, por username.
+ * É uma árvore de pesquisa aleatorizada (treap) em que cada nó guarda o tamanho da sua subárvore, pelo que atualizar os pontos de um utilizador,
+ * saber a sua posição ou aceder ao utilizador numa dada posição custam O(log n) em média; os k primeiros custam O(log n + k).
+ * Os utilizadores são identificados pelo username.
+ */
+public class ClassificacaoPontos {
+    private final Map<String, Integer> pontos;
+    private final Random random;
+    private No raiz;
+
+    private static class No {
+        private final String username;
+        private final int pontos;
+        private final int prioridade;
+        private int tamanho;
+        private No esq;
+        private No dir;
+
+        private No(String username, int pontos, int prioridade) {
+            this.username = username;
+            this.pontos = pontos;
+            this.prioridade = prioridade;
+            this.tamanho = 1;
+        }
+    }
+
+    /**
+     * Construtor por omissão.
+     */
+    public ClassificacaoPontos() {
+        this.pontos = new HashMap<String, Integer>();
+        this.random = new Random();
+        this.raiz = null;
+    }
+
+    private static int tamanho(No n) {
+        return n == null ? 0 : n.tamanho;
+    }
+
+    private static void atualiza(No n) {
+        n.tamanho = 1 + tamanho(n.esq) + tamanho(n.dir);
+    }
+
+    /**
+     * Compara uma posição (pontos, username) com um nó. Um username null fica antes de todos os utilizadores com os mesmos pontos.
+     */
+    private static int compara(int pontos, String username, No n) {
+        if (pontos != n.pontos) {
+            return pontos > n.pontos ? -1 : 1;
+        }
+        if (username == null) {
+            return -1;
+        }
+        return username.compareTo(n.username);
+    }
+
+    /**
+     * Divide uma árvore nos nós anteriores a uma posição e nos restantes.
+     */
+    private static No[] divide(No n, int pontos, String username) {
+        if (n == null) {
+            return new No[] {null, null};
+        }
+        if (compara(pontos, username, n) <= 0) {
+            No[] r = divide(n.esq, pontos, username);
+            n.esq = r[1];
+            atualiza(n);
+            return new No[] {r[0], n};
+        }
+        No[] r = divide(n.dir, pontos, username);
+        n.dir = r[0];
+        atualiza(n);
+        return new No[] {n, r[1]};
+    }
+
+    /**
+     * Junta duas árvores, em que todos os nós da primeira são anteriores aos da segunda.
+     */
+    private static No junta(No a, No b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.prioridade > b.prioridade) {
+            a.dir = junta(a.dir, b);
+            atualiza(a);
+            return a;
+        }
+        b.esq = junta(a, b.esq);
+        atualiza(b);
+        return b;
+    }
+
+    private static No retira(No n, int pontos, String username) {
+        int c = compara(pontos, username, n);
+        if (c == 0) {
+            return junta(n.esq, n.dir);
+        }
+        if (c < 0) {
+            n.esq = retira(n.esq, pontos, username);
+        } else {
+            n.dir = retira(n.dir, pontos, username);
+        }
+        atualiza(n);
+        return n;
+    }
+
+    /**
+     * Define os pontos de um utilizador, acrescentando-o à classificação caso ainda não esteja.
+     * @param username username
+     * @param pontos pontos
+     */
+    public void define(String username, int pontos) {
+        Integer anteriores = this.pontos.put(username, pontos);
+        if (anteriores != null) {
+            if (anteriores == pontos) {
+                return;
+            }
+            this.raiz = retira(this.raiz, anteriores, username);
+        }
+        No[] r = divide(this.raiz, pontos, username);
+        this.raiz = junta(junta(r[0], new No(username, pontos, this.random.nextInt())), r[1]);
+    }
+
+    /**
+     * Retira um utilizador da classificação.
+     * @param username username
+     */
+    public void remove(String username) {
+        Integer anteriores = this.pontos.remove(username);
+        if (anteriores != null) {
+            this.raiz = retira(this.raiz, anteriores, username);
+        }
+    }
+
+    /**
+     * Devolve o nº de nós anteriores a uma posição.
+     */
+    private int contaAntes(int pontos, String username) {
+        int conta = 0;
+        No n = this.raiz;
+        while (n != null) {
+            if (compara(pontos, username, n) <= 0) {
+                n = n.esq;
+            } else {
+                conta += tamanho(n.esq) + 1;
+                n = n.dir;
+            }
+        }
+        return conta;
+    }
+
+    /**
+     * Devolve o username na posição i da ordem da classificação (a começar em 0).
+     */
+    private String seleciona(int i) {
+        No n = this.raiz;
+        while (true) {
+            int esq = tamanho(n.esq);
+            if (i < esq) {
+                n = n.esq;
+            } else if (i == esq) {
+                return n.username;
+            } else {
+                i -= esq + 1;
+                n = n.dir;
+            }
+        }
+    }
+
+    /**
+     * Devolve a posição de um utilizador na classificação, a começar em 1. Utilizadores com os mesmos pontos têm a mesma posição.
+     * @param username username
+     * @return posição, ou 0 caso o utilizador não esteja na classificação
+     */
+    public int getPosicao(String username) {
+        Integer p = this.pontos.get(username);
+        return p == null ? 0 : contaAntes(p, null) + 1;
+    }
+
+    /**
+     * Devolve o utilizador com mais pontos (em caso de empate, o primeiro por ordem de username).
+     * @return username, ou null caso a classificação esteja vazia
+     */
+    public String getPrimeiro() {
+        return this.raiz == null ? null : seleciona(0);
+    }
+
+    /**
+     * Devolve os primeiros utilizadores da classificação, por ordem.
+     * @param n nº de utilizadores
+     * @return usernames
+     */
+    public List<String> getPrimeiros(int n) {
+        List<String> res = new ArrayList<String>(Math.max(0, Math.min(n, size())));
+        Deque<No> pilha = new ArrayDeque<No>();
+        No atual = this.raiz;
+        while (res.size() < n && (atual != null || !pilha.isEmpty())) {
+            while (atual != null) {
+                pilha.push(atual);
+                atual = atual.esq;
+            }
+            No no = pilha.pop();
+            res.add(no.username);
+            atual = no.dir;
+        }
+        return res;
+    }
+
+    /**
+     * Devolve os utilizadores à volta de um utilizador na classificação, por ordem, incluindo o próprio.
+     * @param username username
+     * @param raio nº de utilizadores antes e depois
+     * @return usernames (vazia caso o utilizador não esteja na classificação)
+     */
+    public List<String> getVizinhos(String username, int raio) {
+        Integer p = this.pontos.get(username);
+        if (p == null) {
+            return new ArrayList<String>();
+        }
+        int i = contaAntes(p, username);
+        int fim = Math.min(size() - 1, i + raio);
+        List<String> res = new ArrayList<String>();
+        for (int j = Math.max(0, i - raio); j <= fim; j++) {
+            res.add(seleciona(j));
+        }
+        return res;
+    }
+
+    /**
+     * Devolve o nº de utilizadores na classificação.
+     * @return nº de utilizadores
+     */
+    public int size() {
+        return this.pontos.size();
+    }
+}
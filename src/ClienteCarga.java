@@ -0,0 +1,258 @@
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cliente de teste de carga da interface HTTP. Cada thread representa uma sessão, que faz login e depois envia pedidos seguidos
+ * (pesquisas, consulta de álbuns, reproduções, playlists aleatórias e estatísticas) durante um dado tempo.
+ * No fim, mostra o débito e a latência dos pedidos (mediana, p99 e máxima).
+ *
+ * Uso: java ClienteCarga [url] [sessões] [segundos] [username] [password]
+ */
+public class ClienteCarga {
+    private static final String[] PESQUISAS = {"a", "o", "am", "or", "the", "ção", "love", "in", "e", "na"};
+    private static final Pattern NOME = Pattern.compile("\\{\"nome\":\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private final String url;
+    private final int sessoes;
+    private final long duracaoNs;
+    private final String username;
+    private final String password;
+    private final HttpClient cliente;
+    private final AtomicLong erros;
+
+    /**
+     * Construtor parametrizado. Aceita:
+     * @param url endereço do servidor (p.e. http://localhost:8080)
+     * @param sessoes nº de sessões em simultâneo
+     * @param segundos duração do teste
+     * @param username utilizador com que as sessões fazem login
+     * @param password palavra-passe do utilizador
+     */
+    public ClienteCarga(String url, int sessoes, int segundos, String username, String password) {
+        this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+        this.sessoes = sessoes;
+        this.duracaoNs = segundos * 1_000_000_000L;
+        this.username = username;
+        this.password = password;
+        this.cliente = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        this.erros = new AtomicLong();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String url = args.length > 0 ? args[0] : "http://localhost:" + ServidorHttp.PORTA_OMISSAO;
+        int sessoes = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int segundos = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String username = args.length > 3 ? args[3] : "base";
+        String password = args.length > 4 ? args[4] : "base";
+        System.out.println(new ClienteCarga(url, sessoes, segundos, username, password).executa());
+    }
+
+    /**
+     * Executa o teste de carga.
+     * @return resultado do teste
+     * @throws InterruptedException caso a espera pelas sessões seja interrompida
+     */
+    public Resultado executa() throws InterruptedException {
+        Sessao[] ss = new Sessao[this.sessoes];
+        Thread[] threads = new Thread[this.sessoes];
+        long inicio = System.nanoTime();
+        for (int i = 0; i < this.sessoes; i++) {
+            ss[i] = new Sessao(i, inicio + this.duracaoNs);
+            threads[i] = new Thread(ss[i], "carga-" + i);
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        long duracao = System.nanoTime() - inicio;
+        int total = 0;
+        for (Sessao s : ss) {
+            total += s.numLatencias;
+        }
+        long[] latencias = new long[total];
+        int p = 0;
+        for (Sessao s : ss) {
+            System.arraycopy(s.latencias, 0, latencias, p, s.numLatencias);
+            p += s.numLatencias;
+        }
+        Arrays.sort(latencias);
+        return new Resultado(latencias, this.erros.get(), duracao);
+    }
+
+    /**
+     * Sessão de teste, executada numa thread própria.
+     */
+    private class Sessao implements Runnable {
+        private final Random aleatorio;
+        private final long fim;
+        private long[] latencias;
+        private int numLatencias;
+        private String token;
+        private final List<String> musicas;
+        private final List<String> albuns;
+
+        private Sessao(int i, long fim) {
+            this.aleatorio = new Random(i);
+            this.fim = fim;
+            this.latencias = new long[1024];
+            this.numLatencias = 0;
+            this.musicas = new ArrayList<String>();
+            this.albuns = new ArrayList<String>();
+        }
+
+        public void run() {
+            String resposta = envia("POST", "/login", "username=" + codifica(username) + "&password=" + codifica(password));
+            Matcher m = Pattern.compile("\"sessao\":\"([0-9a-f]+)\"").matcher(resposta == null ? "" : resposta);
+            if (!m.find()) {
+                return;
+            }
+            this.token = m.group(1);
+            while (System.nanoTime() < this.fim) {
+                int r = this.aleatorio.nextInt(100);
+                String q = PESQUISAS[this.aleatorio.nextInt(PESQUISAS.length)];
+                if (r < 30) {
+                    nomes(envia("GET", "/pesquisa/musicas?q=" + codifica(q), null), this.musicas);
+                } else if (r < 45) {
+                    nomes(envia("GET", "/pesquisa/albuns?q=" + codifica(q), null), this.albuns);
+                } else if (r < 50) {
+                    envia("GET", "/pesquisa/playlists?q=" + codifica(q), null);
+                } else if (r < 60 && !this.albuns.isEmpty()) {
+                    envia("GET", "/albuns/" + caminho(escolhe(this.albuns)), null);
+                } else if (r < 90 && !this.musicas.isEmpty()) {
+                    envia("POST", "/reproducoes", "musica=" + codifica(escolhe(this.musicas)));
+                } else if (r < 95) {
+                    envia("POST", "/playlists/aleatoria", "nome=carga&num=10");
+                } else {
+                    envia("GET", "/estatisticas", null);
+                }
+            }
+        }
+
+        private String escolhe(List<String> nomes) {
+            return nomes.get(this.aleatorio.nextInt(nomes.size()));
+        }
+
+        /**
+         * Guarda os nomes de uma resposta de pesquisa, para serem usados nos pedidos seguintes.
+         */
+        private void nomes(String resposta, List<String> destino) {
+            if (resposta == null || destino.size() > 256) {
+                return;
+            }
+            Matcher m = NOME.matcher(resposta);
+            while (m.find()) {
+                destino.add(m.group(1).replace("\\\"", "\"").replace("\\\\", "\\"));
+            }
+        }
+
+        /**
+         * Envia um pedido e regista a sua latência.
+         * @return corpo da resposta, ou null caso o pedido falhe
+         */
+        private String envia(String metodo, String caminho, String corpo) {
+            HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(url + caminho)).timeout(Duration.ofSeconds(30));
+            if (this.token != null) {
+                b.header("Authorization", "Bearer " + this.token);
+            }
+            if (metodo.equals("POST")) {
+                b.header("Content-Type", "application/x-www-form-urlencoded");
+                b.POST(HttpRequest.BodyPublishers.ofString(corpo == null ? "" : corpo));
+            } else {
+                b.GET();
+            }
+            long inicio = System.nanoTime();
+            try {
+                HttpResponse<String> resposta = cliente.send(b.build(), HttpResponse.BodyHandlers.ofString());
+                regista(System.nanoTime() - inicio);
+                // Os conflitos (p.e. poucas músicas) e as músicas filtradas pelas preferências são respostas válidas da interface
+                if (resposta.statusCode() >= 500 || resposta.statusCode() == 400 || resposta.statusCode() == 401) {
+                    erros.incrementAndGet();
+                    return null;
+                }
+                return resposta.statusCode() == 200 ? resposta.body() : null;
+            } catch (Exception e) {
+                regista(System.nanoTime() - inicio);
+                erros.incrementAndGet();
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+        }
+
+        private void regista(long latencia) {
+            if (this.numLatencias == this.latencias.length) {
+                this.latencias = Arrays.copyOf(this.latencias, this.numLatencias * 2);
+            }
+            this.latencias[this.numLatencias++] = latencia;
+        }
+    }
+
+    private static String codifica(String s) {
+        return URLEncoder.encode(s, StandardCharsets.UTF_8);
+    }
+
+    private static String caminho(String s) {
+        return codifica(s).replace("+", "%20");
+    }
+
+    /**
+     * Resultado de um teste de carga.
+     */
+    public static class Resultado {
+        private final long[] latencias;
+        private final long erros;
+        private final long duracaoNs;
+
+        /**
+         * Construtor parametrizado. Aceita:
+         * @param latencias latências dos pedidos, ordenadas (em nanossegundos)
+         * @param erros nº de pedidos falhados
+         * @param duracaoNs duração do teste
+         */
+        public Resultado(long[] latencias, long erros, long duracaoNs) {
+            this.latencias = latencias;
+            this.erros = erros;
+            this.duracaoNs = duracaoNs;
+        }
+
+        /**
+         * Devolve o nº de pedidos por segundo.
+         * @return débito
+         */
+        public double getDebito() {
+            return this.latencias.length * 1e9 / this.duracaoNs;
+        }
+
+        /**
+         * Devolve o percentil dado das latências, em milissegundos.
+         * @param percentil percentil (entre 0 e 100)
+         * @return latência
+         */
+        public double getPercentilMs(double percentil) {
+            if (this.latencias.length == 0) {
+                return 0;
+            }
+            int i = (int) Math.ceil(percentil / 100 * this.latencias.length) - 1;
+            return this.latencias[Math.max(0, Math.min(i, this.latencias.length - 1))] / 1e6;
+        }
+
+        public String toString() {
+            return String.format("Pedidos: %d (%d erros) em %.1f s%nDébito: %.0f pedidos/s%nLatência: p50 %.2f ms, p99 %.2f ms, máx %.2f ms",
+                    this.latencias.length, this.erros, this.duracaoNs / 1e9, getDebito(),
+                    getPercentilMs(50), getPercentilMs(99), getPercentilMs(100));
+        }
+    }
+}
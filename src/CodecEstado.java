@@ -0,0 +1,766 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Codec binário do estado da aplicação. Substitui a serialização Java por um formato versionado, com dicionário de strings,
+ * inteiros em varint e secções com prefixo de comprimento. Preserva a partilha de objetos (p.e. uma playlist guardada por vários utilizadores).
+ * A partir da versão 3, o dicionário, as músicas e os álbuns são tabelas com deslocamentos de tamanho fixo e o catálogo tem um índice por nome,
+ * pelo que o ficheiro é mapeado em memória e o catálogo só é descodificado à medida que é usado (ver SegmentoCatalogo).
+ * A partir da versão 4, cada música guarda o seu identificador e a raiz guarda o próximo identificador a atribuir. Nas versões anteriores,
+ * as cópias de uma música (p.e. no histórico) eram objetos distintos; ao ler, as que têm o mesmo nome, intérprete e género recebem o mesmo identificador.
+ * A partir da versão 5, as letras e os caracteres musicais ficam no ArmazemTextos e cada música guarda apenas as suas referências;
+ * ao ler um estado anterior, os textos são guardados no armazém.
+ * A partir da versão 6, as listas de favoritos guardam o seu limite, para que continuem a ter o mesmo nº de músicas depois de carregadas.
+ */
+public class CodecEstado {
+    public static final int MAGIC = 0x5350554D; // "SPUM"
+    public static final int VERSAO = 6;
+
+    private static final int SECCAO_DICIONARIO = 1;
+    private static final int SECCAO_MUSICAS = 2;
+    private static final int SECCAO_ALBUNS = 3;
+    private static final int SECCAO_UTILIZADORES = 4;
+    private static final int SECCAO_PLAYLISTS = 5;
+    private static final int SECCAO_BIBLIOTECAS = 6;
+    private static final int SECCAO_RAIZ = 7;
+    private static final int SECCAO_INDICE_CATALOGO = 8;
+
+    private static final int MUSICA_NORMAL = 0;
+    private static final int MUSICA_EXPLICITA = 1;
+    private static final int MUSICA_MULTIMEDIA = 2;
+
+    private static final int PLAYLIST_CONSTRUIDA = 0;
+    private static final int PLAYLIST_ALEATORIA = 1;
+    private static final int PLAYLIST_FAVORITOS = 2;
+    private static final int PLAYLIST_GENERO_TEMPO = 3;
+
+    private static final int PLANO_BASE = 0;
+    private static final int PLANO_PREMIUM_BASE = 1;
+    private static final int PLANO_PREMIUM_TOP = 2;
+
+    private final Map<String, Integer> indiceStrings = new HashMap<String, Integer>();
+    private final List<String> strings = new ArrayList<String>();
+    private final Map<Musica, Integer> indiceMusicas = new IdentityHashMap<Musica, Integer>();
+    private final List<Musica> musicas = new ArrayList<Musica>();
+    private final Map<Album, Integer> indiceAlbuns = new IdentityHashMap<Album, Integer>();
+    private final List<Album> albuns = new ArrayList<Album>();
+    private final Map<Utilizador, Integer> indiceUtilizadores = new IdentityHashMap<Utilizador, Integer>();
+    private final List<Utilizador> utilizadores = new ArrayList<Utilizador>();
+    private final Map<Playlist, Integer> indicePlaylists = new IdentityHashMap<Playlist, Integer>();
+    private final List<Playlist> playlists = new ArrayList<Playlist>();
+    private List<Map.Entry<String, Album>> catalogo;
+    private SegmentoCatalogo segmento;
+    private int versao;
+    private final Map<String, Integer> idsMigrados = new HashMap<String, Integer>();
+    private RegistoMusicas registo;
+    // O contador de reproduções é mantido enquanto o segmento o usar, para que as músicas descodificadas mais tarde tragam as suas reproduções
+    private ContadorReproducoes reproducoes;
+
+    /**
+     * Construtor privado. O codec é usado através dos métodos estáticos.
+     */
+    private CodecEstado() {
+    }
+
+    /**
+     * Guarda o estado num ficheiro. A escrita é feita num ficheiro temporário que depois substitui o original, para que uma falha não corrompa o estado anterior.
+     * @param modelo modelo a guardar
+     * @param nomeFicheiro nome do ficheiro
+     * @return tamanho do ficheiro escrito (em bytes)
+     * @throws IOException caso ocorra um erro de escrita
+     */
+    public static long guarda(SpotifUM modelo, String nomeFicheiro) throws IOException {
+        byte[] dados = codifica(modelo);
+        Path destino = Paths.get(nomeFicheiro);
+        Path temporario = Paths.get(nomeFicheiro + ".tmp");
+        Files.write(temporario, dados);
+        Files.move(temporario, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return dados.length;
+    }
+
+    /**
+     * Carrega o estado de um ficheiro. O ficheiro é mapeado em memória: o catálogo é lido diretamente do mapeamento à medida que é acedido.
+     * O mapeamento mantém-se válido mesmo que o ficheiro seja depois substituído por uma nova gravação.
+     * @param nomeFicheiro nome do ficheiro
+     * @return modelo carregado
+     * @throws IOException caso o ficheiro não exista ou não esteja no formato esperado
+     */
+    public static SpotifUM carrega(String nomeFicheiro) throws IOException {
+        try (FileChannel canal = FileChannel.open(Paths.get(nomeFicheiro), StandardOpenOption.READ)) {
+            return descodifica(canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size()));
+        }
+    }
+
+    /**
+     * Codifica o modelo no formato binário, com acesso exclusivo ao modelo para que o estado gravado seja consistente.
+     * @param modelo modelo
+     * @return bytes codificados
+     */
+    public static byte[] codifica(SpotifUM modelo) {
+        return modelo.exclusivo(() -> {
+            CodecEstado codec = new CodecEstado();
+            codec.reproducoes = modelo.contadorReproducoes();
+            codec.recolhe(modelo);
+            return codec.escreve(modelo);
+        });
+    }
+
+    /**
+     * Descodifica um modelo a partir do formato binário.
+     * @param dados dados
+     * @return modelo
+     * @throws IOException caso os dados não estejam no formato esperado
+     */
+    public static SpotifUM descodifica(ByteBuffer dados) throws IOException {
+        LeitorBinario in = new LeitorBinario(dados);
+        if (in.leIntFixo() != MAGIC) {
+            throw new IOException("O ficheiro não contém um estado da SpotifUM!");
+        }
+        int versao = in.leVarInt();
+        if (versao < 1 || versao > VERSAO) {
+            throw new IOException("Versão do estado não suportada: " + versao);
+        }
+        // A versão 1 não guardava a sequência do diário de operações
+        long sequenciaDiario = versao >= 2 ? in.leVarLong() : 0;
+        SpotifUM modelo = new CodecEstado().le(in, versao);
+        modelo.setSequenciaDiario(sequenciaDiario);
+        return modelo;
+    }
+
+    // ---------------------------------------------------------------- escrita
+
+    /**
+     * Percorre o grafo de objetos do modelo, atribuindo um identificador a cada objeto distinto e a cada string.
+     * @param modelo modelo
+     */
+    private void recolhe(SpotifUM modelo) {
+        // Um catálogo ainda por descodificar é lido sem ficar em memória depois da gravação
+        Map<String, Album> albunsModelo = modelo.albunsInternos();
+        this.catalogo = albunsModelo instanceof CatalogoAlbuns ? ((CatalogoAlbuns) albunsModelo).entradasSemReter() : new ArrayList<Map.Entry<String, Album>>(albunsModelo.entrySet());
+        for (Map.Entry<String, Album> a : this.catalogo) {
+            string(a.getKey());
+            recolheAlbum(a.getValue());
+        }
+        for (Map.Entry<String, Utilizador> u : modelo.utilizadoresInternos().entrySet()) {
+            string(u.getKey());
+            recolheUtilizador(u.getValue());
+        }
+        // Os utilizadores podem ser descobertos através dos criadores das playlists, pelo que a lista cresce durante o ciclo
+        for (int i = 0; i < this.utilizadores.size(); i++) {
+            Biblioteca b = this.utilizadores.get(i).getBiblioteca();
+            for (Map.Entry<String, Album> a : b.getAlbuns().entrySet()) {
+                string(a.getKey());
+                recolheAlbum(a.getValue());
+            }
+            for (Map.Entry<String, Playlist> p : b.getPlaylists().entrySet()) {
+                string(p.getKey());
+                recolhePlaylist(p.getValue());
+            }
+            for (Map.Entry<String, Musica> m : b.getMusicas().entrySet()) {
+                string(m.getKey());
+                recolheMusica(m.getValue());
+            }
+        }
+    }
+
+    private int string(String s) {
+        Integer i = this.indiceStrings.get(s);
+        if (i == null) {
+            i = this.strings.size();
+            this.indiceStrings.put(s, i);
+            this.strings.add(s);
+        }
+        return i;
+    }
+
+    private void recolheMusica(Musica m) {
+        if (this.indiceMusicas.containsKey(m)) {
+            return;
+        }
+        this.indiceMusicas.put(m, this.musicas.size());
+        this.musicas.add(m);
+        string(m.getNome());
+        string(m.getInterprete());
+        string(m.getGenero());
+        string(m.getEditora());
+        if (m instanceof MusicaMultimedia) {
+            string(((MusicaMultimedia) m).getVideo());
+        }
+    }
+
+    private void recolheAlbum(Album a) {
+        if (this.indiceAlbuns.containsKey(a)) {
+            return;
+        }
+        this.indiceAlbuns.put(a, this.albuns.size());
+        this.albuns.add(a);
+        string(a.getNome());
+        string(a.getInterprete());
+        string(a.getEditora());
+        for (Map.Entry<String, Musica> m : a.musicasInternas().entrySet()) {
+            string(m.getKey());
+            recolheMusica(m.getValue());
+        }
+    }
+
+    private void recolheUtilizador(Utilizador u) {
+        if (this.indiceUtilizadores.containsKey(u)) {
+            return;
+        }
+        this.indiceUtilizadores.put(u, this.utilizadores.size());
+        this.utilizadores.add(u);
+        string(u.getUsername());
+        string(u.getPassword());
+        string(u.getNome());
+        string(u.getMorada());
+        string(u.getEmail());
+        HistoricoReproducoes historico = u.musicasOuvidasInternas();
+        for (int i = 0; i < historico.getNumMusicas(); i++) {
+            recolheMusica(historico.getMusica(i));
+        }
+    }
+
+    private void recolhePlaylist(Playlist p) {
+        if (this.indicePlaylists.containsKey(p)) {
+            return;
+        }
+        this.indicePlaylists.put(p, this.playlists.size());
+        this.playlists.add(p);
+        string(p.getNome());
+        if (p.getCriador() != null) {
+            recolheUtilizador(p.getCriador());
+        }
+        for (Map.Entry<String, Musica> m : p.getMusicas().entrySet()) {
+            string(m.getKey());
+            recolheMusica(m.getValue());
+        }
+    }
+
+    /**
+     * Escreve todas as secções do estado.
+     * @param modelo modelo
+     * @return bytes codificados
+     */
+    private byte[] escreve(SpotifUM modelo) {
+        EscritorBinario out = new EscritorBinario(1 << 16);
+        out.escreveIntFixo(MAGIC);
+        out.escreveVarInt(VERSAO);
+        out.escreveVarLong(modelo.getSequenciaDiario());
+
+        EscritorBinario s = new EscritorBinario(1 << 16);
+        int[] inicios = new int[this.strings.size()];
+        for (int i = 0; i < this.strings.size(); i++) {
+            inicios[i] = s.getTamanho();
+            s.escreveString(this.strings.get(i));
+        }
+        escreveTabela(out, SECCAO_DICIONARIO, s, inicios);
+
+        s.limpa();
+        inicios = new int[this.musicas.size()];
+        for (int i = 0; i < this.musicas.size(); i++) {
+            inicios[i] = s.getTamanho();
+            escreveMusica(s, this.musicas.get(i));
+        }
+        escreveTabela(out, SECCAO_MUSICAS, s, inicios);
+
+        s.limpa();
+        inicios = new int[this.albuns.size()];
+        for (int i = 0; i < this.albuns.size(); i++) {
+            inicios[i] = s.getTamanho();
+            escreveAlbum(s, this.albuns.get(i));
+        }
+        escreveTabela(out, SECCAO_ALBUNS, s, inicios);
+
+        s.limpa();
+        List<String> nomesAlbuns = new ArrayList<String>();
+        List<Integer> indicesAlbuns = new ArrayList<Integer>();
+        List<String> nomesMusicas = new ArrayList<String>();
+        List<Integer> albunsMusicas = new ArrayList<Integer>();
+        for (Map.Entry<String, Album> a : this.catalogo) {
+            nomesAlbuns.add(a.getKey());
+            indicesAlbuns.add(this.indiceAlbuns.get(a.getValue()));
+            for (String m : a.getValue().musicasInternas().keySet()) {
+                nomesMusicas.add(m);
+                albunsMusicas.add(string(a.getKey()));
+            }
+        }
+        escreveIndice(s, nomesAlbuns, indicesAlbuns);
+        escreveIndice(s, nomesMusicas, albunsMusicas);
+        out.escreveSeccao(SECCAO_INDICE_CATALOGO, s);
+
+        s.limpa();
+        s.escreveVarInt(this.utilizadores.size());
+        for (Utilizador u : this.utilizadores) {
+            escreveUtilizador(s, u);
+        }
+        out.escreveSeccao(SECCAO_UTILIZADORES, s);
+
+        s.limpa();
+        s.escreveVarInt(this.playlists.size());
+        for (Playlist p : this.playlists) {
+            escrevePlaylist(s, p);
+        }
+        out.escreveSeccao(SECCAO_PLAYLISTS, s);
+
+        s.limpa();
+        for (Utilizador u : this.utilizadores) {
+            escreveBiblioteca(s, u.getBiblioteca());
+        }
+        out.escreveSeccao(SECCAO_BIBLIOTECAS, s);
+
+        s.limpa();
+        Map<String, Utilizador> registados = modelo.utilizadoresInternos();
+        s.escreveVarInt(registados.size());
+        for (Map.Entry<String, Utilizador> u : registados.entrySet()) {
+            s.escreveVarInt(string(u.getKey()));
+            s.escreveVarInt(this.indiceUtilizadores.get(u.getValue()));
+        }
+        s.escreveVarInt(Musica.getProximoId());
+        out.escreveSeccao(SECCAO_RAIZ, s);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Escreve uma secção em forma de tabela: nº de registos, deslocamento de cada registo (inteiros de tamanho fixo) e os registos.
+     * @param out destino
+     * @param etiqueta etiqueta da secção
+     * @param registos registos concatenados
+     * @param inicios deslocamento de cada registo dentro dos registos
+     */
+    private static void escreveTabela(EscritorBinario out, int etiqueta, EscritorBinario registos, int[] inicios) {
+        EscritorBinario t = new EscritorBinario(4 + 4 * inicios.length + registos.getTamanho());
+        t.escreveIntFixo(inicios.length);
+        for (int inicio : inicios) {
+            t.escreveIntFixo(inicio);
+        }
+        t.escreveBytes(registos.getDadosInternos(), 0, registos.getTamanho());
+        out.escreveSeccao(etiqueta, t);
+    }
+
+    /**
+     * Escreve uma tabela de dispersão com sondagem linear: nº de chaves, nº de posições e, por posição, a dispersão, a string da chave e o valor.
+     * Uma chave pode repetir-se com valores diferentes.
+     * @param s destino
+     * @param chaves chaves
+     * @param valores valor de cada chave
+     */
+    private void escreveIndice(EscritorBinario s, List<String> chaves, List<Integer> valores) {
+        int capacidade = 2;
+        while (capacidade < 2 * chaves.size()) {
+            capacidade <<= 1;
+        }
+        int[] entradas = new int[3 * capacidade];
+        for (int i = 0; i < capacidade; i++) {
+            entradas[3 * i + 1] = -1;
+        }
+        for (int i = 0; i < chaves.size(); i++) {
+            int h = SegmentoCatalogo.dispersao(chaves.get(i));
+            int p = h & (capacidade - 1);
+            while (entradas[3 * p + 1] != -1) {
+                p = (p + 1) & (capacidade - 1);
+            }
+            entradas[3 * p] = h;
+            entradas[3 * p + 1] = string(chaves.get(i));
+            entradas[3 * p + 2] = valores.get(i);
+        }
+        s.escreveIntFixo(chaves.size());
+        s.escreveIntFixo(capacidade);
+        for (int e : entradas) {
+            s.escreveIntFixo(e);
+        }
+    }
+
+    private void escreveMusica(EscritorBinario s, Musica m) {
+        int tipo = m instanceof MusicaMultimedia ? MUSICA_MULTIMEDIA : (m instanceof MusicaExplicita ? MUSICA_EXPLICITA : MUSICA_NORMAL);
+        s.escreveByte(tipo);
+        s.escreveVarInt(m.getId());
+        s.escreveVarInt(string(m.getNome()));
+        s.escreveVarInt(string(m.getInterprete()));
+        s.escreveVarInt(string(m.getGenero()));
+        s.escreveVarInt(string(m.getEditora()));
+        s.escreveVarInt(m.getDuracao());
+        s.escreveVarInt(this.reproducoes.get(m.getId()));
+        escreveReferencia(s, m.getReferenciaLetra());
+        escreveReferencia(s, m.getReferenciaMusica());
+        if (tipo == MUSICA_MULTIMEDIA) {
+            s.escreveVarInt(string(((MusicaMultimedia) m).getVideo()));
+        }
+    }
+
+    private void escreveReferencia(EscritorBinario s, ReferenciaTexto ref) {
+        s.escreveBoolean(ref != null);
+        if (ref != null) {
+            s.escreveIntFixo((int) (ref.getAlto() >>> 32));
+            s.escreveIntFixo((int) ref.getAlto());
+            s.escreveIntFixo((int) (ref.getBaixo() >>> 32));
+            s.escreveIntFixo((int) ref.getBaixo());
+        }
+    }
+
+    private void escreveAlbum(EscritorBinario s, Album a) {
+        s.escreveVarInt(string(a.getNome()));
+        s.escreveVarInt(string(a.getInterprete()));
+        s.escreveVarInt(string(a.getEditora()));
+        s.escreveVarLongComSinal(a.getAnoLancamento());
+        s.escreveVarInt(a.getDuracao());
+        escreveMusicas(s, a.musicasInternas());
+    }
+
+    private void escreveMusicas(EscritorBinario s, Map<String, Musica> ms) {
+        s.escreveVarInt(ms.size());
+        for (Map.Entry<String, Musica> m : ms.entrySet()) {
+            s.escreveVarInt(string(m.getKey()));
+            s.escreveVarInt(this.indiceMusicas.get(m.getValue()));
+        }
+    }
+
+    private void escreveUtilizador(EscritorBinario s, Utilizador u) {
+        s.escreveVarInt(string(u.getUsername()));
+        s.escreveVarInt(string(u.getPassword()));
+        s.escreveVarInt(string(u.getNome()));
+        s.escreveVarInt(string(u.getMorada()));
+        s.escreveVarInt(string(u.getEmail()));
+        s.escreveVarLongComSinal(u.getDataNascimento().toEpochDay());
+        s.escreveVarInt(u.getIdade());
+        s.escreveVarInt(u.getPontos());
+        s.escreveBoolean(u.isAdmin());
+        IPlanoSubscricao plano = u.getPlano();
+        s.escreveByte(plano instanceof PlanoPremiumTop ? PLANO_PREMIUM_TOP : (plano instanceof PlanoPremiumBase ? PLANO_PREMIUM_BASE : PLANO_BASE));
+        s.escreveBoolean(u.querVerExplicita());
+        s.escreveBoolean(u.querVerMultimedia());
+
+        HistoricoReproducoes historico = u.musicasOuvidasInternas();
+        long[][] datas = historico.getSegundosPorMusica();
+        s.escreveVarInt(historico.getNumMusicas());
+        for (int i = 0; i < datas.length; i++) {
+            s.escreveVarInt(this.indiceMusicas.get(historico.getMusica(i)));
+            s.escreveVarInt(datas[i].length);
+            long anterior = 0;
+            for (long segundos : datas[i]) {
+                s.escreveVarLongComSinal(segundos - anterior);
+                // O histórico é guardado ao segundo; o campo dos nanossegundos mantém-se por compatibilidade do formato
+                s.escreveVarInt(0);
+                anterior = segundos;
+            }
+        }
+    }
+
+    private void escrevePlaylist(EscritorBinario s, Playlist p) {
+        int tipo = PLAYLIST_CONSTRUIDA;
+        if (p instanceof PlaylistAleatoria) {
+            tipo = PLAYLIST_ALEATORIA;
+        } else if (p instanceof ListaFavoritos) {
+            tipo = PLAYLIST_FAVORITOS;
+        } else if (p instanceof ListaGeneroTempo) {
+            tipo = PLAYLIST_GENERO_TEMPO;
+        }
+        s.escreveByte(tipo);
+        s.escreveVarInt(string(p.getNome()));
+        s.escreveBoolean(p.isPublic());
+        s.escreveVarInt(p.getCriador() == null ? 0 : this.indiceUtilizadores.get(p.getCriador()) + 1);
+        if (tipo == PLAYLIST_FAVORITOS) {
+            s.escreveVarInt(((ListaFavoritos) p).getLimite());
+        }
+        escreveMusicas(s, p.getMusicas());
+    }
+
+    private void escreveBiblioteca(EscritorBinario s, Biblioteca b) {
+        Map<String, Album> as = b.getAlbuns();
+        s.escreveVarInt(as.size());
+        for (Map.Entry<String, Album> a : as.entrySet()) {
+            s.escreveVarInt(string(a.getKey()));
+            s.escreveVarInt(this.indiceAlbuns.get(a.getValue()));
+        }
+        Map<String, Playlist> ps = b.getPlaylists();
+        s.escreveVarInt(ps.size());
+        for (Map.Entry<String, Playlist> p : ps.entrySet()) {
+            s.escreveVarInt(string(p.getKey()));
+            s.escreveVarInt(this.indicePlaylists.get(p.getValue()));
+        }
+        escreveMusicas(s, b.getMusicas());
+    }
+
+    // ---------------------------------------------------------------- leitura
+
+    /**
+     * Lê todas as secções e reconstrói o modelo. Nas versões anteriores à 3, o catálogo é descodificado por completo.
+     * @param in leitor posicionado após o cabeçalho
+     * @param versao versão do formato
+     * @return modelo
+     * @throws IOException caso os dados não estejam no formato esperado
+     */
+    private SpotifUM le(LeitorBinario in, int versao) throws IOException {
+        this.versao = versao;
+        SpotifUM modelo = new SpotifUM();
+        this.reproducoes = modelo.contadorReproducoes();
+        LeitorBinario s;
+        if (versao >= 3) {
+            this.segmento = new SegmentoCatalogo(this, in.leSeccao(SECCAO_DICIONARIO), in.leSeccao(SECCAO_MUSICAS), in.leSeccao(SECCAO_ALBUNS), in.leSeccao(SECCAO_INDICE_CATALOGO));
+        } else {
+            s = in.leSeccao(SECCAO_DICIONARIO);
+            int numStrings = s.leVarInt();
+            for (int i = 0; i < numStrings; i++) {
+                this.strings.add(s.leString());
+            }
+
+            s = in.leSeccao(SECCAO_MUSICAS);
+            int numMusicas = s.leVarInt();
+            for (int i = 0; i < numMusicas; i++) {
+                this.musicas.add(leMusica(s));
+            }
+
+            s = in.leSeccao(SECCAO_ALBUNS);
+            int numAlbuns = s.leVarInt();
+            for (int i = 0; i < numAlbuns; i++) {
+                this.albuns.add(leAlbum(s, null));
+            }
+        }
+
+        this.registo = modelo.registoMusicas();
+        s = in.leSeccao(SECCAO_UTILIZADORES);
+        int numUtilizadores = s.leVarInt();
+        for (int i = 0; i < numUtilizadores; i++) {
+            this.utilizadores.add(leUtilizador(s));
+        }
+
+        s = in.leSeccao(SECCAO_PLAYLISTS);
+        int numPlaylists = s.leVarInt();
+        for (int i = 0; i < numPlaylists; i++) {
+            this.playlists.add(lePlaylist(s));
+        }
+
+        s = in.leSeccao(SECCAO_BIBLIOTECAS);
+        for (Utilizador u : this.utilizadores) {
+            leBiblioteca(s, u.getBiblioteca());
+        }
+
+        s = in.leSeccao(SECCAO_RAIZ);
+        if (this.segmento != null) {
+            modelo.setCatalogoInterno(new CatalogoAlbuns(this.segmento));
+        } else {
+            int numCatalogo = s.leVarInt();
+            for (int i = 0; i < numCatalogo; i++) {
+                String chave = str(s);
+                modelo.albunsInternos().put(chave, album(s.leVarInt()));
+            }
+        }
+        int numRegistados = s.leVarInt();
+        for (int i = 0; i < numRegistados; i++) {
+            String chave = str(s);
+            modelo.utilizadoresInternos().put(chave, obtem(this.utilizadores, s.leVarInt()));
+        }
+        if (versao >= 4) {
+            // Reserva também os identificadores das músicas do catálogo que ainda não foram descodificadas
+            Musica.reservaId(s.leVarInt() - 1);
+        }
+        // O segmento continua a usar este codec para descodificar o catálogo, pelo que não deve manter o resto do estado
+        this.utilizadores.clear();
+        this.playlists.clear();
+        this.registo = null;
+        return modelo;
+    }
+
+    private String str(LeitorBinario s) throws IOException {
+        int i = s.leVarInt();
+        return this.segmento != null ? this.segmento.string(i) : obtem(this.strings, i);
+    }
+
+    private Musica musica(int i) throws IOException {
+        return this.segmento != null ? this.segmento.musica(i, null) : obtem(this.musicas, i);
+    }
+
+    private Album album(int i) throws IOException {
+        return this.segmento != null ? this.segmento.album(i, null, null) : obtem(this.albuns, i);
+    }
+
+    private static <T> T obtem(List<T> lista, int i) throws IOException {
+        if (i < 0 || i >= lista.size()) {
+            throw new IOException("Referência inválida: " + i);
+        }
+        return lista.get(i);
+    }
+
+    /**
+     * Descodifica o registo de uma música.
+     * @param s leitor posicionado no registo
+     * @return música
+     * @throws IOException caso o registo não esteja no formato esperado
+     */
+    Musica leMusica(LeitorBinario s) throws IOException {
+        int tipo = s.leByte();
+        int id = this.versao >= 4 ? s.leVarInt() : -1;
+        String nome = str(s);
+        String interprete = str(s);
+        String genero = str(s);
+        String editora = str(s);
+        int duracao = s.leVarInt();
+        int numReproducoes = s.leVarInt();
+        if (id < 0) {
+            id = idMigrado(nome, interprete, genero);
+        }
+        Musica m;
+        if (this.versao >= 5) {
+            ReferenciaTexto letra = leReferencia(s);
+            ReferenciaTexto caracteres = leReferencia(s);
+            m = new Musica(id, nome, interprete, genero, editora, letra, caracteres, duracao);
+        } else {
+            List<String> letra = leLinhas(s);
+            List<String> caracteres = leLinhas(s);
+            m = new Musica(id, nome, interprete, genero, editora, letra, caracteres, duracao);
+        }
+        this.reproducoes.defineMinimo(id, numReproducoes);
+        switch (tipo) {
+            case MUSICA_NORMAL:
+                return m;
+            case MUSICA_EXPLICITA:
+                return new MusicaExplicita(m);
+            case MUSICA_MULTIMEDIA:
+                MusicaMultimedia mm = new MusicaMultimedia(m);
+                mm.setVideo(str(s));
+                return mm;
+            default:
+                throw new IOException("Tipo de música desconhecido: " + tipo);
+        }
+    }
+
+    /**
+     * Devolve o identificador de uma música de um estado anterior à versão 4, em que as músicas não tinham identificador.
+     * As músicas com o mesmo nome, intérprete e género (a igualdade usada nessas versões) recebem o mesmo identificador.
+     * @param nome nome
+     * @param interprete intérprete
+     * @param genero género
+     * @return identificador
+     */
+    private synchronized int idMigrado(String nome, String interprete, String genero) {
+        return this.idsMigrados.computeIfAbsent(nome + '\0' + interprete + '\0' + genero, k -> Musica.novoId());
+    }
+
+    private ReferenciaTexto leReferencia(LeitorBinario s) throws IOException {
+        if (!s.leBoolean()) {
+            return null;
+        }
+        long alto = ((long) s.leIntFixo() << 32) | (s.leIntFixo() & 0xFFFFFFFFL);
+        long baixo = ((long) s.leIntFixo() << 32) | (s.leIntFixo() & 0xFFFFFFFFL);
+        return new ReferenciaTexto(alto, baixo);
+    }
+
+    private List<String> leLinhas(LeitorBinario s) throws IOException {
+        int n = s.leVarInt();
+        List<String> linhas = new ArrayList<String>(n);
+        for (int i = 0; i < n; i++) {
+            linhas.add(str(s));
+        }
+        return linhas;
+    }
+
+    /**
+     * Descodifica o registo de um álbum.
+     * @param s leitor posicionado no registo
+     * @param musicasTemporarias músicas do segmento descodificadas sem ficar guardadas (null para guardar)
+     * @return álbum
+     * @throws IOException caso o registo não esteja no formato esperado
+     */
+    Album leAlbum(LeitorBinario s, Map<Integer, Musica> musicasTemporarias) throws IOException {
+        Album a = new Album(str(s), str(s), str(s), (int) s.leVarLongComSinal());
+        a.setDuracao(s.leVarInt());
+        int n = s.leVarInt();
+        for (int i = 0; i < n; i++) {
+            String chave = str(s);
+            int m = s.leVarInt();
+            a.musicasInternas().put(chave, this.segmento != null ? this.segmento.musica(m, musicasTemporarias) : obtem(this.musicas, m));
+        }
+        return a;
+    }
+
+    private Utilizador leUtilizador(LeitorBinario s) throws IOException {
+        String username = str(s);
+        String password = str(s);
+        String nome = str(s);
+        String morada = str(s);
+        String email = str(s);
+        LocalDate dataNascimento = LocalDate.ofEpochDay(s.leVarLongComSinal());
+        Utilizador u = new Utilizador(username, password, nome, morada, email, dataNascimento);
+        u.setIdade(s.leVarInt());
+        u.setPontos(s.leVarInt());
+        u.setIsAdmin(s.leBoolean());
+        int plano = s.leByte();
+        u.setPlano(plano == PLANO_PREMIUM_TOP ? new PlanoPremiumTop() : (plano == PLANO_PREMIUM_BASE ? new PlanoPremiumBase() : new PlanoBase()));
+        u.setQuerVerExplicita(s.leBoolean());
+        u.setQuerVerMultimedia(s.leBoolean());
+
+        HistoricoReproducoes historico = u.musicasOuvidasInternas();
+        int n = s.leVarInt();
+        for (int i = 0; i < n; i++) {
+            Musica m = musica(s.leVarInt());
+            int numDatas = s.leVarInt();
+            long segundos = 0;
+            for (int j = 0; j < numDatas; j++) {
+                segundos += s.leVarLongComSinal();
+                s.leVarInt();
+                historico.regista(m, segundos);
+            }
+        }
+        return u;
+    }
+
+    private Playlist lePlaylist(LeitorBinario s) throws IOException {
+        int tipo = s.leByte();
+        String nome = str(s);
+        boolean isPublic = s.leBoolean();
+        int criador = s.leVarInt();
+        Utilizador u = criador == 0 ? null : obtem(this.utilizadores, criador - 1);
+        Playlist p;
+        switch (tipo) {
+            case PLAYLIST_CONSTRUIDA:
+                p = new PlaylistConstruida(nome, u);
+                break;
+            case PLAYLIST_ALEATORIA:
+                p = new PlaylistAleatoria(nome, u);
+                break;
+            case PLAYLIST_FAVORITOS:
+                p = new ListaFavoritos(nome, u, this.versao >= 6 ? s.leVarInt() : 0);
+                break;
+            case PLAYLIST_GENERO_TEMPO:
+                p = new ListaGeneroTempo(nome, u);
+                break;
+            default:
+                throw new IOException("Tipo de playlist desconhecido: " + tipo);
+        }
+        p.setIsPublic(isPublic);
+        p.usaRegisto(this.registo);
+        int n = s.leVarInt();
+        for (int i = 0; i < n; i++) {
+            String chave = str(s);
+            p.musicas.put(chave, musica(s.leVarInt()));
+        }
+        return p;
+    }
+
+    private void leBiblioteca(LeitorBinario s, Biblioteca b) throws IOException {
+        b.usaRegisto(this.registo);
+        int n = s.leVarInt();
+        for (int i = 0; i < n; i++) {
+            String chave = str(s);
+            b.albunsInternos().put(chave, album(s.leVarInt()));
+        }
+        n = s.leVarInt();
+        for (int i = 0; i < n; i++) {
+            String chave = str(s);
+            b.playlistsInternas().put(chave, obtem(this.playlists, s.leVarInt()));
+        }
+        n = s.leVarInt();
+        for (int i = 0; i < n; i++) {
+            String chave = str(s);
+            b.musicasInternas().put(chave, musica(s.leVarInt()));
+        }
+    }
+}
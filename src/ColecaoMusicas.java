@@ -0,0 +1,223 @@
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Mapa de músicas, indexado pelo nome, usado pelas playlists e bibliotecas. Em vez de uma entrada por música, guarda apenas um vetor
+ * com os identificadores das músicas e uma tabela de dispersão aberta com as suas posições, e resolve as músicas através de um registo.
+ * Cada música ocupa assim cerca de 12 bytes, em vez dos cerca de 50 de uma entrada de um HashMap.
+ * A chave de cada música tem de ser o seu nome. As músicas são devolvidas tal como estão no registo, que prevalece sobre a instância
+ * adicionada caso já tenha uma música com o mesmo identificador. A ordem de iteração não é garantida.
+ */
+public class ColecaoMusicas extends AbstractMap<String, Musica> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private RegistoMusicas registo;
+    private int[] ids;
+    private int tamanho;
+    private int[] tabela;
+
+    /**
+     * Construtor por omissão. A coleção usa um registo próprio até ser associada ao de um modelo.
+     */
+    public ColecaoMusicas() {
+        this(new RegistoMusicas());
+    }
+
+    /**
+     * Construtor parametrizado. Aceita:
+     * @param registo registo onde as músicas são resolvidas
+     */
+    public ColecaoMusicas(RegistoMusicas registo) {
+        this.registo = registo;
+        this.ids = new int[4];
+        this.tamanho = 0;
+        this.tabela = new int[8];
+    }
+
+    /**
+     * Construtor de cópia. A cópia partilha o registo. Aceita:
+     * @param c coleção a copiar
+     */
+    public ColecaoMusicas(ColecaoMusicas c) {
+        this.registo = c.registo;
+        this.ids = Arrays.copyOf(c.ids, Math.max(c.tamanho, 4));
+        this.tamanho = c.tamanho;
+        this.tabela = c.tabela.clone();
+    }
+
+    /**
+     * Passa a resolver as músicas noutro registo, registando nele as que ainda lá não estejam.
+     * @param novo novo registo
+     */
+    public void usaRegisto(RegistoMusicas novo) {
+        if (novo == this.registo) {
+            return;
+        }
+        for (int p = 0; p < this.tamanho; p++) {
+            novo.registaSeAusente(musica(p));
+        }
+        this.registo = novo;
+    }
+
+    private static int espalha(String nome) {
+        int h = nome.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private Musica musica(int posicao) {
+        return this.registo.get(this.ids[posicao]);
+    }
+
+    /**
+     * Devolve a posição na tabela da música com um nome ou, caso não exista, a posição livre onde seria inserida.
+     */
+    private int ranhura(String nome) {
+        int mascara = this.tabela.length - 1;
+        int i = espalha(nome) & mascara;
+        while (this.tabela[i] != 0 && !musica(this.tabela[i] - 1).getNome().equals(nome)) {
+            i = (i + 1) & mascara;
+        }
+        return i;
+    }
+
+    /**
+     * Liberta uma posição da tabela, recuando as entradas seguintes que deixariam de ser encontradas.
+     */
+    private void libertaRanhura(int i) {
+        int mascara = this.tabela.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mascara;
+            if (this.tabela[j] == 0) {
+                break;
+            }
+            int k = espalha(musica(this.tabela[j] - 1).getNome()) & mascara;
+            boolean alcancavel = i <= j ? (i < k && k <= j) : (i < k || k <= j);
+            if (!alcancavel) {
+                this.tabela[i] = this.tabela[j];
+                i = j;
+            }
+        }
+        this.tabela[i] = 0;
+    }
+
+    private void reconstroiTabela(int capacidade) {
+        this.tabela = new int[capacidade];
+        for (int p = 0; p < this.tamanho; p++) {
+            this.tabela[ranhura(musica(p).getNome())] = p + 1;
+        }
+    }
+
+    public int size() {
+        return this.tamanho;
+    }
+
+    public Musica get(Object chave) {
+        if (!(chave instanceof String)) {
+            return null;
+        }
+        int i = ranhura((String) chave);
+        return this.tabela[i] == 0 ? null : musica(this.tabela[i] - 1);
+    }
+
+    public boolean containsKey(Object chave) {
+        return chave instanceof String && this.tabela[ranhura((String) chave)] != 0;
+    }
+
+    public Musica put(String chave, Musica musica) {
+        if (!chave.equals(musica.getNome())) {
+            throw new IllegalArgumentException("A chave de uma música tem de ser o seu nome: " + chave);
+        }
+        this.registo.registaSeAusente(musica);
+        int i = ranhura(chave);
+        if (this.tabela[i] != 0) {
+            int p = this.tabela[i] - 1;
+            Musica anterior = musica(p);
+            this.ids[p] = musica.getId();
+            return anterior;
+        }
+        if (this.tamanho == this.ids.length) {
+            this.ids = Arrays.copyOf(this.ids, this.tamanho * 2);
+        }
+        this.ids[this.tamanho] = musica.getId();
+        this.tabela[i] = ++this.tamanho;
+        if (this.tamanho * 2 > this.tabela.length) {
+            reconstroiTabela(this.tabela.length * 2);
+        }
+        return null;
+    }
+
+    public Musica remove(Object chave) {
+        if (!(chave instanceof String)) {
+            return null;
+        }
+        int i = ranhura((String) chave);
+        if (this.tabela[i] == 0) {
+            return null;
+        }
+        int p = this.tabela[i] - 1;
+        Musica anterior = musica(p);
+        removePosicao(i, p);
+        return anterior;
+    }
+
+    /**
+     * Remove a música numa posição, movendo a última música para o seu lugar.
+     */
+    private void removePosicao(int ranhura, int p) {
+        libertaRanhura(ranhura);
+        int ultima = this.tamanho - 1;
+        if (p != ultima) {
+            this.tabela[ranhura(musica(ultima).getNome())] = p + 1;
+            this.ids[p] = this.ids[ultima];
+        }
+        this.tamanho--;
+    }
+
+    public void clear() {
+        this.tamanho = 0;
+        Arrays.fill(this.tabela, 0);
+    }
+
+    public Set<Map.Entry<String, Musica>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Musica>>() {
+            public Iterator<Map.Entry<String, Musica>> iterator() {
+                return new Iterador();
+            }
+
+            public int size() {
+                return ColecaoMusicas.this.tamanho;
+            }
+        };
+    }
+
+    /**
+     * Percorre as músicas pela ordem do vetor. Como a remoção move a última música para a posição removida, essa posição é revisitada.
+     */
+    private class Iterador implements Iterator<Map.Entry<String, Musica>> {
+        private int posicao = 0;
+        private int ultima = -1;
+
+        public boolean hasNext() {
+            return this.posicao < ColecaoMusicas.this.tamanho;
+        }
+
+        public Map.Entry<String, Musica> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            this.ultima = this.posicao++;
+            Musica m = musica(this.ultima);
+            return new AbstractMap.SimpleImmutableEntry<String, Musica>(m.getNome(), m);
+        }
+
+        public void remove() {
+            if (this.ultima < 0) {
+                throw new IllegalStateException();
+            }
+            removePosicao(ranhura(musica(this.ultima).getNome()), this.ultima);
+            this.posicao = this.ultima;
+            this.ultima = -1;
+        }
+    }
+}
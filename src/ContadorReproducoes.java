@@ -0,0 +1,98 @@
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Contador central das reproduções de cada música de um modelo, indexado pelo identificador da música. Como as cópias de uma música
+ * (p.e. a sua versão explícita ou multimédia) mantêm o identificador, todas contam para o mesmo total, qualquer que seja a instância reproduzida.
+ * Os identificadores são densos, pelo que o contador usa páginas de tamanho fixo, só criadas quando são necessárias. Cada contagem é
+ * incrementada atomicamente, pelo que só há disputa entre sessões que reproduzem a mesma música.
+ */
+public class ContadorReproducoes implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int BITS_PAGINA = 10;
+    private static final int TAMANHO_PAGINA = 1 << BITS_PAGINA;
+    private volatile AtomicIntegerArray[] paginas;
+
+    /**
+     * Construtor por omissão.
+     */
+    public ContadorReproducoes() {
+        this.paginas = new AtomicIntegerArray[1];
+    }
+
+    /**
+     * Devolve o nº de reproduções de uma música.
+     * @param id identificador da música
+     * @return nº de reproduções
+     */
+    public int get(int id) {
+        AtomicIntegerArray[] ps = this.paginas;
+        int p = id >>> BITS_PAGINA;
+        if (p >= ps.length || ps[p] == null) {
+            return 0;
+        }
+        return ps[p].get(id & (TAMANHO_PAGINA - 1));
+    }
+
+    private AtomicIntegerArray pagina(int id) {
+        AtomicIntegerArray[] ps = this.paginas;
+        int p = id >>> BITS_PAGINA;
+        if (p < ps.length && ps[p] != null) {
+            return ps[p];
+        }
+        return criaPagina(p);
+    }
+
+    /**
+     * Cria uma página, publicando-a numa cópia do vetor de páginas, para que quem lê sem bloquear nunca veja uma página incompleta.
+     */
+    private synchronized AtomicIntegerArray criaPagina(int p) {
+        AtomicIntegerArray[] ps = this.paginas;
+        if (p < ps.length && ps[p] != null) {
+            return ps[p];
+        }
+        AtomicIntegerArray[] novas = Arrays.copyOf(ps, p < ps.length ? ps.length : Math.max(p + 1, ps.length * 2));
+        novas[p] = new AtomicIntegerArray(TAMANHO_PAGINA);
+        this.paginas = novas;
+        return novas[p];
+    }
+
+    /**
+     * Regista uma reprodução de uma música.
+     * @param id identificador da música
+     * @return nº de reproduções da música, incluindo esta
+     */
+    public int incrementa(int id) {
+        return pagina(id).incrementAndGet(id & (TAMANHO_PAGINA - 1));
+    }
+
+    /**
+     * Garante que uma música tem pelo menos um dado nº de reproduções (p.e. o lido de um estado gravado). Como as contagens só crescem,
+     * ler a mesma música mais do que uma vez, ou cópias antigas dela, nunca faz perder reproduções.
+     * @param id identificador da música
+     * @param numReproducoes nº mínimo de reproduções
+     */
+    public void defineMinimo(int id, int numReproducoes) {
+        if (numReproducoes > 0) {
+            pagina(id).accumulateAndGet(id & (TAMANHO_PAGINA - 1), numReproducoes, Math::max);
+        }
+    }
+
+    /**
+     * Garante que cada música tem pelo menos as reproduções contadas noutro contador (p.e. o do modelo que está a ser copiado).
+     * @param outro contador
+     */
+    public void defineMinimo(ContadorReproducoes outro) {
+        AtomicIntegerArray[] ps = outro.paginas;
+        for (int p = 0; p < ps.length; p++) {
+            if (ps[p] == null) {
+                continue;
+            }
+            for (int i = 0; i < TAMANHO_PAGINA; i++) {
+                defineMinimo((p << BITS_PAGINA) | i, ps[p].get(i));
+            }
+        }
+    }
+}
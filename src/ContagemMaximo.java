@@ -0,0 +1,104 @@
+import java.util.*;
+
+/**
+ * Contagens por chave que mantêm, a cada alteração, a chave com o maior valor.
+ * As chaves são agrupadas por valor numa árvore, pelo que cada alteração custa O(log n) e a consulta do máximo e do nº de chaves é O(1).
+ * Em caso de empate, o máximo é a chave que atingiu esse valor primeiro.
+ * @param <K> tipo das chaves
+ */
+public class ContagemMaximo<K> {
+    private final Map<K, Long> valores;
+    private final TreeMap<Long, Set<K>> porValor;
+    private K maximo;
+
+    /**
+     * Construtor por omissão.
+     */
+    public ContagemMaximo() {
+        this.valores = new HashMap<K, Long>();
+        this.porValor = new TreeMap<Long, Set<K>>();
+        this.maximo = null;
+    }
+
+    /**
+     * Devolve o valor de uma chave.
+     * @param chave chave
+     * @return valor (0 caso a chave não exista)
+     */
+    public long get(K chave) {
+        Long v = this.valores.get(chave);
+        return v == null ? 0 : v;
+    }
+
+    /**
+     * Soma um valor ao de uma chave. As chaves cujo valor passa a ser 0 são retiradas, para que size devolva o nº de chaves distintas com contagem.
+     * @param chave chave
+     * @param delta valor a somar (pode ser negativo)
+     */
+    public void soma(K chave, long delta) {
+        long novo = get(chave) + delta;
+        if (novo == 0) {
+            remove(chave);
+        } else {
+            define(chave, novo);
+        }
+    }
+
+    /**
+     * Define o valor de uma chave, mantendo-a mesmo que o valor seja 0.
+     * @param chave chave
+     * @param valor novo valor
+     */
+    public void define(K chave, long valor) {
+        Long anterior = this.valores.put(chave, valor);
+        if (anterior != null) {
+            if (anterior == valor) {
+                return;
+            }
+            retira(chave, anterior);
+        }
+        this.porValor.computeIfAbsent(valor, v -> new LinkedHashSet<K>()).add(chave);
+        atualizaMaximo();
+    }
+
+    /**
+     * Remove uma chave.
+     * @param chave chave
+     */
+    public void remove(K chave) {
+        Long anterior = this.valores.remove(chave);
+        if (anterior != null) {
+            retira(chave, anterior);
+            atualizaMaximo();
+        }
+    }
+
+    private void retira(K chave, long valor) {
+        Set<K> chaves = this.porValor.get(valor);
+        chaves.remove(chave);
+        if (chaves.isEmpty()) {
+            this.porValor.remove(valor);
+        }
+    }
+
+    private void atualizaMaximo() {
+        Map.Entry<Long, Set<K>> e = this.porValor.lastEntry();
+        this.maximo = e == null ? null : e.getValue().iterator().next();
+    }
+
+    /**
+     * Devolve a chave com o maior valor.
+     * @return chave, ou null caso não existam chaves
+     */
+    public K getMaximo() {
+        return this.maximo;
+    }
+
+    /**
+     * Devolve o nº de chaves.
+     * @return nº de chaves
+     */
+    public int size() {
+        return this.valores.size();
+    }
+}
@@ -11,10 +11,13 @@ import java.util.*;
  */
 public class Controller {
     private static final Scanner scanner = new Scanner(System.in);
+    private static final int NUM_TENDENCIAS = 10;
+    private static final int NUM_CLASSIFICACAO = 10;
     private SpotifUM modelo;
     private boolean loggedIn = false;
     private Utilizador currentUser;
     private boolean isAdmin = false;
+    private final GestorEstado gestorEstado = new GestorEstado();
 
     /**
      * Construtor parametrizado de modelo. Aceita o modelo
@@ -38,6 +41,7 @@ public class Controller {
         menuInicial.setHandler(2, () -> carregaEstado());
         menuInicial.setHandler(3, () -> {
             guardaEstado();
+            this.gestorEstado.fecha();
             System.exit(0);
         });
 
@@ -164,8 +168,7 @@ public class Controller {
 
             if (!saltou) {
                 i++;
-                atual.registaReproducao();
-                currentUser.registaReproducaoMusica(atual);
+                this.modelo.publicaReproducao(currentUser, atual);
             }
 
             if (i >= musicas.size()) {
@@ -271,11 +274,13 @@ public class Controller {
             "Pesquisar por álbum",
             "Pesquisar por playlist",
             "Pesquisar por intérprete",
+            "Em tendência",
         });
         menuPesquisar.setHandler(1, () -> menuPesquisarCategoria("musica"));
         menuPesquisar.setHandler(2, () -> menuPesquisarCategoria("album"));
         menuPesquisar.setHandler(3, () -> menuPesquisarCategoria("playlist"));
         menuPesquisar.setHandler(4, () -> menuPesquisarCategoria("interprete"));
+        menuPesquisar.setHandler(5, () -> imprimeListaMusicas(this.modelo.getMusicasTendencia(NUM_TENDENCIAS)));
 
         menuPesquisar.run();
     }
@@ -321,12 +326,12 @@ public class Controller {
         menuDefinicoes.setHandler(1, () -> menuAtualizarPlano());
         menuDefinicoes.setHandler(2, () -> this.modelo.apagaHistorico(currentUser));
         menuDefinicoes.setHandler(3, () -> menuInformacoes());
-        menuDefinicoes.setHandler(4, () -> this.currentUser.setQuerVerExplicita(true));
-        menuDefinicoes.setHandler(5, () -> this.currentUser.setQuerVerMultimedia(true));
-        menuDefinicoes.setHandler(6, () -> this.currentUser.setQuerVerMultimedia(false));
-        menuDefinicoes.setHandler(7, () -> this.currentUser.setQuerVerMultimedia(false));
+        menuDefinicoes.setHandler(4, () -> this.modelo.atualizaPreferencias(currentUser, true, currentUser.querVerMultimedia()));
+        menuDefinicoes.setHandler(5, () -> this.modelo.atualizaPreferencias(currentUser, currentUser.querVerExplicita(), true));
+        menuDefinicoes.setHandler(6, () -> this.modelo.atualizaPreferencias(currentUser, currentUser.querVerExplicita(), false));
+        menuDefinicoes.setHandler(7, () -> this.modelo.atualizaPreferencias(currentUser, currentUser.querVerExplicita(), false));
         menuDefinicoes.setHandler(8, () -> {
-            this.currentUser.setIsAdmin(true);
+            this.modelo.tornaAdministrador(currentUser);
             this.isAdmin = true;
         });
         menuDefinicoes.setHandler(9, () -> menuApagarConta());
@@ -379,6 +384,7 @@ public class Controller {
         System.out.println("Morada: " + currentUser.getMorada());
         System.out.println("Data de Nascimento: " + currentUser.getDataNascimento().toString());
         System.out.println("Pontos: " + currentUser.getPontos());
+        System.out.println("Posição na classificação: " + this.modelo.getPosicaoPontos(currentUser) + "º de " + this.modelo.getTotalClassificados());
         System.out.println("Nº. de músicas ouvidas: " + currentUser.getNumMusicasOuvidas());
 
         menuDefinicoesUtilizador();
@@ -415,15 +421,18 @@ public class Controller {
             "Ver playlists",
             "Gerar lista de favoritos",
             "Gerar lista de músicas de género específico",
+            "Gerar lista de um género com duração total",
         });
         explorarBiblioteca.setPreCondition(4, () -> currentUser.getPlano().podeGerarListaFavoritos());
         explorarBiblioteca.setPreCondition(5, () -> currentUser.getPlano().podeCriarListaGenero());
+        explorarBiblioteca.setPreCondition(6, () -> currentUser.getPlano().podeCriarListaGenero());
 
         explorarBiblioteca.setHandler(1, () -> explorarMusicas());
         explorarBiblioteca.setHandler(2, () -> explorarAlbuns());
         explorarBiblioteca.setHandler(3, () -> explorarPlaylists());
         explorarBiblioteca.setHandler(4, () -> gerarListaFavoritos());
         explorarBiblioteca.setHandler(5, () -> gerarListaGeneroTempo());
+        explorarBiblioteca.setHandler(6, () -> gerarListaGeneroDuracao());
 
         explorarBiblioteca.run();
     }
@@ -483,8 +492,39 @@ public class Controller {
             return;
         }
         scanner.nextLine();
+        System.out.print("Escolher as músicas mais ouvidas em vez das mais curtas? (S/N) ");
+        boolean porPopularidade = scanner.nextLine().trim().equalsIgnoreCase("S");
         try {
-            this.modelo.geraListaGeneroTempo(nome, genero, minutos * 60, currentUser, num);
+            this.modelo.geraListaGeneroTempo(nome, genero, minutos * 60, currentUser, num, porPopularidade);
+        } catch (NomeJaExisteException | PoucasMusicasException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        System.out.println("Lista gerada com sucesso! Pode agora aceder à mesma na lista das playlists guardadas!");
+    }
+
+    /**
+     * UI para criação de uma lista de um género com uma duração total.
+     */
+    private void gerarListaGeneroDuracao() {
+        System.out.print("+.:+ <GERAR LISTA DE UM GÉNERO COM DURAÇÃO TOTAL> +.:+");
+        System.out.println("A lista inclui músicas de um dado género cuja duração total se aproxima o mais possível do tempo indicado, sem o ultrapassar, dando preferência às músicas mais ouvidas. Pode aceder a esta lista a qualquer momento na lista de playlists guardadas.");
+        System.out.print("Introduza o nome a dar à lista: ");
+        String nome = scanner.nextLine();
+        System.out.print("Introduza o género das músicas a incluir: ");
+        String genero = scanner.nextLine();
+        System.out.print("Introduza a duração total da lista, em minutos: ");
+        int minutos = 0;
+        try {
+            minutos = scanner.nextInt();
+        } catch (InputMismatchException e) {
+            System.out.println("Input inválido!");
+            scanner.nextLine();
+            return;
+        }
+        scanner.nextLine();
+        try {
+            this.modelo.geraListaGeneroDuracao(nome, genero, minutos * 60, currentUser);
         } catch (NomeJaExisteException | PoucasMusicasException e) {
             System.out.println(e.getMessage());
             return;
@@ -668,7 +708,8 @@ public class Controller {
                 System.out.println("Para ouvir músicas, crie uma playlist aleatória!");
                 return;
             }
-            System.out.println(musica.reproduzMusica(currentUser));
+            System.out.println(musica.reproduzMusica());
+            this.modelo.publicaReproducao(currentUser, musica);
         });
         menuMusica.setHandler(2, () -> System.out.println(musica.imprimeLetra()));
         menuMusica.setHandler(3, () -> {
@@ -712,7 +753,7 @@ public class Controller {
                 if (p.getMusicas().containsKey(musica.getNome())) {
                     System.out.println("Música já guardada!");
                 }
-                p.adicionarMusica(musica);
+                this.modelo.adicionaMusicaPlaylist(p, musica);
                 System.out.println("Música adicionada com sucesso!");
                 explorarBiblioteca();
             });
@@ -842,8 +883,7 @@ public class Controller {
 
             if (!saltou) {
                 i++;
-                atual.registaReproducao();
-                currentUser.registaReproducaoMusica(atual);
+                this.modelo.publicaReproducao(currentUser, atual);
             }
 
             if (i >= musicas.size()) {
@@ -893,8 +933,8 @@ public class Controller {
             }
             System.out.println("Playlist guardada com sucesso!");
         });
-        menuPlaylist.setHandler(4, () -> playlist.setIsPublic(true));
-        menuPlaylist.setHandler(5, () -> playlist.setIsPublic(false));
+        menuPlaylist.setHandler(4, () -> this.modelo.alteraVisibilidadePlaylist(playlist, true));
+        menuPlaylist.setHandler(5, () -> this.modelo.alteraVisibilidadePlaylist(playlist, false));
         menuPlaylist.setHandler(6, () -> {
             try {
                 this.modelo.removePlaylist(playlist);
@@ -939,8 +979,14 @@ public class Controller {
         System.out.println("Utilizador que mais músicas ouviu desde sempre: " + this.modelo.getUserMaisMusicasOuvidas(LocalDate.of(2000,1,1)));
         System.out.println("Utilizador que mais músicas ouviu no último mês: " + this.modelo.getUserMaisMusicasOuvidas(LocalDate.now().minusMonths(1)));
         System.out.println("Utilizador com mais pontos: " + this.modelo.getUserMaisPontos());
+        System.out.println("Classificação por pontos: " + String.join(", ", this.modelo.getMelhoresPontos(NUM_CLASSIFICACAO).stream().map(u -> u.getUsername() + " (" + u.getPontos() + ")").toList()));
+        System.out.println("A sua posição: " + this.modelo.getPosicaoPontos(currentUser) + "º de " + this.modelo.getTotalClassificados()
+                + " | " + String.join(", ", this.modelo.getVizinhosPontos(currentUser, 2).stream().map(u -> u.getUsername() + " (" + u.getPontos() + ")").toList()));
         System.out.println("Género de música mais reproduzida: " + this.modelo.getTipoMaisReproduzido());
         System.out.println("Utilizador com mais playlists: " + this.modelo.getUserMaisPlaylists());
+        System.out.println("Músicas em tendência: " + String.join(", ", this.modelo.getMusicasTendencia(NUM_TENDENCIAS).stream().map(Musica::getNome).toList()));
+        System.out.println("Intérpretes em tendência: " + String.join(", ", this.modelo.getInterpretesTendencia(NUM_TENDENCIAS)));
+        System.out.println("Géneros em tendência: " + String.join(", ", this.modelo.getGenerosTendencia(NUM_TENDENCIAS)));
     }
 
     /**
@@ -951,10 +997,12 @@ public class Controller {
             "Criar álbum",
             "Criar playlist",
             "Guardar estado",
+            "Guardar estado em segundo plano",
         });
         menuAdministracao.setHandler(1, () -> menuCriarAlbum());
         menuAdministracao.setHandler(2, () -> menuCriarPlaylist());
         menuAdministracao.setHandler(3, () -> guardaEstado());
+        menuAdministracao.setHandler(4, () -> guardaEstadoEmSegundoPlano());
 
         menuAdministracao.run();
     }
@@ -1074,18 +1122,33 @@ public class Controller {
         System.out.print("Introduza o nome do ficheiro: ");
         String nomeFicheiro = scanner.nextLine();
         try {
-            FileOutputStream fos = new FileOutputStream(nomeFicheiro);
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
-            oos.writeObject(this.modelo);
-            oos.flush();
-            oos.close();
-        } catch (FileNotFoundException e) {
-            System.out.println("Ficheiro não encontrado! "+ e.getMessage());
+            System.out.println(this.gestorEstado.guarda(this.modelo, nomeFicheiro));
         } catch (IOException e) {
             System.out.println("Erro ao guardar o ficheiro: " + e.getMessage());
         }
     }
 
+    /**
+     * Metodo que guarda o estado da aplicação num ficheiro binário sem interromper a utilização. O resultado é mostrado quando a gravação termina.
+     */
+    public void guardaEstadoEmSegundoPlano() {
+        System.out.print("Introduza o nome do ficheiro: ");
+        String nomeFicheiro = scanner.nextLine();
+        try {
+            this.gestorEstado.guardaEmSegundoPlano(this.modelo, nomeFicheiro).whenComplete((resultado, erro) -> {
+                if (erro != null) {
+                    Throwable causa = erro.getCause() != null ? erro.getCause() : erro;
+                    System.out.println("\nErro ao guardar o ficheiro: " + causa.getMessage());
+                } else {
+                    System.out.println("\n" + resultado);
+                }
+            });
+            System.out.println("A guardar o estado em segundo plano...");
+        } catch (IllegalStateException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
     /**
      * Metodo que carrega um estado de um ficheiro binário.
      */
@@ -1093,14 +1156,14 @@ public class Controller {
         System.out.println("Introduza o nome do ficheiro:");
         String nomeFicheiro = scanner.nextLine();
         try {
-            FileInputStream fis = new FileInputStream(nomeFicheiro);
-            ObjectInputStream ois = new ObjectInputStream(fis);
-            SpotifUM modelo = (SpotifUM) ois.readObject();
-            this.modelo = modelo;
-            ois.close();
-            menuPrincipal();
-        } catch (IOException | ClassNotFoundException e) {
+            this.modelo = this.gestorEstado.carrega(nomeFicheiro);
+        } catch (IOException e) {
             System.out.println("Erro ao carregar o ficheiro: " + e.getMessage());
+            return;
         }
+        if (this.gestorEstado.getOperacoesIgnoradas() > 0) {
+            System.out.println("Aviso: " + this.gestorEstado.getOperacoesIgnoradas() + " operações do diário não puderam ser reaplicadas.");
+        }
+        menuPrincipal();
     }
 }
\ No newline at end of file
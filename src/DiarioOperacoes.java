@@ -0,0 +1,582 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Diário de operações (write-ahead log). Cada operação que altera o modelo é acrescentada ao diário como um registo compacto,
+ * permitindo recuperar, a partir do último estado guardado, todas as alterações feitas desde então.
+ * Os registos são agrupados em memória e escritos em lote (group commit), com fsync a cada N registos ou a cada T milissegundos.
+ * Caso uma escrita ou um fsync falhe, não se sabe que registos ficaram persistidos, pelo que o diário deixa de aceitar registos:
+ * a falha é devolvida a quem registar ou sincronizar a seguir, mesmo que tenha ocorrido na thread de sincronização.
+ */
+public class DiarioOperacoes {
+    public static final int MAGIC = 0x53505544; // "SPUD"
+    public static final int VERSAO = 1;
+    private static final int TAMANHO_CABECALHO = 5;
+
+    public static final int CRIA_UTILIZADOR = 1;
+    public static final int REMOVE_MUSICA = 2;
+    public static final int ADICIONA_MUSICA_FAVORITA = 3;
+    public static final int ADICIONA_ALBUM_FAVORITO = 4;
+    public static final int CRIA_PLAYLIST = 5;
+    public static final int GERA_LISTA_FAVORITOS = 6;
+    public static final int GERA_LISTA_GENERO_TEMPO = 7;
+    public static final int ADICIONA_MUSICA = 8;
+    public static final int ADICIONA_ALBUM = 9;
+    public static final int REMOVE_ALBUM = 10;
+    public static final int ADICIONA_PLAYLIST_BIBLIOTECA = 11;
+    public static final int REMOVE_PLAYLIST = 12;
+    public static final int APAGA_HISTORICO = 13;
+    public static final int ATUALIZA_PLANO = 14;
+    public static final int APAGA_CONTA = 15;
+    public static final int TORNA_EXPLICITA = 16;
+    public static final int TORNA_MULTIMEDIA = 17;
+    public static final int REGISTA_REPRODUCAO = 18;
+    public static final int ADICIONA_MUSICA_PLAYLIST = 19;
+    public static final int ALTERA_VISIBILIDADE_PLAYLIST = 20;
+    public static final int ATUALIZA_PREFERENCIAS = 21;
+    public static final int TORNA_ADMINISTRADOR = 22;
+    public static final int GERA_LISTA_GENERO_DURACAO = 23;
+
+    private static final int TIPO_STRING = 0;
+    private static final int TIPO_INT = 1;
+    private static final int TIPO_LONG = 2;
+    private static final int TIPO_BOOLEAN = 3;
+    private static final int TIPO_LINHAS = 4;
+
+    private Path ficheiro;
+    private FileChannel canal;
+    private final int registosPorSincronizacao;
+    private final EscritorBinario pendente;
+    private final EscritorBinario registo;
+    private final CRC32 crc;
+    private final Thread sincronizador;
+    private int numPendentes;
+    private long proximaSequencia;
+    private boolean fechado;
+    private IOException falha;
+
+    /**
+     * Abre (ou cria) um diário. Caso o ficheiro termine com um registo incompleto (p.e. após uma falha a meio de uma escrita), este é descartado.
+     * @param nomeFicheiro nome do ficheiro do diário
+     * @param ultimaSequencia última sequência já aplicada ao modelo; os novos registos continuam a partir desta
+     * @param registosPorSincronizacao nº de registos acumulados que provocam uma escrita com fsync
+     * @param intervaloSincronizacaoMs intervalo máximo (ms) que um registo pode ficar por sincronizar
+     * @throws IOException caso o ficheiro não possa ser aberto
+     */
+    public DiarioOperacoes(String nomeFicheiro, long ultimaSequencia, int registosPorSincronizacao, long intervaloSincronizacaoMs) throws IOException {
+        this.ficheiro = Paths.get(nomeFicheiro);
+        this.canal = FileChannel.open(this.ficheiro, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.registosPorSincronizacao = Math.max(1, registosPorSincronizacao);
+        this.pendente = new EscritorBinario(1 << 12);
+        this.registo = new EscritorBinario(256);
+        this.crc = new CRC32();
+        this.numPendentes = 0;
+        this.fechado = false;
+
+        if (this.canal.size() < TAMANHO_CABECALHO) {
+            escreveCabecalho();
+            this.proximaSequencia = ultimaSequencia + 1;
+        } else {
+            Leitura leitura = le(this.ficheiro, ultimaSequencia);
+            this.canal.truncate(leitura.fimValido);
+            this.proximaSequencia = Math.max(ultimaSequencia, leitura.ultimaSequencia) + 1;
+        }
+        this.canal.position(this.canal.size());
+
+        if (intervaloSincronizacaoMs > 0) {
+            this.sincronizador = new Thread(() -> cicloSincronizacao(intervaloSincronizacaoMs), "diario-sincronizador");
+            this.sincronizador.setDaemon(true);
+            this.sincronizador.start();
+        } else {
+            this.sincronizador = null;
+        }
+    }
+
+    /**
+     * Escreve o cabeçalho do diário, descartando todo o conteúdo anterior.
+     * @throws IOException caso ocorra um erro de escrita
+     */
+    private void escreveCabecalho() throws IOException {
+        this.canal.truncate(0);
+        EscritorBinario cabecalho = new EscritorBinario(TAMANHO_CABECALHO);
+        cabecalho.escreveIntFixo(MAGIC);
+        cabecalho.escreveByte(VERSAO);
+        this.canal.write(ByteBuffer.wrap(cabecalho.getDadosInternos(), 0, cabecalho.getTamanho()), 0);
+        this.canal.force(true);
+    }
+
+    /**
+     * Acrescenta uma operação ao diário. O registo fica em memória até à próxima sincronização.
+     * @param operacao código da operação
+     * @param argumentos argumentos (String, Integer, Long, Boolean ou List de Strings)
+     * @return sequência atribuída ao registo
+     */
+    public synchronized long regista(int operacao, Object... argumentos) {
+        if (this.fechado) {
+            throw new IllegalStateException("O diário já foi fechado!");
+        }
+        verificaFalha();
+        long sequencia = this.proximaSequencia++;
+        this.registo.limpa();
+        this.registo.escreveVarLong(sequencia);
+        this.registo.escreveByte(operacao);
+        this.registo.escreveVarInt(argumentos.length);
+        for (Object a : argumentos) {
+            escreveArgumento(this.registo, a);
+        }
+        this.crc.reset();
+        this.crc.update(this.registo.getDadosInternos(), 0, this.registo.getTamanho());
+
+        this.pendente.escreveVarInt(this.registo.getTamanho());
+        this.pendente.escreveBytes(this.registo.getDadosInternos(), 0, this.registo.getTamanho());
+        this.pendente.escreveIntFixo((int) this.crc.getValue());
+        this.numPendentes++;
+        if (this.numPendentes >= this.registosPorSincronizacao) {
+            sincroniza();
+        }
+        return sequencia;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void escreveArgumento(EscritorBinario s, Object a) {
+        if (a instanceof String) {
+            s.escreveByte(TIPO_STRING);
+            s.escreveString((String) a);
+        } else if (a instanceof Integer) {
+            s.escreveByte(TIPO_INT);
+            s.escreveVarLongComSinal((Integer) a);
+        } else if (a instanceof Long) {
+            s.escreveByte(TIPO_LONG);
+            s.escreveVarLongComSinal((Long) a);
+        } else if (a instanceof Boolean) {
+            s.escreveByte(TIPO_BOOLEAN);
+            s.escreveBoolean((Boolean) a);
+        } else if (a instanceof List) {
+            List<String> linhas = (List<String>) a;
+            s.escreveByte(TIPO_LINHAS);
+            s.escreveVarInt(linhas.size());
+            for (String l : linhas) {
+                s.escreveString(l);
+            }
+        } else {
+            throw new IllegalArgumentException("Tipo de argumento não suportado no diário: " + a);
+        }
+    }
+
+    /**
+     * Escreve em disco todos os registos pendentes e força a sua persistência (fsync).
+     * @throws UncheckedIOException caso a escrita falhe, ou caso uma escrita anterior tenha falhado
+     */
+    public synchronized void sincroniza() {
+        verificaFalha();
+        if (this.numPendentes == 0) {
+            return;
+        }
+        try {
+            ByteBuffer bb = ByteBuffer.wrap(this.pendente.getDadosInternos(), 0, this.pendente.getTamanho());
+            while (bb.hasRemaining()) {
+                this.canal.write(bb);
+            }
+            this.canal.force(false);
+        } catch (IOException e) {
+            this.falha = e;
+            throw new UncheckedIOException("Erro ao escrever o diário: " + e.getMessage(), e);
+        }
+        this.pendente.limpa();
+        this.numPendentes = 0;
+    }
+
+    /**
+     * Verifica que nenhuma escrita anterior falhou.
+     * @throws UncheckedIOException caso uma escrita anterior tenha falhado
+     */
+    private void verificaFalha() {
+        if (this.falha != null) {
+            throw new UncheckedIOException("O diário deixou de poder ser escrito após uma falha: " + this.falha, this.falha);
+        }
+    }
+
+    /**
+     * Descarta todos os registos, após estes terem sido incorporados num estado guardado.
+     */
+    public synchronized void reinicia() {
+        sincroniza();
+        try {
+            escreveCabecalho();
+            this.canal.position(TAMANHO_CABECALHO);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao reiniciar o diário: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Descarta os registos já incorporados num estado guardado (sequência até à indicada, inclusive), mantendo os restantes.
+     * O diário resultante pode ser escrito noutro ficheiro, passando a ser esse o ficheiro em uso.
+     * Os registos são bloqueados apenas durante a cópia dos registos posteriores, que são poucos.
+     * @param ate última sequência incorporada no estado guardado
+     * @param nomeNovoFicheiro ficheiro onde escrever o diário compactado (pode ser o atual)
+     * @throws IOException caso ocorra um erro de escrita
+     */
+    public synchronized void compacta(long ate, String nomeNovoFicheiro) throws IOException {
+        sincroniza();
+        Leitura leitura = le(this.ficheiro, ate);
+        byte[] dados = Files.readAllBytes(this.ficheiro);
+        EscritorBinario novo = new EscritorBinario(TAMANHO_CABECALHO + (int) (leitura.fimValido - leitura.inicioRetidos));
+        novo.escreveIntFixo(MAGIC);
+        novo.escreveByte(VERSAO);
+        novo.escreveBytes(dados, (int) leitura.inicioRetidos, (int) (leitura.fimValido - leitura.inicioRetidos));
+
+        Path destino = Paths.get(nomeNovoFicheiro);
+        Path temporario = Paths.get(nomeNovoFicheiro + ".tmp");
+        try (FileChannel c = FileChannel.open(temporario, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bb = ByteBuffer.wrap(novo.getDadosInternos(), 0, novo.getTamanho());
+            while (bb.hasRemaining()) {
+                c.write(bb);
+            }
+            c.force(true);
+        }
+        this.canal.close();
+        Files.move(temporario, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.ficheiro = destino;
+        this.canal = FileChannel.open(destino, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.canal.position(this.canal.size());
+    }
+
+    /**
+     * Devolve a sequência do último registo acrescentado.
+     * @return sequência
+     */
+    public synchronized long getUltimaSequencia() {
+        return this.proximaSequencia - 1;
+    }
+
+    /**
+     * Devolve o nome do ficheiro do diário.
+     * @return nome do ficheiro
+     */
+    public synchronized String getFicheiro() {
+        return this.ficheiro.toString();
+    }
+
+    /**
+     * Sincroniza os registos pendentes e fecha o diário.
+     */
+    public void fecha() {
+        synchronized (this) {
+            if (this.fechado) {
+                return;
+            }
+            this.fechado = true;
+            try {
+                sincroniza();
+            } finally {
+                try {
+                    this.canal.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Erro ao fechar o diário: " + e.getMessage(), e);
+                }
+            }
+        }
+        if (this.sincronizador != null) {
+            this.sincronizador.interrupt();
+        }
+    }
+
+    /**
+     * Ciclo da thread de sincronização, que garante que nenhum registo fica mais do que o intervalo configurado por escrever.
+     * Termina na primeira falha, que fica guardada para ser devolvida a quem registar a operação seguinte.
+     * @param intervaloMs intervalo entre sincronizações
+     */
+    private void cicloSincronizacao(long intervaloMs) {
+        while (true) {
+            try {
+                Thread.sleep(intervaloMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (this) {
+                if (this.fechado) {
+                    return;
+                }
+                try {
+                    sincroniza();
+                } catch (UncheckedIOException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- reprodução
+
+    /**
+     * Resultado da leitura de um diário.
+     */
+    private static class Leitura {
+        private final List<Long> sequencias = new ArrayList<Long>();
+        private final List<Integer> operacoes = new ArrayList<Integer>();
+        private final List<Object[]> argumentos = new ArrayList<Object[]>();
+        private long ultimaSequencia = 0;
+        private long fimValido = TAMANHO_CABECALHO;
+        private long inicioRetidos = -1;
+    }
+
+    /**
+     * Lê os registos válidos de um diário com sequência superior à indicada. A leitura termina no primeiro registo incompleto ou corrompido.
+     * @param ficheiro ficheiro
+     * @param desde sequência a partir da qual (exclusive) os registos são devolvidos
+     * @return registos lidos
+     * @throws IOException caso o ficheiro não seja um diário
+     */
+    private static Leitura le(Path ficheiro, long desde) throws IOException {
+        Leitura leitura = new Leitura();
+        byte[] dados = Files.readAllBytes(ficheiro);
+        ByteBuffer bb = ByteBuffer.wrap(dados);
+        LeitorBinario in = new LeitorBinario(bb);
+        if (in.leIntFixo() != MAGIC || in.leByte() != VERSAO) {
+            throw new IOException("O ficheiro " + ficheiro + " não é um diário da SpotifUM!");
+        }
+        CRC32 crc = new CRC32();
+        while (in.temDados()) {
+            try {
+                int inicio = in.getPosicao();
+                int comprimento = in.leVarInt();
+                int inicioRegisto = in.getPosicao();
+                if (comprimento <= 0 || inicioRegisto + comprimento + 4 > dados.length) {
+                    break;
+                }
+                crc.reset();
+                crc.update(dados, inicioRegisto, comprimento);
+                bb.position(inicioRegisto + comprimento);
+                if ((int) crc.getValue() != in.leIntFixo()) {
+                    break;
+                }
+                LeitorBinario r = new LeitorBinario(ByteBuffer.wrap(dados, inicioRegisto, comprimento).slice());
+                long sequencia = r.leVarLong();
+                int operacao = r.leByte();
+                Object[] args = new Object[r.leVarInt()];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = leArgumento(r);
+                }
+                if (sequencia > desde) {
+                    if (leitura.inicioRetidos < 0) {
+                        leitura.inicioRetidos = inicio;
+                    }
+                    leitura.sequencias.add(sequencia);
+                    leitura.operacoes.add(operacao);
+                    leitura.argumentos.add(args);
+                }
+                leitura.ultimaSequencia = Math.max(leitura.ultimaSequencia, sequencia);
+                leitura.fimValido = bb.position();
+            } catch (IOException e) {
+                break;
+            }
+        }
+        if (leitura.inicioRetidos < 0) {
+            leitura.inicioRetidos = leitura.fimValido;
+        }
+        return leitura;
+    }
+
+    private static Object leArgumento(LeitorBinario r) throws IOException {
+        int tipo = r.leByte();
+        switch (tipo) {
+            case TIPO_STRING:
+                return r.leString();
+            case TIPO_INT:
+                return (int) r.leVarLongComSinal();
+            case TIPO_LONG:
+                return r.leVarLongComSinal();
+            case TIPO_BOOLEAN:
+                return r.leBoolean();
+            case TIPO_LINHAS:
+                int n = r.leVarInt();
+                List<String> linhas = new ArrayList<String>(n);
+                for (int i = 0; i < n; i++) {
+                    linhas.add(r.leString());
+                }
+                return linhas;
+            default:
+                throw new IOException("Tipo de argumento desconhecido: " + tipo);
+        }
+    }
+
+    /**
+     * Reaplica ao modelo os registos do diário posteriores à sequência já incorporada no modelo.
+     * Operações que falhem (p.e. porque o estado divergiu) são ignoradas e contabilizadas.
+     * @param nomeFicheiro ficheiro do diário
+     * @param modelo modelo ao qual aplicar as operações (não deve ter diário associado)
+     * @return nº de operações ignoradas
+     * @throws IOException caso o ficheiro não seja um diário
+     */
+    public static int reproduz(String nomeFicheiro, SpotifUM modelo) throws IOException {
+        return reproduz(nomeFicheiro, modelo, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reaplica ao modelo os registos do diário posteriores à sequência já incorporada no modelo e até uma dada sequência (inclusive).
+     * @param nomeFicheiro ficheiro do diário
+     * @param modelo modelo ao qual aplicar as operações (não deve ter diário associado)
+     * @param ate última sequência a aplicar
+     * @return nº de operações ignoradas
+     * @throws IOException caso o ficheiro não seja um diário
+     */
+    public static int reproduz(String nomeFicheiro, SpotifUM modelo, long ate) throws IOException {
+        Path p = Paths.get(nomeFicheiro);
+        if (!Files.exists(p)) {
+            return 0;
+        }
+        Leitura leitura = le(p, modelo.getSequenciaDiario());
+        int ignoradas = 0;
+        for (int i = 0; i < leitura.operacoes.size() && leitura.sequencias.get(i) <= ate; i++) {
+            try {
+                aplica(modelo, leitura.operacoes.get(i), leitura.argumentos.get(i));
+            } catch (RuntimeException e) {
+                ignoradas++;
+            }
+            modelo.setSequenciaDiario(leitura.sequencias.get(i));
+        }
+        return ignoradas;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void aplica(SpotifUM modelo, int operacao, Object[] a) {
+        switch (operacao) {
+            case CRIA_UTILIZADOR:
+                modelo.criaUtilizador((String) a[0], (String) a[1], (String) a[2], (String) a[3], LocalDate.ofEpochDay((Long) a[4]), (String) a[5]);
+                break;
+            case REMOVE_MUSICA:
+                modelo.removeMusica(musica(modelo, a, 0, 1));
+                break;
+            case ADICIONA_MUSICA_FAVORITA:
+                modelo.adicionaMusicaFavorita(modelo.procuraUtilizador((String) a[0]), musica(modelo, a, 1, 2));
+                break;
+            case ADICIONA_ALBUM_FAVORITO:
+                modelo.adicionaAlbumFavorito(modelo.procuraUtilizador((String) a[0]), modelo.procuraAlbum((String) a[1]));
+                break;
+            case CRIA_PLAYLIST:
+                modelo.criaPlaylist((String) a[0], modelo.procuraUtilizador((String) a[1]));
+                break;
+            case GERA_LISTA_FAVORITOS:
+                modelo.geraListFavoritos(modelo.procuraUtilizador((String) a[0]), (Integer) a[1]);
+                break;
+            case GERA_LISTA_GENERO_TEMPO:
+                // Os diários anteriores à ordenação por popularidade não têm o último argumento
+                modelo.geraListaGeneroTempo((String) a[0], (String) a[1], (Integer) a[2], modelo.procuraUtilizador((String) a[3]), (Integer) a[4],
+                        a.length > 5 && (Boolean) a[5]);
+                break;
+            case ADICIONA_MUSICA:
+                // Os registos anteriores à inclusão do identificador recebem um novo
+                modelo.adicionaMusica((String) a[0], (String) a[1], (String) a[2], (String) a[3], (String) a[4], (Integer) a[5], (List<String>) a[6], (List<String>) a[7],
+                        a.length > 8 ? (Integer) a[8] : Musica.novoId());
+                break;
+            case ADICIONA_ALBUM:
+                modelo.adicionaAlbum((String) a[0], (String) a[1], (String) a[2], (Integer) a[3]);
+                break;
+            case REMOVE_ALBUM:
+                modelo.removeAlbum(modelo.procuraAlbum((String) a[0]));
+                break;
+            case ADICIONA_PLAYLIST_BIBLIOTECA:
+                modelo.adicionaPlaylistBiblioteca(modelo.procuraUtilizador((String) a[0]), modelo.procuraPlaylist((String) a[1], (String) a[2]));
+                break;
+            case REMOVE_PLAYLIST:
+                modelo.removePlaylist(modelo.procuraPlaylist((String) a[0], (String) a[1]));
+                break;
+            case APAGA_HISTORICO:
+                modelo.apagaHistorico(modelo.procuraUtilizador((String) a[0]));
+                break;
+            case ATUALIZA_PLANO:
+                modelo.atualizaPlano(modelo.procuraUtilizador((String) a[0]), planoDeCodigo((Integer) a[1]));
+                break;
+            case APAGA_CONTA:
+                modelo.apagaConta(modelo.procuraUtilizador((String) a[0]));
+                break;
+            case TORNA_EXPLICITA:
+                modelo.tornaExplicita(musica(modelo, a, 0, 1));
+                break;
+            case TORNA_MULTIMEDIA:
+                modelo.tornaMultimedia(musica(modelo, a, 0, 1));
+                break;
+            case REGISTA_REPRODUCAO:
+                modelo.registaReproducaoMusica(modelo.procuraUtilizador((String) a[0]), musica(modelo, a, 1, 3), LocalDateTime.ofEpochSecond((Long) a[2], 0, ZoneOffset.UTC));
+                break;
+            case ADICIONA_MUSICA_PLAYLIST:
+                modelo.adicionaMusicaPlaylist(modelo.procuraPlaylist((String) a[0], (String) a[1]), musica(modelo, a, 2, 3));
+                break;
+            case ALTERA_VISIBILIDADE_PLAYLIST:
+                modelo.alteraVisibilidadePlaylist(modelo.procuraPlaylist((String) a[0], (String) a[1]), (Boolean) a[2]);
+                break;
+            case ATUALIZA_PREFERENCIAS:
+                modelo.atualizaPreferencias(modelo.procuraUtilizador((String) a[0]), (Boolean) a[1], (Boolean) a[2]);
+                break;
+            case TORNA_ADMINISTRADOR:
+                modelo.tornaAdministrador(modelo.procuraUtilizador((String) a[0]));
+                break;
+            case GERA_LISTA_GENERO_DURACAO:
+                modelo.geraListaGeneroDuracao((String) a[0], (String) a[1], (Integer) a[2], modelo.procuraUtilizador((String) a[3]));
+                break;
+            default:
+                throw new IllegalArgumentException("Operação desconhecida: " + operacao);
+        }
+    }
+
+    /**
+     * Devolve a música de um registo, identificada pelo nome e pelo álbum. Os registos anteriores à inclusão do álbum, e os de músicas
+     * que já não estavam no catálogo, só têm o nome, pelo que a música é procurada pelo nome.
+     * @param modelo modelo
+     * @param a argumentos do registo
+     * @param nome posição do nome da música
+     * @param album posição do nome do álbum
+     * @return música do catálogo
+     */
+    private static Musica musica(SpotifUM modelo, Object[] a, int nome, int album) {
+        if (a.length > album && !((String) a[album]).isEmpty()) {
+            return modelo.procuraMusica((String) a[album], (String) a[nome]);
+        }
+        return modelo.procuraMusica((String) a[nome]);
+    }
+
+    /**
+     * Devolve o código de um plano de subscrição, usado nos registos do diário.
+     * @param plano plano
+     * @return código
+     */
+    public static int codigoPlano(IPlanoSubscricao plano) {
+        if (plano instanceof PlanoPremiumTop) {
+            return 2;
+        }
+        if (plano instanceof PlanoPremiumBase) {
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Devolve o plano de subscrição correspondente a um código.
+     * @param codigo código
+     * @return plano
+     */
+    public static IPlanoSubscricao planoDeCodigo(int codigo) {
+        switch (codigo) {
+            case 2:
+                return new PlanoPremiumTop();
+            case 1:
+                return new PlanoPremiumBase();
+            default:
+                return new PlanoBase();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dicionário de termos repetidos por muitas músicas e álbuns (intérpretes, géneros e editoras). Cada termo distinto é guardado uma única vez
+ * e recebe um código inteiro pequeno, atribuído pela ordem em que aparece, que as músicas guardam em vez do texto e que as contagens
+ * por intérprete ou género podem usar diretamente. Os códigos só são válidos dentro da mesma execução do programa.
+ * Pode ser usado a partir de várias threads (p.e. a que compacta o estado em segundo plano).
+ */
+public class DicionarioTermos {
+    /** Intérpretes das músicas e dos álbuns. */
+    public static final DicionarioTermos INTERPRETES = new DicionarioTermos();
+    /** Géneros das músicas. */
+    public static final DicionarioTermos GENEROS = new DicionarioTermos();
+    /** Editoras das músicas e dos álbuns. */
+    public static final DicionarioTermos EDITORAS = new DicionarioTermos();
+
+    /** Código que representa a ausência de termo (null). */
+    public static final int SEM_TERMO = -1;
+
+    private final ConcurrentHashMap<String, Integer> codigos;
+    private volatile String[] termos;
+    private int tamanho;
+
+    /**
+     * Construtor por omissão.
+     */
+    public DicionarioTermos() {
+        this.codigos = new ConcurrentHashMap<String, Integer>();
+        this.termos = new String[16];
+        this.tamanho = 0;
+    }
+
+    /**
+     * Devolve o código de um termo, acrescentando-o ao dicionário caso ainda não exista.
+     * @param termo termo
+     * @return código, ou SEM_TERMO caso o termo seja null
+     */
+    public int codigo(String termo) {
+        if (termo == null) {
+            return SEM_TERMO;
+        }
+        Integer c = this.codigos.get(termo);
+        return c != null ? c : acrescenta(termo);
+    }
+
+    private synchronized int acrescenta(String termo) {
+        Integer c = this.codigos.get(termo);
+        if (c != null) {
+            return c;
+        }
+        String[] t = this.termos;
+        if (this.tamanho == t.length) {
+            t = Arrays.copyOf(t, t.length * 2);
+        }
+        t[this.tamanho] = termo;
+        this.termos = t;
+        this.codigos.put(termo, this.tamanho);
+        return this.tamanho++;
+    }
+
+    /**
+     * Devolve o termo com um código.
+     * @param codigo código
+     * @return termo, ou null caso o código seja SEM_TERMO
+     */
+    public String termo(int codigo) {
+        return codigo == SEM_TERMO ? null : this.termos[codigo];
+    }
+
+    /**
+     * Devolve a instância partilhada de um termo.
+     * @param termo termo
+     * @return termo canónico (igual ao dado)
+     */
+    public String canonico(String termo) {
+        return termo(codigo(termo));
+    }
+
+    /**
+     * Devolve o nº de termos distintos no dicionário.
+     * @return nº de termos
+     */
+    public synchronized int size() {
+        return this.tamanho;
+    }
+}
@@ -0,0 +1,158 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Buffer de escrita binária usado na persistência do estado. Escreve inteiros em formato varint, strings com prefixo de tamanho e secções com prefixo de comprimento.
+ */
+public class EscritorBinario {
+    private byte[] dados;
+    private int tamanho;
+
+    /**
+     * Construtor por omissão.
+     */
+    public EscritorBinario() {
+        this(256);
+    }
+
+    /**
+     * Construtor parametrizado. Aceita:
+     * @param capacidade capacidade inicial do buffer
+     */
+    public EscritorBinario(int capacidade) {
+        this.dados = new byte[Math.max(16, capacidade)];
+        this.tamanho = 0;
+    }
+
+    /**
+     * Garante que existe espaço para mais n bytes.
+     * @param n número de bytes
+     */
+    private void garante(int n) {
+        if (this.tamanho + n > this.dados.length) {
+            this.dados = Arrays.copyOf(this.dados, Math.max(this.dados.length * 2, this.tamanho + n));
+        }
+    }
+
+    /**
+     * Escreve um byte.
+     * @param b byte
+     */
+    public void escreveByte(int b) {
+        garante(1);
+        this.dados[this.tamanho++] = (byte) b;
+    }
+
+    /**
+     * Escreve um conjunto de bytes.
+     * @param bs bytes
+     * @param inicio posição inicial
+     * @param n número de bytes
+     */
+    public void escreveBytes(byte[] bs, int inicio, int n) {
+        garante(n);
+        System.arraycopy(bs, inicio, this.dados, this.tamanho, n);
+        this.tamanho += n;
+    }
+
+    /**
+     * Escreve um inteiro de 4 bytes em big endian.
+     * @param v valor
+     */
+    public void escreveIntFixo(int v) {
+        garante(4);
+        this.dados[this.tamanho++] = (byte) (v >>> 24);
+        this.dados[this.tamanho++] = (byte) (v >>> 16);
+        this.dados[this.tamanho++] = (byte) (v >>> 8);
+        this.dados[this.tamanho++] = (byte) v;
+    }
+
+    /**
+     * Escreve um long sem sinal em formato varint (7 bits por byte).
+     * @param v valor (tratado como sem sinal)
+     */
+    public void escreveVarLong(long v) {
+        garante(10);
+        while ((v & ~0x7FL) != 0) {
+            this.dados[this.tamanho++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        this.dados[this.tamanho++] = (byte) v;
+    }
+
+    /**
+     * Escreve um inteiro não negativo em formato varint.
+     * @param v valor
+     */
+    public void escreveVarInt(int v) {
+        escreveVarLong(v & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Escreve um long com sinal em formato zigzag varint, útil para diferenças entre valores.
+     * @param v valor
+     */
+    public void escreveVarLongComSinal(long v) {
+        escreveVarLong((v << 1) ^ (v >> 63));
+    }
+
+    /**
+     * Escreve um booleano.
+     * @param b valor
+     */
+    public void escreveBoolean(boolean b) {
+        escreveByte(b ? 1 : 0);
+    }
+
+    /**
+     * Escreve uma string em UTF-8 com prefixo de tamanho.
+     * @param s string
+     */
+    public void escreveString(String s) {
+        byte[] bs = s.getBytes(StandardCharsets.UTF_8);
+        escreveVarInt(bs.length);
+        escreveBytes(bs, 0, bs.length);
+    }
+
+    /**
+     * Escreve uma secção identificada por uma etiqueta, com o conteúdo prefixado pelo seu comprimento.
+     * @param etiqueta etiqueta da secção
+     * @param conteudo conteúdo da secção
+     */
+    public void escreveSeccao(int etiqueta, EscritorBinario conteudo) {
+        escreveByte(etiqueta);
+        escreveVarInt(conteudo.tamanho);
+        escreveBytes(conteudo.dados, 0, conteudo.tamanho);
+    }
+
+    /**
+     * Devolve o número de bytes escritos.
+     * @return tamanho
+     */
+    public int getTamanho() {
+        return this.tamanho;
+    }
+
+    /**
+     * Limpa o buffer, mantendo a capacidade.
+     */
+    public void limpa() {
+        this.tamanho = 0;
+    }
+
+    /**
+     * Devolve uma cópia dos bytes escritos.
+     * @return bytes
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.dados, this.tamanho);
+    }
+
+    /**
+     * Devolve o array interno (sem cópia). Apenas os primeiros getTamanho() bytes são válidos.
+     * @return array interno
+     */
+    public byte[] getDadosInternos() {
+        return this.dados;
+    }
+}
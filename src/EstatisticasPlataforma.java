@@ -0,0 +1,438 @@
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Estatísticas da plataforma mantidas de forma incremental. São calculadas uma vez a partir do estado completo e, a partir daí,
+ * atualizadas pelas operações do modelo que as afetam, para que o ecrã de estatísticas não tenha de percorrer todo o catálogo e todos os utilizadores.
+ * Todas as operações são sincronizadas, já que as reproduções podem ser registadas por várias sessões em simultâneo.
+ * Os utilizadores são identificados pelo username; intérpretes e géneros pelo seu código no DicionarioTermos.
+ */
+public class EstatisticasPlataforma {
+    private final Map<String, Album> albuns;
+    private final ContadorReproducoes reproducoes;
+    private int totalMusicas;
+    private final ContagemMaximo<Integer> musicasPorInterprete;
+    private final ContagemMaximo<Integer> musicasPorGenero;
+    private final ContagemMaximo<Integer> albunsComMusicasPorInterprete;
+    private final ContagemMaximo<String> playlistsPorNome;
+    private final ContagemMaximo<String> playlistsCriadas;
+    private final ContagemMaximo<String> reproducoesPorUtilizador;
+    private final ClassificacaoPontos pontos;
+    private final int diasAtividade;
+    private final Map<String, AtividadeReproducoes> atividade;
+    private final LinkedHashMap<Long, ContagemMaximo<String>> reproducoesDesde;
+    private LocalDateTime primeiraReproducao;
+    private Musica maisReproduzida;
+    private boolean maisReproduzidaValida;
+
+    /** Nº de inícios de período (p.e. o do último mês) cujas contagens por utilizador são mantidas. */
+    private static final int PERIODOS_MANTIDOS = 4;
+
+    /**
+     * Construtor parametrizado. Calcula as estatísticas a partir do estado atual.
+     * O nº de dias de atividade guardados por utilizador é configurável com -Dspotifum.atividade.dias. Aceita:
+     * @param utilizadores utilizadores do sistema
+     * @param albuns álbuns do sistema (mapa interno, consultado caso a música mais reproduzida tenha de ser recalculada)
+     * @param reproducoes contador de reproduções das músicas
+     */
+    public EstatisticasPlataforma(Map<String, Utilizador> utilizadores, Map<String, Album> albuns, ContadorReproducoes reproducoes) {
+        this.albuns = albuns;
+        this.reproducoes = reproducoes;
+        this.totalMusicas = 0;
+        this.musicasPorInterprete = new ContagemMaximo<Integer>();
+        this.musicasPorGenero = new ContagemMaximo<Integer>();
+        this.albunsComMusicasPorInterprete = new ContagemMaximo<Integer>();
+        this.playlistsPorNome = new ContagemMaximo<String>();
+        this.playlistsCriadas = new ContagemMaximo<String>();
+        this.reproducoesPorUtilizador = new ContagemMaximo<String>();
+        this.pontos = new ClassificacaoPontos();
+        this.diasAtividade = Integer.getInteger("spotifum.atividade.dias", 64);
+        this.atividade = new HashMap<String, AtividadeReproducoes>();
+        this.reproducoesDesde = new LinkedHashMap<Long, ContagemMaximo<String>>(PERIODOS_MANTIDOS, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Long, ContagemMaximo<String>> e) {
+                return size() > PERIODOS_MANTIDOS;
+            }
+        };
+        this.primeiraReproducao = null;
+        for (Album a : albuns.values()) {
+            for (Musica m : a.musicasInternas().values()) {
+                contaMusica(m, 1);
+            }
+            if (!a.musicasInternas().isEmpty()) {
+                this.albunsComMusicasPorInterprete.soma(DicionarioTermos.INTERPRETES.codigo(a.getInterprete()), 1);
+            }
+        }
+        calculaMaisReproduzida();
+        for (Utilizador u : utilizadores.values()) {
+            utilizadorCriado(u);
+            this.reproducoesPorUtilizador.soma(u.getUsername(), u.getNumReproducoes());
+            if (u.getPrimeiraReproducao() != null) {
+                registaData(u.getPrimeiraReproducao());
+                AtividadeReproducoes a = atividade(u.getUsername());
+                u.musicasOuvidasInternas().percorre((m, segundos) -> a.regista(Math.floorDiv(segundos, 86400)));
+            }
+            for (Playlist p : u.getBiblioteca().playlistsInternas().values()) {
+                playlistGuardada(u.getUsername(), p);
+            }
+        }
+    }
+
+    private AtividadeReproducoes atividade(String username) {
+        return this.atividade.computeIfAbsent(username, u -> new AtividadeReproducoes(this.diasAtividade));
+    }
+
+    private void contaMusica(Musica m, int delta) {
+        this.totalMusicas += delta;
+        this.musicasPorInterprete.soma(m.getCodigoInterprete(), delta);
+        this.musicasPorGenero.soma(m.getCodigoGenero(), delta);
+    }
+
+    private void registaData(LocalDateTime data) {
+        // O histórico guarda as datas ao segundo
+        data = data.withNano(0);
+        if (this.primeiraReproducao == null || data.isBefore(this.primeiraReproducao)) {
+            this.primeiraReproducao = data;
+        }
+    }
+
+    private void calculaMaisReproduzida() {
+        this.maisReproduzida = null;
+        for (Album a : this.albuns.values()) {
+            for (Musica m : a.musicasInternas().values()) {
+                if (this.maisReproduzida == null || this.reproducoes.get(m.getId()) > this.reproducoes.get(this.maisReproduzida.getId())) {
+                    this.maisReproduzida = m;
+                }
+            }
+        }
+        this.maisReproduzidaValida = true;
+    }
+
+    /**
+     * Regista que uma música foi adicionada a um álbum (depois de o ser).
+     * @param album álbum
+     * @param musica música adicionada
+     */
+    public synchronized void musicaAdicionada(Album album, Musica musica) {
+        contaMusica(musica, 1);
+        if (album.musicasInternas().size() == 1) {
+            this.albunsComMusicasPorInterprete.soma(DicionarioTermos.INTERPRETES.codigo(album.getInterprete()), 1);
+        }
+        if (superaMaisReproduzida(musica)) {
+            this.maisReproduzida = musica;
+        }
+    }
+
+    /**
+     * Regista que uma música foi removida de um álbum (depois de o ser).
+     * @param album álbum
+     * @param musica música removida
+     */
+    public synchronized void musicaRemovida(Album album, Musica musica) {
+        contaMusica(musica, -1);
+        if (album.musicasInternas().isEmpty()) {
+            this.albunsComMusicasPorInterprete.soma(DicionarioTermos.INTERPRETES.codigo(album.getInterprete()), -1);
+        }
+        if (musica == this.maisReproduzida) {
+            this.maisReproduzidaValida = false;
+        }
+    }
+
+    /**
+     * Regista que um álbum foi removido do catálogo, com todas as suas músicas.
+     * @param album álbum removido
+     */
+    public synchronized void albumRemovido(Album album) {
+        for (Musica m : album.musicasInternas().values()) {
+            contaMusica(m, -1);
+            if (m == this.maisReproduzida) {
+                this.maisReproduzidaValida = false;
+            }
+        }
+        if (!album.musicasInternas().isEmpty()) {
+            this.albunsComMusicasPorInterprete.soma(DicionarioTermos.INTERPRETES.codigo(album.getInterprete()), -1);
+        }
+    }
+
+    /**
+     * Regista que uma música do catálogo foi substituída por outra no mesmo álbum.
+     * @param anterior música substituída
+     * @param nova música que a substitui
+     */
+    public synchronized void musicaSubstituida(Musica anterior, Musica nova) {
+        contaMusica(anterior, -1);
+        contaMusica(nova, 1);
+        if (anterior == this.maisReproduzida) {
+            // Uma cópia da mesma música mantém as reproduções, pelo que continua a ser a mais reproduzida
+            if (nova.getId() == anterior.getId()) {
+                this.maisReproduzida = nova;
+            } else {
+                this.maisReproduzidaValida = false;
+            }
+        } else if (superaMaisReproduzida(nova)) {
+            this.maisReproduzida = nova;
+        }
+    }
+
+    /**
+     * Regista a reprodução de uma música por um utilizador (depois de o utilizador a ter registado).
+     * @param user utilizador
+     * @param data data da reprodução
+     */
+    public synchronized void reproducaoRegistada(Utilizador user, LocalDateTime data) {
+        this.reproducoesPorUtilizador.soma(user.getUsername(), 1);
+        long dia = data.toLocalDate().toEpochDay();
+        atividade(user.getUsername()).regista(dia);
+        for (Map.Entry<Long, ContagemMaximo<String>> e : this.reproducoesDesde.entrySet()) {
+            if (e.getKey() <= dia) {
+                e.getValue().soma(user.getUsername(), 1);
+            }
+        }
+        registaData(data);
+        pontosAtualizados(user);
+    }
+
+    /**
+     * Diz se uma música tem mais reproduções do que a atual música mais reproduzida.
+     * @param musica música
+     * @return true se a supera
+     */
+    public synchronized boolean superaMaisReproduzida(Musica musica) {
+        return this.maisReproduzidaValida && (this.maisReproduzida == null || this.reproducoes.get(musica.getId()) > this.reproducoes.get(this.maisReproduzida.getId()));
+    }
+
+    /**
+     * Atualiza a música mais reproduzida, depois de uma música do catálogo a ter superado.
+     * @param musica música do catálogo
+     */
+    public synchronized void setMaisReproduzida(Musica musica) {
+        this.maisReproduzida = musica;
+    }
+
+    /**
+     * Regista um novo utilizador.
+     * @param user utilizador
+     */
+    public synchronized void utilizadorCriado(Utilizador user) {
+        this.pontos.define(user.getUsername(), user.getPontos());
+    }
+
+    /**
+     * Regista que um utilizador foi removido do sistema, com a sua biblioteca.
+     * @param user utilizador
+     */
+    public synchronized void utilizadorRemovido(Utilizador user) {
+        for (Playlist p : user.getBiblioteca().playlistsInternas().values()) {
+            playlistRetirada(user.getUsername(), p);
+        }
+        this.pontos.remove(user.getUsername());
+        esqueceAtividade(user.getUsername());
+    }
+
+    /**
+     * Regista que o histórico de um utilizador foi apagado.
+     * @param user utilizador
+     */
+    public synchronized void historicoApagado(Utilizador user) {
+        esqueceAtividade(user.getUsername());
+    }
+
+    private void esqueceAtividade(String username) {
+        this.reproducoesPorUtilizador.remove(username);
+        this.atividade.remove(username);
+        for (ContagemMaximo<String> c : this.reproducoesDesde.values()) {
+            c.remove(username);
+        }
+    }
+
+    /**
+     * Atualiza os pontos de um utilizador.
+     * @param user utilizador
+     */
+    public synchronized void pontosAtualizados(Utilizador user) {
+        this.pontos.define(user.getUsername(), user.getPontos());
+    }
+
+    /**
+     * Regista que uma playlist foi guardada na biblioteca de um utilizador.
+     * @param dono username do dono da biblioteca (pode ser null caso não seja o criador da playlist)
+     * @param p playlist
+     */
+    public synchronized void playlistGuardada(String dono, Playlist p) {
+        this.playlistsPorNome.soma(p.getNome(), 1);
+        if (dono != null && p.getCriador() != null && p.getCriador().getUsername().equals(dono)) {
+            this.playlistsCriadas.soma(dono, 1);
+        }
+    }
+
+    /**
+     * Regista que uma playlist foi retirada da biblioteca de um utilizador.
+     * @param dono username do dono da biblioteca (pode ser null caso não seja o criador da playlist)
+     * @param p playlist
+     */
+    public synchronized void playlistRetirada(String dono, Playlist p) {
+        this.playlistsPorNome.soma(p.getNome(), -1);
+        if (dono != null && p.getCriador() != null && p.getCriador().getUsername().equals(dono)) {
+            this.playlistsCriadas.soma(dono, -1);
+        }
+    }
+
+    /**
+     * Devolve o nº total de músicas do catálogo.
+     * @return nº de músicas
+     */
+    public synchronized int getTotalMusicas() {
+        return this.totalMusicas;
+    }
+
+    /**
+     * Devolve o nº de nomes distintos de playlists guardadas.
+     * @return nº de playlists
+     */
+    public synchronized int getTotalPlaylists() {
+        return this.playlistsPorNome.size();
+    }
+
+    /**
+     * Devolve o nº de intérpretes distintos com pelo menos um álbum com músicas.
+     * @return nº de intérpretes
+     */
+    public synchronized int getTotalInterpretes() {
+        return this.albunsComMusicasPorInterprete.size();
+    }
+
+    /**
+     * Devolve a música do catálogo com mais reproduções. Só é recalculada, percorrendo o catálogo, se a anterior tiver sido removida.
+     * @return música, ou null caso o catálogo não tenha músicas
+     */
+    public synchronized Musica getMusicaMaisReproduzida() {
+        if (!this.maisReproduzidaValida) {
+            calculaMaisReproduzida();
+        }
+        return this.maisReproduzida;
+    }
+
+    /**
+     * Devolve o intérprete com mais músicas no catálogo.
+     * @return intérprete, ou null caso não existam músicas
+     */
+    public synchronized String getInterpreteMaisEscutado() {
+        Integer codigo = this.musicasPorInterprete.getMaximo();
+        return codigo == null ? null : DicionarioTermos.INTERPRETES.termo(codigo);
+    }
+
+    /**
+     * Devolve o género com mais músicas no catálogo.
+     * @return género, ou null caso não existam músicas
+     */
+    public synchronized String getTipoMaisReproduzido() {
+        Integer codigo = this.musicasPorGenero.getMaximo();
+        return codigo == null ? null : DicionarioTermos.GENEROS.termo(codigo);
+    }
+
+    /**
+     * Devolve o utilizador com mais reproduções desde sempre.
+     * @return username, ou null caso ninguém tenha reproduções
+     */
+    public synchronized String getUserMaisReproducoes() {
+        return this.reproducoesPorUtilizador.getMaximo();
+    }
+
+    /**
+     * Diz se o nº de reproduções de cada utilizador desde um dia pode ser calculado a partir da atividade guardada, sem os históricos.
+     * @param dia dia (em dias desde a época, UTC)
+     * @return true / false
+     */
+    public synchronized boolean conheceReproducoesDesde(long dia) {
+        if (this.reproducoesDesde.containsKey(dia)) {
+            return true;
+        }
+        for (AtividadeReproducoes a : this.atividade.values()) {
+            if (a.getReproducoesDesde(dia) == AtividadeReproducoes.DESCONHECIDO) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Devolve o utilizador com mais reproduções desde um dia (inclusive). As contagens desde cada dia são calculadas uma vez, a partir da
+     * atividade de cada utilizador, e a partir daí mantidas a cada reprodução, para os inícios de período consultados mais recentemente.
+     * Só deve ser invocado se conheceReproducoesDesde(dia).
+     * @param dia dia (em dias desde a época, UTC)
+     * @return username, ou null caso ninguém tenha reproduções desde esse dia
+     */
+    public synchronized String getUserMaisReproducoesDesde(long dia) {
+        ContagemMaximo<String> c = this.reproducoesDesde.get(dia);
+        if (c == null) {
+            c = new ContagemMaximo<String>();
+            for (Map.Entry<String, AtividadeReproducoes> e : this.atividade.entrySet()) {
+                long n = e.getValue().getReproducoesDesde(dia);
+                if (n > 0) {
+                    c.soma(e.getKey(), n);
+                }
+            }
+            this.reproducoesDesde.put(dia, c);
+        }
+        return c.getMaximo();
+    }
+
+    /**
+     * Devolve a data da primeira reprodução registada. Pode ser anterior à primeira reprodução atual, caso tenham sido apagados históricos.
+     * @return data, ou null caso não existam reproduções
+     */
+    public synchronized LocalDateTime getPrimeiraReproducao() {
+        return this.primeiraReproducao;
+    }
+
+    /**
+     * Devolve o utilizador com mais pontos.
+     * @return username, ou null caso não existam utilizadores
+     */
+    public synchronized String getUserMaisPontos() {
+        return this.pontos.getPrimeiro();
+    }
+
+    /**
+     * Devolve a posição de um utilizador na classificação por pontos, a começar em 1. Utilizadores com os mesmos pontos têm a mesma posição.
+     * @param username username
+     * @return posição, ou 0 caso o utilizador não exista
+     */
+    public synchronized int getPosicaoPontos(String username) {
+        return this.pontos.getPosicao(username);
+    }
+
+    /**
+     * Devolve os utilizadores com mais pontos, por ordem decrescente de pontos.
+     * @param n nº de utilizadores
+     * @return usernames
+     */
+    public synchronized List<String> getMelhoresPontos(int n) {
+        return this.pontos.getPrimeiros(n);
+    }
+
+    /**
+     * Devolve os utilizadores à volta de um utilizador na classificação por pontos, incluindo o próprio.
+     * @param username username
+     * @param raio nº de utilizadores antes e depois
+     * @return usernames, por ordem decrescente de pontos
+     */
+    public synchronized List<String> getVizinhosPontos(String username, int raio) {
+        return this.pontos.getVizinhos(username, raio);
+    }
+
+    /**
+     * Devolve o nº de utilizadores na classificação por pontos.
+     * @return nº de utilizadores
+     */
+    public synchronized int getTotalClassificados() {
+        return this.pontos.size();
+    }
+
+    /**
+     * Devolve o utilizador com mais playlists criadas por si guardadas na sua biblioteca.
+     * @return username, ou null caso nenhum utilizador as tenha
+     */
+    public synchronized String getUserMaisPlaylists() {
+        return this.playlistsCriadas.getMaximo();
+    }
+}
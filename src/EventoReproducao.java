@@ -0,0 +1,64 @@
+import java.time.LocalDateTime;
+
+/**
+ * Reprodução de uma música por um utilizador, publicada na FilaReproducoes e aplicada ao modelo mais tarde.
+ */
+public final class EventoReproducao {
+    private final Utilizador utilizador;
+    private final Musica musica;
+    private final LocalDateTime data;
+    private final long publicacaoNs;
+
+    /**
+     * Construtor parametrizado. Aceita:
+     * @param utilizador utilizador que ouviu a música
+     * @param musica música reproduzida
+     * @param data data da reprodução
+     */
+    public EventoReproducao(Utilizador utilizador, Musica musica, LocalDateTime data) {
+        this.utilizador = utilizador;
+        this.musica = musica;
+        this.data = data;
+        this.publicacaoNs = System.nanoTime();
+    }
+
+    /**
+     * Devolve o utilizador que ouviu a música.
+     * @return utilizador
+     */
+    public Utilizador getUtilizador() {
+        return this.utilizador;
+    }
+
+    /**
+     * Devolve a música reproduzida.
+     * @return música
+     */
+    public Musica getMusica() {
+        return this.musica;
+    }
+
+    /**
+     * Devolve a data da reprodução.
+     * @return data
+     */
+    public LocalDateTime getData() {
+        return this.data;
+    }
+
+    /**
+     * Devolve o instante (System.nanoTime) em que o evento foi criado, usado para medir o atraso até ser aplicado.
+     * @return instante em nanossegundos
+     */
+    public long getPublicacaoNs() {
+        return this.publicacaoNs;
+    }
+
+    /**
+     * Representação em string de um evento.
+     * @return utilizador, música e data
+     */
+    public String toString() {
+        return this.utilizador.getUsername() + " ouviu " + this.musica.getNome() + " em " + this.data;
+    }
+}
@@ -0,0 +1,419 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fila limitada (buffer circular) de reproduções publicadas e ainda não aplicadas ao modelo. As sessões publicam as reproduções sem esperar
+ * pela atualização dos contadores, do histórico e dos pontos, que é feita em lotes por uma thread própria.
+ *
+ * Quando a fila está cheia, quem publica espera que haja lugar (contrapressão), pelo que o nº de reproduções pendentes nunca ultrapassa
+ * a capacidade. Cada reprodução é registada no diário ao ser publicada: caso a aplicação termine antes de a aplicar, é reaplicada ao
+ * recuperar o estado. As operações exclusivas do modelo (incluindo a gravação) aplicam primeiro as reproduções pendentes, pelo que
+ * veem o modelo tal como ficará no diário.
+ */
+public class FilaReproducoes {
+    /** Capacidade usada por omissão. */
+    public static final int CAPACIDADE_OMISSAO = 8192;
+    /** Tamanho máximo de um lote usado por omissão. */
+    public static final int LOTE_OMISSAO = 256;
+
+    private final SpotifUM modelo;
+    private final EventoReproducao[] eventos;
+    private final EventoReproducao[] lote;
+    private final ReentrantLock trinco;
+    private final Condition naoVazia;
+    private final Condition naoCheia;
+    private final Thread aplicador;
+    private int inicio;
+    private int tamanho;
+    private int reservas;
+    private boolean ativa;
+
+    private long publicados;
+    private long publicacoesEmEspera;
+    private long aplicados;
+    private long falhas;
+    private String ultimaFalha;
+    private long lotes;
+    private long tempoAplicacaoNs;
+    private long maiorTempoLoteNs;
+    private long atrasoTotalNs;
+    private long maiorAtrasoNs;
+
+    /**
+     * Construtor parametrizado. Aceita:
+     * @param modelo modelo ao qual as reproduções são aplicadas
+     * @param capacidade nº máximo de reproduções pendentes
+     * @param tamanhoLote nº máximo de reproduções aplicadas de uma só vez
+     */
+    FilaReproducoes(SpotifUM modelo, int capacidade, int tamanhoLote) {
+        if (capacidade < 1 || tamanhoLote < 1) {
+            throw new IllegalArgumentException("A capacidade e o tamanho dos lotes têm de ser positivos!");
+        }
+        this.modelo = modelo;
+        this.eventos = new EventoReproducao[capacidade];
+        this.lote = new EventoReproducao[Math.min(tamanhoLote, capacidade)];
+        this.trinco = new ReentrantLock();
+        this.naoVazia = this.trinco.newCondition();
+        this.naoCheia = this.trinco.newCondition();
+        this.ativa = true;
+        this.aplicador = new Thread(this::cicloAplicacao, "reproducoes-aplicador");
+        this.aplicador.setDaemon(true);
+        this.aplicador.start();
+    }
+
+    /**
+     * Reserva um lugar na fila, esperando enquanto esta estiver cheia.
+     * @return true, ou false caso a fila tenha sido parada entretanto
+     */
+    boolean reserva() {
+        this.trinco.lock();
+        try {
+            if (this.ativa && this.tamanho + this.reservas == this.eventos.length) {
+                this.publicacoesEmEspera++;
+                while (this.ativa && this.tamanho + this.reservas == this.eventos.length) {
+                    this.naoCheia.awaitUninterruptibly();
+                }
+            }
+            if (!this.ativa) {
+                return false;
+            }
+            this.reservas++;
+            return true;
+        } finally {
+            this.trinco.unlock();
+        }
+    }
+
+    /**
+     * Liberta um lugar reservado que não chegou a ser usado.
+     */
+    void cancelaReserva() {
+        this.trinco.lock();
+        try {
+            this.reservas--;
+            this.naoCheia.signal();
+        } finally {
+            this.trinco.unlock();
+        }
+    }
+
+    /**
+     * Acrescenta um evento à fila, no lugar reservado previamente.
+     * @param evento evento
+     */
+    void acrescenta(EventoReproducao evento) {
+        this.trinco.lock();
+        try {
+            this.reservas--;
+            this.eventos[(this.inicio + this.tamanho) % this.eventos.length] = evento;
+            this.tamanho++;
+            this.publicados++;
+            this.naoVazia.signal();
+        } finally {
+            this.trinco.unlock();
+        }
+    }
+
+    /**
+     * Retira da fila até lote.length eventos, pela ordem em que foram publicados.
+     * @return nº de eventos retirados
+     */
+    private int retira(EventoReproducao[] lote) {
+        this.trinco.lock();
+        try {
+            int n = Math.min(this.tamanho, lote.length);
+            for (int i = 0; i < n; i++) {
+                lote[i] = this.eventos[this.inicio];
+                this.eventos[this.inicio] = null;
+                this.inicio = (this.inicio + 1) % this.eventos.length;
+            }
+            this.tamanho -= n;
+            if (n > 0) {
+                this.naoCheia.signalAll();
+            }
+            return n;
+        } finally {
+            this.trinco.unlock();
+        }
+    }
+
+    /**
+     * Aplica ao modelo um lote de eventos pendentes. Tem de ser invocado com o modelo bloqueado (partilhado ou exclusivo), para que
+     * uma gravação nunca encontre eventos já retirados da fila mas ainda não aplicados.
+     * @param lote vetor onde colocar os eventos retirados
+     * @return nº de eventos aplicados
+     */
+    private int aplicaLote(EventoReproducao[] lote) {
+        int n = retira(lote);
+        if (n == 0) {
+            return 0;
+        }
+        long inicioNs = System.nanoTime();
+        long atraso = 0;
+        long maiorAtraso = 0;
+        int falhados = 0;
+        String falha = null;
+        for (int i = 0; i < n; i++) {
+            long a = inicioNs - lote[i].getPublicacaoNs();
+            atraso += a;
+            maiorAtraso = Math.max(maiorAtraso, a);
+            try {
+                this.modelo.aplicaReproducao(lote[i]);
+            } catch (RuntimeException e) {
+                falhados++;
+                falha = lote[i] + ": " + e;
+            }
+            lote[i] = null;
+        }
+        long duracao = System.nanoTime() - inicioNs;
+        this.trinco.lock();
+        try {
+            this.aplicados += n - falhados;
+            this.falhas += falhados;
+            if (falha != null) {
+                this.ultimaFalha = falha;
+            }
+            this.lotes++;
+            this.tempoAplicacaoNs += duracao;
+            this.maiorTempoLoteNs = Math.max(this.maiorTempoLoteNs, duracao);
+            this.atrasoTotalNs += atraso;
+            this.maiorAtrasoNs = Math.max(this.maiorAtrasoNs, maiorAtraso);
+        } finally {
+            this.trinco.unlock();
+        }
+        return n;
+    }
+
+    /**
+     * Aplica todos os eventos pendentes na thread atual. Invocado pelas operações exclusivas do modelo, que já têm o modelo bloqueado.
+     */
+    void esvazia() {
+        EventoReproducao[] l = new EventoReproducao[this.lote.length];
+        while (aplicaLote(l) > 0) {
+        }
+    }
+
+    /**
+     * Espera que haja eventos na fila.
+     * @return true caso existam eventos, false caso a fila esteja vazia e parada
+     */
+    private boolean aguardaEventos() {
+        this.trinco.lock();
+        try {
+            while (this.tamanho == 0) {
+                if (!this.ativa) {
+                    return false;
+                }
+                this.naoVazia.awaitUninterruptibly();
+            }
+            return true;
+        } finally {
+            this.trinco.unlock();
+        }
+    }
+
+    /**
+     * Ciclo da thread de aplicação: espera por eventos e aplica-os em lotes, com o modelo bloqueado em modo partilhado.
+     */
+    private void cicloAplicacao() {
+        while (aguardaEventos()) {
+            this.modelo.partilhado(() -> aplicaLote(this.lote));
+        }
+    }
+
+    /**
+     * Deixa de aceitar eventos e espera que a thread de aplicação aplique os que ainda estão na fila.
+     * @param timeoutMs tempo máximo de espera
+     * @throws InterruptedException caso a espera seja interrompida
+     */
+    void para(long timeoutMs) throws InterruptedException {
+        this.trinco.lock();
+        try {
+            this.ativa = false;
+            this.naoVazia.signalAll();
+            this.naoCheia.signalAll();
+        } finally {
+            this.trinco.unlock();
+        }
+        TimeUnit.MILLISECONDS.timedJoin(this.aplicador, timeoutMs);
+    }
+
+    /**
+     * Devolve a capacidade da fila.
+     * @return nº máximo de reproduções pendentes
+     */
+    public int getCapacidade() {
+        return this.eventos.length;
+    }
+
+    /**
+     * Devolve o nº de reproduções publicadas e ainda não aplicadas.
+     * @return profundidade da fila
+     */
+    public int getPendentes() {
+        this.trinco.lock();
+        try {
+            return this.tamanho;
+        } finally {
+            this.trinco.unlock();
+        }
+    }
+
+    /**
+     * Devolve as métricas atuais da fila.
+     * @return métricas
+     */
+    public Metricas getMetricas() {
+        this.trinco.lock();
+        try {
+            return new Metricas(this.eventos.length, this.tamanho, this.publicados, this.publicacoesEmEspera, this.aplicados, this.falhas,
+                    this.ultimaFalha, this.lotes, this.tempoAplicacaoNs, this.maiorTempoLoteNs, this.atrasoTotalNs, this.maiorAtrasoNs);
+        } finally {
+            this.trinco.unlock();
+        }
+    }
+
+    /**
+     * Métricas da fila de reproduções num dado momento.
+     */
+    public static class Metricas {
+        private final int capacidade;
+        private final int pendentes;
+        private final long publicados;
+        private final long publicacoesEmEspera;
+        private final long aplicados;
+        private final long falhas;
+        private final String ultimaFalha;
+        private final long lotes;
+        private final long tempoAplicacaoNs;
+        private final long maiorTempoLoteNs;
+        private final long atrasoTotalNs;
+        private final long maiorAtrasoNs;
+
+        private Metricas(int capacidade, int pendentes, long publicados, long publicacoesEmEspera, long aplicados, long falhas, String ultimaFalha,
+                         long lotes, long tempoAplicacaoNs, long maiorTempoLoteNs, long atrasoTotalNs, long maiorAtrasoNs) {
+            this.capacidade = capacidade;
+            this.pendentes = pendentes;
+            this.publicados = publicados;
+            this.publicacoesEmEspera = publicacoesEmEspera;
+            this.aplicados = aplicados;
+            this.falhas = falhas;
+            this.ultimaFalha = ultimaFalha;
+            this.lotes = lotes;
+            this.tempoAplicacaoNs = tempoAplicacaoNs;
+            this.maiorTempoLoteNs = maiorTempoLoteNs;
+            this.atrasoTotalNs = atrasoTotalNs;
+            this.maiorAtrasoNs = maiorAtrasoNs;
+        }
+
+        /**
+         * Devolve a capacidade da fila.
+         * @return capacidade
+         */
+        public int getCapacidade() {
+            return this.capacidade;
+        }
+
+        /**
+         * Devolve o nº de reproduções pendentes.
+         * @return profundidade da fila
+         */
+        public int getPendentes() {
+            return this.pendentes;
+        }
+
+        /**
+         * Devolve o nº de reproduções publicadas.
+         * @return nº de reproduções
+         */
+        public long getPublicados() {
+            return this.publicados;
+        }
+
+        /**
+         * Devolve o nº de publicações que tiveram de esperar por lugar na fila.
+         * @return nº de publicações
+         */
+        public long getPublicacoesEmEspera() {
+            return this.publicacoesEmEspera;
+        }
+
+        /**
+         * Devolve o nº de reproduções aplicadas ao modelo.
+         * @return nº de reproduções
+         */
+        public long getAplicados() {
+            return this.aplicados;
+        }
+
+        /**
+         * Devolve o nº de reproduções que não puderam ser aplicadas.
+         * @return nº de reproduções
+         */
+        public long getFalhas() {
+            return this.falhas;
+        }
+
+        /**
+         * Devolve a última reprodução que não pôde ser aplicada e o erro correspondente.
+         * @return descrição da falha, ou null caso não tenha havido falhas
+         */
+        public String getUltimaFalha() {
+            return this.ultimaFalha;
+        }
+
+        /**
+         * Devolve o nº de lotes aplicados.
+         * @return nº de lotes
+         */
+        public long getLotes() {
+            return this.lotes;
+        }
+
+        /**
+         * Devolve o tempo médio de aplicação de um lote, em microssegundos.
+         * @return tempo médio
+         */
+        public double getTempoMedioLoteUs() {
+            return this.lotes == 0 ? 0 : this.tempoAplicacaoNs / 1e3 / this.lotes;
+        }
+
+        /**
+         * Devolve o maior tempo de aplicação de um lote, em microssegundos.
+         * @return tempo máximo
+         */
+        public double getMaiorTempoLoteUs() {
+            return this.maiorTempoLoteNs / 1e3;
+        }
+
+        /**
+         * Devolve o tempo médio entre a publicação de uma reprodução e a sua aplicação, em milissegundos.
+         * @return atraso médio
+         */
+        public double getAtrasoMedioMs() {
+            long n = this.aplicados + this.falhas;
+            return n == 0 ? 0 : this.atrasoTotalNs / 1e6 / n;
+        }
+
+        /**
+         * Devolve o maior tempo entre a publicação de uma reprodução e a sua aplicação, em milissegundos.
+         * @return atraso máximo
+         */
+        public double getMaiorAtrasoMs() {
+            return this.maiorAtrasoNs / 1e6;
+        }
+
+        /**
+         * Representação em string das métricas.
+         * @return métricas
+         */
+        public String toString() {
+            return String.format("Fila: %d/%d pendentes, %d publicadas (%d em espera), %d aplicadas em %d lotes (%d falhas)%n"
+                            + "Lote: %.1f us em média, %.1f us no máximo; atraso: %.2f ms em média, %.2f ms no máximo",
+                    this.pendentes, this.capacidade, this.publicados, this.publicacoesEmEspera, this.aplicados, this.lotes, this.falhas,
+                    getTempoMedioLoteUs(), getMaiorTempoLoteUs(), getAtrasoMedioMs(), getMaiorAtrasoMs())
+                    + (this.ultimaFalha == null ? "" : String.format("%nÚltima falha: %s", this.ultimaFalha));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Gerador de modelos sintéticos, usado pelas medições de desempenho e pelo teste de concorrência.
+ * O catálogo, os utilizadores, as reproduções e as playlists são aleatórios, mas dependem apenas da semente, pelo que duas execuções
+ * com os mesmos parâmetros geram o mesmo modelo. As reproduções seguem uma distribuição enviesada (poucas músicas muito ouvidas),
+ * como numa plataforma real.
+ */
+public class GeradorEstado {
+    private static final String[] GENEROS = {"Rock", "Pop", "Jazz", "Fado", "Hip-Hop", "Clássica", "Eletrónica", "Metal"};
+    private static final String[] PALAVRAS = {"amor", "noite", "mar", "love", "the", "light", "canção", "sol", "rua", "night",
+        "blue", "saudade", "fire", "dança", "tempo", "heart", "lua", "road", "vento", "dream"};
+
+    private final Random random;
+    private final List<Musica> musicas;
+
+    /**
+     * Construtor parametrizado. Aceita:
+     * @param semente semente do gerador de números aleatórios
+     */
+    public GeradorEstado(long semente) {
+        this.random = new Random(semente);
+        this.musicas = new ArrayList<Musica>();
+    }
+
+    /**
+     * Gera um modelo sintético.
+     * @param numAlbuns nº de álbuns
+     * @param musicasPorAlbum nº de músicas por álbum
+     * @param numUtilizadores nº de utilizadores (um em cada três tem o plano PremiumTop, com playlists e lista de favoritos)
+     * @param reproducoesPorUtilizador nº de reproduções de cada utilizador, distribuídas pelos últimos 60 dias
+     * @return modelo
+     */
+    public SpotifUM gera(int numAlbuns, int musicasPorAlbum, int numUtilizadores, int reproducoesPorUtilizador) {
+        SpotifUM modelo = new SpotifUM();
+        geraCatalogo(modelo, numAlbuns, musicasPorAlbum);
+        LocalDateTime agora = LocalDateTime.now();
+        for (int i = 0; i < numUtilizadores; i++) {
+            String username = "u" + i;
+            modelo.criaUtilizador("Utilizador " + i, username, username + "@spotifum.pt", "Rua " + i, LocalDate.of(1970 + i % 40, 1 + i % 12, 1 + i % 28), username);
+            Utilizador u = modelo.procuraUtilizador(username);
+            boolean premium = i % 3 == 0;
+            if (premium) {
+                modelo.atualizaPlano(u, new PlanoPremiumTop());
+            }
+            for (int r = 0; r < reproducoesPorUtilizador; r++) {
+                modelo.registaReproducaoMusica(u, musicaEnviesada(), agora.minusSeconds(this.random.nextInt(60 * 24 * 3600)));
+            }
+            if (premium && !this.musicas.isEmpty()) {
+                String nome = "Playlist " + palavra() + " " + i;
+                modelo.criaPlaylist(nome, u);
+                Playlist p = modelo.procuraPlaylist(username, nome);
+                for (int j = 0; j < 10; j++) {
+                    modelo.adicionaMusicaPlaylist(p, musicaAleatoria());
+                }
+                modelo.alteraVisibilidadePlaylist(p, this.random.nextBoolean());
+                if (u.getNumMusicasOuvidas() >= 10) {
+                    modelo.geraListFavoritos(u, 20);
+                }
+            }
+        }
+        return modelo;
+    }
+
+    /**
+     * Gera o catálogo de um modelo: álbuns com músicas de nomes, géneros e durações aleatórios.
+     * @param modelo modelo
+     * @param numAlbuns nº de álbuns
+     * @param musicasPorAlbum nº de músicas por álbum
+     */
+    public void geraCatalogo(SpotifUM modelo, int numAlbuns, int musicasPorAlbum) {
+        for (int a = 0; a < numAlbuns; a++) {
+            String album = "Álbum " + palavra() + " " + a;
+            String interprete = "Intérprete " + this.random.nextInt(Math.max(1, numAlbuns / 4));
+            modelo.adicionaAlbum(album, interprete, "Editora " + this.random.nextInt(20), 1960 + this.random.nextInt(65));
+            for (int m = 0; m < musicasPorAlbum; m++) {
+                String nome = palavra() + " " + palavra() + " " + a + "." + m;
+                List<String> letra = new ArrayList<String>();
+                for (int l = 0; l < 4; l++) {
+                    letra.add(palavra() + " " + palavra() + " " + palavra());
+                }
+                modelo.adicionaMusica(album, nome, interprete, "Editora", GENEROS[this.random.nextInt(GENEROS.length)],
+                        60 + this.random.nextInt(420), letra, List.of("C", "G", "Am", "F"));
+            }
+        }
+        this.musicas.clear();
+        for (Album a : modelo.getAlbuns().values()) {
+            this.musicas.addAll(a.getMusicas().values());
+        }
+    }
+
+    /**
+     * Devolve as músicas do catálogo gerado.
+     * @return músicas
+     */
+    public List<Musica> getMusicas() {
+        return this.musicas;
+    }
+
+    /**
+     * Devolve uma música do catálogo gerado, escolhida uniformemente.
+     * @return música
+     */
+    public Musica musicaAleatoria() {
+        return this.musicas.get(this.random.nextInt(this.musicas.size()));
+    }
+
+    /**
+     * Devolve uma música do catálogo gerado, com probabilidade maior para as primeiras (as músicas mais populares).
+     * @return música
+     */
+    public Musica musicaEnviesada() {
+        double x = this.random.nextDouble();
+        return this.musicas.get((int) (x * x * x * this.musicas.size()));
+    }
+
+    /**
+     * Devolve uma palavra aleatória, usada nos nomes gerados.
+     * @return palavra
+     */
+    public String palavra() {
+        return PALAVRAS[this.random.nextInt(PALAVRAS.length)];
+    }
+}
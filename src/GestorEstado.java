@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Gere a persistência do modelo: o último estado guardado e o diário de operações que regista as alterações feitas desde então.
+ * Ao carregar um estado, as operações do diário posteriores a esse estado são reaplicadas.
+ * O estado pode também ser guardado em segundo plano: o novo estado é obtido reaplicando o diário sobre o último estado guardado,
+ * sem parar nem copiar o modelo em uso.
+ */
+public class GestorEstado {
+    public static final String EXTENSAO_DIARIO = ".diario";
+
+    private final int registosPorSincronizacao;
+    private final long intervaloSincronizacaoMs;
+    private DiarioOperacoes diario;
+    private String ficheiroAtual;
+    private int operacoesIgnoradas;
+    private final ExecutorService executorGravacao;
+    private CompletableFuture<ResultadoGravacao> gravacaoEmCurso;
+
+    /**
+     * Construtor por omissão. A sincronização do diário pode ser configurada através das propriedades
+     * spotifum.diario.lote (nº de registos por fsync) e spotifum.diario.intervaloMs (tempo máximo sem fsync).
+     */
+    public GestorEstado() {
+        this(Integer.getInteger("spotifum.diario.lote", 32), Long.getLong("spotifum.diario.intervaloMs", 200L));
+    }
+
+    /**
+     * Construtor parametrizado. Aceita:
+     * @param registosPorSincronizacao nº de registos acumulados que provocam um fsync
+     * @param intervaloSincronizacaoMs tempo máximo (ms) que um registo pode ficar por sincronizar
+     */
+    public GestorEstado(int registosPorSincronizacao, long intervaloSincronizacaoMs) {
+        this.registosPorSincronizacao = registosPorSincronizacao;
+        this.intervaloSincronizacaoMs = intervaloSincronizacaoMs;
+        this.diario = null;
+        this.ficheiroAtual = null;
+        this.operacoesIgnoradas = 0;
+        this.executorGravacao = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "estado-gravacao");
+            t.setDaemon(true);
+            return t;
+        });
+        this.gravacaoEmCurso = null;
+        // Garante que os registos pendentes são escritos quando a aplicação termina normalmente
+        Runtime.getRuntime().addShutdownHook(new Thread(this::fecha, "diario-fecho"));
+    }
+
+    /**
+     * Carrega o último estado guardado num ficheiro e reaplica as operações registadas no diário desde então.
+     * O diário fica associado ao modelo, que passa a registar todas as alterações.
+     * @param nomeFicheiro nome do ficheiro do estado
+     * @return modelo carregado
+     * @throws IOException caso o estado ou o diário não possam ser lidos
+     */
+    public synchronized SpotifUM carrega(String nomeFicheiro) throws IOException {
+        SpotifUM modelo = CodecEstado.carrega(nomeFicheiro);
+        this.operacoesIgnoradas = DiarioOperacoes.reproduz(nomeFicheiro + EXTENSAO_DIARIO, modelo);
+        associaDiario(modelo, nomeFicheiro);
+        return modelo;
+    }
+
+    /**
+     * Guarda o estado do modelo num ficheiro. Como o estado passa a incluir todas as operações registadas, o diário é reiniciado.
+     * Caso esteja a decorrer uma gravação em segundo plano, espera que termine.
+     * @param modelo modelo
+     * @param nomeFicheiro nome do ficheiro do estado
+     * @return duração e tamanho da gravação
+     * @throws IOException caso ocorra um erro de escrita
+     */
+    public ResultadoGravacao guarda(SpotifUM modelo, String nomeFicheiro) throws IOException {
+        aguardaGravacao();
+        synchronized (this) {
+            long inicio = System.nanoTime();
+            if (this.diario != null) {
+                this.diario.sincroniza();
+            }
+            // Com o modelo bloqueado, nenhuma sessão regista operações entre a gravação e o reinício do diário
+            long tamanho;
+            try {
+                tamanho = modelo.exclusivo(() -> {
+                    try {
+                        long t = CodecEstado.guarda(modelo, nomeFicheiro);
+                        if (this.diario == null || !nomeFicheiro.equals(this.ficheiroAtual) || modelo.getDiario() != this.diario) {
+                            associaDiario(modelo, nomeFicheiro);
+                        }
+                        this.diario.reinicia();
+                        return t;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return new ResultadoGravacao(nomeFicheiro, System.nanoTime() - inicio, tamanho, modelo.getSequenciaDiario());
+        }
+    }
+
+    /**
+     * Guarda o estado do modelo num ficheiro sem bloquear quem o está a usar.
+     * É fixada a última operação do diário; numa thread à parte, o último estado guardado é carregado, as operações do diário até
+     * essa são reaplicadas e o resultado é escrito no ficheiro. No fim, o diário fica apenas com as operações posteriores.
+     * O modelo em uso nunca é lido pela gravação, pelo que continua a poder ser alterado enquanto ela decorre.
+     * Caso o modelo ainda não tenha um estado guardado associado, a gravação é feita de imediato.
+     * @param modelo modelo
+     * @param nomeFicheiro nome do ficheiro do estado
+     * @return gravação, que termina com a sua duração e tamanho
+     * @throws IllegalStateException caso já esteja a decorrer uma gravação em segundo plano
+     */
+    public synchronized CompletableFuture<ResultadoGravacao> guardaEmSegundoPlano(SpotifUM modelo, String nomeFicheiro) {
+        if (this.gravacaoEmCurso != null && !this.gravacaoEmCurso.isDone()) {
+            throw new IllegalStateException("Já está a ser guardado um estado!");
+        }
+        if (this.diario == null || modelo.getDiario() != this.diario || !Files.exists(Paths.get(this.ficheiroAtual))) {
+            try {
+                return CompletableFuture.completedFuture(guarda(modelo, nomeFicheiro));
+            } catch (IOException e) {
+                CompletableFuture<ResultadoGravacao> falhada = new CompletableFuture<>();
+                falhada.completeExceptionally(e);
+                return falhada;
+            }
+        }
+
+        this.diario.sincroniza();
+        final DiarioOperacoes diarioBase = this.diario;
+        final long sequencia = diarioBase.getUltimaSequencia();
+        final String estadoBase = this.ficheiroAtual;
+        final String ficheiroDiarioBase = diarioBase.getFicheiro();
+        this.gravacaoEmCurso = CompletableFuture.supplyAsync(() -> {
+            try {
+                long inicio = System.nanoTime();
+                SpotifUM copia = CodecEstado.carrega(estadoBase);
+                DiarioOperacoes.reproduz(ficheiroDiarioBase, copia, sequencia);
+                copia.setSequenciaDiario(sequencia);
+                long tamanho = CodecEstado.guarda(copia, nomeFicheiro);
+                synchronized (this) {
+                    // Se entretanto o diário foi fechado ou substituído, não há registos a descartar
+                    if (this.diario == diarioBase) {
+                        diarioBase.compacta(sequencia, nomeFicheiro + EXTENSAO_DIARIO);
+                        this.ficheiroAtual = nomeFicheiro;
+                    }
+                }
+                return new ResultadoGravacao(nomeFicheiro, System.nanoTime() - inicio, tamanho, sequencia);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, this.executorGravacao);
+        return this.gravacaoEmCurso;
+    }
+
+    /**
+     * Espera que termine a gravação em segundo plano em curso, se existir. Uma falha dessa gravação não é propagada.
+     */
+    private void aguardaGravacao() {
+        CompletableFuture<ResultadoGravacao> emCurso;
+        synchronized (this) {
+            emCurso = this.gravacaoEmCurso;
+        }
+        if (emCurso != null) {
+            try {
+                emCurso.join();
+            } catch (CompletionException e) {
+                // A falha já foi comunicada a quem pediu a gravação
+            }
+        }
+    }
+
+    /**
+     * Associa ao modelo o diário correspondente a um ficheiro de estado, fechando o diário anterior.
+     * @param modelo modelo
+     * @param nomeFicheiro nome do ficheiro do estado
+     * @throws IOException caso o diário não possa ser aberto
+     */
+    private void associaDiario(SpotifUM modelo, String nomeFicheiro) throws IOException {
+        if (this.diario != null) {
+            this.diario.fecha();
+        }
+        this.diario = new DiarioOperacoes(nomeFicheiro + EXTENSAO_DIARIO, modelo.getSequenciaDiario(), this.registosPorSincronizacao, this.intervaloSincronizacaoMs);
+        this.ficheiroAtual = nomeFicheiro;
+        modelo.setDiario(this.diario);
+    }
+
+    /**
+     * Devolve o nº de operações do diário que não puderam ser reaplicadas no último carregamento.
+     * @return nº de operações ignoradas
+     */
+    public int getOperacoesIgnoradas() {
+        return this.operacoesIgnoradas;
+    }
+
+    /**
+     * Diz se está a decorrer uma gravação em segundo plano.
+     * @return true / false
+     */
+    public synchronized boolean isGravacaoEmCurso() {
+        return this.gravacaoEmCurso != null && !this.gravacaoEmCurso.isDone();
+    }
+
+    /**
+     * Escreve os registos pendentes e fecha o diário atual.
+     */
+    public synchronized void fecha() {
+        if (this.diario != null) {
+            this.diario.fecha();
+            this.diario = null;
+        }
+    }
+
+    /**
+     * Resultado de uma gravação do estado.
+     */
+    public static class ResultadoGravacao {
+        private final String ficheiro;
+        private final long duracaoNs;
+        private final long tamanho;
+        private final long sequencia;
+
+        /**
+         * Construtor parametrizado. Aceita:
+         * @param ficheiro ficheiro escrito
+         * @param duracaoNs duração da gravação (ns)
+         * @param tamanho tamanho do ficheiro (bytes)
+         * @param sequencia última operação do diário incluída no estado
+         */
+        public ResultadoGravacao(String ficheiro, long duracaoNs, long tamanho, long sequencia) {
+            this.ficheiro = ficheiro;
+            this.duracaoNs = duracaoNs;
+            this.tamanho = tamanho;
+            this.sequencia = sequencia;
+        }
+
+        /**
+         * Devolve o ficheiro escrito.
+         * @return nome do ficheiro
+         */
+        public String getFicheiro() {
+            return this.ficheiro;
+        }
+
+        /**
+         * Devolve a duração da gravação em milissegundos.
+         * @return duração (ms)
+         */
+        public long getDuracaoMs() {
+            return this.duracaoNs / 1_000_000;
+        }
+
+        /**
+         * Devolve o tamanho do ficheiro escrito.
+         * @return tamanho (bytes)
+         */
+        public long getTamanho() {
+            return this.tamanho;
+        }
+
+        /**
+         * Devolve a última operação do diário incluída no estado.
+         * @return sequência
+         */
+        public long getSequencia() {
+            return this.sequencia;
+        }
+
+        /**
+         * Converte o resultado numa string.
+         * @return string
+         */
+        public String toString() {
+            return "Estado guardado em " + this.ficheiro + " (" + this.tamanho + " bytes, " + getDuracaoMs() + " ms)";
+        }
+    }
+}
@@ -0,0 +1,515 @@
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Histórico de reproduções de um utilizador, guardado em arrays de tipos primitivos.
+ * Cada música ouvida recebe um identificador local (a sua posição no dicionário do histórico) e cada reprodução ocupa apenas
+ * esse identificador e a data em segundos desde a época (UTC), em vez de um LocalDateTime numa lista por música.
+ * As datas são guardadas ao segundo, tal como no diário de operações.
+ * Enquanto as reproduções forem registadas por ordem cronológica, as consultas por intervalo usam pesquisa binária; caso contrário,
+ * as reproduções são ordenadas na primeira consulta que precise delas.
+ * As músicas mais ouvidas (até -Dspotifum.favoritos.max, 100 por omissão) são mantidas numa árvore ordenada pelo nº de reproduções,
+ * construída na primeira consulta e, a partir daí, atualizada a cada reprodução.
+ */
+public class HistoricoReproducoes implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int CAPACIDADE_INICIAL = 8;
+    private static final int MAX_MAIS_OUVIDAS = Integer.getInteger("spotifum.favoritos.max", 100);
+
+    private Musica[] musicas;
+    private int[] contagens;
+    private int numMusicas;
+    private transient Map<Musica, Integer> ids;
+    private int[] musicaReproducao;
+    private long[] segundos;
+    private int numReproducoes;
+    private boolean ordenado;
+    private transient TreeSet<Integer> maisOuvidas;
+
+    /**
+     * Construtor por omissão.
+     */
+    public HistoricoReproducoes() {
+        this.musicas = new Musica[0];
+        this.contagens = new int[0];
+        this.numMusicas = 0;
+        this.ids = new HashMap<Musica, Integer>();
+        this.musicaReproducao = new int[0];
+        this.segundos = new long[0];
+        this.numReproducoes = 0;
+        this.ordenado = true;
+    }
+
+    /**
+     * Construtor parametrizado, a partir de um histórico no formato antigo (datas por música). As músicas são clonadas. Aceita:
+     * @param historico mapa de músicas para as datas em que foram ouvidas
+     */
+    public HistoricoReproducoes(Map<Musica, List<LocalDateTime>> historico) {
+        this();
+        for (Map.Entry<Musica, List<LocalDateTime>> h : historico.entrySet()) {
+            Musica m = h.getKey().clone();
+            for (LocalDateTime data : h.getValue()) {
+                regista(m, data);
+            }
+        }
+    }
+
+    /**
+     * Construtor de cópia. As músicas são clonadas. Aceita:
+     * @param h histórico a copiar
+     */
+    public HistoricoReproducoes(HistoricoReproducoes h) {
+        this.musicas = new Musica[h.numMusicas];
+        for (int i = 0; i < h.numMusicas; i++) {
+            this.musicas[i] = h.musicas[i].clone();
+        }
+        this.contagens = Arrays.copyOf(h.contagens, h.numMusicas);
+        this.numMusicas = h.numMusicas;
+        this.musicaReproducao = Arrays.copyOf(h.musicaReproducao, h.numReproducoes);
+        this.segundos = Arrays.copyOf(h.segundos, h.numReproducoes);
+        this.numReproducoes = h.numReproducoes;
+        this.ordenado = h.ordenado;
+    }
+
+    private Map<Musica, Integer> ids() {
+        if (this.ids == null) {
+            this.ids = new HashMap<Musica, Integer>();
+            for (int i = 0; i < this.numMusicas; i++) {
+                this.ids.put(this.musicas[i], i);
+            }
+        }
+        return this.ids;
+    }
+
+    /**
+     * Devolve o identificador local de uma música.
+     * @param m música
+     * @return identificador, ou -1 caso a música nunca tenha sido ouvida
+     */
+    private int id(Object m) {
+        Integer id = ids().get(m);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Regista uma reprodução.
+     * @param m música reproduzida
+     * @param data data da reprodução
+     */
+    public void regista(Musica m, LocalDateTime data) {
+        regista(m, data.toEpochSecond(ZoneOffset.UTC));
+    }
+
+    /**
+     * Regista uma reprodução.
+     * @param m música reproduzida
+     * @param segundosEpoca data da reprodução, em segundos desde a época (UTC)
+     */
+    public void regista(Musica m, long segundosEpoca) {
+        int id = id(m);
+        if (id < 0) {
+            id = this.numMusicas;
+            if (id == this.musicas.length) {
+                int capacidade = Math.max(CAPACIDADE_INICIAL, id * 2);
+                this.musicas = Arrays.copyOf(this.musicas, capacidade);
+                this.contagens = Arrays.copyOf(this.contagens, capacidade);
+            }
+            this.musicas[id] = m;
+            this.numMusicas++;
+            ids().put(m, id);
+        }
+        if (this.maisOuvidas != null) {
+            // A música tem de sair da árvore antes de a sua contagem mudar, já que é ela que a ordena
+            boolean estava = this.maisOuvidas.remove(id);
+            this.contagens[id]++;
+            if (estava || this.maisOuvidas.size() < MAX_MAIS_OUVIDAS) {
+                this.maisOuvidas.add(id);
+            } else if (comparaReproducoes(id, this.maisOuvidas.last()) < 0) {
+                // As contagens só crescem, pelo que uma música só entra nas mais ouvidas se ultrapassar a última
+                this.maisOuvidas.pollLast();
+                this.maisOuvidas.add(id);
+            }
+        } else {
+            this.contagens[id]++;
+        }
+        int n = this.numReproducoes;
+        if (n == this.segundos.length) {
+            int capacidade = Math.max(CAPACIDADE_INICIAL, n * 2);
+            this.musicaReproducao = Arrays.copyOf(this.musicaReproducao, capacidade);
+            this.segundos = Arrays.copyOf(this.segundos, capacidade);
+        }
+        if (n > 0 && segundosEpoca < this.segundos[n - 1]) {
+            this.ordenado = false;
+        }
+        this.musicaReproducao[n] = id;
+        this.segundos[n] = segundosEpoca;
+        this.numReproducoes++;
+    }
+
+    /**
+     * Apaga todo o histórico.
+     */
+    public void apaga() {
+        this.musicas = new Musica[0];
+        this.contagens = new int[0];
+        this.numMusicas = 0;
+        this.ids = new HashMap<Musica, Integer>();
+        this.musicaReproducao = new int[0];
+        this.segundos = new long[0];
+        this.numReproducoes = 0;
+        this.ordenado = true;
+        this.maisOuvidas = null;
+    }
+
+    /**
+     * Diz se uma música foi ouvida.
+     * @param m música
+     * @return true / false
+     */
+    public boolean contem(Object m) {
+        return id(m) >= 0;
+    }
+
+    /**
+     * Devolve o nº de músicas distintas ouvidas.
+     * @return nº de músicas
+     */
+    public int getNumMusicas() {
+        return this.numMusicas;
+    }
+
+    /**
+     * Devolve o nº total de reproduções.
+     * @return nº de reproduções
+     */
+    public int getNumReproducoes() {
+        return this.numReproducoes;
+    }
+
+    /**
+     * Devolve o nº de reproduções de uma música.
+     * @param m música
+     * @return nº de reproduções
+     */
+    public int getNumReproducoes(Object m) {
+        int id = id(m);
+        return id < 0 ? 0 : this.contagens[id];
+    }
+
+    /**
+     * Devolve o nº de reproduções estritamente posteriores a uma data.
+     * @param data data
+     * @return nº de reproduções
+     */
+    public int getNumReproducoesApos(LocalDateTime data) {
+        ordena();
+        // As datas guardadas são segundos inteiros, pelo que as posteriores a data são as que não são anteriores ao segundo seguinte
+        return this.numReproducoes - primeiraNaoAnterior(data.toEpochSecond(ZoneOffset.UTC) + 1);
+    }
+
+    /**
+     * Devolve a data da primeira reprodução.
+     * @return data, ou null caso o histórico esteja vazio
+     */
+    public LocalDateTime getPrimeiraReproducao() {
+        if (this.numReproducoes == 0) {
+            return null;
+        }
+        ordena();
+        return LocalDateTime.ofEpochSecond(this.segundos[0], 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * Devolve as datas em que uma música foi ouvida, por ordem cronológica.
+     * @param m música
+     * @return lista de datas (vazia caso a música nunca tenha sido ouvida)
+     */
+    public List<LocalDateTime> getDatas(Object m) {
+        int id = id(m);
+        if (id < 0) {
+            return new ArrayList<LocalDateTime>();
+        }
+        List<LocalDateTime> datas = new ArrayList<LocalDateTime>(this.contagens[id]);
+        for (long s : getSegundos(id)) {
+            datas.add(LocalDateTime.ofEpochSecond(s, 0, ZoneOffset.UTC));
+        }
+        return datas;
+    }
+
+    /**
+     * Devolve as músicas mais ouvidas, por ordem decrescente do nº de reproduções.
+     * @param limite nº máximo de músicas
+     * @return lista de músicas
+     */
+    public List<Musica> getMaisOuvidas(int limite) {
+        List<Musica> resultado = new ArrayList<Musica>(Math.max(0, Math.min(limite, this.numMusicas)));
+        if (limite > MAX_MAIS_OUVIDAS) {
+            Integer[] ordem = ordemPorReproducoes();
+            for (int i = 0; i < this.numMusicas && i < limite; i++) {
+                resultado.add(this.musicas[ordem[i]]);
+            }
+            return resultado;
+        }
+        for (int id : maisOuvidas()) {
+            if (resultado.size() == limite) {
+                break;
+            }
+            resultado.add(this.musicas[id]);
+        }
+        return resultado;
+    }
+
+    /**
+     * Diz se uma música está entre as mais ouvidas, pela ordem de getMaisOuvidas.
+     * Para as músicas fora da árvore das mais ouvidas (a grande maioria) e limites até MAX_MAIS_OUVIDAS, a resposta é O(log n).
+     * @param m música
+     * @param limite nº de músicas mais ouvidas
+     * @return true / false
+     */
+    public boolean isEntreMaisOuvidas(Object m, int limite) {
+        int id = id(m);
+        if (id < 0) {
+            return false;
+        }
+        if (limite > MAX_MAIS_OUVIDAS) {
+            int antes = 0;
+            for (int i = 0; i < this.numMusicas; i++) {
+                if (comparaReproducoes(i, id) < 0) {
+                    antes++;
+                }
+            }
+            return antes < limite;
+        }
+        TreeSet<Integer> arvore = maisOuvidas();
+        return arvore.contains(id) && arvore.headSet(id).size() < limite;
+    }
+
+    /**
+     * Ordena as músicas por nº de reproduções (decrescente) e, em caso de empate, pelo identificador local.
+     */
+    private int comparaReproducoes(int a, int b) {
+        int c = Integer.compare(this.contagens[b], this.contagens[a]);
+        return c != 0 ? c : Integer.compare(a, b);
+    }
+
+    private Integer[] ordemPorReproducoes() {
+        Integer[] ordem = new Integer[this.numMusicas];
+        for (int i = 0; i < this.numMusicas; i++) {
+            ordem[i] = i;
+        }
+        Arrays.sort(ordem, this::comparaReproducoes);
+        return ordem;
+    }
+
+    /**
+     * Devolve a árvore das músicas mais ouvidas, construindo-a caso ainda não exista.
+     */
+    private TreeSet<Integer> maisOuvidas() {
+        if (this.maisOuvidas == null) {
+            TreeSet<Integer> arvore = new TreeSet<Integer>(this::comparaReproducoes);
+            Integer[] ordem = ordemPorReproducoes();
+            for (int i = 0; i < ordem.length && i < MAX_MAIS_OUVIDAS; i++) {
+                arvore.add(ordem[i]);
+            }
+            this.maisOuvidas = arvore;
+        }
+        return this.maisOuvidas;
+    }
+
+    /**
+     * Devolve a música com um dado identificador local. Usado na persistência do estado.
+     * @param id identificador
+     * @return música
+     */
+    Musica getMusica(int id) {
+        return this.musicas[id];
+    }
+
+    /**
+     * Devolve as datas (em segundos desde a época, UTC) das reproduções de uma música, por ordem cronológica.
+     * @param id identificador local da música
+     * @return datas
+     */
+    long[] getSegundos(int id) {
+        ordena();
+        long[] datas = new long[this.contagens[id]];
+        for (int i = 0, j = 0; i < this.numReproducoes && j < datas.length; i++) {
+            if (this.musicaReproducao[i] == id) {
+                datas[j++] = this.segundos[i];
+            }
+        }
+        return datas;
+    }
+
+    /**
+     * Devolve as datas (em segundos desde a época, UTC) das reproduções de todas as músicas, por ordem cronológica, percorrendo as reproduções uma única vez.
+     * Usado na persistência do estado.
+     * @return datas por identificador local
+     */
+    long[][] getSegundosPorMusica() {
+        ordena();
+        long[][] datas = new long[this.numMusicas][];
+        int[] preenchidas = new int[this.numMusicas];
+        for (int id = 0; id < this.numMusicas; id++) {
+            datas[id] = new long[this.contagens[id]];
+        }
+        for (int i = 0; i < this.numReproducoes; i++) {
+            int id = this.musicaReproducao[i];
+            datas[id][preenchidas[id]++] = this.segundos[i];
+        }
+        return datas;
+    }
+
+    /**
+     * Percorre as reproduções por ordem cronológica, passando a música e a data (em segundos desde a época, UTC) de cada uma.
+     * Usado para alimentar as tendências a partir dos históricos existentes.
+     * @param acao ação a executar para cada reprodução
+     */
+    void percorre(ObjLongConsumer<Musica> acao) {
+        ordena();
+        for (int i = 0; i < this.numReproducoes; i++) {
+            acao.accept(this.musicas[this.musicaReproducao[i]], this.segundos[i]);
+        }
+    }
+
+    /**
+     * Devolve uma vista só de leitura do histórico no formato antigo, em que cada música é associada às datas em que foi ouvida.
+     * As listas de datas são calculadas quando são pedidas.
+     * @return mapa de músicas para datas
+     */
+    public Map<Musica, List<LocalDateTime>> vista() {
+        return new AbstractMap<Musica, List<LocalDateTime>>() {
+            public int size() {
+                return HistoricoReproducoes.this.numMusicas;
+            }
+
+            public boolean containsKey(Object chave) {
+                return contem(chave);
+            }
+
+            public List<LocalDateTime> get(Object chave) {
+                return contem(chave) ? Collections.unmodifiableList(getDatas(chave)) : null;
+            }
+
+            public Set<Map.Entry<Musica, List<LocalDateTime>>> entrySet() {
+                return new AbstractSet<Map.Entry<Musica, List<LocalDateTime>>>() {
+                    public int size() {
+                        return HistoricoReproducoes.this.numMusicas;
+                    }
+
+                    public Iterator<Map.Entry<Musica, List<LocalDateTime>>> iterator() {
+                        return new Iterator<Map.Entry<Musica, List<LocalDateTime>>>() {
+                            private int i = 0;
+
+                            public boolean hasNext() {
+                                return this.i < HistoricoReproducoes.this.numMusicas;
+                            }
+
+                            public Map.Entry<Musica, List<LocalDateTime>> next() {
+                                if (!hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+                                Musica m = HistoricoReproducoes.this.musicas[this.i++];
+                                return new AbstractMap.SimpleImmutableEntry<Musica, List<LocalDateTime>>(m, Collections.unmodifiableList(getDatas(m)));
+                            }
+                        };
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Devolve a posição da primeira reprodução com data maior ou igual a um valor (as reproduções têm de estar ordenadas).
+     * @param limite data em segundos
+     * @return posição
+     */
+    private int primeiraNaoAnterior(long limite) {
+        int inicio = 0;
+        int fim = this.numReproducoes;
+        while (inicio < fim) {
+            int meio = (inicio + fim) >>> 1;
+            if (this.segundos[meio] < limite) {
+                inicio = meio + 1;
+            } else {
+                fim = meio;
+            }
+        }
+        return inicio;
+    }
+
+    /**
+     * Ordena as reproduções por data, caso não tenham sido registadas por ordem. A ordenação é estável, pelo que as reproduções
+     * com a mesma data mantêm a ordem em que foram registadas.
+     */
+    private void ordena() {
+        if (this.ordenado) {
+            return;
+        }
+        int n = this.numReproducoes;
+        long[] s = Arrays.copyOf(this.segundos, n);
+        int[] m = Arrays.copyOf(this.musicaReproducao, n);
+        long[] sAux = new long[n];
+        int[] mAux = new int[n];
+        for (int largura = 1; largura < n; largura *= 2) {
+            for (int inicio = 0; inicio < n; inicio += 2 * largura) {
+                int meio = Math.min(inicio + largura, n);
+                int fim = Math.min(inicio + 2 * largura, n);
+                int i = inicio, j = meio, k = inicio;
+                while (i < meio && j < fim) {
+                    if (s[j] < s[i]) {
+                        sAux[k] = s[j];
+                        mAux[k++] = m[j++];
+                    } else {
+                        sAux[k] = s[i];
+                        mAux[k++] = m[i++];
+                    }
+                }
+                while (i < meio) {
+                    sAux[k] = s[i];
+                    mAux[k++] = m[i++];
+                }
+                while (j < fim) {
+                    sAux[k] = s[j];
+                    mAux[k++] = m[j++];
+                }
+            }
+            long[] ts = s;
+            s = sAux;
+            sAux = ts;
+            int[] tm = m;
+            m = mAux;
+            mAux = tm;
+        }
+        this.segundos = s;
+        this.musicaReproducao = m;
+        this.ordenado = true;
+    }
+
+    /**
+     * Implementa igualdade entre históricos, pelas músicas ouvidas e respetivas datas.
+     * @param o objeto
+     * @return true / false
+     */
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if ((o == null) || (this.getClass() != o.getClass())) {
+            return false;
+        }
+        return vista().equals(((HistoricoReproducoes) o).vista());
+    }
+
+    /**
+     * Calcula o hash code de um histórico.
+     * @return hash code
+     */
+    public int hashCode() {
+        return vista().hashCode();
+    }
+}
@@ -0,0 +1,154 @@
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Índice das músicas do catálogo por género e duração. Para cada género (sem distinguir maiúsculas de minúsculas), as músicas estão
+ * ordenadas pela duração e, em caso de empate, pelo identificador, numa árvore cuja chave junta os dois valores num long.
+ * As músicas de um género até uma duração máxima são assim um intervalo da árvore, percorrido só até haver músicas suficientes.
+ */
+public class IndiceGeneroDuracao {
+    private final Map<String, TreeMap<Long, Musica>> porGenero;
+
+    /**
+     * Construtor por omissão.
+     */
+    public IndiceGeneroDuracao() {
+        this.porGenero = new HashMap<String, TreeMap<Long, Musica>>();
+    }
+
+    private static String normaliza(String genero) {
+        return genero.toLowerCase();
+    }
+
+    /**
+     * Chave de uma música: a duração nos 32 bits mais significativos e o identificador (nunca negativo) nos restantes.
+     */
+    private static long chave(int duracao, int id) {
+        return ((long) duracao << 32) | id;
+    }
+
+    /**
+     * Adiciona uma música ao índice, substituindo a instância anterior com o mesmo identificador, caso exista.
+     * @param m música
+     */
+    public void adiciona(Musica m) {
+        if (m.getGenero() != null) {
+            this.porGenero.computeIfAbsent(normaliza(m.getGenero()), g -> new TreeMap<Long, Musica>()).put(chave(m.getDuracao(), m.getId()), m);
+        }
+    }
+
+    /**
+     * Remove uma música do índice.
+     * @param m música
+     */
+    public void remove(Musica m) {
+        if (m.getGenero() == null) {
+            return;
+        }
+        String genero = normaliza(m.getGenero());
+        TreeMap<Long, Musica> musicas = this.porGenero.get(genero);
+        if (musicas != null) {
+            musicas.remove(chave(m.getDuracao(), m.getId()));
+            if (musicas.isEmpty()) {
+                this.porGenero.remove(genero);
+            }
+        }
+    }
+
+    private Collection<Musica> ate(String genero, int duracaoMaxima) {
+        TreeMap<Long, Musica> musicas = this.porGenero.get(normaliza(genero));
+        if (musicas == null) {
+            return Collections.emptyList();
+        }
+        return musicas.headMap(chave(duracaoMaxima, Integer.MAX_VALUE), true).values();
+    }
+
+    /**
+     * Devolve as músicas mais curtas de um género com duração até um máximo, por ordem crescente de duração.
+     * @param genero género
+     * @param duracaoMaxima duração máxima (em segundos, inclusive)
+     * @param n nº máximo de músicas
+     * @return músicas
+     */
+    public List<Musica> getMaisCurtas(String genero, int duracaoMaxima, int n) {
+        List<Musica> res = new ArrayList<Musica>();
+        for (Musica m : ate(genero, duracaoMaxima)) {
+            if (res.size() >= n) {
+                break;
+            }
+            res.add(m);
+        }
+        return res;
+    }
+
+    /**
+     * Candidata a uma das músicas mais populares. Em caso de empate na popularidade, é melhor a que aparece primeiro no intervalo (a mais curta).
+     */
+    private static class Candidata implements Comparable<Candidata> {
+        private final int popularidade;
+        private final int ordem;
+        private final Musica musica;
+
+        private Candidata(int popularidade, int ordem, Musica musica) {
+            this.popularidade = popularidade;
+            this.ordem = ordem;
+            this.musica = musica;
+        }
+
+        public int compareTo(Candidata c) {
+            int r = Integer.compare(this.popularidade, c.popularidade);
+            return r != 0 ? r : Integer.compare(c.ordem, this.ordem);
+        }
+    }
+
+    /**
+     * Devolve as músicas mais populares de um género com duração até um máximo, por ordem decrescente de popularidade e, em caso de empate,
+     * crescente de duração. O intervalo é percorrido uma vez, mantendo as n melhores num heap.
+     * @param genero género
+     * @param duracaoMaxima duração máxima (em segundos, inclusive)
+     * @param n nº máximo de músicas
+     * @param popularidade popularidade de uma música (p.e. o seu nº de reproduções)
+     * @return músicas
+     */
+    public List<Musica> getMaisPopulares(String genero, int duracaoMaxima, int n, ToIntFunction<Musica> popularidade) {
+        return getMaisPopulares(genero, duracaoMaxima, n, popularidade, m -> true);
+    }
+
+    /**
+     * Devolve as músicas mais populares de um género com duração até um máximo que satisfazem uma condição (p.e. as preferências do utilizador),
+     * por ordem decrescente de popularidade e, em caso de empate, crescente de duração.
+     * @param genero género
+     * @param duracaoMaxima duração máxima (em segundos, inclusive)
+     * @param n nº máximo de músicas
+     * @param popularidade popularidade de uma música (p.e. o seu nº de reproduções)
+     * @param condicao condição
+     * @return músicas
+     */
+    public List<Musica> getMaisPopulares(String genero, int duracaoMaxima, int n, ToIntFunction<Musica> popularidade, Predicate<Musica> condicao) {
+        List<Musica> res = new ArrayList<Musica>();
+        if (n <= 0) {
+            return res;
+        }
+        // O topo do heap é a pior das n melhores
+        PriorityQueue<Candidata> melhores = new PriorityQueue<Candidata>();
+        int ordem = 0;
+        for (Musica m : ate(genero, duracaoMaxima)) {
+            if (!condicao.test(m)) {
+                continue;
+            }
+            Candidata c = new Candidata(popularidade.applyAsInt(m), ordem++, m);
+            if (melhores.size() < n) {
+                melhores.add(c);
+            } else if (c.compareTo(melhores.peek()) > 0) {
+                melhores.poll();
+                melhores.add(c);
+            }
+        }
+        while (!melhores.isEmpty()) {
+            res.add(melhores.poll().musica);
+        }
+        Collections.reverse(res);
+        return res;
+    }
+}
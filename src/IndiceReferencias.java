@@ -0,0 +1,203 @@
+import java.util.*;
+
+/**
+ * Índice inverso das referências guardadas pelos utilizadores: para cada música, as bibliotecas e playlists que a contêm;
+ * para cada álbum, as bibliotecas que o guardam; e para cada playlist, as bibliotecas onde está guardada.
+ * Músicas e álbuns são identificados pelo nome, tal como nas bibliotecas e playlists; bibliotecas e playlists são comparadas por identidade.
+ * As músicas de uma playlist só são indexadas enquanto ela estiver guardada em alguma biblioteca.
+ */
+public class IndiceReferencias {
+    private final Map<String, Set<Biblioteca>> bibliotecasPorMusica;
+    private final Map<String, Set<Playlist>> playlistsPorMusica;
+    private final Map<String, Set<Biblioteca>> bibliotecasPorAlbum;
+    private final Map<Playlist, Set<Biblioteca>> bibliotecasPorPlaylist;
+
+    /**
+     * Construtor por omissão.
+     */
+    public IndiceReferencias() {
+        this.bibliotecasPorMusica = new HashMap<String, Set<Biblioteca>>();
+        this.playlistsPorMusica = new HashMap<String, Set<Playlist>>();
+        this.bibliotecasPorAlbum = new HashMap<String, Set<Biblioteca>>();
+        this.bibliotecasPorPlaylist = new IdentityHashMap<Playlist, Set<Biblioteca>>();
+    }
+
+    private static <T> Set<T> conjunto() {
+        return Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+    }
+
+    private static <K, T> void adiciona(Map<K, Set<T>> mapa, K chave, T valor) {
+        mapa.computeIfAbsent(chave, k -> conjunto()).add(valor);
+    }
+
+    private static <K, T> void remove(Map<K, Set<T>> mapa, K chave, T valor) {
+        Set<T> valores = mapa.get(chave);
+        if (valores != null) {
+            valores.remove(valor);
+            if (valores.isEmpty()) {
+                mapa.remove(chave);
+            }
+        }
+    }
+
+    private static <K, T> Set<T> obtem(Map<K, Set<T>> mapa, K chave) {
+        Set<T> valores = mapa.get(chave);
+        if (valores == null) {
+            return Collections.emptySet();
+        }
+        Set<T> copia = conjunto();
+        copia.addAll(valores);
+        return copia;
+    }
+
+    /**
+     * Indexa todo o conteúdo de uma biblioteca.
+     * @param b biblioteca
+     */
+    public void adicionaBiblioteca(Biblioteca b) {
+        for (String m : b.musicasInternas().keySet()) {
+            adicionaMusicaBiblioteca(b, m);
+        }
+        for (String a : b.albunsInternos().keySet()) {
+            adicionaAlbumBiblioteca(b, a);
+        }
+        for (Playlist p : b.playlistsInternas().values()) {
+            adicionaPlaylistBiblioteca(b, p);
+        }
+    }
+
+    /**
+     * Retira do índice todo o conteúdo de uma biblioteca (p.e. quando a conta é apagada).
+     * @param b biblioteca
+     */
+    public void removeBiblioteca(Biblioteca b) {
+        for (String m : b.musicasInternas().keySet()) {
+            remove(this.bibliotecasPorMusica, m, b);
+        }
+        for (String a : b.albunsInternos().keySet()) {
+            remove(this.bibliotecasPorAlbum, a, b);
+        }
+        for (Playlist p : b.playlistsInternas().values()) {
+            removePlaylistBiblioteca(b, p);
+        }
+    }
+
+    /**
+     * Regista que uma biblioteca guarda uma música.
+     * @param b biblioteca
+     * @param nomeMusica nome da música
+     */
+    public void adicionaMusicaBiblioteca(Biblioteca b, String nomeMusica) {
+        adiciona(this.bibliotecasPorMusica, nomeMusica, b);
+    }
+
+    /**
+     * Regista que uma biblioteca guarda um álbum.
+     * @param b biblioteca
+     * @param nomeAlbum nome do álbum
+     */
+    public void adicionaAlbumBiblioteca(Biblioteca b, String nomeAlbum) {
+        adiciona(this.bibliotecasPorAlbum, nomeAlbum, b);
+    }
+
+    /**
+     * Regista que uma biblioteca guarda uma playlist. Na primeira biblioteca, as músicas da playlist passam a ser indexadas.
+     * @param b biblioteca
+     * @param p playlist
+     */
+    public void adicionaPlaylistBiblioteca(Biblioteca b, Playlist p) {
+        if (!this.bibliotecasPorPlaylist.containsKey(p)) {
+            for (String m : p.musicas.keySet()) {
+                adiciona(this.playlistsPorMusica, m, p);
+            }
+        }
+        adiciona(this.bibliotecasPorPlaylist, p, b);
+    }
+
+    /**
+     * Regista que uma biblioteca deixou de guardar uma playlist. Quando nenhuma a guarda, as suas músicas deixam de ser indexadas.
+     * @param b biblioteca
+     * @param p playlist
+     */
+    public void removePlaylistBiblioteca(Biblioteca b, Playlist p) {
+        remove(this.bibliotecasPorPlaylist, p, b);
+        if (!this.bibliotecasPorPlaylist.containsKey(p)) {
+            for (String m : p.musicas.keySet()) {
+                remove(this.playlistsPorMusica, m, p);
+            }
+        }
+    }
+
+    /**
+     * Regista que foi adicionada uma música a uma playlist.
+     * @param p playlist
+     * @param nomeMusica nome da música
+     */
+    public void adicionaMusicaPlaylist(Playlist p, String nomeMusica) {
+        if (this.bibliotecasPorPlaylist.containsKey(p)) {
+            adiciona(this.playlistsPorMusica, nomeMusica, p);
+        }
+    }
+
+    /**
+     * Regista que foi retirada uma música de uma playlist.
+     * @param p playlist
+     * @param nomeMusica nome da música
+     */
+    public void removeMusicaPlaylist(Playlist p, String nomeMusica) {
+        remove(this.playlistsPorMusica, nomeMusica, p);
+    }
+
+    /**
+     * Esquece todas as referências a uma música, depois de ela ter sido retirada das bibliotecas e playlists.
+     * @param nomeMusica nome da música
+     */
+    public void esqueceMusica(String nomeMusica) {
+        this.bibliotecasPorMusica.remove(nomeMusica);
+        this.playlistsPorMusica.remove(nomeMusica);
+    }
+
+    /**
+     * Esquece todas as referências a um álbum, depois de ele ter sido retirado das bibliotecas.
+     * @param nomeAlbum nome do álbum
+     */
+    public void esqueceAlbum(String nomeAlbum) {
+        this.bibliotecasPorAlbum.remove(nomeAlbum);
+    }
+
+    /**
+     * Devolve as bibliotecas que guardam uma música.
+     * @param nomeMusica nome da música
+     * @return conjunto de bibliotecas
+     */
+    public Set<Biblioteca> getBibliotecasComMusica(String nomeMusica) {
+        return obtem(this.bibliotecasPorMusica, nomeMusica);
+    }
+
+    /**
+     * Devolve as playlists guardadas que contêm uma música.
+     * @param nomeMusica nome da música
+     * @return conjunto de playlists
+     */
+    public Set<Playlist> getPlaylistsComMusica(String nomeMusica) {
+        return obtem(this.playlistsPorMusica, nomeMusica);
+    }
+
+    /**
+     * Devolve as bibliotecas que guardam um álbum.
+     * @param nomeAlbum nome do álbum
+     * @return conjunto de bibliotecas
+     */
+    public Set<Biblioteca> getBibliotecasComAlbum(String nomeAlbum) {
+        return obtem(this.bibliotecasPorAlbum, nomeAlbum);
+    }
+
+    /**
+     * Devolve as bibliotecas que guardam uma playlist.
+     * @param p playlist
+     * @return conjunto de bibliotecas
+     */
+    public Set<Biblioteca> getBibliotecasComPlaylist(Playlist p) {
+        return obtem(this.bibliotecasPorPlaylist, p);
+    }
+}
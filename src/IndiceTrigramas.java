@@ -0,0 +1,130 @@
+import java.util.*;
+
+/**
+ * Índice invertido de trigramas para pesquisa por substring, sem distinção entre maiúsculas e minúsculas.
+ * Cada objeto é indexado pelos trigramas do seu texto; uma pesquisa percorre apenas os objetos do trigrama menos frequente da query
+ * e confirma cada um com contains, pelo que devolve exatamente os mesmos resultados que percorrer todos os objetos.
+ * Os objetos são comparados por identidade e podem ser adicionados várias vezes, sendo retirados do índice quando forem removidos
+ * o mesmo nº de vezes.
+ * @param <T> tipo dos objetos indexados
+ */
+public class IndiceTrigramas<T> {
+    private final Map<String, Set<T>> ocorrencias;
+    private final Map<T, Entrada> entradas;
+
+    /**
+     * Texto indexado de um objeto e nº de vezes que foi adicionado.
+     */
+    private static class Entrada {
+        private final String texto;
+        private int contagem;
+
+        Entrada(String texto) {
+            this.texto = texto;
+            this.contagem = 1;
+        }
+    }
+
+    /**
+     * Construtor por omissão.
+     */
+    public IndiceTrigramas() {
+        this.ocorrencias = new HashMap<String, Set<T>>();
+        this.entradas = new IdentityHashMap<T, Entrada>();
+    }
+
+    /**
+     * Devolve os trigramas distintos de um texto (já em minúsculas).
+     * @param texto texto
+     * @return conjunto de trigramas
+     */
+    private static Set<String> trigramas(String texto) {
+        Set<String> ts = new HashSet<String>();
+        for (int i = 0; i + 3 <= texto.length(); i++) {
+            ts.add(texto.substring(i, i + 3));
+        }
+        return ts;
+    }
+
+    /**
+     * Adiciona um objeto ao índice.
+     * @param objeto objeto
+     * @param texto texto pelo qual o objeto é pesquisado
+     */
+    public void adiciona(T objeto, String texto) {
+        Entrada e = this.entradas.get(objeto);
+        if (e != null) {
+            e.contagem++;
+            return;
+        }
+        e = new Entrada(texto.toLowerCase());
+        this.entradas.put(objeto, e);
+        for (String t : trigramas(e.texto)) {
+            this.ocorrencias.computeIfAbsent(t, k -> Collections.newSetFromMap(new IdentityHashMap<T, Boolean>())).add(objeto);
+        }
+    }
+
+    /**
+     * Remove um objeto do índice.
+     * @param objeto objeto
+     */
+    public void remove(T objeto) {
+        Entrada e = this.entradas.get(objeto);
+        if (e == null || --e.contagem > 0) {
+            return;
+        }
+        this.entradas.remove(objeto);
+        for (String t : trigramas(e.texto)) {
+            Set<T> objetos = this.ocorrencias.get(t);
+            if (objetos != null) {
+                objetos.remove(objeto);
+                if (objetos.isEmpty()) {
+                    this.ocorrencias.remove(t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Devolve os objetos cujo texto contém a query.
+     * @param query query
+     * @return lista de objetos encontrados
+     */
+    public List<T> pesquisa(String query) {
+        String q = query.toLowerCase();
+        Set<T> candidatos = null;
+        for (String t : trigramas(q)) {
+            Set<T> objetos = this.ocorrencias.get(t);
+            if (objetos == null) {
+                return new ArrayList<T>();
+            }
+            if (candidatos == null || objetos.size() < candidatos.size()) {
+                candidatos = objetos;
+            }
+        }
+        List<T> resultado = new ArrayList<T>();
+        if (candidatos == null) {
+            // Queries com menos de 3 caracteres não têm trigramas, pelo que todos os objetos são candidatos
+            for (Map.Entry<T, Entrada> e : this.entradas.entrySet()) {
+                if (e.getValue().texto.contains(q)) {
+                    resultado.add(e.getKey());
+                }
+            }
+        } else {
+            for (T objeto : candidatos) {
+                if (this.entradas.get(objeto).texto.contains(q)) {
+                    resultado.add(objeto);
+                }
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Devolve o nº de objetos indexados.
+     * @return nº de objetos
+     */
+    public int size() {
+        return this.entradas.size();
+    }
+}
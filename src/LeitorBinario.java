@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Leitor binário usado na persistência do estado. Lê os formatos escritos por EscritorBinario a partir de um ByteBuffer.
+ */
+public class LeitorBinario {
+    private final ByteBuffer buffer;
+
+    /**
+     * Construtor parametrizado. Aceita:
+     * @param buffer buffer com os dados, lido a partir da posição atual
+     */
+    public LeitorBinario(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Construtor parametrizado. Aceita:
+     * @param dados bytes a ler
+     */
+    public LeitorBinario(byte[] dados) {
+        this(ByteBuffer.wrap(dados));
+    }
+
+    /**
+     * Lê um byte sem sinal.
+     * @return byte (0-255)
+     * @throws IOException caso os dados terminem inesperadamente
+     */
+    public int leByte() throws IOException {
+        try {
+            return this.buffer.get() & 0xFF;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Fim inesperado dos dados!");
+        }
+    }
+
+    /**
+     * Lê um inteiro de 4 bytes em big endian.
+     * @return valor
+     * @throws IOException caso os dados terminem inesperadamente
+     */
+    public int leIntFixo() throws IOException {
+        try {
+            return this.buffer.getInt();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Fim inesperado dos dados!");
+        }
+    }
+
+    /**
+     * Lê um inteiro de 4 bytes em big endian numa posição absoluta, sem alterar a posição de leitura.
+     * @param posicao posição do inteiro
+     * @return valor
+     * @throws IOException caso a posição esteja fora dos dados
+     */
+    public int leIntFixo(int posicao) throws IOException {
+        try {
+            return this.buffer.getInt(posicao);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Posição inválida: " + posicao);
+        }
+    }
+
+    /**
+     * Devolve um novo leitor sobre os mesmos dados, posicionado numa posição absoluta. Este leitor não é alterado.
+     * @param posicao posição inicial do novo leitor
+     * @return leitor
+     * @throws IOException caso a posição esteja fora dos dados
+     */
+    public LeitorBinario em(int posicao) throws IOException {
+        if (posicao < 0 || posicao > this.buffer.limit()) {
+            throw new IOException("Posição inválida: " + posicao);
+        }
+        ByteBuffer copia = this.buffer.duplicate();
+        copia.position(posicao);
+        return new LeitorBinario(copia);
+    }
+
+    /**
+     * Lê um long em formato varint.
+     * @return valor
+     * @throws IOException caso o varint seja inválido
+     */
+    public long leVarLong() throws IOException {
+        long resultado = 0;
+        for (int desloc = 0; desloc < 64; desloc += 7) {
+            int b = leByte();
+            resultado |= (long) (b & 0x7F) << desloc;
+            if ((b & 0x80) == 0) {
+                return resultado;
+            }
+        }
+        throw new IOException("Varint inválido!");
+    }
+
+    /**
+     * Lê um inteiro em formato varint.
+     * @return valor
+     * @throws IOException caso o varint seja inválido
+     */
+    public int leVarInt() throws IOException {
+        return (int) leVarLong();
+    }
+
+    /**
+     * Lê um long com sinal em formato zigzag varint.
+     * @return valor
+     * @throws IOException caso o varint seja inválido
+     */
+    public long leVarLongComSinal() throws IOException {
+        long v = leVarLong();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Lê um booleano.
+     * @return valor
+     * @throws IOException caso os dados terminem inesperadamente
+     */
+    public boolean leBoolean() throws IOException {
+        return leByte() != 0;
+    }
+
+    /**
+     * Lê uma string em UTF-8 com prefixo de tamanho.
+     * @return string
+     * @throws IOException caso os dados terminem inesperadamente
+     */
+    public String leString() throws IOException {
+        int n = leVarInt();
+        if (n < 0 || n > this.buffer.remaining()) {
+            throw new IOException("String inválida!");
+        }
+        String s;
+        if (this.buffer.hasArray()) {
+            s = new String(this.buffer.array(), this.buffer.arrayOffset() + this.buffer.position(), n, StandardCharsets.UTF_8);
+            this.buffer.position(this.buffer.position() + n);
+        } else {
+            byte[] bs = new byte[n];
+            this.buffer.get(bs);
+            s = new String(bs, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+
+    /**
+     * Lê o cabeçalho de uma secção e devolve um leitor limitado ao seu conteúdo, avançando este leitor para depois da secção.
+     * @param etiquetaEsperada etiqueta que a secção deve ter
+     * @return leitor do conteúdo da secção
+     * @throws IOException caso a etiqueta não corresponda ou a secção esteja truncada
+     */
+    public LeitorBinario leSeccao(int etiquetaEsperada) throws IOException {
+        int etiqueta = leByte();
+        if (etiqueta != etiquetaEsperada) {
+            throw new IOException("Secção inesperada: " + etiqueta + " (esperada " + etiquetaEsperada + ")");
+        }
+        int comprimento = leVarInt();
+        if (comprimento < 0 || comprimento > this.buffer.remaining()) {
+            throw new IOException("Secção truncada!");
+        }
+        ByteBuffer conteudo = this.buffer.slice();
+        conteudo.limit(comprimento);
+        this.buffer.position(this.buffer.position() + comprimento);
+        return new LeitorBinario(conteudo);
+    }
+
+    /**
+     * Diz se ainda existem dados por ler.
+     * @return true / false
+     */
+    public boolean temDados() {
+        return this.buffer.hasRemaining();
+    }
+
+    /**
+     * Devolve a posição atual de leitura.
+     * @return posição
+     */
+    public int getPosicao() {
+        return this.buffer.position();
+    }
+}
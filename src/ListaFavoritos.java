@@ -1,16 +1,34 @@
 import java.io.Serializable;
+import java.util.*;
 
 /**
  * Lista com músicas mais ouvidas de um utilizador. Tipo de playlist.
+ * Depois de guardada, é atualizada pelo modelo sempre que uma reprodução faz entrar uma música nas mais ouvidas.
  */
 public class ListaFavoritos extends Playlist implements Serializable {
+    /** Nome da lista de favoritos na biblioteca do utilizador. */
+    public static final String NOME = "Lista de Favoritos";
+
+    private int limite;
+
     /**
      * Construtor parametrizado. Aceita:
      * @param nome nome da playlist
      * @param criador utilizador que cria a playlist
      */
     public ListaFavoritos(String nome, Utilizador criador) {
+        this(nome, criador, 0);
+    }
+
+    /**
+     * Construtor parametrizado. Aceita:
+     * @param nome nome da playlist
+     * @param criador utilizador que cria a playlist
+     * @param limite nº de músicas da lista
+     */
+    public ListaFavoritos(String nome, Utilizador criador, int limite) {
         super (nome, criador);
+        this.limite = limite;
     }
 
     /**
@@ -19,6 +37,33 @@ public class ListaFavoritos extends Playlist implements Serializable {
      */
     public ListaFavoritos (ListaFavoritos p) {
         super (p);
+        this.limite = p.limite;
+    }
+
+    /**
+     * Devolve o nº de músicas da lista. Numa lista lida de um estado anterior à versão 6 do CodecEstado, que não guardava o limite, é o nº de músicas atual.
+     * @return nº de músicas
+     */
+    public int getLimite() {
+        return this.limite > 0 ? this.limite : this.musicas.size();
+    }
+
+    /**
+     * Substitui as músicas da lista pelas indicadas. As músicas são trocadas numa cópia, publicada no fim, para que quem esteja
+     * a percorrer a lista nunca a veja a meio da atualização.
+     * @param maisOuvidas novas músicas
+     */
+    public void atualiza(List<Musica> maisOuvidas) {
+        ColecaoMusicas nova = new ColecaoMusicas(this.musicas);
+        Set<String> nomes = new HashSet<String>();
+        for (Musica m : maisOuvidas) {
+            nomes.add(m.getNome());
+        }
+        nova.keySet().retainAll(nomes);
+        for (Musica m : maisOuvidas) {
+            nova.put(m.getNome(), m);
+        }
+        this.musicas = nova;
     }
 
     /**
@@ -1,10 +1,38 @@
+import java.io.IOException;
+
 /**
  * Metodo de entrada na aplicação. Apenas cria um modelo e passa-o ao controlador.
+ * Com o argumento "servidor", serve o modelo pela interface HTTP: java Main servidor [porta] [ficheiro do estado]
  */
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("servidor")) {
+            servidor(args);
+            return;
+        }
         SpotifUM modelo = new SpotifUM();
         Controller controller = new Controller(modelo);
         controller.run();
     }
-}
\ No newline at end of file
+
+    /**
+     * Carrega o estado indicado, caso exista, e serve-o pela interface HTTP até a aplicação terminar. As reproduções são aplicadas em lotes,
+     * pela fila de reproduções.
+     * @param args argumentos da linha de comandos
+     * @throws IOException caso o estado não possa ser carregado ou a porta não possa ser aberta
+     */
+    private static void servidor(String[] args) throws IOException {
+        int porta = args.length > 1 ? Integer.parseInt(args[1]) : ServidorHttp.PORTA_OMISSAO;
+        GestorEstado gestorEstado = new GestorEstado();
+        SpotifUM modelo = args.length > 2 ? gestorEstado.carrega(args[2]) : new SpotifUM();
+        modelo.ativaFilaReproducoes(FilaReproducoes.CAPACIDADE_OMISSAO, FilaReproducoes.LOTE_OMISSAO);
+        ServidorHttp servidor = new ServidorHttp(modelo, porta);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            servidor.para(2);
+            modelo.desativaFilaReproducoes();
+            gestorEstado.fecha();
+        }));
+        servidor.inicia();
+        System.out.println("SpotifUM a escutar na porta " + servidor.getPorta() + (servidor.usaThreadsVirtuais() ? " (threads virtuais)" : ""));
+    }
+}
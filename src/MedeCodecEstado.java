@@ -0,0 +1,73 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+
+/**
+ * Medição da gravação e da carga do estado: compara o CodecEstado com a serialização Java do modelo, que era o formato anterior.
+ * A carga pelo CodecEstado é medida só até o modelo estar disponível (o catálogo é descodificado à medida que é usado)
+ * e até todas as músicas do catálogo terem sido percorridas.
+ *
+ * Uso: java MedeCodecEstado [álbuns] [músicas por álbum] [utilizadores] [reproduções por utilizador] [repetições]
+ */
+public class MedeCodecEstado {
+    public static void main(String[] args) throws Exception {
+        int albuns = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int musicasPorAlbum = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int utilizadores = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+        int reproducoes = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        int repeticoes = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+
+        SpotifUM modelo = new GeradorEstado(1).gera(albuns, musicasPorAlbum, utilizadores, reproducoes);
+        System.out.println("Modelo: " + albuns + " álbuns, " + albuns * musicasPorAlbum + " músicas, " + utilizadores + " utilizadores, "
+                + utilizadores * reproducoes + " reproduções");
+
+        File codec = File.createTempFile("spotifum", ".codec");
+        File serializado = File.createTempFile("spotifum", ".ser");
+        try {
+            long gravaCodec = Medicao.tempoNs(2, repeticoes, () -> CodecEstado.guarda(modelo, codec.getPath()));
+            long gravaJava = Medicao.tempoNs(2, repeticoes, () -> serializa(modelo, serializado));
+            long cargaCodec = Medicao.tempoNs(2, repeticoes, () -> CodecEstado.carrega(codec.getPath()));
+            long cargaCodecCompleta = Medicao.tempoNs(2, repeticoes, () -> percorre(CodecEstado.carrega(codec.getPath())));
+            long cargaJava = Medicao.tempoNs(2, repeticoes, () -> percorre(desserializa(serializado)));
+
+            System.out.printf("%-32s %12s %12s %12s%n", "", "tamanho", "gravação", "carga");
+            System.out.printf("%-32s %12s %12s %12s%n", "Serialização Java", Medicao.formataBytes(Files.size(serializado.toPath())),
+                    Medicao.formataTempo(gravaJava), Medicao.formataTempo(cargaJava));
+            System.out.printf("%-32s %12s %12s %12s%n", "CodecEstado", Medicao.formataBytes(Files.size(codec.toPath())),
+                    Medicao.formataTempo(gravaCodec), Medicao.formataTempo(cargaCodec));
+            System.out.printf("%-32s %12s %12s %12s%n", "CodecEstado (catálogo percorrido)", "", "", Medicao.formataTempo(cargaCodecCompleta));
+        } finally {
+            codec.delete();
+            serializado.delete();
+        }
+    }
+
+    private static void serializa(SpotifUM modelo, File ficheiro) throws IOException {
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(ficheiro.toPath())))) {
+            out.writeObject(modelo);
+        }
+    }
+
+    private static SpotifUM desserializa(File ficheiro) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(ficheiro.toPath())))) {
+            return (SpotifUM) in.readObject();
+        }
+    }
+
+    /**
+     * Percorre todas as músicas do catálogo, obrigando a que sejam descodificadas.
+     * @param modelo modelo
+     * @return nº de músicas
+     */
+    private static int percorre(SpotifUM modelo) {
+        int n = 0;
+        for (Album a : modelo.getAlbuns().values()) {
+            n += a.getMusicas().size();
+        }
+        return n;
+    }
+}
@@ -0,0 +1,121 @@
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Medição da lista de favoritos: a geração pela árvore das músicas mais ouvidas de cada utilizador, comparada com a geração anterior
+ * (cópia profunda do histórico e ordenação de todas as músicas ouvidas pelo nº de reproduções), e o custo de cada reprodução
+ * sem lista de favoritos e com a lista guardada, que é atualizada a cada reprodução. Verifica também que a lista mantida
+ * tem as mesmas contagens que as músicas mais ouvidas calculadas por ordenação, e que uma lista de favoritos guardada por outro utilizador
+ * só é atualizada pelas reproduções do seu criador.
+ *
+ * Uso: java MedeFavoritos [músicas ouvidas] [reproduções] [limite] [repetições]
+ */
+public class MedeFavoritos {
+    public static void main(String[] args) throws Exception {
+        int numMusicas = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int numReproducoes = args.length > 1 ? Integer.parseInt(args[1]) : 300_000;
+        int limite = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int repeticoes = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        GeradorEstado gerador = new GeradorEstado(22);
+        SpotifUM modelo = gerador.gera(Math.max(1, numMusicas / 50), 50, 1, 0);
+        Utilizador u = modelo.procuraUtilizador("u0");
+        Map<Musica, List<LocalDateTime>> historicoAntigo = new HashMap<Musica, List<LocalDateTime>>();
+        LocalDateTime agora = LocalDateTime.now();
+        for (Musica m : gerador.getMusicas()) {
+            modelo.registaReproducaoMusica(u, m, agora);
+            historicoAntigo.computeIfAbsent(m, k -> new ArrayList<LocalDateTime>()).add(agora);
+        }
+        for (int i = 0; i < numReproducoes; i++) {
+            Musica m = gerador.musicaEnviesada();
+            modelo.registaReproducaoMusica(u, m, agora);
+            historicoAntigo.get(m).add(agora);
+        }
+        System.out.println(u.getNumMusicasOuvidas() + " músicas ouvidas, " + u.getNumReproducoes() + " reproduções, lista de " + limite + " músicas");
+
+        long arvore = Medicao.tempoNs(5, repeticoes, () -> modelo.geraListFavoritos(u, limite));
+        long ordenacao = Medicao.tempoNs(5, repeticoes, () -> maisOuvidasPorOrdenacao(historicoAntigo, limite));
+        System.out.printf("%-42s %14s %14s%n", "", "árvore", "ordenação");
+        System.out.printf("%-42s %14s %14s%n", "geraListFavoritos", Medicao.formataTempo(arvore), Medicao.formataTempo(ordenacao));
+
+        // Custo de uma reprodução sem e com a lista de favoritos guardada (atualizada a cada reprodução)
+        Musica[] ordem = new Musica[numReproducoes];
+        for (int i = 0; i < ordem.length; i++) {
+            ordem[i] = gerador.musicaEnviesada();
+        }
+        modelo.criaUtilizador("Sem favoritos", "semFavoritos", "sem@spotifum.pt", "Rua", agora.toLocalDate(), "x");
+        Utilizador semLista = modelo.procuraUtilizador("semFavoritos");
+        modelo.atualizaPlano(semLista, new PlanoPremiumTop());
+        for (Musica m : gerador.getMusicas()) {
+            modelo.registaReproducaoMusica(semLista, m, agora);
+        }
+        long reproducaoSemLista = Medicao.tempoNs(1, 5, () -> {
+            for (Musica m : ordem) {
+                modelo.registaReproducaoMusica(semLista, m, agora);
+            }
+        });
+        long reproducaoComLista = Medicao.tempoNs(1, 5, () -> {
+            for (Musica m : ordem) {
+                modelo.registaReproducaoMusica(u, m, agora);
+            }
+        });
+        System.out.printf("%-42s %14s %14s%n", "", "sem lista", "com lista");
+        System.out.printf("%-42s %14s %14s%n", "registaReproducaoMusica (por reprodução)", Medicao.formataTempo(reproducaoSemLista / numReproducoes),
+                Medicao.formataTempo(reproducaoComLista / numReproducoes));
+
+        List<Integer> mantida = new ArrayList<Integer>();
+        for (Musica m : u.getBiblioteca().getPlaylists().get(ListaFavoritos.NOME).getMusicas().values()) {
+            mantida.add(u.getNumReproducoes(m));
+        }
+        List<Integer> ordenada = new ArrayList<Integer>();
+        for (Musica m : u.getMusicasMaisOuvidas(Integer.MAX_VALUE).subList(0, limite)) {
+            ordenada.add(u.getNumReproducoes(m));
+        }
+        Collections.sort(mantida);
+        Collections.sort(ordenada);
+        if (!mantida.equals(ordenada)) {
+            throw new IllegalStateException("A lista de favoritos mantida difere das músicas mais ouvidas: " + mantida + " em vez de " + ordenada);
+        }
+        verificaListaPartilhada(modelo, u, semLista, gerador.getMusicas());
+    }
+
+    /**
+     * Verifica que a lista de favoritos de um utilizador, guardada na biblioteca de outro, não muda com as reproduções de quem a guardou.
+     */
+    private static void verificaListaPartilhada(SpotifUM modelo, Utilizador criador, Utilizador outro, List<Musica> musicas) {
+        Playlist favs = criador.getBiblioteca().getPlaylists().get(ListaFavoritos.NOME);
+        modelo.alteraVisibilidadePlaylist(favs, true);
+        modelo.adicionaPlaylistBiblioteca(outro, favs);
+        List<String> antes = new ArrayList<String>(favs.getMusicas().keySet());
+        LocalDateTime agora = LocalDateTime.now();
+        // Músicas pouco ouvidas pelo criador, que passam a ser as mais ouvidas de quem guardou a lista
+        for (Musica m : musicas.subList(musicas.size() - 10, musicas.size())) {
+            for (int i = 0; i < 10_000; i++) {
+                modelo.registaReproducaoMusica(outro, m, agora);
+            }
+        }
+        if (!antes.equals(new ArrayList<String>(favs.getMusicas().keySet()))) {
+            throw new IllegalStateException("A lista de favoritos de " + criador.getUsername() + " foi alterada pelas reproduções de " + outro.getUsername());
+        }
+    }
+
+    /**
+     * Geração anterior: copia o histórico (músicas e datas), ordena todas as músicas pelo nº de reproduções e guarda as primeiras.
+     */
+    private static List<Musica> maisOuvidasPorOrdenacao(Map<Musica, List<LocalDateTime>> historico, int limite) {
+        Map<Musica, List<LocalDateTime>> copia = new HashMap<Musica, List<LocalDateTime>>();
+        for (Map.Entry<Musica, List<LocalDateTime>> e : historico.entrySet()) {
+            copia.put(e.getKey().clone(), new ArrayList<LocalDateTime>(e.getValue()));
+        }
+        List<Musica> resultado = new ArrayList<Musica>();
+        copia.entrySet().stream()
+                .sorted((m1, m2) -> Integer.compare(m2.getValue().size(), m1.getValue().size()))
+                .limit(limite)
+                .forEach(e -> resultado.add(e.getKey()));
+        return resultado;
+    }
+}
@@ -0,0 +1,118 @@
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Micro-medição da procura de músicas no histórico de um utilizador (ouviuMusica e o registo de uma reprodução), com a música identificada
+ * pelo seu identificador e o hash calculado na criação, comparada com a identidade anterior: um HashMap indexado por uma chave cujo hash
+ * percorre o nome, o intérprete, o género, a editora, as linhas da letra e dos caracteres musicais a cada procura.
+ *
+ * Uso: java MedeIdentidadeMusicas [músicas ouvidas] [linhas da letra] [procuras por repetição] [repetições]
+ */
+public class MedeIdentidadeMusicas {
+    // Acumula os resultados das procuras, para que o JIT não as elimine
+    private static volatile int sumidouro;
+
+    /**
+     * Chave com a igualdade e o hash que a Musica tinha antes de ter identificador.
+     */
+    private static class ChaveAntiga {
+        private final String nome;
+        private final String interprete;
+        private final String genero;
+        private final String editora;
+        private final List<String> letra;
+        private final List<String> musica;
+        private final int duracao;
+
+        private ChaveAntiga(Musica m) {
+            this.nome = m.getNome();
+            this.interprete = m.getInterprete();
+            this.genero = m.getGenero();
+            this.editora = m.getEditora();
+            this.letra = new ArrayList<String>(m.getLetra());
+            this.musica = new ArrayList<String>(m.getMusica());
+            this.duracao = m.getDuracao();
+        }
+
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ChaveAntiga)) {
+                return false;
+            }
+            ChaveAntiga c = (ChaveAntiga) o;
+            return this.nome.equals(c.nome) && this.interprete.equals(c.interprete) && this.genero.equals(c.genero);
+        }
+
+        public int hashCode() {
+            return this.nome.hashCode() + this.interprete.hashCode() + this.genero.hashCode() + this.editora.hashCode()
+                    + this.letra.hashCode() + this.musica.hashCode() + this.duracao * 5;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numMusicas = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int linhas = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+        int procuras = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        int repeticoes = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        Random random = new Random(11);
+        List<String> letra = new ArrayList<String>();
+        for (int l = 0; l < linhas; l++) {
+            letra.add("linha " + l + " da letra de uma canção com algumas palavras");
+        }
+        Musica[] musicas = new Musica[numMusicas];
+        ChaveAntiga[] chaves = new ChaveAntiga[numMusicas];
+        Utilizador u = new Utilizador();
+        Map<ChaveAntiga, List<LocalDateTime>> historicoAntigo = new HashMap<ChaveAntiga, List<LocalDateTime>>();
+        LocalDateTime agora = LocalDateTime.now();
+        for (int i = 0; i < numMusicas; i++) {
+            musicas[i] = new Musica("música " + i, "intérprete " + i % 50, "género " + i % 8, "editora", letra, letra, 180);
+            chaves[i] = new ChaveAntiga(musicas[i]);
+            u.registaReproducaoMusica(musicas[i], agora);
+            historicoAntigo.computeIfAbsent(chaves[i], k -> new ArrayList<LocalDateTime>()).add(agora);
+        }
+        int[] ordem = new int[procuras];
+        for (int i = 0; i < procuras; i++) {
+            ordem[i] = random.nextInt(numMusicas);
+        }
+
+        System.out.println(numMusicas + " músicas ouvidas, letras com " + linhas + " linhas, " + procuras + " procuras por repetição");
+        System.out.printf("%-30s %16s %16s%n", "", "identificador", "hash do conteúdo");
+        long ouviu = Medicao.tempoNs(3, repeticoes, () -> {
+            int n = 0;
+            for (int i : ordem) {
+                n += u.ouviuMusica(musicas[i]) ? 1 : 0;
+            }
+            sumidouro += n;
+        });
+        long ouviuAntigo = Medicao.tempoNs(3, repeticoes, () -> {
+            int n = 0;
+            for (int i : ordem) {
+                n += historicoAntigo.containsKey(chaves[i]) ? 1 : 0;
+            }
+            sumidouro += n;
+        });
+        System.out.printf("%-30s %16s %16s%n", "ouviuMusica (por procura)", Medicao.formataTempo(ouviu / procuras), Medicao.formataTempo(ouviuAntigo / procuras));
+
+        HistoricoReproducoes historico = new HistoricoReproducoes();
+        long regista = Medicao.tempoNs(1, repeticoes, () -> {
+            historico.apaga();
+            for (int i : ordem) {
+                historico.regista(musicas[i], agora);
+            }
+        });
+        long registaAntigo = Medicao.tempoNs(1, repeticoes, () -> {
+            Map<ChaveAntiga, List<LocalDateTime>> h = new HashMap<ChaveAntiga, List<LocalDateTime>>();
+            for (int i : ordem) {
+                h.computeIfAbsent(chaves[i], k -> new ArrayList<LocalDateTime>()).add(agora);
+            }
+        });
+        System.out.printf("%-30s %16s %16s%n", "registo de uma reprodução", Medicao.formataTempo(regista / procuras), Medicao.formataTempo(registaAntigo / procuras));
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Medição da pesquisa de músicas, álbuns e playlists pelo índice de trigramas, comparada com a pesquisa por varrimento do catálogo
+ * (toLowerCase().contains() sobre todos os nomes), que era a implementação anterior. Verifica também que ambas encontram os mesmos resultados.
+ *
+ * Uso: java MedePesquisa [álbuns] [músicas por álbum] [utilizadores] [repetições]
+ */
+public class MedePesquisa {
+    private static final String[] PESQUISAS = {"a", "am", "amor", "love", "noite 1", "ção", "dream night", "12.3", "xyz"};
+
+    public static void main(String[] args) throws Exception {
+        int albuns = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int musicasPorAlbum = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int utilizadores = args.length > 2 ? Integer.parseInt(args[2]) : 3000;
+        int repeticoes = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        SpotifUM modelo = new GeradorEstado(5).gera(albuns, musicasPorAlbum, utilizadores, 0);
+        System.out.println("Catálogo: " + albuns + " álbuns, " + albuns * musicasPorAlbum + " músicas, " + utilizadores / 3 + " playlists");
+        long construcao = Medicao.tempoNs(0, 1, () -> modelo.pesquisaMusicas("a"));
+        System.out.println("Primeira pesquisa (inclui a construção dos índices): " + Medicao.formataTempo(construcao));
+
+        System.out.printf("%-14s %10s %14s %14s %14s %14s%n", "pesquisa", "músicas", "índice", "varrimento", "álbuns (índ.)", "playlists (índ.)");
+        for (String q : PESQUISAS) {
+            List<Musica> musicas = modelo.pesquisaMusicas(q);
+            verifica(q, musicas, varreMusicas(modelo, q));
+            verifica(q, modelo.pesquisaAlbuns(q), varreAlbuns(modelo, q));
+            verifica(q, modelo.pesquisaPlaylists(q), varrePlaylists(modelo, q));
+            long indice = Medicao.tempoNs(3, repeticoes, () -> modelo.pesquisaMusicas(q));
+            long varrimento = Medicao.tempoNs(3, repeticoes, () -> varreMusicas(modelo, q));
+            long indiceAlbuns = Medicao.tempoNs(3, repeticoes, () -> modelo.pesquisaAlbuns(q));
+            long indicePlaylists = Medicao.tempoNs(3, repeticoes, () -> modelo.pesquisaPlaylists(q));
+            System.out.printf("%-14s %10d %14s %14s %14s %14s%n", "\"" + q + "\"", musicas.size(), Medicao.formataTempo(indice),
+                    Medicao.formataTempo(varrimento), Medicao.formataTempo(indiceAlbuns), Medicao.formataTempo(indicePlaylists));
+        }
+    }
+
+    private static <T> void verifica(String q, List<T> indice, List<T> varrimento) {
+        Set<T> a = new HashSet<T>(indice);
+        if (a.size() != indice.size() || !a.equals(new HashSet<T>(varrimento))) {
+            throw new IllegalStateException("Resultados diferentes para \"" + q + "\": " + indice.size() + " pelo índice, " + varrimento.size() + " por varrimento");
+        }
+    }
+
+    private static List<Musica> varreMusicas(SpotifUM modelo, String q) {
+        List<Musica> res = new ArrayList<Musica>();
+        for (Album a : modelo.getAlbuns().values()) {
+            for (Musica m : a.getMusicas().values()) {
+                if (m.getNome().toLowerCase().contains(q.toLowerCase())) {
+                    res.add(m);
+                }
+            }
+        }
+        return res;
+    }
+
+    private static List<Album> varreAlbuns(SpotifUM modelo, String q) {
+        List<Album> res = new ArrayList<Album>();
+        for (Album a : modelo.getAlbuns().values()) {
+            if (a.getNome().toLowerCase().contains(q.toLowerCase())) {
+                res.add(a);
+            }
+        }
+        return res;
+    }
+
+    private static List<Playlist> varrePlaylists(SpotifUM modelo, String q) {
+        List<Playlist> res = new ArrayList<Playlist>();
+        for (Utilizador u : modelo.getUtilizadores().values()) {
+            for (Playlist p : u.getBiblioteca().getPlaylists().values()) {
+                if (p.isPublic() && p.getNome().toLowerCase().contains(q.toLowerCase())) {
+                    res.add(p);
+                }
+            }
+        }
+        return res;
+    }
+}
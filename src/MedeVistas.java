@@ -0,0 +1,85 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Medição da memória alocada pelos getters do modelo, que devolvem vistas só de leitura, comparada com a cópia profunda
+ * que devolviam antes (cada álbum, playlist e música clonados a cada chamada). Mede também a alocação dos caminhos que usam
+ * esses getters em ciclo: a pesquisa, a reprodução e a geração de playlists aleatórias.
+ *
+ * Uso: java MedeVistas [álbuns] [músicas por álbum] [utilizadores] [repetições]
+ */
+public class MedeVistas {
+    public static void main(String[] args) throws Exception {
+        int albuns = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int musicasPorAlbum = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int utilizadores = args.length > 2 ? Integer.parseInt(args[2]) : 300;
+        int repeticoes = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+
+        GeradorEstado gerador = new GeradorEstado(8);
+        SpotifUM modelo = gerador.gera(albuns, musicasPorAlbum, utilizadores, 30);
+        Album album = modelo.getAlbuns().values().iterator().next();
+        Utilizador u = modelo.procuraUtilizador("u0");
+        Biblioteca biblioteca = u.getBiblioteca();
+        Playlist playlist = biblioteca.getPlaylists().values().iterator().next();
+        Musica musica = gerador.musicaAleatoria();
+        Random random = new Random(8);
+
+        System.out.printf("%-42s %16s %16s%n", "", "vista", "cópia profunda");
+        linha("Album.getMusicas()", repeticoes, () -> album.getMusicas().size(), () -> copiaMusicas(album.getMusicas()).size());
+        linha("Playlist.getMusicas()", repeticoes, () -> playlist.getMusicas().size(), () -> copiaMusicas(playlist.getMusicas()).size());
+        linha("Biblioteca.getPlaylists()", repeticoes, () -> biblioteca.getPlaylists().size(), () -> copiaPlaylists(biblioteca.getPlaylists()).size());
+        linha("SpotifUM.getAlbuns()", Math.max(1, repeticoes / 20), () -> modelo.getAlbuns().size(), () -> copiaAlbuns(modelo.getAlbuns()).size());
+        linha("percorrer as músicas do catálogo", Math.max(1, repeticoes / 20), () -> percorre(modelo, false), () -> percorre(modelo, true));
+
+        System.out.printf("%-42s %16s%n", "", "alocado");
+        System.out.printf("%-42s %16s%n", "pesquisaMusicas(\"amor\")",
+                Medicao.formataBytes(Medicao.bytesAlocados(20, repeticoes, () -> modelo.pesquisaMusicas("amor"))));
+        System.out.printf("%-42s %16s%n", "registaReproducaoMusica",
+                Medicao.formataBytes(Medicao.bytesAlocados(1000, repeticoes * 10, () -> modelo.registaReproducaoMusica(u, musica))));
+        System.out.printf("%-42s %16s%n", "geraPlaylistAleatoria (20 músicas)",
+                Medicao.formataBytes(Medicao.bytesAlocados(20, repeticoes, () -> modelo.geraPlaylistAleatoria("aleatoria", 20, u, random))));
+    }
+
+    private static void linha(String nome, int repeticoes, Medicao.Operacao vista, Medicao.Operacao copia) throws Exception {
+        System.out.printf("%-42s %16s %16s%n", nome, Medicao.formataBytes(Medicao.bytesAlocados(5, repeticoes, vista)),
+                Medicao.formataBytes(Medicao.bytesAlocados(5, repeticoes, copia)));
+    }
+
+    private static Map<String, Musica> copiaMusicas(Map<String, Musica> musicas) {
+        Map<String, Musica> copia = new HashMap<String, Musica>();
+        for (Map.Entry<String, Musica> e : musicas.entrySet()) {
+            copia.put(e.getKey(), e.getValue().clone());
+        }
+        return copia;
+    }
+
+    private static Map<String, Playlist> copiaPlaylists(Map<String, Playlist> playlists) {
+        Map<String, Playlist> copia = new HashMap<String, Playlist>();
+        for (Map.Entry<String, Playlist> e : playlists.entrySet()) {
+            copia.put(e.getKey(), e.getValue().clone());
+        }
+        return copia;
+    }
+
+    private static Map<String, Album> copiaAlbuns(Map<String, Album> albuns) {
+        Map<String, Album> copia = new HashMap<String, Album>();
+        for (Map.Entry<String, Album> e : albuns.entrySet()) {
+            copia.put(e.getKey(), e.getValue().clone());
+        }
+        return copia;
+    }
+
+    /**
+     * Percorre todas as músicas do catálogo, como faziam a pesquisa e as estatísticas, pelas vistas ou por cópias profundas.
+     */
+    private static int percorre(SpotifUM modelo, boolean copia) {
+        int n = 0;
+        for (Album a : (copia ? copiaAlbuns(modelo.getAlbuns()) : modelo.getAlbuns()).values()) {
+            for (Musica m : (copia ? copiaMusicas(a.getMusicas()) : a.getMusicas()).values()) {
+                n += m.getDuracao() > 0 ? 1 : 0;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,98 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Utilitários das medições de desempenho: o tempo de uma operação (mediana de várias repetições, após um aquecimento)
+ * e a memória alocada por uma operação na thread atual.
+ */
+public class Medicao {
+    /**
+     * Operação medida.
+     */
+    public interface Operacao {
+        void executa() throws Exception;
+    }
+
+    private Medicao() {
+    }
+
+    /**
+     * Mede o tempo de uma operação. A operação é executada algumas vezes antes da medição, para que o JIT a compile.
+     * @param aquecimento nº de execuções antes da medição
+     * @param repeticoes nº de execuções medidas
+     * @param operacao operação
+     * @return mediana do tempo de uma execução (em nanossegundos)
+     * @throws Exception caso a operação falhe
+     */
+    public static long tempoNs(int aquecimento, int repeticoes, Operacao operacao) throws Exception {
+        for (int i = 0; i < aquecimento; i++) {
+            operacao.executa();
+        }
+        long[] tempos = new long[Math.max(1, repeticoes)];
+        for (int i = 0; i < tempos.length; i++) {
+            long inicio = System.nanoTime();
+            operacao.executa();
+            tempos[i] = System.nanoTime() - inicio;
+        }
+        Arrays.sort(tempos);
+        return tempos[tempos.length / 2];
+    }
+
+    /**
+     * Mede a memória alocada por uma operação na thread atual, após um aquecimento.
+     * @param aquecimento nº de execuções antes da medição
+     * @param repeticoes nº de execuções medidas
+     * @param operacao operação
+     * @return média dos bytes alocados por execução, ou -1 caso a JVM não permita medir a alocação
+     * @throws Exception caso a operação falhe
+     */
+    public static long bytesAlocados(int aquecimento, int repeticoes, Operacao operacao) throws Exception {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        for (int i = 0; i < aquecimento; i++) {
+            operacao.executa();
+        }
+        int n = Math.max(1, repeticoes);
+        long inicio = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < n; i++) {
+            operacao.executa();
+        }
+        return (threads.getThreadAllocatedBytes(id) - inicio) / n;
+    }
+
+    /**
+     * Formata um tempo em nanossegundos na unidade mais legível.
+     * @param ns tempo (em nanossegundos)
+     * @return tempo formatado
+     */
+    public static String formataTempo(long ns) {
+        if (ns >= 1_000_000_000L) {
+            return String.format("%.2f s", ns / 1e9);
+        }
+        if (ns >= 1_000_000L) {
+            return String.format("%.2f ms", ns / 1e6);
+        }
+        if (ns >= 1_000L) {
+            return String.format("%.2f µs", ns / 1e3);
+        }
+        return ns + " ns";
+    }
+
+    /**
+     * Formata um nº de bytes na unidade mais legível.
+     * @param bytes nº de bytes
+     * @return nº de bytes formatado
+     */
+    public static String formataBytes(long bytes) {
+        if (bytes >= 1 << 20) {
+            return String.format("%.1f MiB", bytes / (double) (1 << 20));
+        }
+        if (bytes >= 1 << 10) {
+            return String.format("%.1f KiB", bytes / (double) (1 << 10));
+        }
+        return bytes + " B";
+    }
+}
@@ -1,29 +1,41 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Implementa uma música. Cada música tem um identificador inteiro imutável, atribuído quando é criada e mantido pelas cópias,
+ * pelo que a igualdade e o hash code dependem apenas dele (a versão explícita ou multimédia de uma música continua a ser a mesma música).
+ * As reproduções de cada música são contadas pelo modelo, no ContadorReproducoes, e não pelas instâncias.
+ */
 public class Musica implements Serializable {
+    private static final AtomicInteger proximoId = new AtomicInteger(1);
+
+    private final int id;
+    private final int hash;
     private String nome;
-    private String interprete;
-    private String genero;
-    private String editora;
-    private List<String> letra;
-    private List<String> musica;
+    private transient int interprete;
+    private transient int genero;
+    private transient int editora;
+    private ReferenciaTexto letra;
+    private ReferenciaTexto musica;
     private int duracao;
-    private int numReproducoes;
 
     /**
      * Construtor por omissão
      */
     public Musica() {
+        this.id = proximoId.getAndIncrement();
+        this.hash = dispersao(this.id);
         this.nome = "";
-        this.interprete = "";
-        this.editora = "";
-        this.letra = new ArrayList<String>();
-        this.musica = new ArrayList<String>();
-        this.genero = "";
+        this.interprete = DicionarioTermos.INTERPRETES.codigo("");
+        this.editora = DicionarioTermos.EDITORAS.codigo("");
+        this.letra = null;
+        this.musica = null;
+        this.genero = DicionarioTermos.GENEROS.codigo("");
         this.duracao = 0;
-        this.numReproducoes = 0;
     }
 
     /**
@@ -37,28 +49,107 @@ public class Musica implements Serializable {
      * @param duracao Duração
      */
     public Musica(String nome, String interprete, String genero, String editora, List<String> letra, List<String> musica, int duracao) {
+        this(proximoId.getAndIncrement(), nome, interprete, genero, editora, letra, musica, duracao);
+    }
+
+    /**
+     * Construtor parametrizado com um identificador já atribuído (p.e. lido de um estado gravado). Aceita:
+     * @param id identificador da música
+     * @param nome Nome da música
+     * @param interprete Interprete
+     * @param genero Género
+     * @param editora Editora
+     * @param letra Letra (Array de linhas)
+     * @param musica Música (Array de linhas de caracteres musicais)
+     * @param duracao Duração
+     */
+    Musica(int id, String nome, String interprete, String genero, String editora, List<String> letra, List<String> musica, int duracao) {
+        reservaId(id);
+        this.id = id;
+        this.hash = dispersao(id);
         this.nome = nome;
-        this.interprete = interprete;
-        this.genero = genero;
-        this.editora = editora;
+        this.interprete = DicionarioTermos.INTERPRETES.codigo(interprete);
+        this.genero = DicionarioTermos.GENEROS.codigo(genero);
+        this.editora = DicionarioTermos.EDITORAS.codigo(editora);
         this.setLetra(letra);
         this.setMusica(musica);
         this.duracao = duracao;
     }
 
+    /**
+     * Construtor parametrizado com um identificador já atribuído e textos já guardados no ArmazemTextos (p.e. lidos de um estado gravado). Aceita:
+     * @param id identificador da música
+     * @param nome Nome da música
+     * @param interprete Interprete
+     * @param genero Género
+     * @param editora Editora
+     * @param letra referência da letra (null caso não tenha linhas)
+     * @param musica referência dos caracteres musicais (null caso não tenham linhas)
+     * @param duracao Duração
+     */
+    Musica(int id, String nome, String interprete, String genero, String editora, ReferenciaTexto letra, ReferenciaTexto musica, int duracao) {
+        reservaId(id);
+        this.id = id;
+        this.hash = dispersao(id);
+        this.nome = nome;
+        this.interprete = DicionarioTermos.INTERPRETES.codigo(interprete);
+        this.genero = DicionarioTermos.GENEROS.codigo(genero);
+        this.editora = DicionarioTermos.EDITORAS.codigo(editora);
+        this.letra = letra;
+        this.musica = musica;
+        this.duracao = duracao;
+    }
+
     /**
      * Construtor de cópia. Aceita outra música.
      * @param m música
      */
     public Musica(Musica m) {
+        this.id = m.id;
+        this.hash = m.hash;
         this.nome = m.getNome();
-        this.interprete = m.getInterprete();
-        this.genero = m.getGenero();
-        this.editora = m.getEditora();
-        this.letra = m.getLetra();
-        this.musica = m.getMusica();
+        this.interprete = m.interprete;
+        this.genero = m.genero;
+        this.editora = m.editora;
+        this.letra = m.letra;
+        this.musica = m.musica;
         this.duracao = m.getDuracao();
-        this.numReproducoes = m.getNumReproducoes();
+    }
+
+    private static int dispersao(int id) {
+        return id * 0x9E3779B9;
+    }
+
+    /**
+     * Devolve um novo identificador, que não é usado por nenhuma música existente.
+     * @return identificador
+     */
+    static int novoId() {
+        return proximoId.getAndIncrement();
+    }
+
+    /**
+     * Garante que os próximos identificadores atribuídos são superiores a um identificador já usado.
+     * @param id identificador usado
+     */
+    static void reservaId(int id) {
+        proximoId.accumulateAndGet(id + 1, Math::max);
+    }
+
+    /**
+     * Devolve o próximo identificador a atribuir.
+     * @return identificador
+     */
+    static int getProximoId() {
+        return proximoId.get();
+    }
+
+    /**
+     * Devolve o identificador da música.
+     * @return identificador
+     */
+    public int getId() {
+        return this.id;
     }
 
     /**
@@ -74,6 +165,14 @@ public class Musica implements Serializable {
      * @return intérprete da música
      */
     public String getInterprete() {
+        return DicionarioTermos.INTERPRETES.termo(this.interprete);
+    }
+
+    /**
+     * Devolve o código do intérprete da música no dicionário de intérpretes.
+     * @return código do intérprete
+     */
+    public int getCodigoInterprete() {
         return this.interprete;
     }
 
@@ -82,6 +181,14 @@ public class Musica implements Serializable {
      * @return género da música
      */
     public String getGenero() {
+        return DicionarioTermos.GENEROS.termo(this.genero);
+    }
+
+    /**
+     * Devolve o código do género da música no dicionário de géneros.
+     * @return código do género
+     */
+    public int getCodigoGenero() {
         return this.genero;
     }
 
@@ -90,39 +197,55 @@ public class Musica implements Serializable {
      * @return editora da música
      */
     public String getEditora() {
+        return DicionarioTermos.EDITORAS.termo(this.editora);
+    }
+
+    /**
+     * Devolve o código da editora da música no dicionário de editoras.
+     * @return código da editora
+     */
+    public int getCodigoEditora() {
         return this.editora;
     }
 
     /**
-     * Devolve a letra da música
+     * Devolve a letra da música, numa vista só de leitura. É lida do ArmazemTextos, caso não esteja na sua cache.
      * @return letra da música
      */
     public List<String> getLetra() {
-        return new ArrayList<String>(this.letra);
+        return ArmazemTextos.getInstancia().le(this.letra);
     }
 
     /**
-     * Devolve a música
+     * Devolve a música, numa vista só de leitura. É lida do ArmazemTextos, caso não esteja na sua cache.
      * @return música
      */
     public List<String> getMusica() {
-        return new ArrayList<String>(this.musica);
+        return ArmazemTextos.getInstancia().le(this.musica);
     }
 
     /**
-     * Devolve a duração da música
-     * @return duração da música
+     * Devolve a referência da letra no ArmazemTextos. Usado apenas na persistência do estado.
+     * @return referência, ou null caso a letra não tenha linhas
      */
-    public int getDuracao() {
-        return this.duracao;
+    ReferenciaTexto getReferenciaLetra() {
+        return this.letra;
     }
 
     /**
-     * Devolve o nº de vezes ouvida
-     * @return nº de vezes ouvida
+     * Devolve a referência dos caracteres musicais no ArmazemTextos. Usado apenas na persistência do estado.
+     * @return referência, ou null caso não tenham linhas
      */
-    public int getNumReproducoes() {
-        return this.numReproducoes;
+    ReferenciaTexto getReferenciaMusica() {
+        return this.musica;
+    }
+
+    /**
+     * Devolve a duração da música
+     * @return duração da música
+     */
+    public int getDuracao() {
+        return this.duracao;
     }
 
 
@@ -139,7 +262,7 @@ public class Musica implements Serializable {
      * @param interprete novo interprete
      */
     public void setInterprete(String interprete) {
-        this.interprete = interprete;
+        this.interprete = DicionarioTermos.INTERPRETES.codigo(interprete);
     }
 
     /**
@@ -147,7 +270,7 @@ public class Musica implements Serializable {
      * @param genero novo género
      */
     public void setGenero(String genero) {
-        this.genero = genero;
+        this.genero = DicionarioTermos.GENEROS.codigo(genero);
     }
 
     /**
@@ -155,23 +278,23 @@ public class Musica implements Serializable {
      * @param editora nova editora.
      */
     public void setEditora(String editora) {
-        this.editora = editora;
+        this.editora = DicionarioTermos.EDITORAS.codigo(editora);
     }
 
     /**
-     * Atualiza a letra da música.
+     * Atualiza a letra da música, guardando-a no ArmazemTextos.
      * @param letra nova letra
      */
     public void setLetra(List<String> letra) {
-        this.letra = new ArrayList<String>(letra);
+        this.letra = ArmazemTextos.getInstancia().guarda(letra);
     }
 
     /**
-     * Atualiza os caracteres da música.
+     * Atualiza os caracteres da música, guardando-os no ArmazemTextos.
      * @param musica novos caracteres.
      */
     public void setMusica(List<String> musica) {
-        this.musica = new ArrayList<String>(musica);
+        this.musica = ArmazemTextos.getInstancia().guarda(musica);
     }
 
     /**
@@ -182,28 +305,13 @@ public class Musica implements Serializable {
         this.duracao = duracao;
     }
 
-    /**
-     * Atualiza o número de reproduções.
-     * @param numReproducoes número de reproduções.
-     */
-    public void setNumReproducoes(int numReproducoes) {
-        this.numReproducoes = numReproducoes;
-    }
-
-    /**
-     * Regista uma reprodução da música, incrementando o contador.
-     */
-    public void registaReproducao() {
-        this.numReproducoes++;
-    }
-
     /**
      * Devolve uma String contendo a letra da música.
      * @return letra da música.
      */
     public String imprimeLetra () {
         StringBuilder sb = new StringBuilder();
-        for (String l: this.letra) {
+        for (String l: getLetra()) {
             sb.append(l);
             sb.append("\n");
         }
@@ -211,19 +319,17 @@ public class Musica implements Serializable {
     }
 
     /**
-     * Implementa a reprodução de uma música individual, imprimindo a letra.
-     * @param u utilizador que ouve a música
+     * Implementa a reprodução de uma música individual, imprimindo a letra. A reprodução é registada no modelo, por quem a invoca.
      * @return letra da música
      */
-    public String reproduzMusica (Utilizador u) {
+    public String reproduzMusica () {
         StringBuilder sb = new StringBuilder();
         sb.append(this.toString());
         sb.append("\n");
-        for (String l: this.letra) {
+        for (String l: getLetra()) {
             sb.append(l);
             sb.append("\n");
         }
-        this.registaReproducao();
         return sb.toString();
     }
 
@@ -244,7 +350,7 @@ public class Musica implements Serializable {
     }
 
     /**
-     * Implementa igualdade entre músicas.
+     * Implementa igualdade entre músicas, pelo identificador.
      * @param o objeto
      * @return true / false
      */
@@ -252,11 +358,10 @@ public class Musica implements Serializable {
         if (this == o) {
             return true;
         }
-        if ((o == null) || (this.getClass() != o.getClass())) {
+        if (!(o instanceof Musica)) {
             return false;
         }
-        Musica m = (Musica) o;
-        return (this.nome.equals(m.nome)) && (this.interprete.equals(m.interprete)) && (this.genero.equals(m.genero));
+        return this.id == ((Musica) o).id;
     }
 
     /**
@@ -264,7 +369,7 @@ public class Musica implements Serializable {
      * @return nome - intérprete - género - editora
      */
     public String toString () {
-        return this.nome + " - " + this.interprete + " - " + this.genero + " - " + this.editora;
+        return this.nome + " - " + getInterprete() + " - " + getGenero() + " - " + getEditora();
     }
 
     /**
@@ -276,10 +381,28 @@ public class Musica implements Serializable {
     }
 
     /**
-     * Calcula o hash code de uma música.
+     * Devolve o hash code de uma música, calculado a partir do identificador quando a música é criada.
      * @return hash code
      */
     public int hashCode () {
-        return this.nome.hashCode() + this.interprete.hashCode() + this.genero.hashCode() + this.editora.hashCode() + this.letra.hashCode() + this.musica.hashCode() + this.duracao * 5 + this.numReproducoes * 3;
+        return this.hash;
+    }
+
+    /**
+     * Os códigos do dicionário só são válidos nesta execução, pelo que a serialização guarda os termos.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(getInterprete());
+        out.writeObject(getGenero());
+        out.writeObject(getEditora());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        reservaId(this.id);
+        this.interprete = DicionarioTermos.INTERPRETES.codigo((String) in.readObject());
+        this.genero = DicionarioTermos.GENEROS.codigo((String) in.readObject());
+        this.editora = DicionarioTermos.EDITORAS.codigo((String) in.readObject());
     }
 }
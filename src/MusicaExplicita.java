@@ -36,30 +36,6 @@ public class MusicaExplicita extends Musica implements IMusicaExplicita, Seriali
         return "(MÚSICA EXPLÍCITA) " + super.toString();
     }
 
-    /**
-     * Calcula o hash code de uma música explícita.
-     * @return hash code
-     */
-    public int hashCode() {
-        return super.hashCode() * 7;
-    }
-
-    /**
-     * Implementa igualdade entre músicas explícitas
-     * @param o objeto
-     * @return true / false
-     */
-    public boolean equals(Object o) {
-        if (this == o) {
-            return true;
-        }
-        if ((o == null) || (this.getClass() != o.getClass())) {
-            return false;
-        }
-        MusicaExplicita m = (MusicaExplicita) o;
-        return super.equals(m) && this.isExplicita() == m.isExplicita();
-    }
-
     /**
      * Clona uma música explícita usando o construtor de cópia.
      * @return música clonada
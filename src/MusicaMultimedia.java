@@ -55,30 +55,6 @@ public class MusicaMultimedia extends Musica implements IMusicaMultimedia, Seria
         return "(MÚSICA MULTIMÉDIA) " + super.toString();
     }
 
-    /**
-     * Calcula o hash code de uma música multimédia
-     * @return hash code
-     */
-    public int hashCode() {
-        return super.hashCode() * 5;
-    }
-
-    /**
-     * Implementa igualdade entre músicas multimédia
-     * @param o objeto
-     * @return true / false
-     */
-    public boolean equals(Object o) {
-        if (this == o) {
-            return true;
-        }
-        if ((o == null) || (this.getClass() != o.getClass())) {
-            return false;
-        }
-        MusicaMultimedia m = (MusicaMultimedia) o;
-        return super.equals(m) && this.video.equals(m.video) && m.isMultimedia() == this.isMultimedia();
-    }
-
     /**
      * Clona uma música multimédia usando o construtor de cópia
      * @return música clonada
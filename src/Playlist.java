@@ -6,7 +6,7 @@ import java.util.*;
  */
 public abstract class Playlist implements Serializable {
     protected String nome;
-    protected Map<String,Musica> musicas;
+    protected volatile ColecaoMusicas musicas;
     protected boolean isPublic;
     protected Utilizador criador;
 
@@ -15,7 +15,7 @@ public abstract class Playlist implements Serializable {
      */
     public Playlist() {
         this.nome = "";
-        this.musicas = new HashMap<String,Musica>();
+        this.musicas = new ColecaoMusicas();
         this.isPublic = false;
         this.criador = null;
     }
@@ -27,7 +27,7 @@ public abstract class Playlist implements Serializable {
      */
     public Playlist(String nome, Utilizador criador) {
         this.nome = nome;
-        this.musicas = new HashMap<String,Musica>();
+        this.musicas = new ColecaoMusicas();
         this.isPublic = false;
         this.criador = criador;
     }
@@ -38,7 +38,7 @@ public abstract class Playlist implements Serializable {
      */
     public Playlist (Playlist p) {
         this.nome = p.getNome();
-        this.musicas = p.getMusicas();
+        this.musicas = new ColecaoMusicas(p.musicas);
         this.isPublic = p.isPublic();
         this.criador = p.getCriador();
     }
@@ -52,15 +52,11 @@ public abstract class Playlist implements Serializable {
     }
 
     /**
-     * Devolve as músicas da playlist.
+     * Devolve as músicas da playlist, numa vista só de leitura.
      * @return músicas
      */
     public Map<String, Musica> getMusicas() {
-        Map<String,Musica> musicasClone = new HashMap<String,Musica>();
-        for (Map.Entry<String,Musica> m : this.musicas.entrySet()) {
-            musicasClone.put(m.getKey(), m.getValue());
-        }
-        return musicasClone;
+        return Collections.unmodifiableMap(this.musicas);
     }
 
     /**
@@ -76,7 +72,7 @@ public abstract class Playlist implements Serializable {
      * @param cs novas músicas.
      */
     public void setMusicas(Map<String, Musica> cs) {
-        this.musicas = new HashMap<String,Musica>();
+        this.musicas = new ColecaoMusicas();
         for (Map.Entry<String,Musica> c : cs.entrySet()) {
             this.musicas.put(c.getKey(), c.getValue().clone());
         }
@@ -90,6 +86,22 @@ public abstract class Playlist implements Serializable {
         this.musicas.put(musica.getNome(), musica);
     }
 
+    /**
+     * Remove uma música da playlist, caso lá esteja.
+     * @param nome nome da música a remover
+     */
+    public void removerMusica(String nome) {
+        this.musicas.remove(nome);
+    }
+
+    /**
+     * Passa a resolver as músicas da playlist no registo de um modelo.
+     * @param registo registo de músicas do modelo
+     */
+    public void usaRegisto(RegistoMusicas registo) {
+        this.musicas.usaRegisto(registo);
+    }
+
     /**
      * Altera visibilidade da playlist.
      * @param isPublic nova visibilidade (true / false)
@@ -0,0 +1,99 @@
+import java.util.*;
+
+/**
+ * Escolha de músicas cuja duração total se aproxima o mais possível de um tempo disponível, sem o ultrapassar (problema da soma de subconjuntos).
+ * As somas alcançáveis são calculadas num vetor de bits, acrescentando uma música de cada vez (cada música desloca e junta o vetor),
+ * e para cada soma guarda-se a primeira música que a alcançou, o que chega para reconstruir a escolha. As músicas anteriores na lista são
+ * assim preferidas às seguintes.
+ *
+ * O tempo de execução é limitado independentemente do tempo disponível: acima de MAX_CELULAS segundos, as durações são contadas em unidades
+ * maiores, arredondadas para cima, pelo que a escolha continua a nunca ultrapassar o tempo disponível, mas pode ficar um pouco aquém do ótimo;
+ * o tempo que sobra é depois preenchido com as músicas não escolhidas que ainda cabem.
+ */
+public class PreenchimentoDuracao {
+    /** Nº máximo de somas distintas consideradas. */
+    public static final int MAX_CELULAS = 1 << 16;
+
+    private PreenchimentoDuracao() {
+    }
+
+    /**
+     * Escolhe músicas cuja duração total é a maior possível sem ultrapassar o tempo disponível.
+     * @param candidatas músicas candidatas, por ordem de preferência
+     * @param tempoDisponivel tempo disponível (em segundos)
+     * @return músicas escolhidas, pela ordem das candidatas
+     */
+    public static List<Musica> escolhe(List<Musica> candidatas, int tempoDisponivel) {
+        List<Musica> res = new ArrayList<Musica>();
+        if (tempoDisponivel <= 0 || candidatas.isEmpty()) {
+            return res;
+        }
+        int unidade = (tempoDisponivel + MAX_CELULAS - 1) / MAX_CELULAS;
+        int capacidade = tempoDisponivel / unidade;
+        int[] pesos = new int[candidatas.size()];
+        for (int i = 0; i < pesos.length; i++) {
+            int d = candidatas.get(i).getDuracao();
+            pesos[i] = d <= 0 ? 0 : (d + unidade - 1) / unidade;
+        }
+
+        long[] alcancaveis = new long[(capacidade >>> 6) + 1];
+        long mascaraUltima = (capacidade & 63) == 63 ? -1L : (1L << ((capacidade & 63) + 1)) - 1;
+        int[] primeira = new int[capacidade + 1];
+        alcancaveis[0] = 1;
+        for (int i = 0; i < pesos.length && (alcancaveis[capacidade >>> 6] & (1L << (capacidade & 63))) == 0; i++) {
+            int w = pesos[i];
+            if (w == 0 || w > capacidade) {
+                continue;
+            }
+            int palavras = w >>> 6;
+            int bits = w & 63;
+            // Percorre do fim para o início, para que cada palavra seja deslocada a partir dos valores anteriores a esta música
+            for (int j = alcancaveis.length - 1; j >= palavras; j--) {
+                long deslocada = alcancaveis[j - palavras] << bits;
+                if (bits != 0 && j - palavras - 1 >= 0) {
+                    deslocada |= alcancaveis[j - palavras - 1] >>> (64 - bits);
+                }
+                long novas = deslocada & ~alcancaveis[j];
+                if (j == alcancaveis.length - 1) {
+                    novas &= mascaraUltima;
+                }
+                if (novas == 0) {
+                    continue;
+                }
+                alcancaveis[j] |= novas;
+                while (novas != 0) {
+                    int b = Long.numberOfTrailingZeros(novas);
+                    primeira[(j << 6) + b] = i;
+                    novas &= novas - 1;
+                }
+            }
+        }
+
+        int soma = capacidade;
+        while ((alcancaveis[soma >>> 6] & (1L << (soma & 63))) == 0) {
+            soma--;
+        }
+        boolean[] escolhida = new boolean[pesos.length];
+        long usado = 0;
+        while (soma > 0) {
+            int i = primeira[soma];
+            escolhida[i] = true;
+            usado += candidatas.get(i).getDuracao();
+            soma -= pesos[i];
+        }
+        // Com unidades maiores que um segundo, o arredondamento deixa algum tempo livre, que é preenchido com as restantes músicas que ainda cabem
+        for (int i = 0; i < pesos.length && unidade > 1; i++) {
+            int d = candidatas.get(i).getDuracao();
+            if (!escolhida[i] && d > 0 && usado + d <= tempoDisponivel) {
+                escolhida[i] = true;
+                usado += d;
+            }
+        }
+        for (int i = 0; i < pesos.length; i++) {
+            if (escolhida[i]) {
+                res.add(candidatas.get(i));
+            }
+        }
+        return res;
+    }
+}
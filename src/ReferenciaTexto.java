@@ -0,0 +1,70 @@
+import java.io.Serializable;
+
+/**
+ * Referência para um texto (letra ou caracteres musicais) guardado no ArmazemTextos. Identifica o texto pelo seu conteúdo:
+ * são os primeiros 128 bits do SHA-256 do texto codificado, pelo que textos iguais têm a mesma referência.
+ */
+public final class ReferenciaTexto implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long alto;
+    private final long baixo;
+
+    /**
+     * Construtor parametrizado. Aceita:
+     * @param alto primeiros 64 bits do resumo
+     * @param baixo 64 bits seguintes do resumo
+     */
+    public ReferenciaTexto(long alto, long baixo) {
+        this.alto = alto;
+        this.baixo = baixo;
+    }
+
+    /**
+     * Devolve os primeiros 64 bits do resumo.
+     * @return bits
+     */
+    public long getAlto() {
+        return this.alto;
+    }
+
+    /**
+     * Devolve os 64 bits seguintes do resumo.
+     * @return bits
+     */
+    public long getBaixo() {
+        return this.baixo;
+    }
+
+    /**
+     * Implementa igualdade entre referências.
+     * @param o objeto
+     * @return true / false
+     */
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ReferenciaTexto)) {
+            return false;
+        }
+        ReferenciaTexto r = (ReferenciaTexto) o;
+        return this.alto == r.alto && this.baixo == r.baixo;
+    }
+
+    /**
+     * Calcula o hash code de uma referência (os bits do resumo já estão bem distribuídos).
+     * @return hash code
+     */
+    public int hashCode() {
+        return (int) this.baixo;
+    }
+
+    /**
+     * Representação em hexadecimal, usada como nome do ficheiro do texto.
+     * @return 32 dígitos hexadecimais
+     */
+    public String toString() {
+        return String.format("%016x%016x", this.alto, this.baixo);
+    }
+}
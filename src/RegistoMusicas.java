@@ -0,0 +1,93 @@
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Registo central das músicas de um modelo, indexado pelo identificador de cada música. As playlists e bibliotecas guardam apenas os
+ * identificadores e resolvem as músicas através do registo, pelo que uma substituição no catálogo passa a ser vista por todas elas.
+ * Os identificadores são densos, pelo que o registo usa páginas de tamanho fixo, só criadas quando são necessárias.
+ * O registo pode ser alterado por várias sessões em simultâneo (p.e. ao gerar playlists temporárias).
+ */
+public class RegistoMusicas implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int BITS_PAGINA = 10;
+    private static final int TAMANHO_PAGINA = 1 << BITS_PAGINA;
+    // O vetor de páginas nunca é alterado depois de publicado: uma página nova é publicada numa cópia do vetor,
+    // e as músicas são lidas e escritas de forma atómica, pelo que as leituras não precisam de bloqueio
+    private volatile Pagina[] paginas;
+
+    /**
+     * Página de músicas, com leituras e escritas atómicas.
+     */
+    private static class Pagina extends AtomicReferenceArray<Musica> {
+        private static final long serialVersionUID = 1L;
+
+        Pagina() {
+            super(TAMANHO_PAGINA);
+        }
+    }
+
+    /**
+     * Construtor por omissão.
+     */
+    public RegistoMusicas() {
+        this.paginas = new Pagina[1];
+    }
+
+    /**
+     * Devolve a música registada com um identificador.
+     * @param id identificador
+     * @return música, ou null caso não esteja registada
+     */
+    public Musica get(int id) {
+        Pagina[] ps = this.paginas;
+        int p = id >>> BITS_PAGINA;
+        if (p >= ps.length || ps[p] == null) {
+            return null;
+        }
+        return ps[p].get(id & (TAMANHO_PAGINA - 1));
+    }
+
+    private Pagina pagina(int id) {
+        Pagina[] ps = this.paginas;
+        int p = id >>> BITS_PAGINA;
+        if (p < ps.length && ps[p] != null) {
+            return ps[p];
+        }
+        return criaPagina(p);
+    }
+
+    private synchronized Pagina criaPagina(int p) {
+        Pagina[] ps = this.paginas;
+        if (p < ps.length && ps[p] != null) {
+            return ps[p];
+        }
+        Pagina[] novas = Arrays.copyOf(ps, p < ps.length ? ps.length : Math.max(p + 1, ps.length * 2));
+        novas[p] = new Pagina();
+        this.paginas = novas;
+        return novas[p];
+    }
+
+    /**
+     * Regista uma música, substituindo a que estiver registada com o mesmo identificador.
+     * @param musica música
+     */
+    public void regista(Musica musica) {
+        pagina(musica.getId()).set(musica.getId() & (TAMANHO_PAGINA - 1), musica);
+    }
+
+    /**
+     * Regista uma música, caso ainda não exista uma com o mesmo identificador.
+     * @param musica música
+     * @return música registada com o identificador da música dada
+     */
+    public Musica registaSeAusente(Musica musica) {
+        Pagina pagina = pagina(musica.getId());
+        int i = musica.getId() & (TAMANHO_PAGINA - 1);
+        if (pagina.compareAndSet(i, null, musica)) {
+            return musica;
+        }
+        return pagina.get(i);
+    }
+}
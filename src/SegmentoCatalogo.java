@@ -0,0 +1,255 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Segmento do catálogo num ficheiro de estado mapeado em memória. As strings, músicas e álbuns estão guardados em tabelas com
+ * deslocamentos de tamanho fixo, pelo que cada registo pode ser descodificado isoladamente e apenas quando é acedido.
+ * Inclui ainda um índice (tabela de dispersão gravada no ficheiro) dos álbuns do catálogo por nome e das músicas por nome.
+ * Os objetos descodificados ficam guardados, para que cada registo corresponda sempre ao mesmo objeto.
+ */
+public class SegmentoCatalogo {
+    /** Tamanho de uma entrada do índice: dispersão, string da chave e valor. */
+    private static final int TAMANHO_ENTRADA = 12;
+    private static final int VAZIA = -1;
+
+    private final CodecEstado codec;
+    private final LeitorBinario dicionario;
+    private final LeitorBinario tabelaMusicas;
+    private final LeitorBinario tabelaAlbuns;
+    private final LeitorBinario indice;
+    private final int inicioIndiceMusicas;
+
+    private final String[] strings;
+    private final Musica[] musicas;
+    private final Album[] albuns;
+
+    /**
+     * Construtor parametrizado. Aceita:
+     * @param codec codec usado para descodificar os registos
+     * @param dicionario secção do dicionário de strings
+     * @param tabelaMusicas secção das músicas
+     * @param tabelaAlbuns secção dos álbuns
+     * @param indice secção do índice do catálogo
+     * @throws IOException caso as secções não estejam no formato esperado
+     */
+    public SegmentoCatalogo(CodecEstado codec, LeitorBinario dicionario, LeitorBinario tabelaMusicas, LeitorBinario tabelaAlbuns, LeitorBinario indice) throws IOException {
+        this.codec = codec;
+        this.dicionario = dicionario;
+        this.tabelaMusicas = tabelaMusicas;
+        this.tabelaAlbuns = tabelaAlbuns;
+        this.indice = indice;
+        this.inicioIndiceMusicas = 8 + indice.leIntFixo(4) * TAMANHO_ENTRADA;
+        this.strings = new String[dicionario.leIntFixo(0)];
+        this.musicas = new Musica[tabelaMusicas.leIntFixo(0)];
+        this.albuns = new Album[tabelaAlbuns.leIntFixo(0)];
+    }
+
+    /**
+     * Calcula a dispersão de uma chave, tal como é gravada no índice.
+     * @param chave chave
+     * @return dispersão
+     */
+    public static int dispersao(String chave) {
+        int h = chave.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Devolve um leitor posicionado no início do registo i de uma tabela (nº de registos, deslocamentos e registos).
+     * @param tabela tabela
+     * @param i índice do registo
+     * @param n nº de registos
+     * @return leitor
+     * @throws IOException caso o índice seja inválido
+     */
+    private static LeitorBinario registo(LeitorBinario tabela, int i, int n) throws IOException {
+        if (i < 0 || i >= n) {
+            throw new IOException("Referência inválida: " + i);
+        }
+        return tabela.em(4 + 4 * n + tabela.leIntFixo(4 + 4 * i));
+    }
+
+    /**
+     * Devolve uma string do dicionário.
+     * @param i índice da string
+     * @return string
+     * @throws IOException caso o índice seja inválido
+     */
+    public synchronized String string(int i) throws IOException {
+        String s = i >= 0 && i < this.strings.length ? this.strings[i] : null;
+        if (s == null) {
+            s = registo(this.dicionario, i, this.strings.length).leString();
+            this.strings[i] = s;
+        }
+        return s;
+    }
+
+    /**
+     * Devolve uma música, descodificando-a se ainda não tiver sido acedida.
+     * @param i índice da música
+     * @param temporarias músicas descodificadas apenas para uma leitura completa do catálogo, que não devem ficar guardadas (null para guardar)
+     * @return música
+     * @throws IOException caso o registo não esteja no formato esperado
+     */
+    public synchronized Musica musica(int i, Map<Integer, Musica> temporarias) throws IOException {
+        Musica m = i >= 0 && i < this.musicas.length ? this.musicas[i] : null;
+        if (m == null && temporarias != null) {
+            m = temporarias.get(i);
+        }
+        if (m == null) {
+            m = this.codec.leMusica(registo(this.tabelaMusicas, i, this.musicas.length));
+            if (temporarias == null) {
+                this.musicas[i] = m;
+            } else {
+                temporarias.put(i, m);
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Devolve um álbum, descodificando-o (e às suas músicas) se ainda não tiver sido acedido.
+     * @param i índice do álbum
+     * @param temporarios álbuns descodificados apenas para uma leitura completa do catálogo (null para guardar)
+     * @param musicasTemporarias músicas descodificadas apenas para uma leitura completa do catálogo (null para guardar)
+     * @return álbum
+     * @throws IOException caso o registo não esteja no formato esperado
+     */
+    public synchronized Album album(int i, Map<Integer, Album> temporarios, Map<Integer, Musica> musicasTemporarias) throws IOException {
+        Album a = i >= 0 && i < this.albuns.length ? this.albuns[i] : null;
+        if (a == null && temporarios != null) {
+            a = temporarios.get(i);
+        }
+        if (a == null) {
+            a = this.codec.leAlbum(registo(this.tabelaAlbuns, i, this.albuns.length), musicasTemporarias);
+            if (temporarios == null) {
+                this.albuns[i] = a;
+            } else {
+                temporarios.put(i, a);
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Devolve um álbum, descodificando-o se necessário. Para uso fora da leitura do estado, onde não há erros de formato a tratar.
+     * @param i índice do álbum
+     * @return álbum
+     */
+    public Album album(int i) {
+        try {
+            return album(i, null, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao ler o catálogo: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Devolve o nº de álbuns do catálogo gravado.
+     * @return nº de álbuns
+     */
+    public int getNumAlbunsCatalogo() {
+        return leInt(0);
+    }
+
+    /**
+     * Devolve o nº de posições do índice de álbuns do catálogo.
+     * @return nº de posições
+     */
+    public int getCapacidadeCatalogo() {
+        return leInt(4);
+    }
+
+    /**
+     * Devolve a chave do álbum guardado numa posição do índice do catálogo.
+     * @param posicao posição
+     * @return chave, ou null caso a posição esteja vazia
+     */
+    public String chaveCatalogo(int posicao) {
+        int chave = leInt(8 + posicao * TAMANHO_ENTRADA + 4);
+        return chave == VAZIA ? null : stringSemErros(chave);
+    }
+
+    /**
+     * Devolve o índice do álbum guardado numa posição do índice do catálogo.
+     * @param posicao posição
+     * @return índice do álbum
+     */
+    public int albumCatalogo(int posicao) {
+        return leInt(8 + posicao * TAMANHO_ENTRADA + 8);
+    }
+
+    /**
+     * Procura um álbum do catálogo gravado pela sua chave.
+     * @param chave chave do álbum
+     * @return índice do álbum, ou -1 caso não exista
+     */
+    public int procuraAlbum(String chave) {
+        List<Integer> valores = procura(8, leInt(4), chave, true);
+        return valores.isEmpty() ? -1 : valores.get(0);
+    }
+
+    /**
+     * Devolve as chaves dos álbuns do catálogo gravado que contêm uma música com um dado nome.
+     * @param nomeMusica nome da música
+     * @return lista de chaves de álbuns
+     */
+    public List<String> albunsComMusica(String nomeMusica) {
+        List<Integer> valores = procura(this.inicioIndiceMusicas + 8, leInt(this.inicioIndiceMusicas + 4), nomeMusica, false);
+        List<String> chaves = new ArrayList<String>(valores.size());
+        for (int v : valores) {
+            chaves.add(stringSemErros(v));
+        }
+        return chaves;
+    }
+
+    /**
+     * Percorre uma tabela de dispersão do índice (com sondagem linear) e devolve os valores associados a uma chave.
+     * @param inicio posição da primeira entrada
+     * @param capacidade nº de entradas
+     * @param chave chave
+     * @param apenasPrimeiro se deve parar no primeiro valor encontrado
+     * @return valores encontrados
+     */
+    private List<Integer> procura(int inicio, int capacidade, String chave, boolean apenasPrimeiro) {
+        if (capacidade == 0) {
+            return Collections.emptyList();
+        }
+        List<Integer> valores = new ArrayList<Integer>(1);
+        int h = dispersao(chave);
+        for (int i = h & (capacidade - 1), n = 0; n < capacidade; i = (i + 1) & (capacidade - 1), n++) {
+            int posicao = inicio + i * TAMANHO_ENTRADA;
+            int k = leInt(posicao + 4);
+            if (k == VAZIA) {
+                break;
+            }
+            if (leInt(posicao) == h && stringSemErros(k).equals(chave)) {
+                valores.add(leInt(posicao + 8));
+                if (apenasPrimeiro) {
+                    break;
+                }
+            }
+        }
+        return valores;
+    }
+
+    private int leInt(int posicao) {
+        try {
+            return this.indice.leIntFixo(posicao);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Índice do catálogo inválido: " + e.getMessage(), e);
+        }
+    }
+
+    private String stringSemErros(int i) {
+        try {
+            return string(i);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao ler o catálogo: " + e.getMessage(), e);
+        }
+    }
+}
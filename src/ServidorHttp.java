@@ -0,0 +1,676 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interface HTTP/JSON da SpotifUM, construída sobre o servidor HTTP incluído no JDK. Permite que várias sessões usem o mesmo modelo,
+ * invocando os mesmos métodos que o Controller. Cada pedido é tratado numa thread virtual, quando a JVM as suporta, ou numa thread de um
+ * conjunto de tamanho fixo, caso contrário.
+ *
+ * As operações que precisam de um utilizador autenticado recebem a sessão devolvida pelo login no cabeçalho "Authorization: Bearer ...".
+ * Os parâmetros são passados na query string ou, nos pedidos POST, no corpo (application/x-www-form-urlencoded).
+ * <ul>
+ *     <li>POST /login (username, password), POST /logout</li>
+ *     <li>GET /pesquisa/musicas, /pesquisa/albuns, /pesquisa/playlists, /pesquisa/interprete (q)</li>
+ *     <li>GET /albuns/{nome}, GET /playlists/{criador}/{nome}</li>
+ *     <li>POST /reproducoes (musica[, album], obrigatório quando há músicas com o mesmo nome em vários álbuns)</li>
+ *     <li>POST /playlists/aleatoria (nome, num), /playlists/favoritos (num), /playlists/genero (nome, genero, minutos, num[, ordem=popularidade]),
+ *     /playlists/duracao (nome, genero, minutos)</li>
+ *     <li>GET /estatisticas, GET /tendencias[?k=], GET /metricas (fila de reproduções)</li>
+ *     <li>GET /classificacao[?n=&amp;raio=] (os melhores por pontos e, com sessão, a posição e os vizinhos do utilizador)</li>
+ * </ul>
+ */
+public class ServidorHttp {
+    /** Porta usada por omissão. */
+    public static final int PORTA_OMISSAO = 8080;
+
+    private final SpotifUM modelo;
+    private final HttpServer servidor;
+    private final ExecutorService executor;
+    private final boolean threadsVirtuais;
+    private final Map<String, String> sessoes;
+    private final SecureRandom aleatorio;
+
+    /**
+     * Construtor parametrizado. Aceita:
+     * @param modelo modelo a servir
+     * @param porta porta onde escutar (0 para uma porta livre)
+     * @throws IOException caso não seja possível abrir a porta
+     */
+    public ServidorHttp(SpotifUM modelo, int porta) throws IOException {
+        this.modelo = modelo;
+        this.sessoes = new ConcurrentHashMap<String, String>();
+        this.aleatorio = new SecureRandom();
+        ExecutorService virtual = executorVirtual();
+        this.threadsVirtuais = virtual != null;
+        this.executor = virtual != null ? virtual : executorPlataforma();
+        this.servidor = HttpServer.create(new InetSocketAddress(porta), 0);
+        this.servidor.setExecutor(this.executor);
+        this.servidor.createContext("/login", t -> trata(t, "POST", this::login));
+        this.servidor.createContext("/logout", t -> trata(t, "POST", this::logout));
+        this.servidor.createContext("/pesquisa/", t -> trata(t, "GET", this::pesquisa));
+        this.servidor.createContext("/albuns/", t -> trata(t, "GET", this::album));
+        this.servidor.createContext("/playlists/", t -> trata(t, null, this::playlists));
+        this.servidor.createContext("/reproducoes", t -> trata(t, "POST", this::reproducao));
+        this.servidor.createContext("/estatisticas", t -> trata(t, "GET", this::estatisticas));
+        this.servidor.createContext("/tendencias", t -> trata(t, "GET", this::tendencias));
+        this.servidor.createContext("/classificacao", t -> trata(t, "GET", this::classificacao));
+        this.servidor.createContext("/metricas", t -> trata(t, "GET", this::metricas));
+    }
+
+    /**
+     * Devolve um executor com uma thread virtual por tarefa, caso a JVM as suporte. É obtido por reflexão para que o programa continue a
+     * compilar e a correr em versões do Java sem threads virtuais.
+     * @return executor, ou null caso a JVM não suporte threads virtuais
+     */
+    private static ExecutorService executorVirtual() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Devolve um conjunto de threads de tamanho fixo. Os pedidos não fazem E/S demorada além da própria ligação, pelo que algumas threads
+     * por processador chegam para manter os processadores ocupados.
+     * @return executor
+     */
+    private static ExecutorService executorPlataforma() {
+        AtomicInteger contador = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 4), r -> {
+            Thread t = new Thread(r, "http-" + contador.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Começa a aceitar pedidos.
+     */
+    public void inicia() {
+        this.servidor.start();
+    }
+
+    /**
+     * Deixa de aceitar pedidos, esperando no máximo um dado tempo que terminem os que estão a ser tratados.
+     * @param segundos tempo máximo de espera
+     */
+    public void para(int segundos) {
+        this.servidor.stop(segundos);
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(segundos, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Devolve a porta onde o servidor está a escutar.
+     * @return porta
+     */
+    public int getPorta() {
+        return this.servidor.getAddress().getPort();
+    }
+
+    /**
+     * Diz se os pedidos são tratados em threads virtuais.
+     * @return true / false
+     */
+    public boolean usaThreadsVirtuais() {
+        return this.threadsVirtuais;
+    }
+
+    /**
+     * Operação da interface, que produz o corpo JSON da resposta.
+     */
+    private interface Operacao {
+        String executa(Pedido p);
+    }
+
+    /**
+     * Pedido recebido: caminho já separado e descodificado, parâmetros e utilizador da sessão.
+     */
+    private class Pedido {
+        private final String metodo;
+        private final List<String> caminho;
+        private final Map<String, String> parametros;
+        private final String sessao;
+
+        private Pedido(HttpExchange t) throws IOException {
+            this.metodo = t.getRequestMethod();
+            this.caminho = new ArrayList<String>();
+            for (String s : t.getRequestURI().getRawPath().split("/")) {
+                if (!s.isEmpty()) {
+                    this.caminho.add(descodifica(s));
+                }
+            }
+            this.parametros = new HashMap<String, String>();
+            leParametros(t.getRequestURI().getRawQuery());
+            if (this.metodo.equals("POST")) {
+                try (InputStream in = t.getRequestBody()) {
+                    leParametros(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            }
+            String autorizacao = t.getRequestHeaders().getFirst("Authorization");
+            this.sessao = autorizacao != null && autorizacao.startsWith("Bearer ") ? autorizacao.substring(7).trim() : null;
+        }
+
+        private void leParametros(String texto) {
+            if (texto == null || texto.isEmpty()) {
+                return;
+            }
+            for (String par : texto.split("&")) {
+                int i = par.indexOf('=');
+                if (i > 0) {
+                    this.parametros.put(descodifica(par.substring(0, i)), descodifica(par.substring(i + 1)));
+                } else if (!par.isEmpty()) {
+                    this.parametros.put(descodifica(par), "");
+                }
+            }
+        }
+
+        private String parametro(String nome) {
+            String v = this.parametros.get(nome);
+            if (v == null) {
+                throw new IllegalArgumentException("Parâmetro em falta: " + nome);
+            }
+            return v;
+        }
+
+        private int inteiro(String nome) {
+            try {
+                return Integer.parseInt(parametro(nome));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Parâmetro inválido: " + nome);
+            }
+        }
+
+        /**
+         * Devolve o utilizador da sessão, ou null caso o pedido não tenha uma sessão válida.
+         */
+        private Utilizador utilizadorOpcional() {
+            String username = this.sessao == null ? null : ServidorHttp.this.sessoes.get(this.sessao);
+            return username == null ? null : ServidorHttp.this.modelo.procuraUtilizador(username);
+        }
+
+        private Utilizador utilizador() {
+            Utilizador u = utilizadorOpcional();
+            if (u == null) {
+                throw new LoginInvalidoException("Sessão inválida! Efetue login.");
+            }
+            return u;
+        }
+    }
+
+    private static String descodifica(String s) {
+        return URLDecoder.decode(s, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Trata um pedido, convertendo as exceções do modelo em códigos de estado HTTP.
+     */
+    private void trata(HttpExchange t, String metodo, Operacao operacao) throws IOException {
+        int estado = 200;
+        String corpo;
+        try {
+            if (metodo != null && !metodo.equals(t.getRequestMethod())) {
+                estado = 405;
+                corpo = erro("Método não suportado: " + t.getRequestMethod());
+            } else {
+                corpo = operacao.executa(new Pedido(t));
+            }
+        } catch (LoginInvalidoException e) {
+            estado = 401;
+            corpo = erro(e.getMessage());
+        } catch (SemPermissoesException e) {
+            estado = 403;
+            corpo = erro(e.getMessage());
+        } catch (UserNotFoundException | AlbumNaoExisteException | MusicaNaoExisteException | PlaylistNaoExisteException | CategoriaDesconhecidaException e) {
+            estado = 404;
+            corpo = erro(e.getMessage());
+        } catch (NomeJaExisteException | PlaylistJaGuardadaException | PoucasMusicasException e) {
+            estado = 409;
+            corpo = erro(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            estado = 400;
+            corpo = erro(e.getMessage());
+        } catch (RuntimeException e) {
+            estado = 500;
+            corpo = erro(e.toString());
+        }
+        byte[] bytes = corpo.getBytes(StandardCharsets.UTF_8);
+        t.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        t.sendResponseHeaders(estado, bytes.length);
+        try (OutputStream out = t.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private String login(Pedido p) {
+        Utilizador u = this.modelo.login(p.parametro("username"), p.parametro("password"));
+        byte[] b = new byte[16];
+        this.aleatorio.nextBytes(b);
+        StringBuilder sessao = new StringBuilder();
+        for (byte x : b) {
+            sessao.append(String.format("%02x", x));
+        }
+        this.sessoes.put(sessao.toString(), u.getUsername());
+        StringBuilder sb = new StringBuilder("{\"sessao\":");
+        texto(sb, sessao.toString());
+        sb.append(",\"utilizador\":");
+        utilizador(sb, u);
+        return sb.append('}').toString();
+    }
+
+    private String logout(Pedido p) {
+        if (p.sessao == null || this.sessoes.remove(p.sessao) == null) {
+            throw new LoginInvalidoException("Sessão inválida!");
+        }
+        return "{}";
+    }
+
+    private String pesquisa(Pedido p) {
+        if (p.caminho.size() != 2) {
+            throw new CategoriaDesconhecidaException("Categoria desconhecida!");
+        }
+        String q = p.parametro("q");
+        StringBuilder sb = new StringBuilder();
+        switch (p.caminho.get(1)) {
+            case "musicas":
+                musicas(sb, this.modelo.pesquisaMusicas(q));
+                break;
+            case "albuns":
+                albuns(sb, this.modelo.pesquisaAlbuns(q), false);
+                break;
+            case "playlists":
+                playlists(sb, this.modelo.pesquisaPlaylists(q), false);
+                break;
+            case "interprete":
+                sb.append("{\"musicas\":");
+                musicas(sb, this.modelo.pesquisaMusicasInterprete(q));
+                sb.append(",\"albuns\":");
+                albuns(sb, this.modelo.pesquisaAlbunsInterprete(q), false);
+                sb.append('}');
+                break;
+            default:
+                throw new CategoriaDesconhecidaException("Categoria desconhecida: " + p.caminho.get(1));
+        }
+        return sb.toString();
+    }
+
+    private String album(Pedido p) {
+        if (p.caminho.size() != 2) {
+            throw new AlbumNaoExisteException("Álbum não indicado!");
+        }
+        StringBuilder sb = new StringBuilder();
+        album(sb, this.modelo.procuraAlbum(p.caminho.get(1)), true);
+        return sb.toString();
+    }
+
+    private String playlists(Pedido p) {
+        if (p.metodo.equals("POST") && p.caminho.size() == 2) {
+            return geraPlaylist(p, p.caminho.get(1));
+        }
+        if (!p.metodo.equals("GET") || p.caminho.size() != 3) {
+            throw new PlaylistNaoExisteException("Playlist não indicada!");
+        }
+        Playlist playlist = this.modelo.procuraPlaylist(p.caminho.get(1), p.caminho.get(2));
+        Utilizador u = p.utilizadorOpcional();
+        // As playlists privadas só são visíveis para o criador e para os administradores, como no Controller
+        if (!playlist.isPublic() && (u == null || !(u.isAdmin() || u.equals(playlist.getCriador())))) {
+            throw new PlaylistNaoExisteException(p.caminho.get(2));
+        }
+        StringBuilder sb = new StringBuilder();
+        playlist(sb, playlist, true);
+        return sb.toString();
+    }
+
+    private String geraPlaylist(Pedido p, String tipo) {
+        Utilizador u = p.utilizador();
+        Playlist gerada;
+        switch (tipo) {
+            case "aleatoria":
+                gerada = this.modelo.geraPlaylistAleatoria(p.parametro("nome"), p.inteiro("num"), u);
+                break;
+            case "favoritos":
+                if (!u.getPlano().podeGerarListaFavoritos()) {
+                    throw new SemPermissoesException("O plano atual não permite efetuar esta ação!");
+                }
+                this.modelo.geraListFavoritos(u, p.inteiro("num"));
+                gerada = guardada(u, "Lista de Favoritos");
+                break;
+            case "genero":
+                if (!u.getPlano().podeCriarListaGenero()) {
+                    throw new SemPermissoesException("O plano atual não permite efetuar esta ação!");
+                }
+                String nome = p.parametro("nome");
+                this.modelo.geraListaGeneroTempo(nome, p.parametro("genero"), p.inteiro("minutos") * 60, u, p.inteiro("num"),
+                        "popularidade".equals(p.parametros.get("ordem")));
+                gerada = guardada(u, nome);
+                break;
+            case "duracao":
+                if (!u.getPlano().podeCriarListaGenero()) {
+                    throw new SemPermissoesException("O plano atual não permite efetuar esta ação!");
+                }
+                String nomeDuracao = p.parametro("nome");
+                this.modelo.geraListaGeneroDuracao(nomeDuracao, p.parametro("genero"), p.inteiro("minutos") * 60, u);
+                gerada = guardada(u, nomeDuracao);
+                break;
+            default:
+                throw new PlaylistNaoExisteException("Tipo de playlist desconhecido: " + tipo);
+        }
+        StringBuilder sb = new StringBuilder();
+        if (gerada == null) {
+            sb.append("null");
+        } else {
+            playlist(sb, gerada, true);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Devolve uma playlist guardada na biblioteca de um utilizador, ou null caso não exista.
+     */
+    private Playlist guardada(Utilizador u, String nome) {
+        try {
+            return this.modelo.procuraPlaylist(u.getUsername(), nome);
+        } catch (PlaylistNaoExisteException e) {
+            return null;
+        }
+    }
+
+    private String reproducao(Pedido p) {
+        Utilizador u = p.utilizador();
+        if (!u.getPlano().podeOuvirMusicaIndividual()) {
+            throw new SemPermissoesException("O plano atual não permite ouvir músicas de forma individual!");
+        }
+        Musica m = musicaPedida(p);
+        // As músicas que o utilizador escolheu não ver são saltadas pelo Controller, pelo que a reprodução não é registada
+        if ((m.isExplicita() && !u.querVerExplicita()) || (m.isMultimedia() && !u.querVerMultimedia())) {
+            throw new SemPermissoesException("A música não está disponível com as preferências atuais!");
+        }
+        this.modelo.publicaReproducao(u, m);
+        // Com a fila de reproduções ativa, os contadores e os pontos devolvidos ainda podem não incluir esta reprodução
+        StringBuilder sb = new StringBuilder("{\"musica\":");
+        musica(sb, m);
+        sb.append(",\"pontos\":").append(u.getPontos()).append('}');
+        return sb.toString();
+    }
+
+    /**
+     * Devolve a música indicada num pedido (musica e, opcionalmente, album). Sem álbum, o nome tem de identificar uma só música do catálogo.
+     */
+    private Musica musicaPedida(Pedido p) {
+        String nome = p.parametro("musica");
+        String album = p.parametros.get("album");
+        if (album != null) {
+            return this.modelo.procuraMusica(album, nome);
+        }
+        List<Album> albuns = this.modelo.procuraAlbunsMusica(nome);
+        if (albuns.isEmpty()) {
+            throw new MusicaNaoExisteException(nome);
+        }
+        if (albuns.size() > 1) {
+            throw new IllegalArgumentException("Existem várias músicas com o nome " + nome + "; indique o álbum.");
+        }
+        return this.modelo.procuraMusica(albuns.get(0).getNome(), nome);
+    }
+
+    private String estatisticas(Pedido p) {
+        StringBuilder sb = new StringBuilder("{");
+        sb.append("\"utilizadores\":").append(this.modelo.getTotalUtilizadores());
+        sb.append(",\"musicas\":").append(this.modelo.getTotalMusicas());
+        sb.append(",\"albuns\":").append(this.modelo.getTotalAlbuns());
+        sb.append(",\"playlistsPublicas\":").append(this.modelo.getTotalPlaylists());
+        sb.append(",\"interpretes\":").append(this.modelo.getTotalInterpretes());
+        sb.append(",\"musicaMaisReproduzida\":");
+        Musica maisReproduzida = this.modelo.getMusicaMaisReproduzida();
+        if (maisReproduzida == null) {
+            sb.append("null");
+        } else {
+            musica(sb, maisReproduzida);
+        }
+        sb.append(",\"interpreteMaisEscutado\":");
+        texto(sb, this.modelo.getInterpreteMaisEscutado());
+        sb.append(",\"userMaisMusicasOuvidas\":");
+        texto(sb, username(this.modelo.getUserMaisMusicasOuvidas(LocalDate.of(2000, 1, 1))));
+        sb.append(",\"userMaisMusicasOuvidasMes\":");
+        texto(sb, username(this.modelo.getUserMaisMusicasOuvidas(LocalDate.now().minusMonths(1))));
+        sb.append(",\"userMaisPontos\":");
+        texto(sb, username(this.modelo.getUserMaisPontos()));
+        sb.append(",\"generoMaisReproduzido\":");
+        texto(sb, this.modelo.getTipoMaisReproduzido());
+        sb.append(",\"userMaisPlaylists\":");
+        texto(sb, username(this.modelo.getUserMaisPlaylists()));
+        return sb.append('}').toString();
+    }
+
+    private String tendencias(Pedido p) {
+        int k = p.parametros.containsKey("k") ? p.inteiro("k") : 10;
+        StringBuilder sb = new StringBuilder("{\"musicas\":");
+        musicas(sb, this.modelo.getMusicasTendencia(k));
+        sb.append(",\"interpretes\":");
+        textos(sb, this.modelo.getInterpretesTendencia(k));
+        sb.append(",\"generos\":");
+        textos(sb, this.modelo.getGenerosTendencia(k));
+        return sb.append('}').toString();
+    }
+
+    private String classificacao(Pedido p) {
+        int n = p.parametros.containsKey("n") ? p.inteiro("n") : 10;
+        StringBuilder sb = new StringBuilder("{\"total\":").append(this.modelo.getTotalClassificados());
+        sb.append(",\"melhores\":");
+        utilizadores(sb, this.modelo.getMelhoresPontos(n));
+        Utilizador u = p.utilizadorOpcional();
+        if (u != null) {
+            int raio = p.parametros.containsKey("raio") ? p.inteiro("raio") : 5;
+            sb.append(",\"posicao\":").append(this.modelo.getPosicaoPontos(u));
+            sb.append(",\"vizinhos\":");
+            utilizadores(sb, this.modelo.getVizinhosPontos(u, raio));
+        }
+        return sb.append('}').toString();
+    }
+
+    private String metricas(Pedido p) {
+        FilaReproducoes f = this.modelo.getFilaReproducoes();
+        if (f == null) {
+            return "{\"filaReproducoes\":null}";
+        }
+        FilaReproducoes.Metricas m = f.getMetricas();
+        StringBuilder sb = new StringBuilder("{\"filaReproducoes\":{");
+        sb.append("\"capacidade\":").append(m.getCapacidade());
+        sb.append(",\"pendentes\":").append(m.getPendentes());
+        sb.append(",\"publicados\":").append(m.getPublicados());
+        sb.append(",\"publicacoesEmEspera\":").append(m.getPublicacoesEmEspera());
+        sb.append(",\"aplicados\":").append(m.getAplicados());
+        sb.append(",\"falhas\":").append(m.getFalhas());
+        sb.append(",\"ultimaFalha\":");
+        texto(sb, m.getUltimaFalha());
+        sb.append(",\"lotes\":").append(m.getLotes());
+        sb.append(",\"tempoMedioLoteUs\":").append(String.format(Locale.ROOT, "%.1f", m.getTempoMedioLoteUs()));
+        sb.append(",\"maiorTempoLoteUs\":").append(String.format(Locale.ROOT, "%.1f", m.getMaiorTempoLoteUs()));
+        sb.append(",\"atrasoMedioMs\":").append(String.format(Locale.ROOT, "%.3f", m.getAtrasoMedioMs()));
+        sb.append(",\"maiorAtrasoMs\":").append(String.format(Locale.ROOT, "%.3f", m.getMaiorAtrasoMs()));
+        return sb.append("}}").toString();
+    }
+
+    private static String username(Utilizador u) {
+        return u == null ? null : u.getUsername();
+    }
+
+    private static String erro(String mensagem) {
+        StringBuilder sb = new StringBuilder("{\"erro\":");
+        texto(sb, mensagem);
+        return sb.append('}').toString();
+    }
+
+    private static void textos(StringBuilder sb, List<String> ss) {
+        sb.append('[');
+        for (int i = 0; i < ss.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            texto(sb, ss.get(i));
+        }
+        sb.append(']');
+    }
+
+    /**
+     * Escreve um texto em JSON, com as aspas e os caracteres de controlo escapados.
+     */
+    private static void texto(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    private void musica(StringBuilder sb, Musica m) {
+        sb.append("{\"nome\":");
+        texto(sb, m.getNome());
+        sb.append(",\"interprete\":");
+        texto(sb, m.getInterprete());
+        sb.append(",\"editora\":");
+        texto(sb, m.getEditora());
+        sb.append(",\"genero\":");
+        texto(sb, m.getGenero());
+        sb.append(",\"duracao\":").append(m.getDuracao());
+        sb.append(",\"explicita\":").append(m.isExplicita());
+        sb.append(",\"multimedia\":").append(m.isMultimedia());
+        sb.append(",\"reproducoes\":").append(this.modelo.getNumReproducoes(m));
+        sb.append('}');
+    }
+
+    private void musicas(StringBuilder sb, Collection<Musica> ms) {
+        sb.append('[');
+        boolean primeira = true;
+        for (Musica m : ms) {
+            if (!primeira) {
+                sb.append(',');
+            }
+            musica(sb, m);
+            primeira = false;
+        }
+        sb.append(']');
+    }
+
+    private void album(StringBuilder sb, Album a, boolean comMusicas) {
+        sb.append("{\"nome\":");
+        texto(sb, a.getNome());
+        sb.append(",\"interprete\":");
+        texto(sb, a.getInterprete());
+        sb.append(",\"editora\":");
+        texto(sb, a.getEditora());
+        sb.append(",\"ano\":").append(a.getAnoLancamento());
+        sb.append(",\"duracao\":").append(a.getDuracao());
+        sb.append(",\"numMusicas\":").append(a.getNumMusicas());
+        if (comMusicas) {
+            sb.append(",\"musicas\":");
+            musicas(sb, a.getMusicas().values());
+        }
+        sb.append('}');
+    }
+
+    private void albuns(StringBuilder sb, List<Album> as, boolean comMusicas) {
+        sb.append('[');
+        for (int i = 0; i < as.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            album(sb, as.get(i), comMusicas);
+        }
+        sb.append(']');
+    }
+
+    private void playlist(StringBuilder sb, Playlist p, boolean comMusicas) {
+        sb.append("{\"nome\":");
+        texto(sb, p.getNome());
+        sb.append(",\"criador\":");
+        texto(sb, username(p.getCriador()));
+        sb.append(",\"publica\":").append(p.isPublic());
+        sb.append(",\"numMusicas\":").append(p.getMusicas().size());
+        if (comMusicas) {
+            sb.append(",\"musicas\":");
+            musicas(sb, p.getMusicas().values());
+        }
+        sb.append('}');
+    }
+
+    private void playlists(StringBuilder sb, List<Playlist> ps, boolean comMusicas) {
+        sb.append('[');
+        for (int i = 0; i < ps.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            playlist(sb, ps.get(i), comMusicas);
+        }
+        sb.append(']');
+    }
+
+    private static void utilizadores(StringBuilder sb, List<Utilizador> us) {
+        sb.append('[');
+        for (int i = 0; i < us.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            utilizador(sb, us.get(i));
+        }
+        sb.append(']');
+    }
+
+    private static void utilizador(StringBuilder sb, Utilizador u) {
+        sb.append("{\"username\":");
+        texto(sb, u.getUsername());
+        sb.append(",\"nome\":");
+        texto(sb, u.getNome());
+        sb.append(",\"admin\":").append(u.isAdmin());
+        sb.append(",\"plano\":");
+        texto(sb, u.getPlano().getClass().getSimpleName());
+        sb.append(",\"pontos\":").append(u.getPontos());
+        sb.append('}');
+    }
+}
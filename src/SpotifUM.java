@@ -1,22 +1,49 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Classe que funciona como modelo da aplicação. Contém lista de álbuns e utilizadores, servindo como ponto de entrada para todos os outros dados.
+ * Pode ser usado por várias sessões em simultâneo. As operações que alteram o catálogo, as contas ou as bibliotecas (e, com elas, os índices derivados)
+ * são exclusivas; as consultas e o registo de reproduções são partilhados, sendo o histórico e os pontos de cada utilizador protegidos pelo próprio utilizador.
+ * As reproduções podem também ser publicadas numa FilaReproducoes, que as aplica em lotes sem atrasar quem as publica.
  */
 public class SpotifUM implements Serializable {
     private Map<String, Utilizador> utilizadores;
     private Map<String, Album> albuns;
+    private final RegistoMusicas registoMusicas = new RegistoMusicas();
+    private final ContadorReproducoes reproducoes = new ContadorReproducoes();
     private static final Random random = new Random();
+    private static final int LIMITE_REMOCAO_PARALELA = 1024;
+    private static final int MAX_CANDIDATAS_DURACAO = 4096;
+    private transient ReentrantReadWriteLock bloqueio = new ReentrantReadWriteLock();
+    private transient volatile DiarioOperacoes diario;
+    private transient volatile long sequenciaDiario;
+    private transient volatile IndiceTrigramas<Musica> indiceMusicas;
+    private transient volatile IndiceTrigramas<Album> indiceAlbuns;
+    private transient volatile IndiceTrigramas<Playlist> indicePlaylists;
+    private transient volatile Map<String, List<Album>> localizacaoMusicas;
+    private transient IndiceGeneroDuracao indiceGeneros;
+    private transient volatile VetorMusicas vetorMusicas;
+    private transient IndiceReferencias referencias;
+    private transient volatile EstatisticasPlataforma estatisticas;
+    private transient volatile TendenciasReproducoes tendencias;
+    private transient volatile FilaReproducoes filaReproducoes;
 
     /**
      * Construtor por omissão.
      */
     public SpotifUM() {
-        this.utilizadores = new HashMap<String, Utilizador>();
-        this.albuns = new HashMap<String, Album>();
+        this.utilizadores = new ConcurrentHashMap<String, Utilizador>();
+        this.albuns = new ConcurrentHashMap<String, Album>();
     }
 
     /**
@@ -31,26 +58,27 @@ public class SpotifUM implements Serializable {
     }
 
     /**
-     * Construtor de cópia. Aceita:
+     * Construtor de cópia. O modelo copiado é bloqueado em exclusivo durante a cópia, que inclui as contagens de reproduções.
+     * Os índices derivados (incluindo as estatísticas) são reconstruídos a partir da cópia quando forem necessários. Aceita:
      *
      * @param novoModelo novo modelo
      */
     public SpotifUM(SpotifUM novoModelo) {
-        setUtilizadores(novoModelo.getUtilizadores());
-        setAlbuns(novoModelo.getAlbuns());
+        novoModelo.exclusivo(() -> {
+            this.reproducoes.defineMinimo(novoModelo.reproducoes);
+            setUtilizadores(novoModelo.getUtilizadores());
+            setAlbuns(novoModelo.getAlbuns());
+            return null;
+        });
     }
 
     /**
-     * Devolve os álbuns no sistema.
+     * Devolve os álbuns no sistema, numa vista só de leitura. Para obter uma cópia independente, usar o construtor de cópia.
      *
      * @return mapa de álbuns
      */
     public Map<String, Album> getAlbuns() {
-        Map<String, Album> albunsClone = new HashMap<String, Album>();
-        for (Map.Entry<String, Album> a : this.albuns.entrySet()) {
-            albunsClone.put(a.getKey(), a.getValue().clone());
-        }
-        return albunsClone;
+        return Collections.unmodifiableMap(this.albuns);
     }
 
     /**
@@ -59,23 +87,25 @@ public class SpotifUM implements Serializable {
      * @param albuns novos álbuns
      */
     public void setAlbuns(Map<String, Album> albuns) {
-        this.albuns = new HashMap<String, Album>();
-        for (Map.Entry<String, Album> a : albuns.entrySet()) {
-            this.albuns.put(a.getKey(), a.getValue().clone());
+        bloqueiaEscrita();
+        try {
+            descartaIndices();
+            this.albuns = new ConcurrentHashMap<String, Album>();
+            for (Map.Entry<String, Album> a : albuns.entrySet()) {
+                this.albuns.put(a.getKey(), a.getValue().clone());
+            }
+        } finally {
+            this.bloqueio.writeLock().unlock();
         }
     }
 
     /**
-     * Devolve os utilizadores no sistema.
+     * Devolve os utilizadores no sistema, numa vista só de leitura.
      *
      * @return mapa de utilizadores
      */
     public Map<String, Utilizador> getUtilizadores() {
-        Map<String, Utilizador> utilizadoresClone = new HashMap<String, Utilizador>();
-        for (Map.Entry<String, Utilizador> u : this.utilizadores.entrySet()) {
-            utilizadoresClone.put(u.getKey(), u.getValue().clone());
-        }
-        return utilizadoresClone;
+        return Collections.unmodifiableMap(this.utilizadores);
     }
 
     /**
@@ -84,9 +114,17 @@ public class SpotifUM implements Serializable {
      * @param utilizadores novos utilizadores
      */
     public void setUtilizadores(Map<String, Utilizador> utilizadores) {
-        this.utilizadores = new HashMap<String, Utilizador>();
-        for (Map.Entry<String, Utilizador> u : utilizadores.entrySet()) {
-            this.utilizadores.put(u.getKey(), u.getValue().clone());
+        bloqueiaEscrita();
+        try {
+            descartaIndices();
+            this.utilizadores = new ConcurrentHashMap<String, Utilizador>();
+            for (Map.Entry<String, Utilizador> u : utilizadores.entrySet()) {
+                Utilizador copia = u.getValue().clone();
+                copia.getBiblioteca().usaRegisto(this.registoMusicas);
+                this.utilizadores.put(u.getKey(), copia);
+            }
+        } finally {
+            this.bloqueio.writeLock().unlock();
         }
     }
 
@@ -103,16 +141,26 @@ public class SpotifUM implements Serializable {
      * @throws EmailJaUsadoException    caso email já esteja a ser usado
      */
     public void criaUtilizador(String nome, String username, String email, String morada, LocalDate dataNascimento, String password) throws UsernameJaUsadoException, EmailJaUsadoException {
-        if (this.utilizadores.containsKey(username)) {
-            throw new UsernameJaUsadoException("O username " + username + " já está a ser usado!");
-        }
-        for (Utilizador u : this.utilizadores.values()) {
-            if (u.getEmail().equals(email)) {
-                throw new EmailJaUsadoException("O email " + email + " já está a ser usado!");
+        bloqueiaEscrita();
+        try {
+            if (this.utilizadores.containsKey(username)) {
+                throw new UsernameJaUsadoException("O username " + username + " já está a ser usado!");
+            }
+            for (Utilizador u : this.utilizadores.values()) {
+                if (u.getEmail().equals(email)) {
+                    throw new EmailJaUsadoException("O email " + email + " já está a ser usado!");
+                }
             }
+            Utilizador novoUtilizador = new Utilizador(username, password, nome, morada, email, dataNascimento);
+            novoUtilizador.getBiblioteca().usaRegisto(this.registoMusicas);
+            this.utilizadores.put(username, novoUtilizador);
+            if (this.estatisticas != null) {
+                this.estatisticas.utilizadorCriado(novoUtilizador);
+            }
+            registaOperacao(DiarioOperacoes.CRIA_UTILIZADOR, nome, username, email, morada, dataNascimento.toEpochDay(), password);
+        } finally {
+            this.bloqueio.writeLock().unlock();
         }
-        Utilizador novoUtilizador = new Utilizador(username, password, nome, morada, email, dataNascimento);
-        this.utilizadores.put(username, novoUtilizador);
     }
 
     /**
@@ -124,11 +172,16 @@ public class SpotifUM implements Serializable {
      * @throws LoginInvalidoException caso username ou password não coincidam / não existam
      */
     public Utilizador login(String username, String password) throws LoginInvalidoException {
-        Utilizador utilizador = this.utilizadores.get(username);
-        if (utilizador == null || !utilizador.getPassword().equals(password)) {
-            throw new LoginInvalidoException("Username ou palavra passe incorreta!");
+        this.bloqueio.readLock().lock();
+        try {
+            Utilizador utilizador = this.utilizadores.get(username);
+            if (utilizador == null || !utilizador.getPassword().equals(password)) {
+                throw new LoginInvalidoException("Username ou palavra passe incorreta!");
+            }
+            return utilizador;
+        } finally {
+            this.bloqueio.readLock().unlock();
         }
-        return utilizador;
     }
 
     /**
@@ -137,14 +190,29 @@ public class SpotifUM implements Serializable {
      * @param musica música a remover
      */
     public void removeMusica(Musica musica) {
-        for (Album album : this.albuns.values()) {
-            if (album.temMusica(musica.getNome())) {
-                album.removeMusica(musica.getNome());
-                removeMusicaUsers(musica);
-                return;
+        bloqueiaEscrita();
+        try {
+            Album album = existeMusica(musica);
+            Musica removida = album.musicasInternas().get(musica.getNome());
+            if (this.indiceMusicas != null) {
+                this.indiceMusicas.remove(removida);
             }
+            if (this.indiceGeneros != null) {
+                this.indiceGeneros.remove(removida);
+            }
+            if (this.vetorMusicas != null) {
+                this.vetorMusicas.remove(removida);
+            }
+            album.removeMusica(musica.getNome());
+            if (this.estatisticas != null) {
+                this.estatisticas.musicaRemovida(album, removida);
+            }
+            removeLocalizacao(musica.getNome(), album);
+            removeMusicasUtilizadores(Collections.singletonList(musica.getNome()));
+            registaOperacao(DiarioOperacoes.REMOVE_MUSICA, musica.getNome(), album.getNome());
+        } finally {
+            this.bloqueio.writeLock().unlock();
         }
-        throw new MusicaNaoExisteException(musica.getNome());
     }
 
     /**
@@ -156,10 +224,19 @@ public class SpotifUM implements Serializable {
      * @throws SemPermissoesException    caso o utilizador não tenha permissões para o fazer
      */
     public void adicionaMusicaFavorita(Utilizador user, Musica musica) throws MusicaJaGuardadaException, SemPermissoesException {
-        if (!user.getPlano().podeGuardarAlbum()) {
-            throw new SemPermissoesException("O plano atual não permite efetuar esta ação!");
+        bloqueiaEscrita();
+        try {
+            if (!user.getPlano().podeGuardarAlbum()) {
+                throw new SemPermissoesException("O plano atual não permite efetuar esta ação!");
+            }
+            user.getBiblioteca().adicionarMusica(musica);
+            if (this.referencias != null) {
+                this.referencias.adicionaMusicaBiblioteca(user.getBiblioteca(), musica.getNome());
+            }
+            registaOperacao(DiarioOperacoes.ADICIONA_MUSICA_FAVORITA, user.getUsername(), musica.getNome(), nomeAlbum(musica));
+        } finally {
+            this.bloqueio.writeLock().unlock();
         }
-        user.getBiblioteca().adicionarMusica(musica);
     }
 
     /**
@@ -168,7 +245,12 @@ public class SpotifUM implements Serializable {
      * @return nº de utilizadores
      */
     public int getTotalUtilizadores() {
-        return this.utilizadores.size();
+        this.bloqueio.readLock().lock();
+        try {
+            return this.utilizadores.size();
+        } finally {
+            this.bloqueio.readLock().unlock();
+        }
     }
 
     /**
@@ -177,7 +259,12 @@ public class SpotifUM implements Serializable {
      * @return nº de álbuns
      */
     public int getTotalAlbuns() {
-        return this.albuns.size();
+        this.bloqueio.readLock().lock();
+        try {
+            return this.albuns.size();
+        } finally {
+            this.bloqueio.readLock().unlock();
+        }
     }
 
     /**
@@ -186,11 +273,7 @@ public class SpotifUM implements Serializable {
      * @return nº de músicas
      */
     public int getTotalMusicas() {
-        int numMusicas = 0;
-        for (Album album : this.albuns.values()) {
-            numMusicas += album.getMusicas().size();
-        }
-        return numMusicas;
+        return consultaEstatisticas(e -> e.getTotalMusicas());
     }
 
     /**
@@ -199,15 +282,7 @@ public class SpotifUM implements Serializable {
      * @return nº de playlists
      */
     public int getTotalPlaylists() {
-        List<String> playlists = new ArrayList<String>();
-        for (Utilizador utilizador : this.utilizadores.values()) {
-            for (Playlist p : utilizador.getBiblioteca().getPlaylists().values()) {
-                if (!playlists.contains(p.getNome())) {
-                    playlists.add(p.getNome());
-                }
-            }
-        }
-        return playlists.size();
+        return consultaEstatisticas(e -> e.getTotalPlaylists());
     }
 
     /**
@@ -216,15 +291,7 @@ public class SpotifUM implements Serializable {
      * @return nº de intérpretes
      */
     public int getTotalInterpretes() {
-        List<String> interpretes = new ArrayList<String>();
-        for (Album album : this.albuns.values()) {
-            for (Musica musica : album.getMusicas().values()) {
-                if (!interpretes.contains(album.getInterprete())) {
-                    interpretes.add(album.getInterprete());
-                }
-            }
-        }
-        return interpretes.size();
+        return consultaEstatisticas(e -> e.getTotalInterpretes());
     }
 
     /**
@@ -233,54 +300,100 @@ public class SpotifUM implements Serializable {
      * @return música mais reproduzida
      */
     public Musica getMusicaMaisReproduzida() {
-        List<Musica> musicas = new ArrayList<Musica>();
-        for (Album album : this.albuns.values()) {
-            musicas.addAll(album.getMusicas().values());
-        }
-
-        return musicas.stream().max(Comparator.comparing(Musica::getNumReproducoes)).orElse(null);
+        return consultaEstatisticas(e -> e.getMusicaMaisReproduzida());
     }
 
     /**
-     * Devolve o intérprete mais ouvido.
+     * Devolve as músicas em tendência, isto é, as mais ouvidas recentemente, com cada reprodução a valer metade ao fim de uma meia-vida.
+     * As músicas que entretanto saíram do catálogo são ignoradas.
      *
-     * @return o intérprete mais ouvido
+     * @param k nº de músicas
+     * @return músicas do catálogo, por ordem decrescente de pontuação
      */
-    public String getInterpreteMaisEscutado() {
-        Map<String, Integer> mapa = new HashMap<String, Integer>();
-        for (Album album : this.albuns.values()) {
-            for (Musica musica : album.getMusicas().values()) {
-                if (!mapa.containsKey(musica.getInterprete())) {
-                    mapa.put(musica.getInterprete(), 1);
-                } else {
-                    mapa.merge(musica.getInterprete(), 1, Integer::sum);
-                }
+    public List<Musica> getMusicasTendencia(int k) {
+        return consultaTendencias(t -> {
+            List<Musica> res = new ArrayList<Musica>();
+            for (Musica m : t.getMusicas(k, m -> doCatalogo(m) != null)) {
+                res.add(doCatalogo(m));
             }
-        }
+            return res;
+        });
+    }
+
+    /**
+     * Devolve os intérpretes em tendência.
+     *
+     * @param k nº de intérpretes
+     * @return intérpretes, por ordem decrescente de pontuação
+     */
+    public List<String> getInterpretesTendencia(int k) {
+        return consultaTendencias(t -> t.getInterpretes(k));
+    }
+
+    /**
+     * Devolve os géneros em tendência.
+     *
+     * @param k nº de géneros
+     * @return géneros, por ordem decrescente de pontuação
+     */
+    public List<String> getGenerosTendencia(int k) {
+        return consultaTendencias(t -> t.getGeneros(k));
+    }
+
+    /**
+     * Devolve o nº de reproduções de uma música, contando as de todas as suas cópias.
+     *
+     * @param musica música
+     * @return nº de reproduções
+     */
+    public int getNumReproducoes(Musica musica) {
+        return this.reproducoes.get(musica.getId());
+    }
 
-        return mapa.entrySet().stream().max(Comparator.comparing(Map.Entry::getValue)).get().getKey();
+    /**
+     * Devolve o intérprete mais ouvido, isto é, o intérprete com mais músicas no catálogo.
+     *
+     * @return o intérprete mais ouvido, ou null caso não existam músicas
+     */
+    public String getInterpreteMaisEscutado() {
+        return consultaEstatisticas(e -> e.getInterpreteMaisEscutado());
     }
 
     /**
-     * Devolve o utilizador que mais músicas ouviu após uma determinada data
+     * Devolve o utilizador que mais músicas ouviu a partir de uma determinada data (inclusive). Salvo para datas muito antigas,
+     * usa as contagens por dia mantidas pelas estatísticas, sem percorrer os históricos
      *
      * @param apos data
      * @return utilizador
      */
     public Utilizador getUserMaisMusicasOuvidas(LocalDate apos) {
-        Utilizador utilizador = null;
-        int max = 0;
-        for (Utilizador u : this.utilizadores.values()) {
-            int numMusicas = 0;
-            for (List<LocalDateTime> datas : u.getMusicasOuvidas().values()) {
-                numMusicas += (int) datas.stream().filter(d -> d.isAfter(apos.atStartOfDay())).count();
+        LocalDateTime inicio = apos.atStartOfDay();
+        return consultaEstatisticas(e -> {
+            if (e.getPrimeiraReproducao() == null) {
+                return null;
             }
-            if (numMusicas > max) {
-                max = numMusicas;
-                utilizador = u;
+            if (inicio.isBefore(e.getPrimeiraReproducao())) {
+                // Todas as reproduções são posteriores à data, pelo que basta o total mantido pelas estatísticas
+                return this.utilizadores.get(e.getUserMaisReproducoes());
             }
-        }
-        return utilizador;
+            synchronized (e) {
+                if (e.conheceReproducoesDesde(apos.toEpochDay())) {
+                    String username = e.getUserMaisReproducoesDesde(apos.toEpochDay());
+                    return username == null ? null : this.utilizadores.get(username);
+                }
+            }
+            // A data é anterior aos dias de atividade guardados para algum utilizador, pelo que são percorridos os históricos
+            Utilizador utilizador = null;
+            int max = 0;
+            for (Utilizador u : this.utilizadores.values()) {
+                int numMusicas = u.getNumReproducoesApos(inicio);
+                if (numMusicas > max) {
+                    max = numMusicas;
+                    utilizador = u;
+                }
+            }
+            return utilizador;
+        });
     }
 
     /**
@@ -289,29 +402,70 @@ public class SpotifUM implements Serializable {
      * @return utilizador com mais pontos
      */
     public Utilizador getUserMaisPontos() {
-        return this.utilizadores.values().stream()
-                .max(Comparator.comparing(Utilizador::getPontos))
-                .orElse(null);
+        return consultaEstatisticas(e -> {
+            String username = e.getUserMaisPontos();
+            return username == null ? null : this.utilizadores.get(username);
+        });
     }
 
     /**
-     * Devolve o género de música mais reproduzido
+     * Devolve a posição de um utilizador na classificação por pontos, a começar em 1. Utilizadores com os mesmos pontos têm a mesma posição.
      *
-     * @return género mais reproduzido
+     * @param user utilizador
+     * @return posição, ou 0 caso o utilizador não exista
      */
-    public String getTipoMaisReproduzido() {
-        Map<String, Integer> mapa = new HashMap<String, Integer>();
-        for (Album album : this.albuns.values()) {
-            for (Musica musica : album.getMusicas().values()) {
-                if (!mapa.containsKey(musica.getGenero())) {
-                    mapa.put(musica.getGenero(), 1);
-                } else {
-                    mapa.merge(musica.getGenero(), 1, Integer::sum);
-                }
+    public int getPosicaoPontos(Utilizador user) {
+        return consultaEstatisticas(e -> e.getPosicaoPontos(user.getUsername()));
+    }
+
+    /**
+     * Devolve o nº de utilizadores na classificação por pontos.
+     *
+     * @return nº de utilizadores
+     */
+    public int getTotalClassificados() {
+        return consultaEstatisticas(e -> e.getTotalClassificados());
+    }
+
+    /**
+     * Devolve os utilizadores com mais pontos.
+     *
+     * @param n nº de utilizadores
+     * @return utilizadores, por ordem decrescente de pontos
+     */
+    public List<Utilizador> getMelhoresPontos(int n) {
+        return consultaEstatisticas(e -> utilizadores(e.getMelhoresPontos(n)));
+    }
+
+    /**
+     * Devolve os utilizadores à volta de um utilizador na classificação por pontos, incluindo o próprio.
+     *
+     * @param user utilizador
+     * @param raio nº de utilizadores antes e depois
+     * @return utilizadores, por ordem decrescente de pontos
+     */
+    public List<Utilizador> getVizinhosPontos(Utilizador user, int raio) {
+        return consultaEstatisticas(e -> utilizadores(e.getVizinhosPontos(user.getUsername(), raio)));
+    }
+
+    private List<Utilizador> utilizadores(List<String> usernames) {
+        List<Utilizador> res = new ArrayList<Utilizador>(usernames.size());
+        for (String username : usernames) {
+            Utilizador u = this.utilizadores.get(username);
+            if (u != null) {
+                res.add(u);
             }
         }
+        return res;
+    }
 
-        return mapa.entrySet().stream().max(Comparator.comparing(Map.Entry::getValue)).get().getKey();
+    /**
+     * Devolve o género de música mais reproduzido, isto é, o género com mais músicas no catálogo.
+     *
+     * @return género mais reproduzido, ou null caso não existam músicas
+     */
+    public String getTipoMaisReproduzido() {
+        return consultaEstatisticas(e -> e.getTipoMaisReproduzido());
     }
 
     /**
@@ -320,18 +474,10 @@ public class SpotifUM implements Serializable {
      * @return utilizador com mais playlists criadas
      */
     public Utilizador getUserMaisPlaylists() {
-        Utilizador utilizador = null;
-        int max = 0;
-        for (Utilizador u : this.utilizadores.values()) {
-            Biblioteca b = u.getBiblioteca();
-            int num = (int) b.getPlaylists().entrySet().stream().filter(p -> p.getValue().getCriador().equals(u)).count();
-
-            if (num > max) {
-                max = num;
-                utilizador = u;
-            }
-        }
-        return utilizador;
+        return consultaEstatisticas(e -> {
+            String username = e.getUserMaisPlaylists();
+            return username == null ? null : this.utilizadores.get(username);
+        });
     }
 
     /**
@@ -341,15 +487,13 @@ public class SpotifUM implements Serializable {
      * @return lista de músicas encontradas
      */
     public List<Musica> pesquisaMusicas(String query) {
-        List<Musica> musicas = new ArrayList<Musica>();
-        for (Album album : this.albuns.values()) {
-            for (Musica m : album.getMusicas().values()) {
-                if (m.getNome().toLowerCase().contains(query.toLowerCase())) {
-                    musicas.add(m);
-                }
-            }
+        this.bloqueio.readLock().lock();
+        try {
+            constroiIndicesPesquisa();
+            return this.indiceMusicas.pesquisa(query);
+        } finally {
+            this.bloqueio.readLock().unlock();
         }
-        return musicas;
     }
 
     /**
@@ -359,13 +503,13 @@ public class SpotifUM implements Serializable {
      * @return lista de álbuns encontrados
      */
     public List<Album> pesquisaAlbuns(String query) {
-        List<Album> albuns = new ArrayList<Album>();
-        for (Album album : this.albuns.values()) {
-            if (album.getNome().toLowerCase().contains(query.toLowerCase())) {
-                albuns.add(album);
-            }
+        this.bloqueio.readLock().lock();
+        try {
+            constroiIndicesPesquisa();
+            return this.indiceAlbuns.pesquisa(query);
+        } finally {
+            this.bloqueio.readLock().unlock();
         }
-        return albuns;
     }
 
     /**
@@ -375,333 +519,831 @@ public class SpotifUM implements Serializable {
      * @return lista de playlists públicas encontradas
      */
     public List<Playlist> pesquisaPlaylists(String query) {
-        List<Playlist> playlists = new ArrayList<Playlist>();
-        for (Utilizador utilizador : this.utilizadores.values()) {
-            for (Playlist p : utilizador.getBiblioteca().getPlaylists().values()) {
-                if (p.getNome().toLowerCase().contains(query.toLowerCase()) && p.isPublic()) {
+        this.bloqueio.readLock().lock();
+        try {
+            constroiIndicesPesquisa();
+            List<Playlist> playlists = new ArrayList<Playlist>();
+            // A visibilidade é verificada aqui, pelo que o índice inclui também as playlists privadas
+            for (Playlist p : this.indicePlaylists.pesquisa(query)) {
+                if (p.isPublic()) {
                     playlists.add(p);
                 }
             }
+            return playlists;
+        } finally {
+            this.bloqueio.readLock().unlock();
         }
-        return playlists;
     }
 
     /**
-     * Implementa a pesquisa de músicas por intérprete
-     *
-     * @param interprete intérprete
-     * @return lista de músicas encontradas
+     * Constrói os índices de pesquisa por nome, caso ainda não existam. A partir daí, são mantidos pelas operações que alteram o catálogo
+     * e as bibliotecas. As playlists são indexadas enquanto estiverem guardadas na biblioteca de algum utilizador.
      */
-    public List<Musica> pesquisaMusicasInterprete(String interprete) {
-        List<Musica> musicas = new ArrayList<Musica>();
+    private synchronized void constroiIndicesPesquisa() {
+        if (this.indiceMusicas != null) {
+            return;
+        }
+        IndiceTrigramas<Musica> musicas = new IndiceTrigramas<Musica>();
+        IndiceTrigramas<Album> albuns = new IndiceTrigramas<Album>();
+        IndiceTrigramas<Playlist> playlists = new IndiceTrigramas<Playlist>();
         for (Album album : this.albuns.values()) {
-            for (Musica m : album.getMusicas().values()) {
-                if (m.getInterprete().toLowerCase().contains(interprete.toLowerCase())) {
-                    musicas.add(m);
-                }
+            albuns.adiciona(album, album.getNome());
+            for (Musica m : album.musicasInternas().values()) {
+                musicas.adiciona(m, m.getNome());
+            }
+        }
+        for (Utilizador u : this.utilizadores.values()) {
+            for (Playlist p : u.getBiblioteca().playlistsInternas().values()) {
+                playlists.adiciona(p, p.getNome());
             }
         }
-        return musicas;
+        this.indiceMusicas = musicas;
+        this.indiceAlbuns = albuns;
+        this.indicePlaylists = playlists;
     }
 
     /**
-     * Implementa a pesquisa de álbuns por intérprete
-     *
-     * @param interprete intérprete
-     * @return lista de álbuns encontrados
+     * Descarta os índices de pesquisa, o localizador de músicas, o vetor de músicas, o índice de referências, as estatísticas e as tendências,
+     * que voltam a ser construídos quando forem necessários.
      */
-    public List<Album> pesquisaAlbunsInterprete(String interprete) {
-        List<Album> albuns = new ArrayList<Album>();
-        for (Album album : this.albuns.values()) {
-            if (album.getInterprete().toLowerCase().contains(interprete.toLowerCase())) {
-                albuns.add(album);
-            }
-        }
-        return albuns;
+    private void descartaIndices() {
+        this.indiceMusicas = null;
+        this.indiceAlbuns = null;
+        this.indicePlaylists = null;
+        this.localizacaoMusicas = null;
+        this.indiceGeneros = null;
+        this.vetorMusicas = null;
+        this.referencias = null;
+        this.estatisticas = null;
+        this.tendencias = null;
     }
 
     /**
-     * Adiciona um álbum aos favoritos de um utilizador.
+     * Guarda uma playlist numa biblioteca, atualizando os índices de pesquisa e de referências.
      *
-     * @param user  utilizador
-     * @param album álbum
-     * @throws AlbumJaGuardadoException caso o álbum já esteja guardado
-     * @throws SemPermissoesException   caso o utilizador não tenha permissões para o fazer
+     * @param b biblioteca
+     * @param p playlist
      */
-    public void adicionaAlbumFavorito(Utilizador user, Album album) throws AlbumJaGuardadoException, SemPermissoesException {
-        if (!user.getPlano().podeGuardarAlbum()) {
-            throw new SemPermissoesException("O plano atual não permite efetuar esta ação!");
+    private void guardaPlaylist(Biblioteca b, Playlist p) {
+        b.adicionarPlaylist(p);
+        p.usaRegisto(this.registoMusicas);
+        if (this.indicePlaylists != null) {
+            this.indicePlaylists.adiciona(p, p.getNome());
+        }
+        if (this.estatisticas != null) {
+            this.estatisticas.playlistGuardada(criadorDona(b, p), p);
         }
-        if (user.getBiblioteca().getAlbuns().containsKey(album.getNome())) {
-            throw new AlbumJaGuardadoException("O álbum já está guardado!");
+        if (this.referencias != null) {
+            this.referencias.adicionaPlaylistBiblioteca(b, p);
         }
-        user.getBiblioteca().adicionarAlbum(album);
     }
 
     /**
-     * Diz se existe uma música no sistema
+     * Retira uma playlist de uma biblioteca, atualizando os índices de pesquisa e de referências.
      *
-     * @param musica música
-     * @return álbum onde está guardada
-     * @throws MusicaNaoExisteException caso não exista
+     * @param b    biblioteca
+     * @param nome nome da playlist
      */
-    public Album existeMusica(Musica musica) throws MusicaNaoExisteException {
-        for (Album album : this.albuns.values()) {
-            if (album.getMusicas().containsKey(musica.getNome())) {
-                return album;
-            }
+    private void retiraPlaylist(Biblioteca b, String nome) {
+        Playlist p = b.playlistsInternas().get(nome);
+        b.removerPlaylist(nome);
+        if (p == null) {
+            return;
+        }
+        if (this.indicePlaylists != null) {
+            this.indicePlaylists.remove(p);
+        }
+        if (this.referencias != null) {
+            this.referencias.removePlaylistBiblioteca(b, p);
+        }
+        if (this.estatisticas != null) {
+            this.estatisticas.playlistRetirada(criadorDona(b, p), p);
         }
-        throw new MusicaNaoExisteException(musica.getNome());
     }
 
     /**
-     * Implementa a criação de playlists.
+     * Devolve o username do criador de uma playlist, caso a biblioteca seja a dele.
      *
-     * @param nome nome da playlist
-     * @param u    criador
-     * @throws NomeJaExisteException  caso o nome tenha sido usado
-     * @throws SemPermissoesException caso o utilizador não tenha permissões
+     * @param b biblioteca
+     * @param p playlist
+     * @return username do criador, ou null caso a biblioteca seja de outro utilizador
      */
-    public void criaPlaylist(String nome, Utilizador u) throws NomeJaExisteException, SemPermissoesException {
-        if (!u.getPlano().podeCriarPlaylist()) {
-            throw new SemPermissoesException("O plano atual não permite efetuar esta ação!");
+    private String criadorDona(Biblioteca b, Playlist p) {
+        if (p.getCriador() == null) {
+            return null;
         }
-        if (u.getBiblioteca().getPlaylists().containsKey(nome)) {
-            throw new NomeJaExisteException("Já existe uma playlist com o nome " + nome);
-        }
-        Playlist novaPlaylist = new PlaylistConstruida(nome, u);
-        u.getBiblioteca().adicionarPlaylist(novaPlaylist);
+        Utilizador criador = this.utilizadores.get(p.getCriador().getUsername());
+        return criador != null && criador.getBiblioteca() == b ? criador.getUsername() : null;
     }
 
     /**
-     * Gera uma lista de favoritos, as n músicas mais ouvidas pelo utilizador.
+     * Devolve as estatísticas da plataforma, calculando-as caso ainda não existam.
+     * A partir daí, são mantidas pelas operações que alteram o catálogo, os utilizadores e as bibliotecas.
      *
-     * @param user   utilizador
-     * @param limite nº de músicas a incluir
+     * @return estatísticas
      */
-    public void geraListFavoritos(Utilizador user, int limite) throws PoucasMusicasException {
-        String nome = "Lista de Favoritos";
-        if (user.getBiblioteca().getPlaylists().containsKey(nome)) {
-            user.getBiblioteca().removerPlaylist(nome);
-        }
-        if (user.getNumMusicasOuvidas() < 10) {
-            throw new PoucasMusicasException("Ouça pelo menos 10 músicas para poder ter acesso à lista de favoritos!");
+    private EstatisticasPlataforma estatisticas() {
+        if (this.estatisticas == null) {
+            this.estatisticas = new EstatisticasPlataforma(this.utilizadores, this.albuns, this.reproducoes);
         }
+        return this.estatisticas;
+    }
 
-        ListaFavoritos favs = new ListaFavoritos(nome, user);
-        user.getMusicasOuvidas().entrySet().stream()
-                .sorted((m1, m2) -> Integer.compare(m2.getValue().size(), m1.getValue().size()))
-                .limit(limite)
-                .forEach(entry -> favs.adicionarMusica(entry.getKey()));
+    /**
+     * Executa uma consulta sobre as estatísticas da plataforma. Como o cálculo inicial percorre os históricos, que podem estar a ser alterados
+     * por reproduções concorrentes, as estatísticas são calculadas com acesso exclusivo; a consulta em si partilha o acesso com as outras sessões.
+     *
+     * @param consulta consulta
+     * @return resultado da consulta
+     */
+    private <T> T consultaEstatisticas(Function<EstatisticasPlataforma, T> consulta) {
+        return consultaDerivada(() -> this.estatisticas, this::estatisticas, consulta);
     }
 
     /**
-     * Gera uma playlist temporária com músicas aleatórias
+     * Devolve as tendências da plataforma, calculando-as a partir dos históricos caso ainda não existam.
+     * A partir daí, são alimentadas por cada reprodução registada.
      *
-     * @param nome          nome da playlist
-     * @param numMaxMusicas nº máximo de músicas
-     * @param user          utilizador
-     * @return
+     * @return tendências
      */
-    public PlaylistAleatoria geraPlaylistAleatoria(String nome, int numMaxMusicas, Utilizador user) throws PoucasMusicasException {
-        PlaylistAleatoria pa = new PlaylistAleatoria(nome, user);
-        List<Album> as = this.albuns.values().stream().toList();
-        int totalMusicas = getTotalMusicas();
-        if (totalMusicas == 0) {
-            throw new PoucasMusicasException("Não existem músicas suficientes para gerar uma lista aleatória!");
-        }
-        if (numMaxMusicas > totalMusicas) {
-            numMaxMusicas = totalMusicas;
-        }
-        while (pa.getMusicas().size() < numMaxMusicas) {
-            int r1 = random.nextInt(as.size());
-            Album album = as.get(r1);
-            List<Musica> ms = album.getMusicas().values().stream().toList();
-            if (ms.isEmpty()) {
-                continue;
-            }
-            int r2 = random.nextInt(ms.size());
-            Musica musica = ms.get(r2);
-            if (!pa.getMusicas().containsKey(musica.getNome())) {
-                pa.adicionarMusica(musica);
+    private TendenciasReproducoes tendencias() {
+        if (this.tendencias == null) {
+            TendenciasReproducoes t = new TendenciasReproducoes();
+            for (Utilizador u : this.utilizadores.values()) {
+                u.musicasOuvidasInternas().percorre(t::regista);
             }
+            this.tendencias = t;
         }
+        return this.tendencias;
+    }
 
-        return pa;
+    /**
+     * Executa uma consulta sobre as tendências da plataforma, calculando-as com acesso exclusivo caso ainda não existam.
+     *
+     * @param consulta consulta
+     * @return resultado da consulta
+     */
+    private <T> T consultaTendencias(Function<TendenciasReproducoes, T> consulta) {
+        return consultaDerivada(() -> this.tendencias, this::tendencias, consulta);
     }
 
     /**
-     * Gera uma lista de músicas de um dado género com duração inferior a um valor
+     * Executa uma consulta sobre uma estrutura derivada do modelo (p.e. as estatísticas). Como o cálculo inicial percorre os históricos,
+     * que podem estar a ser alterados por reproduções concorrentes, a estrutura é calculada com acesso exclusivo; a consulta em si
+     * partilha o acesso com as outras sessões.
      *
-     * @param nome        nome da playlist
-     * @param genero      género
-     * @param tempoMaximo tempo máximo (em segundos)
-     * @param u           utilizador
-     * @param numMusicas  nº de músicas a incluir
-     * @throws NomeJaExisteException caso o nome já esteja a ser usado
+     * @param atual    estrutura atual, ou null caso ainda não tenha sido calculada
+     * @param calcula  cálculo da estrutura (invocado com acesso exclusivo)
+     * @param consulta consulta
+     * @return resultado da consulta
      */
-    public void geraListaGeneroTempo(String nome, String genero, int tempoMaximo, Utilizador u, int numMusicas) throws NomeJaExisteException, PoucasMusicasException {
-        if (u.getBiblioteca().getPlaylists().containsKey(nome)) {
-            throw new NomeJaExisteException("Já existe uma playlist com o nome " + nome);
+    private <D, T> T consultaDerivada(Supplier<D> atual, Supplier<D> calcula, Function<D, T> consulta) {
+        if (this.bloqueio.isWriteLockedByCurrentThread()) {
+            return consulta.apply(calcula.get());
         }
-        if (getTotalMusicas() == 0) {
-            throw new PoucasMusicasException("Não existem músicas suficientes para gerar uma lista!");
-        }
-        ListaGeneroTempo lgt = new ListaGeneroTempo(nome, u);
-        int i = 0;
-        for (Album album : this.albuns.values()) {
-            for (Musica m : album.getMusicas().values()) {
-                if (m.getGenero().toLowerCase().equals(genero.toLowerCase()) && m.getDuracao() <= tempoMaximo) {
-                    lgt.adicionarMusica(m);
-                    i++;
-                    if (i >= numMusicas) {
-                        u.getBiblioteca().adicionarPlaylist(lgt);
-                        return;
-                    }
+        while (true) {
+            this.bloqueio.readLock().lock();
+            try {
+                D d = atual.get();
+                if (d != null) {
+                    return consulta.apply(d);
                 }
+            } finally {
+                this.bloqueio.readLock().unlock();
+            }
+            bloqueiaEscrita();
+            try {
+                calcula.get();
+            } finally {
+                this.bloqueio.writeLock().unlock();
             }
         }
+    }
 
-        if (!lgt.getMusicas().isEmpty()) {
-            u.getBiblioteca().adicionarPlaylist(lgt);
+    /**
+     * Devolve o índice de referências das bibliotecas e playlists, construindo-o caso ainda não exista.
+     * A partir daí, é mantido pelas operações que alteram as bibliotecas e playlists.
+     *
+     * @return índice de referências
+     */
+    private IndiceReferencias referencias() {
+        if (this.referencias == null) {
+            IndiceReferencias r = new IndiceReferencias();
+            for (Utilizador u : this.utilizadores.values()) {
+                r.adicionaBiblioteca(u.getBiblioteca());
+            }
+            this.referencias = r;
         }
+        return this.referencias;
     }
 
     /**
-     * Adiciona uma música ao sistema
+     * Retira músicas removidas do catálogo das bibliotecas e playlists que as guardam, usando o índice de referências.
+     * Quando são afetadas muitas bibliotecas e playlists (p.e. ao remover um álbum popular), são tratadas em paralelo,
+     * cada uma por uma única thread.
      *
-     * @param nomeAlbum  nome do álbum ao qual a música vai ser adicionada
-     * @param nome       nome da música
-     * @param interprete intérprete
-     * @param editora    editora
-     * @param genero     género
-     * @param duracao    duração
-     * @param letra      letra da música
-     * @param caracteres caracteres
-     * @throws NomeJaExisteException caso já exista uma música com o nome
+     * @param nomes nomes das músicas
      */
-    public void adicionaMusica(String nomeAlbum, String nome, String interprete, String editora, String genero, int duracao, List<String> letra, List<String> caracteres) throws NomeJaExisteException {
-        if (this.albuns.get(nomeAlbum).getMusicas().containsKey(nome)) {
-            throw new NomeJaExisteException(nome);
+    private void removeMusicasUtilizadores(Collection<String> nomes) {
+        IndiceReferencias r = referencias();
+        Map<Biblioteca, List<String>> bibliotecas = new IdentityHashMap<Biblioteca, List<String>>();
+        Map<Playlist, List<String>> playlists = new IdentityHashMap<Playlist, List<String>>();
+        for (String nome : nomes) {
+            for (Biblioteca b : r.getBibliotecasComMusica(nome)) {
+                bibliotecas.computeIfAbsent(b, k -> new ArrayList<String>()).add(nome);
+            }
+            for (Playlist p : r.getPlaylistsComMusica(nome)) {
+                playlists.computeIfAbsent(p, k -> new ArrayList<String>()).add(nome);
+            }
+            r.esqueceMusica(nome);
         }
-        Musica m = new Musica(nome, interprete, genero, editora, letra, caracteres, duracao);
-        this.albuns.get(nomeAlbum).adicionaMusica(m.clone());
+        boolean paralelo = bibliotecas.size() + playlists.size() >= LIMITE_REMOCAO_PARALELA;
+        (paralelo ? bibliotecas.entrySet().parallelStream() : bibliotecas.entrySet().stream()).forEach(e -> {
+            for (String nome : e.getValue()) {
+                e.getKey().removerMusica(nome);
+            }
+        });
+        (paralelo ? playlists.entrySet().parallelStream() : playlists.entrySet().stream()).forEach(e -> {
+            for (String nome : e.getValue()) {
+                e.getKey().removerMusica(nome);
+            }
+        });
     }
 
     /**
-     * Adiciona um álbum ao sistema
+     * Implementa a pesquisa de músicas por intérprete
      *
-     * @param nome       nome do álbum
      * @param interprete intérprete
-     * @param editora    editora
-     * @param ano        ano de lançamento
-     * @throws NomeJaExisteException caso já exista um álbum com o nome
+     * @return lista de músicas encontradas
      */
-    public void adicionaAlbum(String nome, String interprete, String editora, int ano) throws NomeJaExisteException {
-        if (this.albuns.containsKey(nome)) {
-            throw new NomeJaExisteException(nome);
+    public List<Musica> pesquisaMusicasInterprete(String interprete) {
+        this.bloqueio.readLock().lock();
+        try {
+            List<Musica> musicas = new ArrayList<Musica>();
+            for (Album album : this.albuns.values()) {
+                for (Musica m : album.getMusicas().values()) {
+                    if (m.getInterprete().toLowerCase().contains(interprete.toLowerCase())) {
+                        musicas.add(m);
+                    }
+                }
+            }
+            return musicas;
+        } finally {
+            this.bloqueio.readLock().unlock();
         }
-
-        Album a = new Album(nome, interprete, editora, ano);
-        this.albuns.put(nome, a);
     }
 
     /**
-     * Remove um álbum do sistema
+     * Implementa a pesquisa de álbuns por intérprete
      *
-     * @param album álbum a remover
-     * @throws AlbumNaoExisteException caso o álbum não exista
+     * @param interprete intérprete
+     * @return lista de álbuns encontrados
      */
-    public void removeAlbum(Album album) throws AlbumNaoExisteException {
-        if (!this.albuns.containsKey(album.getNome())) {
-            throw new AlbumNaoExisteException(album.getNome());
-        }
-        removeMusicas(album);
-        this.albuns.remove(album.getNome());
-        for (Utilizador u : this.utilizadores.values()) {
-            if (u.getBiblioteca().getAlbuns().containsKey(album.getNome())) {
-                u.getBiblioteca().removerAlbum(album.getNome());
+    public List<Album> pesquisaAlbunsInterprete(String interprete) {
+        this.bloqueio.readLock().lock();
+        try {
+            List<Album> albuns = new ArrayList<Album>();
+            for (Album album : this.albuns.values()) {
+                if (album.getInterprete().toLowerCase().contains(interprete.toLowerCase())) {
+                    albuns.add(album);
+                }
             }
+            return albuns;
+        } finally {
+            this.bloqueio.readLock().unlock();
         }
     }
 
     /**
-     * Remove músicas de um álbum
+     * Adiciona um álbum aos favoritos de um utilizador.
      *
+     * @param user  utilizador
      * @param album álbum
+     * @throws AlbumJaGuardadoException caso o álbum já esteja guardado
+     * @throws SemPermissoesException   caso o utilizador não tenha permissões para o fazer
      */
-    private void removeMusicas(Album album) {
-        for (Musica m : album.getMusicas().values()) {
-            removeMusicaUsers(m);
+    public void adicionaAlbumFavorito(Utilizador user, Album album) throws AlbumJaGuardadoException, SemPermissoesException {
+        bloqueiaEscrita();
+        try {
+            if (!user.getPlano().podeGuardarAlbum()) {
+                throw new SemPermissoesException("O plano atual não permite efetuar esta ação!");
+            }
+            if (user.getBiblioteca().getAlbuns().containsKey(album.getNome())) {
+                throw new AlbumJaGuardadoException("O álbum já está guardado!");
+            }
+            user.getBiblioteca().adicionarAlbum(album);
+            if (this.referencias != null) {
+                this.referencias.adicionaAlbumBiblioteca(user.getBiblioteca(), album.getNome());
+            }
+            registaOperacao(DiarioOperacoes.ADICIONA_ALBUM_FAVORITO, user.getUsername(), album.getNome());
+        } finally {
+            this.bloqueio.writeLock().unlock();
         }
-        album.getMusicas().clear();
     }
 
     /**
-     * Remove músicas das bibliotecas dos utilizadores para evitar problemas ao remover uma música/álbum
+     * Diz se existe uma música no sistema. Caso vários álbuns tenham uma música com o mesmo nome, é devolvido o álbum da própria música
+     * (a que tem o mesmo identificador) e, caso nenhum a tenha, o primeiro.
      *
-     * @param m música
+     * @param musica música
+     * @return álbum onde está guardada
+     * @throws MusicaNaoExisteException caso não exista
      */
-    private void removeMusicaUsers(Musica m) {
-        for (Utilizador u : this.utilizadores.values()) {
-            if (u.getBiblioteca().getMusicas().containsKey(m.getNome())) {
-                u.getBiblioteca().getMusicas().remove(m.getNome());
+    public Album existeMusica(Musica musica) throws MusicaNaoExisteException {
+        this.bloqueio.readLock().lock();
+        try {
+            List<Album> albuns = albunsComMusica(musica.getNome());
+            if (albuns.isEmpty()) {
+                throw new MusicaNaoExisteException(musica.getNome());
             }
-            for (Playlist p : u.getBiblioteca().getPlaylists().values()) {
-                if (p.getMusicas().containsKey(m.getNome())) {
-                    p.getMusicas().remove(m.getNome());
+            for (Album a : albuns) {
+                if (a.musicasInternas().get(musica.getNome()).getId() == musica.getId()) {
+                    return a;
                 }
             }
+            return albuns.get(0);
+        } finally {
+            this.bloqueio.readLock().unlock();
         }
     }
 
     /**
-     * Adiciona uma playlist às favoritas
+     * Devolve o nome do álbum de uma música, registado no diário para que a música seja identificada mesmo que outros álbuns
+     * tenham músicas com o mesmo nome.
      *
-     * @param user     utilizador
-     * @param playlist playlist
-     * @throws PlaylistJaGuardadaException caso a playlist já esteja guardada
-     * @throws SemPermissoesException      caso o utilizador não tenha permissões
+     * @param musica música
+     * @return nome do álbum, ou uma String vazia caso a música já não esteja no catálogo
      */
-    public void adicionaPlaylistBiblioteca(Utilizador user, Playlist playlist) throws PlaylistJaGuardadaException, SemPermissoesException {
-        if (!user.getPlano().podeGuardarPlaylist()) {
-            throw new SemPermissoesException("O plano atual não permite efetuar esta ação!");
-        }
-        if (user.getBiblioteca().getPlaylists().containsKey(playlist.getNome())) {
-            throw new PlaylistJaGuardadaException("Uma playlist com o mesmo nome já está guardada!");
+    private String nomeAlbum(Musica musica) {
+        for (Album a : albunsComMusica(musica.getNome())) {
+            if (a.musicasInternas().get(musica.getNome()).getId() == musica.getId()) {
+                return a.getNome();
+            }
         }
-        user.getBiblioteca().adicionarPlaylist(playlist);
+        return "";
     }
 
     /**
-     * Remove uma playlist do sistema
+     * Implementa a criação de playlists.
      *
-     * @param playlist playlist
-     * @throws UserNotFoundException caso o utilizador que a criou não exista
+     * @param nome nome da playlist
+     * @param u    criador
+     * @throws NomeJaExisteException  caso o nome tenha sido usado
+     * @throws SemPermissoesException caso o utilizador não tenha permissões
      */
-    public void removePlaylist(Playlist playlist) throws UserNotFoundException {
-        Utilizador criador = this.utilizadores.get(playlist.getCriador().getNome());
-        if (criador == null) {
-            throw new UserNotFoundException("Utilizador não encontrado!");
-        }
-        if (!criador.getBiblioteca().getPlaylists().containsKey(playlist.getNome())) {
-            throw new PlaylistNaoExisteException("Playlist não encontrada!");
-        }
-        criador.getBiblioteca().removerPlaylist(playlist.getNome());
-        for (Utilizador u : this.utilizadores.values()) {
-            if (u.getBiblioteca().getPlaylists().containsKey(playlist.getNome())) {
-                u.getBiblioteca().removerPlaylist(playlist.getNome());
+    public void criaPlaylist(String nome, Utilizador u) throws NomeJaExisteException, SemPermissoesException {
+        bloqueiaEscrita();
+        try {
+            if (!u.getPlano().podeCriarPlaylist()) {
+                throw new SemPermissoesException("O plano atual não permite efetuar esta ação!");
+            }
+            if (u.getBiblioteca().getPlaylists().containsKey(nome)) {
+                throw new NomeJaExisteException("Já existe uma playlist com o nome " + nome);
             }
+            Playlist novaPlaylist = new PlaylistConstruida(nome, u);
+            guardaPlaylist(u.getBiblioteca(), novaPlaylist);
+            registaOperacao(DiarioOperacoes.CRIA_PLAYLIST, nome, u.getUsername());
+        } finally {
+            this.bloqueio.writeLock().unlock();
         }
     }
 
     /**
-     * Apaga o histórico de músicas ouvidas de um utilizador
+     * Gera uma lista de favoritos, as n músicas mais ouvidas pelo utilizador, e guarda-a na sua biblioteca.
+     * A partir daí, a lista é atualizada a cada reprodução que faça entrar uma música nas n mais ouvidas.
      *
-     * @param user utilizador
+     * @param user   utilizador
+     * @param limite nº de músicas a incluir
+     */
+    public void geraListFavoritos(Utilizador user, int limite) throws PoucasMusicasException {
+        bloqueiaEscrita();
+        try {
+            if (user.getNumMusicasOuvidas() < 10) {
+                throw new PoucasMusicasException("Ouça pelo menos 10 músicas para poder ter acesso à lista de favoritos!");
+            }
+            String nome = ListaFavoritos.NOME;
+            if (user.getBiblioteca().getPlaylists().containsKey(nome)) {
+                retiraPlaylist(user.getBiblioteca(), nome);
+            }
+            registaOperacao(DiarioOperacoes.GERA_LISTA_FAVORITOS, user.getUsername(), limite);
+
+            ListaFavoritos favs = new ListaFavoritos(nome, user, limite);
+            favs.usaRegisto(this.registoMusicas);
+            for (Musica m : user.getMusicasMaisOuvidas(limite)) {
+                favs.adicionarMusica(m);
+            }
+            guardaPlaylist(user.getBiblioteca(), favs);
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gera uma playlist temporária com músicas aleatórias
+     *
+     * @param nome          nome da playlist
+     * @param numMaxMusicas nº máximo de músicas
+     * @param user          utilizador
+     * @return playlist gerada
+     * @throws PoucasMusicasException caso não existam músicas no catálogo
+     */
+    public PlaylistAleatoria geraPlaylistAleatoria(String nome, int numMaxMusicas, Utilizador user) throws PoucasMusicasException {
+        return geraPlaylistAleatoria(nome, numMaxMusicas, user, random);
+    }
+
+    /**
+     * Gera uma playlist temporária com músicas aleatórias, escolhidas a partir de uma semente. Com a mesma semente e o mesmo catálogo,
+     * a playlist é sempre a mesma (p.e. para reproduzir um resultado num teste).
+     *
+     * @param nome          nome da playlist
+     * @param numMaxMusicas nº máximo de músicas
+     * @param user          utilizador
+     * @param semente       semente do gerador de números aleatórios
+     * @return playlist gerada
+     * @throws PoucasMusicasException caso não existam músicas no catálogo
+     */
+    public PlaylistAleatoria geraPlaylistAleatoria(String nome, int numMaxMusicas, Utilizador user, long semente) throws PoucasMusicasException {
+        return geraPlaylistAleatoria(nome, numMaxMusicas, user, new Random(semente));
+    }
+
+    /**
+     * Gera uma playlist temporária com músicas aleatórias, escolhidas com um dado gerador de números aleatórios.
+     * As músicas são tiradas sem repetições do vetor de músicas do catálogo, pelo que gerar uma playlist com k músicas custa O(k),
+     * independentemente do nº de álbuns e de músicas. Com um gerador com uma semente fixa e o mesmo catálogo, a playlist é sempre a mesma.
+     *
+     * @param nome          nome da playlist
+     * @param numMaxMusicas nº máximo de músicas
+     * @param user          utilizador
+     * @param random        gerador de números aleatórios
+     * @return playlist gerada
+     * @throws PoucasMusicasException caso não existam músicas no catálogo
+     */
+    public PlaylistAleatoria geraPlaylistAleatoria(String nome, int numMaxMusicas, Utilizador user, Random random) throws PoucasMusicasException {
+        return consultaDerivada(() -> this.vetorMusicas, this::vetorMusicas, v -> {
+            if (v.size() == 0) {
+                throw new PoucasMusicasException("Não existem músicas suficientes para gerar uma lista aleatória!");
+            }
+            PlaylistAleatoria pa = new PlaylistAleatoria(nome, user);
+            pa.usaRegisto(this.registoMusicas);
+            // As playlists identificam as músicas pelo nome, pelo que as músicas com o nome de uma já escolhida são saltadas
+            Iterator<Musica> aleatorias = v.aleatorias(random);
+            while (pa.getMusicas().size() < numMaxMusicas && aleatorias.hasNext()) {
+                Musica musica = aleatorias.next();
+                if (!pa.getMusicas().containsKey(musica.getNome())) {
+                    pa.adicionarMusica(musica);
+                }
+            }
+            return pa;
+        });
+    }
+
+    /**
+     * Devolve o vetor com todas as músicas do catálogo, construindo-o caso ainda não exista.
+     * A partir daí, é mantido pelas operações que alteram o catálogo.
+     *
+     * @return vetor de músicas
+     */
+    private VetorMusicas vetorMusicas() {
+        if (this.vetorMusicas == null) {
+            VetorMusicas v = new VetorMusicas();
+            for (Album a : this.albuns.values()) {
+                for (Musica m : a.musicasInternas().values()) {
+                    v.adiciona(m);
+                }
+            }
+            this.vetorMusicas = v;
+        }
+        return this.vetorMusicas;
+    }
+
+    /**
+     * Gera uma lista de músicas de um dado género com duração inferior a um valor, escolhendo as mais curtas.
+     *
+     * @param nome        nome da playlist
+     * @param genero      género
+     * @param tempoMaximo tempo máximo (em segundos)
+     * @param u           utilizador
+     * @param numMusicas  nº de músicas a incluir
+     * @throws NomeJaExisteException caso o nome já esteja a ser usado
+     */
+    public void geraListaGeneroTempo(String nome, String genero, int tempoMaximo, Utilizador u, int numMusicas) throws NomeJaExisteException, PoucasMusicasException {
+        geraListaGeneroTempo(nome, genero, tempoMaximo, u, numMusicas, false);
+    }
+
+    /**
+     * Gera uma lista de músicas de um dado género com duração inferior a um valor. As músicas são procuradas no índice por género e duração,
+     * pelo que só é percorrido o intervalo de músicas do género até à duração máxima.
+     *
+     * @param nome            nome da playlist
+     * @param genero          género
+     * @param tempoMaximo     tempo máximo (em segundos)
+     * @param u               utilizador
+     * @param numMusicas      nº de músicas a incluir
+     * @param porPopularidade true para escolher as músicas mais reproduzidas; false para escolher as mais curtas
+     * @throws NomeJaExisteException caso o nome já esteja a ser usado
+     */
+    public void geraListaGeneroTempo(String nome, String genero, int tempoMaximo, Utilizador u, int numMusicas, boolean porPopularidade) throws NomeJaExisteException, PoucasMusicasException {
+        bloqueiaEscrita();
+        try {
+            if (u.getBiblioteca().getPlaylists().containsKey(nome)) {
+                throw new NomeJaExisteException("Já existe uma playlist com o nome " + nome);
+            }
+            if (!temMusicas()) {
+                throw new PoucasMusicasException("Não existem músicas suficientes para gerar uma lista!");
+            }
+            ListaGeneroTempo lgt = new ListaGeneroTempo(nome, u);
+            lgt.usaRegisto(this.registoMusicas);
+            List<Musica> escolhidas = porPopularidade
+                    ? indiceGeneros().getMaisPopulares(genero, tempoMaximo, numMusicas, m -> this.reproducoes.get(m.getId()))
+                    : indiceGeneros().getMaisCurtas(genero, tempoMaximo, numMusicas);
+            for (Musica m : escolhidas) {
+                lgt.adicionarMusica(m);
+            }
+
+            if (!lgt.getMusicas().isEmpty()) {
+                guardaPlaylist(u.getBiblioteca(), lgt);
+                registaOperacao(DiarioOperacoes.GERA_LISTA_GENERO_TEMPO, nome, genero, tempoMaximo, u.getUsername(), numMusicas, porPopularidade);
+            }
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gera uma lista de músicas de um dado género cuja duração total se aproxima o mais possível de um tempo disponível, sem o ultrapassar
+     * (p.e. "45 minutos de jazz"). Respeita as preferências do utilizador sobre músicas explícitas e multimédia. As candidatas são as
+     * MAX_CANDIDATAS_DURACAO músicas mais reproduzidas do género que cabem no tempo, pelo que o tempo de geração é limitado mesmo em géneros
+     * com muitas músicas; entre escolhas com a mesma duração, são preferidas as mais reproduzidas.
+     *
+     * @param nome         nome da playlist
+     * @param genero       género
+     * @param tempoTotal   tempo disponível (em segundos)
+     * @param u            utilizador
+     * @throws NomeJaExisteException  caso o nome já esteja a ser usado
+     * @throws PoucasMusicasException caso nenhuma música do género caiba no tempo disponível
+     */
+    public void geraListaGeneroDuracao(String nome, String genero, int tempoTotal, Utilizador u) throws NomeJaExisteException, PoucasMusicasException {
+        bloqueiaEscrita();
+        try {
+            if (u.getBiblioteca().getPlaylists().containsKey(nome)) {
+                throw new NomeJaExisteException("Já existe uma playlist com o nome " + nome);
+            }
+            List<Musica> candidatas = indiceGeneros().getMaisPopulares(genero, tempoTotal, MAX_CANDIDATAS_DURACAO,
+                    m -> this.reproducoes.get(m.getId()),
+                    m -> (u.querVerExplicita() || !m.isExplicita()) && (u.querVerMultimedia() || !m.isMultimedia()));
+            // As playlists identificam as músicas pelo nome, pelo que só fica a mais reproduzida de cada nome
+            Set<String> nomes = new HashSet<String>();
+            candidatas.removeIf(m -> !nomes.add(m.getNome()));
+            List<Musica> escolhidas = PreenchimentoDuracao.escolhe(candidatas, tempoTotal);
+            if (escolhidas.isEmpty()) {
+                throw new PoucasMusicasException("Não existem músicas do género " + genero + " que caibam no tempo indicado!");
+            }
+            ListaGeneroTempo lgt = new ListaGeneroTempo(nome, u);
+            lgt.usaRegisto(this.registoMusicas);
+            for (Musica m : escolhidas) {
+                lgt.adicionarMusica(m);
+            }
+            guardaPlaylist(u.getBiblioteca(), lgt);
+            registaOperacao(DiarioOperacoes.GERA_LISTA_GENERO_DURACAO, nome, genero, tempoTotal, u.getUsername());
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Diz se o catálogo tem alguma música, parando no primeiro álbum não vazio. Ao contrário de getTotalMusicas, não obriga a construir
+     * as estatísticas da plataforma.
+     *
+     * @return true / false
+     */
+    private boolean temMusicas() {
+        for (Album a : this.albuns.values()) {
+            if (!a.musicasInternas().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Devolve o índice das músicas do catálogo por género e duração, construindo-o caso ainda não exista.
+     * A partir daí, é mantido pelas operações que alteram o catálogo. Só é usado com o modelo bloqueado em exclusivo.
+     *
+     * @return índice
+     */
+    private IndiceGeneroDuracao indiceGeneros() {
+        if (this.indiceGeneros == null) {
+            IndiceGeneroDuracao indice = new IndiceGeneroDuracao();
+            for (Album a : this.albuns.values()) {
+                for (Musica m : a.musicasInternas().values()) {
+                    indice.adiciona(m);
+                }
+            }
+            this.indiceGeneros = indice;
+        }
+        return this.indiceGeneros;
+    }
+
+    /**
+     * Adiciona uma música ao sistema
+     *
+     * @param nomeAlbum  nome do álbum ao qual a música vai ser adicionada
+     * @param nome       nome da música
+     * @param interprete intérprete
+     * @param editora    editora
+     * @param genero     género
+     * @param duracao    duração
+     * @param letra      letra da música
+     * @param caracteres caracteres
+     * @throws NomeJaExisteException caso já exista uma música com o nome
+     */
+    public void adicionaMusica(String nomeAlbum, String nome, String interprete, String editora, String genero, int duracao, List<String> letra, List<String> caracteres) throws NomeJaExisteException {
+        adicionaMusica(nomeAlbum, nome, interprete, editora, genero, duracao, letra, caracteres, Musica.novoId());
+    }
+
+    /**
+     * Adiciona uma música ao sistema com um identificador já atribuído. Usado ao reaplicar o diário, para que a música tenha o mesmo
+     * identificador que tinha quando a operação foi registada (p.e. na cópia reconstruída por uma gravação em segundo plano).
+     *
+     * @param nomeAlbum  nome do álbum ao qual a música vai ser adicionada
+     * @param nome       nome da música
+     * @param interprete intérprete
+     * @param editora    editora
+     * @param genero     género
+     * @param duracao    duração
+     * @param letra      letra da música
+     * @param caracteres caracteres
+     * @param id         identificador da música
+     * @throws NomeJaExisteException caso já exista uma música com o nome
+     */
+    void adicionaMusica(String nomeAlbum, String nome, String interprete, String editora, String genero, int duracao, List<String> letra, List<String> caracteres, int id) throws NomeJaExisteException {
+        bloqueiaEscrita();
+        try {
+            Album album = this.albuns.get(nomeAlbum);
+            if (album.temMusica(nome)) {
+                throw new NomeJaExisteException(nome);
+            }
+            Musica m = new Musica(id, nome, interprete, genero, editora, letra, caracteres, duracao);
+            album.adicionaMusica(m.clone());
+            Musica adicionada = album.musicasInternas().get(nome);
+            registaLocalizacao(nome, album);
+            if (this.indiceMusicas != null) {
+                this.indiceMusicas.adiciona(adicionada, nome);
+            }
+            if (this.indiceGeneros != null) {
+                this.indiceGeneros.adiciona(adicionada);
+            }
+            if (this.vetorMusicas != null) {
+                this.vetorMusicas.adiciona(adicionada);
+            }
+            if (this.estatisticas != null) {
+                this.estatisticas.musicaAdicionada(album, adicionada);
+            }
+            registaOperacao(DiarioOperacoes.ADICIONA_MUSICA, nomeAlbum, nome, interprete, editora, genero, duracao, letra, caracteres, id);
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adiciona um álbum ao sistema
+     *
+     * @param nome       nome do álbum
+     * @param interprete intérprete
+     * @param editora    editora
+     * @param ano        ano de lançamento
+     * @throws NomeJaExisteException caso já exista um álbum com o nome
+     */
+    public void adicionaAlbum(String nome, String interprete, String editora, int ano) throws NomeJaExisteException {
+        bloqueiaEscrita();
+        try {
+            if (this.albuns.containsKey(nome)) {
+                throw new NomeJaExisteException(nome);
+            }
+
+            Album a = new Album(nome, interprete, editora, ano);
+            this.albuns.put(nome, a);
+            if (this.indiceAlbuns != null) {
+                this.indiceAlbuns.adiciona(a, nome);
+            }
+            registaOperacao(DiarioOperacoes.ADICIONA_ALBUM, nome, interprete, editora, ano);
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove um álbum do sistema
+     *
+     * @param album álbum a remover
+     * @throws AlbumNaoExisteException caso o álbum não exista
+     */
+    public void removeAlbum(Album album) throws AlbumNaoExisteException {
+        bloqueiaEscrita();
+        try {
+            if (!this.albuns.containsKey(album.getNome())) {
+                throw new AlbumNaoExisteException(album.getNome());
+            }
+            Album removido = this.albuns.remove(album.getNome());
+            for (String m : removido.musicasInternas().keySet()) {
+                removeLocalizacao(m, removido);
+            }
+            removeMusicasUtilizadores(new ArrayList<String>(removido.musicasInternas().keySet()));
+            if (this.indiceAlbuns != null) {
+                this.indiceAlbuns.remove(removido);
+                for (Musica m : removido.musicasInternas().values()) {
+                    this.indiceMusicas.remove(m);
+                }
+            }
+            if (this.indiceGeneros != null) {
+                for (Musica m : removido.musicasInternas().values()) {
+                    this.indiceGeneros.remove(m);
+                }
+            }
+            if (this.vetorMusicas != null) {
+                for (Musica m : removido.musicasInternas().values()) {
+                    this.vetorMusicas.remove(m);
+                }
+            }
+            if (this.estatisticas != null) {
+                this.estatisticas.albumRemovido(removido);
+            }
+            for (Biblioteca b : referencias().getBibliotecasComAlbum(album.getNome())) {
+                b.removerAlbum(album.getNome());
+            }
+            this.referencias.esqueceAlbum(album.getNome());
+            registaOperacao(DiarioOperacoes.REMOVE_ALBUM, album.getNome());
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adiciona uma playlist às favoritas
+     *
+     * @param user     utilizador
+     * @param playlist playlist
+     * @throws PlaylistJaGuardadaException caso a playlist já esteja guardada
+     * @throws SemPermissoesException      caso o utilizador não tenha permissões
+     */
+    public void adicionaPlaylistBiblioteca(Utilizador user, Playlist playlist) throws PlaylistJaGuardadaException, SemPermissoesException {
+        bloqueiaEscrita();
+        try {
+            if (!user.getPlano().podeGuardarPlaylist()) {
+                throw new SemPermissoesException("O plano atual não permite efetuar esta ação!");
+            }
+            if (user.getBiblioteca().getPlaylists().containsKey(playlist.getNome())) {
+                throw new PlaylistJaGuardadaException("Uma playlist com o mesmo nome já está guardada!");
+            }
+            guardaPlaylist(user.getBiblioteca(), playlist);
+            registaOperacao(DiarioOperacoes.ADICIONA_PLAYLIST_BIBLIOTECA, user.getUsername(), playlist.getCriador().getUsername(), playlist.getNome());
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove uma playlist do sistema
+     *
+     * @param playlist playlist
+     * @throws UserNotFoundException caso o utilizador que a criou não exista
+     */
+    public void removePlaylist(Playlist playlist) throws UserNotFoundException {
+        bloqueiaEscrita();
+        try {
+            Utilizador criador = this.utilizadores.get(playlist.getCriador().getUsername());
+            if (criador == null) {
+                throw new UserNotFoundException("Utilizador não encontrado!");
+            }
+            if (!criador.getBiblioteca().getPlaylists().containsKey(playlist.getNome())) {
+                throw new PlaylistNaoExisteException("Playlist não encontrada!");
+            }
+            Playlist guardada = criador.getBiblioteca().playlistsInternas().get(playlist.getNome());
+            for (Biblioteca b : referencias().getBibliotecasComPlaylist(guardada)) {
+                retiraPlaylist(b, guardada.getNome());
+            }
+            registaOperacao(DiarioOperacoes.REMOVE_PLAYLIST, criador.getUsername(), playlist.getNome());
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Apaga o histórico de músicas ouvidas de um utilizador
+     *
+     * @param user utilizador
      */
     public void apagaHistorico(Utilizador user) {
-        user.apagaHistorico();
+        bloqueiaEscrita();
+        try {
+            user.apagaHistorico();
+            if (this.estatisticas != null) {
+                this.estatisticas.historicoApagado(user);
+            }
+            registaOperacao(DiarioOperacoes.APAGA_HISTORICO, user.getUsername());
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
     }
 
     /**
@@ -711,9 +1353,18 @@ public class SpotifUM implements Serializable {
      * @param plano novo plano
      */
     public void atualizaPlano(Utilizador user, IPlanoSubscricao plano) {
-        user.setPlano(plano);
-        if (plano instanceof PlanoPremiumTop) {
-            user.adicionarPontos(100);
+        bloqueiaEscrita();
+        try {
+            user.setPlano(plano);
+            if (plano instanceof PlanoPremiumTop) {
+                user.adicionarPontos(100);
+            }
+            if (this.estatisticas != null) {
+                this.estatisticas.pontosAtualizados(user);
+            }
+            registaOperacao(DiarioOperacoes.ATUALIZA_PLANO, user.getUsername(), DiarioOperacoes.codigoPlano(plano));
+        } finally {
+            this.bloqueio.writeLock().unlock();
         }
     }
 
@@ -723,10 +1374,27 @@ public class SpotifUM implements Serializable {
      * @param user utilizador
      */
     public void apagaConta(Utilizador user) {
-        if (!this.utilizadores.containsKey(user.getNome())) {
-            throw new UserNotFoundException(user.getNome());
+        bloqueiaEscrita();
+        try {
+            if (!this.utilizadores.containsKey(user.getUsername())) {
+                throw new UserNotFoundException(user.getUsername());
+            }
+            Utilizador removido = this.utilizadores.remove(user.getUsername());
+            if (this.indicePlaylists != null) {
+                for (Playlist p : removido.getBiblioteca().playlistsInternas().values()) {
+                    this.indicePlaylists.remove(p);
+                }
+            }
+            if (this.referencias != null) {
+                this.referencias.removeBiblioteca(removido.getBiblioteca());
+            }
+            if (this.estatisticas != null) {
+                this.estatisticas.utilizadorRemovido(removido);
+            }
+            registaOperacao(DiarioOperacoes.APAGA_CONTA, user.getUsername());
+        } finally {
+            this.bloqueio.writeLock().unlock();
         }
-        this.utilizadores.remove(user.getNome());
     }
 
     /**
@@ -735,8 +1403,15 @@ public class SpotifUM implements Serializable {
      * @param musica música
      */
     public void tornaExplicita(Musica musica) {
-        MusicaExplicita me = new MusicaExplicita(musica);
-        substituiMusica(musica, me);
+        bloqueiaEscrita();
+        try {
+            String album = existeMusica(musica).getNome();
+            MusicaExplicita me = new MusicaExplicita(musica);
+            substituiMusica(musica, me);
+            registaOperacao(DiarioOperacoes.TORNA_EXPLICITA, musica.getNome(), album);
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
     }
 
     /**
@@ -745,8 +1420,15 @@ public class SpotifUM implements Serializable {
      * @param musica música
      */
     public void tornaMultimedia(Musica musica) {
-        MusicaMultimedia mm = new MusicaMultimedia(musica);
-        substituiMusica(musica, mm);
+        bloqueiaEscrita();
+        try {
+            String album = existeMusica(musica).getNome();
+            MusicaMultimedia mm = new MusicaMultimedia(musica);
+            substituiMusica(musica, mm);
+            registaOperacao(DiarioOperacoes.TORNA_MULTIMEDIA, musica.getNome(), album);
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
     }
 
     /**
@@ -757,8 +1439,692 @@ public class SpotifUM implements Serializable {
      * @throws MusicaNaoExisteException caso a música original não exista
      */
     public void substituiMusica(Musica original, Musica nova) throws MusicaNaoExisteException {
-        Album album = existeMusica(original);
-        album.getMusicas().remove(original.getNome());
-        album.getMusicas().put(nova.getNome(), nova.clone());
+        bloqueiaEscrita();
+        try {
+            Album album = existeMusica(original);
+            Musica anterior = album.musicasInternas().remove(original.getNome());
+            Musica copia = nova.clone();
+            album.musicasInternas().put(nova.getNome(), copia);
+            if (copia.getNome().equals(original.getNome())) {
+                // As playlists e bibliotecas passam a ver a nova versão da música
+                this.registoMusicas.regista(copia);
+            }
+            if (!nova.getNome().equals(original.getNome())) {
+                removeLocalizacao(original.getNome(), album);
+                registaLocalizacao(nova.getNome(), album);
+            }
+            if (this.indiceMusicas != null) {
+                this.indiceMusicas.remove(anterior);
+                this.indiceMusicas.adiciona(copia, copia.getNome());
+            }
+            if (this.indiceGeneros != null) {
+                this.indiceGeneros.remove(anterior);
+                this.indiceGeneros.adiciona(copia);
+            }
+            if (this.vetorMusicas != null) {
+                this.vetorMusicas.remove(anterior);
+                this.vetorMusicas.adiciona(copia);
+            }
+            if (this.estatisticas != null) {
+                this.estatisticas.musicaSubstituida(anterior, copia);
+            }
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Regista a reprodução de uma música por um utilizador, no momento atual.
+     *
+     * @param user   utilizador
+     * @param musica música reproduzida
+     */
+    public void registaReproducaoMusica(Utilizador user, Musica musica) {
+        registaReproducaoMusica(user, musica, LocalDateTime.now());
+    }
+
+    /**
+     * Regista a reprodução de uma música por um utilizador, numa dada data.
+     *
+     * @param user   utilizador
+     * @param musica música reproduzida
+     * @param data   data da reprodução
+     */
+    public void registaReproducaoMusica(Utilizador user, Musica musica, LocalDateTime data) {
+        this.bloqueio.readLock().lock();
+        try {
+            aplicaReproducao(user, musica, data, true);
+        } finally {
+            this.bloqueio.readLock().unlock();
+        }
+    }
+
+    /**
+     * Aplica uma reprodução aos contadores, ao histórico, aos pontos e às estatísticas. Tem de ser invocado com o modelo bloqueado.
+     *
+     * @param user          utilizador
+     * @param musica        música reproduzida
+     * @param data          data da reprodução
+     * @param registaDiario true caso a reprodução ainda não tenha sido registada no diário
+     */
+    private void aplicaReproducao(Utilizador user, Musica musica, LocalDateTime data, boolean registaDiario) {
+        this.reproducoes.incrementa(musica.getId());
+        // O histórico, os pontos, as estatísticas do utilizador e o diário são atualizados com o utilizador bloqueado,
+        // para que as reproduções de um mesmo utilizador sejam vistas e registadas pela mesma ordem
+        synchronized (user) {
+            user.registaReproducaoMusica(musica, data);
+            Playlist favs = user.getBiblioteca().playlistsInternas().get(ListaFavoritos.NOME);
+            // A lista guardada com este nome pode ser a de outro utilizador, que só é atualizada pelas reproduções do seu criador
+            if (favs instanceof ListaFavoritos && favs.getCriador() != null && favs.getCriador().getUsername().equals(user.getUsername())) {
+                atualizaFavoritos(user, (ListaFavoritos) favs, musica);
+            }
+            EstatisticasPlataforma e = this.estatisticas;
+            if (e != null) {
+                e.reproducaoRegistada(user, data);
+            }
+            if (registaDiario) {
+                registaOperacao(DiarioOperacoes.REGISTA_REPRODUCAO, user.getUsername(), musica.getNome(), data.toEpochSecond(ZoneOffset.UTC), nomeAlbum(musica));
+            }
+        }
+        EstatisticasPlataforma e = this.estatisticas;
+        if (e != null) {
+            synchronized (e) {
+                if (e.superaMaisReproduzida(musica)) {
+                    // A música reproduzida pode ser uma cópia; a mais reproduzida é sempre a instância que está no catálogo
+                    Musica doCatalogo = doCatalogo(musica);
+                    if (doCatalogo != null) {
+                        e.setMaisReproduzida(doCatalogo);
+                    }
+                }
+            }
+        }
+        TendenciasReproducoes t = this.tendencias;
+        if (t != null) {
+            t.regista(musica, data);
+        }
+    }
+
+    /**
+     * Atualiza a lista de favoritos de um utilizador depois de uma reprodução. Como as contagens só crescem, a lista só muda se a música
+     * reproduzida, que ainda não estava na lista, passar a estar entre as mais ouvidas; nos restantes casos, a lista não é percorrida.
+     * As músicas que saem da lista deixam de estar indexadas nas referências, juntamente com a entrada da nova música.
+     * Tem de ser invocado com o utilizador bloqueado.
+     *
+     * @param user   utilizador
+     * @param favs   lista de favoritos
+     * @param musica música reproduzida
+     */
+    private void atualizaFavoritos(Utilizador user, ListaFavoritos favs, Musica musica) {
+        if (favs.getMusicas().containsKey(musica.getNome()) || !user.isEntreMaisOuvidas(musica, favs.getLimite())) {
+            return;
+        }
+        List<Musica> maisOuvidas = user.getMusicasMaisOuvidas(favs.getLimite());
+        Set<String> retiradas = new HashSet<String>(favs.getMusicas().keySet());
+        for (Musica m : maisOuvidas) {
+            retiradas.remove(m.getNome());
+        }
+        favs.atualiza(maisOuvidas);
+        IndiceReferencias r = this.referencias;
+        if (r != null) {
+            // As reproduções de utilizadores diferentes só partilham o acesso ao modelo, pelo que o índice é bloqueado
+            synchronized (r) {
+                for (String nome : retiradas) {
+                    r.removeMusicaPlaylist(favs, nome);
+                }
+                r.adicionaMusicaPlaylist(favs, musica.getNome());
+            }
+        }
+    }
+
+    /**
+     * Devolve a instância de uma música que está no catálogo, isto é, a música com o mesmo nome e o mesmo identificador
+     * num dos álbuns da plataforma.
+     *
+     * @param musica música (possivelmente uma cópia)
+     * @return música do catálogo, ou null caso já não esteja no catálogo
+     */
+    private Musica doCatalogo(Musica musica) {
+        for (Album a : albunsComMusica(musica.getNome())) {
+            Musica m = a.musicasInternas().get(musica.getNome());
+            if (m != null && m.getId() == musica.getId()) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Aplica uma reprodução publicada na fila de reproduções. A reprodução já foi registada no diário ao ser publicada.
+     *
+     * @param evento reprodução
+     */
+    void aplicaReproducao(EventoReproducao evento) {
+        aplicaReproducao(evento.getUtilizador(), evento.getMusica(), evento.getData(), false);
+    }
+
+    /**
+     * Publica a reprodução de uma música por um utilizador, no momento atual.
+     *
+     * @param user   utilizador
+     * @param musica música reproduzida
+     */
+    public void publicaReproducao(Utilizador user, Musica musica) {
+        publicaReproducao(user, musica, LocalDateTime.now());
+    }
+
+    /**
+     * Publica a reprodução de uma música por um utilizador. Caso a fila de reproduções esteja ativa, a reprodução é registada no diário
+     * e aplicada mais tarde, em lote; espera enquanto a fila estiver cheia. Caso contrário, é aplicada de imediato.
+     *
+     * @param user   utilizador
+     * @param musica música reproduzida
+     * @param data   data da reprodução
+     */
+    public void publicaReproducao(Utilizador user, Musica musica, LocalDateTime data) {
+        FilaReproducoes f = this.filaReproducoes;
+        // Com o modelo bloqueado em exclusivo, a fila não pode ser esvaziada por esta thread, pelo que a reprodução é aplicada de imediato
+        if (f == null || this.bloqueio.isWriteLockedByCurrentThread() || !f.reserva()) {
+            registaReproducaoMusica(user, musica, data);
+            return;
+        }
+        this.bloqueio.readLock().lock();
+        try {
+            if (this.filaReproducoes != f) {
+                f.cancelaReserva();
+                aplicaReproducao(user, musica, data, true);
+                return;
+            }
+            // O registo no diário e a entrada na fila são feitos com o utilizador bloqueado, para que a ordem seja a mesma em ambos
+            synchronized (user) {
+                registaOperacao(DiarioOperacoes.REGISTA_REPRODUCAO, user.getUsername(), musica.getNome(), data.toEpochSecond(ZoneOffset.UTC), nomeAlbum(musica));
+                f.acrescenta(new EventoReproducao(user, musica, data));
+            }
+        } finally {
+            this.bloqueio.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ativa a fila de reproduções. A partir deste momento, as reproduções publicadas são aplicadas em lotes por uma thread própria.
+     *
+     * @param capacidade  nº máximo de reproduções pendentes
+     * @param tamanhoLote nº máximo de reproduções aplicadas de uma só vez
+     */
+    public void ativaFilaReproducoes(int capacidade, int tamanhoLote) {
+        bloqueiaEscrita();
+        try {
+            if (this.filaReproducoes != null) {
+                throw new IllegalStateException("A fila de reproduções já está ativa!");
+            }
+            this.filaReproducoes = new FilaReproducoes(this, capacidade, tamanhoLote);
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Aplica as reproduções pendentes e desativa a fila de reproduções. A partir deste momento, as reproduções são aplicadas de imediato.
+     */
+    public void desativaFilaReproducoes() {
+        FilaReproducoes f;
+        bloqueiaEscrita();
+        try {
+            f = this.filaReproducoes;
+            this.filaReproducoes = null;
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
+        if (f != null) {
+            try {
+                f.para(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Devolve a fila de reproduções, caso esteja ativa.
+     *
+     * @return fila de reproduções, ou null
+     */
+    public FilaReproducoes getFilaReproducoes() {
+        return this.filaReproducoes;
+    }
+
+    /**
+     * Adiciona uma música a uma playlist.
+     *
+     * @param playlist playlist
+     * @param musica   música
+     */
+    public void adicionaMusicaPlaylist(Playlist playlist, Musica musica) {
+        bloqueiaEscrita();
+        try {
+            playlist.adicionarMusica(musica);
+            if (this.referencias != null) {
+                this.referencias.adicionaMusicaPlaylist(playlist, musica.getNome());
+            }
+            registaOperacao(DiarioOperacoes.ADICIONA_MUSICA_PLAYLIST, playlist.getCriador().getUsername(), playlist.getNome(), musica.getNome(), nomeAlbum(musica));
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Altera a visibilidade de uma playlist.
+     *
+     * @param playlist playlist
+     * @param isPublic nova visibilidade
+     */
+    public void alteraVisibilidadePlaylist(Playlist playlist, boolean isPublic) {
+        bloqueiaEscrita();
+        try {
+            playlist.setIsPublic(isPublic);
+            registaOperacao(DiarioOperacoes.ALTERA_VISIBILIDADE_PLAYLIST, playlist.getCriador().getUsername(), playlist.getNome(), isPublic);
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Atualiza as preferências de um utilizador sobre músicas explícitas e multimédia.
+     *
+     * @param user       utilizador
+     * @param explicita  true se quer ver músicas explícitas
+     * @param multimedia true se quer ver músicas multimédia
+     */
+    public void atualizaPreferencias(Utilizador user, boolean explicita, boolean multimedia) {
+        bloqueiaEscrita();
+        try {
+            user.setQuerVerExplicita(explicita);
+            user.setQuerVerMultimedia(multimedia);
+            registaOperacao(DiarioOperacoes.ATUALIZA_PREFERENCIAS, user.getUsername(), explicita, multimedia);
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Torna um utilizador administrador.
+     *
+     * @param user utilizador
+     */
+    public void tornaAdministrador(Utilizador user) {
+        bloqueiaEscrita();
+        try {
+            user.setIsAdmin(true);
+            registaOperacao(DiarioOperacoes.TORNA_ADMINISTRADOR, user.getUsername());
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Devolve um utilizador dado o seu username.
+     *
+     * @param username username
+     * @return utilizador
+     * @throws UserNotFoundException caso não exista
+     */
+    public Utilizador procuraUtilizador(String username) throws UserNotFoundException {
+        this.bloqueio.readLock().lock();
+        try {
+            Utilizador u = this.utilizadores.get(username);
+            if (u == null) {
+                throw new UserNotFoundException(username);
+            }
+            return u;
+        } finally {
+            this.bloqueio.readLock().unlock();
+        }
+    }
+
+    /**
+     * Devolve um álbum dado o seu nome.
+     *
+     * @param nome nome do álbum
+     * @return álbum
+     * @throws AlbumNaoExisteException caso não exista
+     */
+    public Album procuraAlbum(String nome) throws AlbumNaoExisteException {
+        this.bloqueio.readLock().lock();
+        try {
+            Album a = this.albuns.get(nome);
+            if (a == null) {
+                throw new AlbumNaoExisteException(nome);
+            }
+            return a;
+        } finally {
+            this.bloqueio.readLock().unlock();
+        }
+    }
+
+    /**
+     * Devolve uma música dado o seu nome.
+     *
+     * @param nome nome da música
+     * @return música do catálogo
+     * @throws MusicaNaoExisteException caso não exista
+     */
+    public Musica procuraMusica(String nome) throws MusicaNaoExisteException {
+        this.bloqueio.readLock().lock();
+        try {
+            List<Album> albuns = albunsComMusica(nome);
+            if (albuns.isEmpty()) {
+                throw new MusicaNaoExisteException(nome);
+            }
+            return albuns.get(0).musicasInternas().get(nome);
+        } finally {
+            this.bloqueio.readLock().unlock();
+        }
+    }
+
+    /**
+     * Devolve os álbuns do catálogo que têm uma música com um dado nome (p.e. para saber se o nome é ambíguo).
+     *
+     * @param nome nome da música
+     * @return álbuns, pela ordem em que procuraMusica(nome) os considera
+     */
+    public List<Album> procuraAlbunsMusica(String nome) {
+        this.bloqueio.readLock().lock();
+        try {
+            return Collections.unmodifiableList(albunsComMusica(nome));
+        } finally {
+            this.bloqueio.readLock().unlock();
+        }
+    }
+
+    /**
+     * Devolve a música com um dado nome de um álbum do catálogo.
+     *
+     * @param nomeAlbum nome do álbum
+     * @param nome      nome da música
+     * @return música do catálogo
+     * @throws MusicaNaoExisteException caso o álbum não exista ou não tenha a música
+     */
+    public Musica procuraMusica(String nomeAlbum, String nome) throws MusicaNaoExisteException {
+        this.bloqueio.readLock().lock();
+        try {
+            Album album = this.albuns.get(nomeAlbum);
+            Musica m = album == null ? null : album.musicasInternas().get(nome);
+            if (m == null) {
+                throw new MusicaNaoExisteException(nome);
+            }
+            return m;
+        } finally {
+            this.bloqueio.readLock().unlock();
+        }
+    }
+
+    /**
+     * Devolve uma playlist guardada na biblioteca do seu criador.
+     *
+     * @param criador username do criador
+     * @param nome    nome da playlist
+     * @return playlist
+     * @throws PlaylistNaoExisteException caso não exista
+     */
+    public Playlist procuraPlaylist(String criador, String nome) throws PlaylistNaoExisteException {
+        this.bloqueio.readLock().lock();
+        try {
+            Playlist p = procuraUtilizador(criador).getBiblioteca().getPlaylists().get(nome);
+            if (p == null) {
+                throw new PlaylistNaoExisteException(nome);
+            }
+            return p;
+        } finally {
+            this.bloqueio.readLock().unlock();
+        }
+    }
+
+    /**
+     * Associa um diário de operações ao modelo. A partir deste momento, todas as alterações são registadas no diário.
+     *
+     * @param diario diário (null para deixar de registar)
+     */
+    public void setDiario(DiarioOperacoes diario) {
+        this.diario = diario;
+    }
+
+    /**
+     * Devolve o diário de operações associado.
+     *
+     * @return diário, ou null caso não exista
+     */
+    public DiarioOperacoes getDiario() {
+        return this.diario;
+    }
+
+    /**
+     * Devolve a sequência do último registo do diário incorporado no modelo.
+     *
+     * @return sequência
+     */
+    public long getSequenciaDiario() {
+        return this.sequenciaDiario;
+    }
+
+    /**
+     * Atualiza a sequência do último registo do diário incorporado no modelo.
+     *
+     * @param sequenciaDiario sequência
+     */
+    public void setSequenciaDiario(long sequenciaDiario) {
+        this.sequenciaDiario = sequenciaDiario;
+    }
+
+    /**
+     * Regista uma operação no diário, caso exista.
+     *
+     * @param operacao   código da operação
+     * @param argumentos argumentos da operação
+     */
+    private void registaOperacao(int operacao, Object... argumentos) {
+        DiarioOperacoes d = this.diario;
+        if (d != null) {
+            // A sequência é atualizada com o diário bloqueado, para que não recue quando várias sessões registam operações
+            synchronized (d) {
+                this.sequenciaDiario = d.regista(operacao, argumentos);
+            }
+        }
+    }
+
+    /**
+     * Devolve os álbuns do catálogo que contêm uma música com um dado nome, através do localizador de músicas.
+     *
+     * @param nomeMusica nome da música
+     * @return lista de álbuns
+     */
+    private List<Album> albunsComMusica(String nomeMusica) {
+        List<Album> albuns = new ArrayList<Album>(1);
+        for (Album a : localizacao(nomeMusica, false)) {
+            if (a.temMusica(nomeMusica)) {
+                albuns.add(a);
+            }
+        }
+        return albuns;
+    }
+
+    /**
+     * Devolve a entrada do localizador de músicas para um nome, que associa o nome aos álbuns onde a música está.
+     * O localizador é construído no primeiro uso. Com um catálogo carregado de um segmento, cada nome é resolvido pelo índice
+     * gravado no segmento quando é pedido pela primeira vez, em vez de descodificar todos os álbuns.
+     *
+     * @param nomeMusica nome da música
+     * @param guardar    se a entrada deve ficar guardada no localizador mesmo que esteja vazia (para ser alterada)
+     * @return lista de álbuns
+     */
+    private List<Album> localizacao(String nomeMusica, boolean guardar) {
+        Map<String, List<Album>> localizacao = this.localizacaoMusicas;
+        if (localizacao == null) {
+            localizacao = constroiLocalizacao();
+        }
+        List<Album> albuns = localizacao.get(nomeMusica);
+        if (albuns == null) {
+            albuns = new ArrayList<Album>(1);
+            if (this.albuns instanceof CatalogoAlbuns) {
+                albuns.addAll(((CatalogoAlbuns) this.albuns).albunsComMusica(nomeMusica));
+            }
+            if (guardar || !albuns.isEmpty()) {
+                // Com acesso partilhado, outra sessão pode ter resolvido o mesmo nome entretanto
+                List<Album> anterior = localizacao.putIfAbsent(nomeMusica, albuns);
+                if (anterior != null) {
+                    albuns = anterior;
+                }
+            }
+        }
+        return albuns;
+    }
+
+    /**
+     * Constrói o localizador de músicas, caso ainda não exista. Pode ser chamado por várias sessões com acesso partilhado ao modelo.
+     *
+     * @return localizador
+     */
+    private synchronized Map<String, List<Album>> constroiLocalizacao() {
+        if (this.localizacaoMusicas == null) {
+            Map<String, List<Album>> localizacao = new ConcurrentHashMap<String, List<Album>>();
+            if (!(this.albuns instanceof CatalogoAlbuns)) {
+                for (Album a : this.albuns.values()) {
+                    for (String m : a.musicasInternas().keySet()) {
+                        localizacao.computeIfAbsent(m, k -> new ArrayList<Album>(1)).add(a);
+                    }
+                }
+            }
+            this.localizacaoMusicas = localizacao;
+        }
+        return this.localizacaoMusicas;
+    }
+
+    /**
+     * Regista no localizador que uma música passou a estar num álbum.
+     *
+     * @param nomeMusica nome da música
+     * @param album      álbum
+     */
+    private void registaLocalizacao(String nomeMusica, Album album) {
+        List<Album> albuns = localizacao(nomeMusica, true);
+        for (Album a : albuns) {
+            if (a == album) {
+                return;
+            }
+        }
+        albuns.add(album);
+    }
+
+    /**
+     * Regista no localizador que uma música deixou de estar num álbum.
+     *
+     * @param nomeMusica nome da música
+     * @param album      álbum
+     */
+    private void removeLocalizacao(String nomeMusica, Album album) {
+        List<Album> albuns = localizacao(nomeMusica, true);
+        albuns.removeIf(a -> a == album);
+        if (albuns.isEmpty()) {
+            this.localizacaoMusicas.remove(nomeMusica);
+        }
+    }
+
+    /**
+     * Substitui o mapa interno de álbuns, sem cópia. Usado apenas na persistência do estado, para um catálogo descodificado à medida que é acedido.
+     * @param catalogo mapa de álbuns
+     */
+    void setCatalogoInterno(Map<String, Album> catalogo) {
+        bloqueiaEscrita();
+        try {
+            descartaIndices();
+            this.albuns = catalogo;
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Acesso direto aos álbuns, sem cópia. Usado apenas na persistência do estado.
+     * @return mapa interno de álbuns
+     */
+    Map<String, Album> albunsInternos() {
+        return this.albuns;
+    }
+
+    /**
+     * Acesso direto aos utilizadores, sem cópia. Usado apenas na persistência do estado.
+     * @return mapa interno de utilizadores
+     */
+    Map<String, Utilizador> utilizadoresInternos() {
+        return this.utilizadores;
+    }
+
+    /**
+     * Acesso ao registo de músicas onde as playlists e bibliotecas do modelo resolvem as suas músicas. Usado apenas na persistência do estado.
+     * @return registo de músicas
+     */
+    RegistoMusicas registoMusicas() {
+        return this.registoMusicas;
+    }
+
+    /**
+     * Acesso direto ao contador de reproduções. Usado apenas na persistência do estado.
+     * @return contador de reproduções
+     */
+    ContadorReproducoes contadorReproducoes() {
+        return this.reproducoes;
+    }
+
+    /**
+     * Bloqueia o modelo em modo exclusivo. As reproduções ainda na fila são aplicadas primeiro, para que a operação veja o modelo tal como
+     * ficará registado no diário. Caso a aplicação das reproduções falhe, o bloqueio é libertado antes de a falha ser propagada,
+     * já que quem invoca só o liberta depois de o ter obtido.
+     */
+    private void bloqueiaEscrita() {
+        this.bloqueio.writeLock().lock();
+        FilaReproducoes f = this.filaReproducoes;
+        if (f != null) {
+            try {
+                f.esvazia();
+            } catch (RuntimeException | Error e) {
+                this.bloqueio.writeLock().unlock();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Executa uma operação com acesso partilhado ao modelo.
+     * @param operacao operação
+     * @return resultado da operação
+     */
+    <T> T partilhado(Supplier<T> operacao) {
+        this.bloqueio.readLock().lock();
+        try {
+            return operacao.get();
+        } finally {
+            this.bloqueio.readLock().unlock();
+        }
+    }
+
+    /**
+     * Executa uma operação com acesso exclusivo ao modelo (p.e. para o gravar de forma consistente).
+     * @param operacao operação
+     * @return resultado da operação
+     */
+    <T> T exclusivo(Supplier<T> operacao) {
+        bloqueiaEscrita();
+        try {
+            return operacao.get();
+        } finally {
+            this.bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Os campos transientes não são serializados: o bloqueio é criado de novo e as estruturas derivadas (índices, estatísticas, tendências)
+     * ficam por construir, sendo construídas quando forem necessárias.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.bloqueio = new ReentrantReadWriteLock();
     }
-}
\ No newline at end of file
+}
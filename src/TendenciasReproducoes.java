@@ -0,0 +1,125 @@
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Tendências da plataforma: as músicas, intérpretes e géneros mais ouvidos recentemente, com pontuações que decaem com o tempo.
+ * São alimentadas por cada reprodução registada no modelo e ocupam memória limitada, independentemente do tamanho do catálogo.
+ * A meia-vida (em horas) e o nº de elementos guardados por categoria são configuráveis com -Dspotifum.tendencias.meiaVida
+ * e -Dspotifum.tendencias.capacidade.
+ */
+public class TendenciasReproducoes {
+    /** Meia-vida usada por omissão, em horas. */
+    public static final int MEIA_VIDA_OMISSAO = 72;
+    /** Nº de elementos guardados por categoria, por omissão. */
+    public static final int CAPACIDADE_OMISSAO = 1024;
+
+    private final TopKDecaimento<Integer> musicas;
+    private final TopKDecaimento<Integer> interpretes;
+    private final TopKDecaimento<Integer> generos;
+    private final Map<Integer, Musica> musicasPorId;
+
+    /**
+     * Construtor por omissão, com a configuração das propriedades do sistema.
+     */
+    public TendenciasReproducoes() {
+        this(Integer.getInteger("spotifum.tendencias.capacidade", CAPACIDADE_OMISSAO),
+                Double.parseDouble(System.getProperty("spotifum.tendencias.meiaVida", String.valueOf(MEIA_VIDA_OMISSAO))) * 3600);
+    }
+
+    /**
+     * Construtor parametrizado. Aceita:
+     * @param capacidade nº de elementos guardados por categoria
+     * @param meiaVidaSegundos meia-vida das pontuações (em segundos)
+     */
+    public TendenciasReproducoes(int capacidade, double meiaVidaSegundos) {
+        this.musicas = new TopKDecaimento<Integer>(capacidade, meiaVidaSegundos);
+        this.interpretes = new TopKDecaimento<Integer>(capacidade, meiaVidaSegundos);
+        this.generos = new TopKDecaimento<Integer>(capacidade, meiaVidaSegundos);
+        this.musicasPorId = new HashMap<Integer, Musica>();
+    }
+
+    /**
+     * Regista uma reprodução.
+     * @param musica música reproduzida
+     * @param data data da reprodução
+     */
+    public void regista(Musica musica, LocalDateTime data) {
+        regista(musica, data.toEpochSecond(ZoneOffset.UTC));
+    }
+
+    /**
+     * Regista uma reprodução.
+     * @param musica música reproduzida
+     * @param segundosEpoca data da reprodução (em segundos desde a época, UTC)
+     */
+    public synchronized void regista(Musica musica, long segundosEpoca) {
+        this.musicas.regista(musica.getId(), segundosEpoca);
+        this.musicasPorId.put(musica.getId(), musica);
+        if (this.musicasPorId.size() > 2 * this.musicas.getCapacidade()) {
+            // Esquece as músicas que já saíram das tendências, para que a memória continue limitada pela capacidade
+            this.musicasPorId.keySet().removeIf(id -> !this.musicas.contem(id));
+        }
+        if (musica.getCodigoInterprete() != DicionarioTermos.SEM_TERMO) {
+            this.interpretes.regista(musica.getCodigoInterprete(), segundosEpoca);
+        }
+        if (musica.getCodigoGenero() != DicionarioTermos.SEM_TERMO) {
+            this.generos.regista(musica.getCodigoGenero(), segundosEpoca);
+        }
+    }
+
+    /**
+     * Devolve as músicas em tendência que satisfazem uma condição, por ordem decrescente de pontuação.
+     * As músicas devolvidas são as últimas instâncias reproduzidas, que podem ser cópias das que estão no catálogo.
+     * @param k nº de músicas
+     * @param condicao condição (p.e. a música ainda pertencer ao catálogo)
+     * @return músicas
+     */
+    public synchronized List<Musica> getMusicas(int k, Predicate<Musica> condicao) {
+        List<Integer> ids = this.musicas.top(k, id -> condicao.test(this.musicasPorId.get(id)));
+        List<Musica> res = new ArrayList<Musica>(ids.size());
+        for (int id : ids) {
+            res.add(this.musicasPorId.get(id));
+        }
+        return res;
+    }
+
+    /**
+     * Devolve os intérpretes em tendência, por ordem decrescente de pontuação.
+     * @param k nº de intérpretes
+     * @return intérpretes
+     */
+    public synchronized List<String> getInterpretes(int k) {
+        return termos(this.interpretes.top(k), DicionarioTermos.INTERPRETES);
+    }
+
+    /**
+     * Devolve os géneros em tendência, por ordem decrescente de pontuação.
+     * @param k nº de géneros
+     * @return géneros
+     */
+    public synchronized List<String> getGeneros(int k) {
+        return termos(this.generos.top(k), DicionarioTermos.GENEROS);
+    }
+
+    private static List<String> termos(List<Integer> codigos, DicionarioTermos dicionario) {
+        List<String> res = new ArrayList<String>(codigos.size());
+        for (int c : codigos) {
+            res.add(dicionario.termo(c));
+        }
+        return res;
+    }
+
+    /**
+     * Devolve a pontuação atual de uma música, isto é, o nº de reproduções com o decaimento até ao momento atual.
+     * @param musica música
+     * @return pontuação
+     */
+    public double getPontuacao(Musica musica) {
+        return this.musicas.pontuacao(musica.getId(), LocalDateTime.now().toEpochSecond(ZoneOffset.UTC));
+    }
+}
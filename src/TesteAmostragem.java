@@ -0,0 +1,167 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Teste da geração de playlists aleatórias. Verifica que:
+ * - a ordem aleatória do vetor de músicas é uma permutação (sem repetições nem músicas em falta) e é a mesma para a mesma semente;
+ * - a primeira música escolhida segue uma distribuição uniforme;
+ * - uma playlist gerada com a mesma semente e o mesmo catálogo é sempre a mesma, e nunca repete músicas nem nomes;
+ * - pedir mais músicas do que as do catálogo devolve uma música de cada nome, e um catálogo só com álbuns vazios é recusado;
+ * - as músicas removidas do catálogo deixam de ser escolhidas.
+ * Termina com código 1 caso alguma verificação falhe.
+ *
+ * Uso: java TesteAmostragem [álbuns] [músicas por álbum]
+ */
+public class TesteAmostragem {
+    private final List<String> erros = new ArrayList<String>();
+
+    public static void main(String[] args) throws Exception {
+        int albuns = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int musicasPorAlbum = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        TesteAmostragem teste = new TesteAmostragem();
+        teste.testaVetor(albuns, musicasPorAlbum);
+        teste.testaPlaylists(albuns, musicasPorAlbum);
+        teste.testaCatalogoVazio();
+        if (!teste.erros.isEmpty()) {
+            for (String e : teste.erros) {
+                System.out.println("FALHA: " + e);
+            }
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private void testaVetor(int albuns, int musicasPorAlbum) {
+        GeradorEstado gerador = new GeradorEstado(25);
+        gerador.gera(albuns, musicasPorAlbum, 0, 0);
+        VetorMusicas v = new VetorMusicas();
+        for (Musica m : gerador.getMusicas()) {
+            v.adiciona(m);
+        }
+        List<Integer> ordem = ordem(v, new Random(7));
+        if (ordem.size() != v.size() || new HashSet<Integer>(ordem).size() != v.size()) {
+            erro("A ordem aleatória tem " + ordem.size() + " músicas (" + new HashSet<Integer>(ordem).size() + " distintas) em vez de " + v.size());
+        }
+        if (!ordem.equals(ordem(v, new Random(7)))) {
+            erro("A ordem aleatória não é a mesma para a mesma semente");
+        }
+        if (ordem.equals(ordem(v, new Random(8)))) {
+            erro("A ordem aleatória é a mesma para sementes diferentes");
+        }
+
+        // Com 200 escolhas por música, um desvio de 35% em relação ao esperado está a cerca de 5 desvios padrão
+        int escolhas = 200 * v.size();
+        int[] contagens = new int[v.size()];
+        Random random = new Random(9);
+        List<Musica> musicas = gerador.getMusicas();
+        for (int i = 0; i < escolhas; i++) {
+            contagens[musicas.indexOf(v.aleatorias(random).next())]++;
+        }
+        for (int i = 0; i < contagens.length; i++) {
+            if (Math.abs(contagens[i] - 200) > 70) {
+                erro("A música " + musicas.get(i).getNome() + " foi a primeira " + contagens[i] + " vezes em " + escolhas + " (esperadas 200)");
+            }
+        }
+    }
+
+    private void testaPlaylists(int albuns, int musicasPorAlbum) {
+        GeradorEstado gerador = new GeradorEstado(25);
+        SpotifUM modelo = gerador.gera(albuns, musicasPorAlbum, 1, 0);
+        // Músicas com nomes repetidos noutro álbum: uma playlist só pode ter uma música de cada nome
+        modelo.adicionaAlbum("Repetidas", "Intérprete", "Editora", 2000);
+        Set<String> nomes = new HashSet<String>();
+        for (int i = 0; i < gerador.getMusicas().size(); i += 3) {
+            Musica m = gerador.getMusicas().get(i);
+            modelo.adicionaMusica("Repetidas", m.getNome(), m.getInterprete(), m.getEditora(), m.getGenero(), m.getDuracao(), m.getLetra(), m.getMusica());
+        }
+        for (Musica m : gerador.getMusicas()) {
+            nomes.add(m.getNome());
+        }
+        Utilizador u = modelo.procuraUtilizador("u0");
+
+        List<Integer> primeira = ids(modelo.geraPlaylistAleatoria("a", 20, u, 42L));
+        if (!primeira.equals(ids(modelo.geraPlaylistAleatoria("a", 20, u, 42L)))) {
+            erro("A playlist aleatória não é a mesma para a mesma semente");
+        }
+        if (primeira.size() != 20) {
+            erro("A playlist aleatória tem " + primeira.size() + " músicas em vez de 20");
+        }
+        for (long semente = 0; semente < 200; semente++) {
+            verificaSemRepeticoes(modelo.geraPlaylistAleatoria("a", 1 + (int) semente % 40, u, semente), "semente " + semente);
+        }
+        PlaylistAleatoria todas = modelo.geraPlaylistAleatoria("todas", nomes.size() * 2, u, 1L);
+        verificaSemRepeticoes(todas, "todas as músicas");
+        if (!todas.getMusicas().keySet().equals(nomes)) {
+            erro("Ao pedir mais músicas do que as do catálogo, a playlist tem " + todas.getMusicas().size() + " nomes em vez de " + nomes.size());
+        }
+
+        // Músicas removidas deixam de ser escolhidas
+        Set<Integer> removidas = new HashSet<Integer>();
+        for (int i = 1; i < gerador.getMusicas().size(); i += 2) {
+            Musica m = gerador.getMusicas().get(i);
+            modelo.removeMusica(m);
+            removidas.add(m.getId());
+        }
+        for (long semente = 0; semente < 50; semente++) {
+            PlaylistAleatoria pa = modelo.geraPlaylistAleatoria("a", 30, u, semente);
+            verificaSemRepeticoes(pa, "após remoções, semente " + semente);
+            for (Musica m : pa.getMusicas().values()) {
+                if (removidas.contains(m.getId())) {
+                    erro("A música removida " + m.getNome() + " foi escolhida (semente " + semente + ")");
+                }
+            }
+        }
+    }
+
+    private void testaCatalogoVazio() {
+        SpotifUM modelo = new SpotifUM();
+        modelo.criaUtilizador("Utilizador", "u", "u@spotifum.pt", "Rua", LocalDate.of(2000, 1, 1), "u");
+        for (int a = 0; a < 10; a++) {
+            modelo.adicionaAlbum("Vazio " + a, "Intérprete", "Editora", 2000);
+        }
+        try {
+            modelo.geraPlaylistAleatoria("a", 5, modelo.procuraUtilizador("u"), 1L);
+            erro("Foi gerada uma playlist aleatória num catálogo só com álbuns vazios");
+        } catch (PoucasMusicasException e) {
+            // Esperado
+        }
+    }
+
+    private void verificaSemRepeticoes(PlaylistAleatoria pa, String caso) {
+        Set<Integer> ids = new HashSet<Integer>(ids(pa));
+        Set<String> nomes = new HashSet<String>();
+        for (Musica m : pa.getMusicas().values()) {
+            nomes.add(m.getNome());
+        }
+        if (ids.size() != pa.getMusicas().size() || nomes.size() != pa.getMusicas().size()) {
+            erro("A playlist aleatória (" + caso + ") repete músicas: " + pa.getMusicas().size() + " músicas, " + ids.size() + " distintas");
+        }
+    }
+
+    private static List<Integer> ordem(VetorMusicas v, Random random) {
+        List<Integer> ids = new ArrayList<Integer>();
+        Iterator<Musica> it = v.aleatorias(random);
+        while (it.hasNext()) {
+            ids.add(it.next().getId());
+        }
+        return ids;
+    }
+
+    private static List<Integer> ids(PlaylistAleatoria pa) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Musica m : pa.getMusicas().values()) {
+            ids.add(m.getId());
+        }
+        return ids;
+    }
+
+    private void erro(String mensagem) {
+        this.erros.add(mensagem);
+    }
+}
@@ -0,0 +1,251 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.Stream;
+
+/**
+ * Teste de concorrência do modelo. Várias threads publicam reproduções pela fila de reproduções enquanto outra altera o modelo
+ * (playlists, músicas novas, músicas tornadas explícitas / multimédia, listas de favoritos) e o estado é guardado em segundo plano.
+ * No fim, verifica que:
+ * - o nº de reproduções de cada música e de cada utilizador é o inicial mais o nº de reproduções publicadas;
+ * - os pontos dos utilizadores com o plano Base correspondem às reproduções publicadas;
+ * - a fila aplicou todas as reproduções sem falhas;
+ * - o modelo recuperado do estado guardado e do diário é igual ao modelo em uso (reproduções, pontos e playlists).
+ * Termina com código 1 caso alguma verificação falhe.
+ *
+ * Uso: java TesteConcorrencia [threads] [reproduções por thread] [álbuns] [músicas por álbum] [utilizadores]
+ */
+public class TesteConcorrencia {
+    private final List<String> erros = new ArrayList<String>();
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int reproducoesPorThread = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int albuns = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int musicasPorAlbum = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int utilizadores = args.length > 4 ? Integer.parseInt(args[4]) : 60;
+
+        Path pasta = Files.createTempDirectory("spotifum-concorrencia");
+        TesteConcorrencia teste = new TesteConcorrencia();
+        try {
+            teste.executa(pasta, threads, reproducoesPorThread, albuns, musicasPorAlbum, utilizadores);
+        } finally {
+            try (Stream<Path> ficheiros = Files.list(pasta)) {
+                ficheiros.forEach(p -> p.toFile().delete());
+            }
+            Files.deleteIfExists(pasta);
+        }
+        if (!teste.erros.isEmpty()) {
+            for (String e : teste.erros) {
+                System.out.println("FALHA: " + e);
+            }
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private void executa(Path pasta, int numThreads, int reproducoesPorThread, int albuns, int musicasPorAlbum, int utilizadores) throws Exception {
+        GeradorEstado gerador = new GeradorEstado(15);
+        SpotifUM modelo = gerador.gera(albuns, musicasPorAlbum, utilizadores, 20);
+        modelo.adicionaAlbum("Álbum concorrente", "Intérprete concorrente", "Editora", 2024);
+        List<Musica> musicas = new ArrayList<Musica>(gerador.getMusicas());
+        List<Utilizador> users = new ArrayList<Utilizador>(modelo.getUtilizadores().values());
+        users.sort(Comparator.comparing(Utilizador::getUsername));
+
+        int[] reproducoesIniciais = new int[musicas.size()];
+        for (int i = 0; i < musicas.size(); i++) {
+            reproducoesIniciais[i] = modelo.getNumReproducoes(musicas.get(i));
+        }
+        int[] reproducoesUtilizador = new int[users.size()];
+        int[] pontosIniciais = new int[users.size()];
+        for (int i = 0; i < users.size(); i++) {
+            reproducoesUtilizador[i] = users.get(i).getNumReproducoes();
+            pontosIniciais[i] = users.get(i).getPontos();
+        }
+
+        GestorEstado gestor = new GestorEstado();
+        String estado = pasta.resolve("estado").toString();
+        String estadoSegundoPlano = pasta.resolve("estado-segundo-plano").toString();
+        gestor.guarda(modelo, estado);
+        modelo.ativaFilaReproducoes(1024, 64);
+
+        AtomicIntegerArray publicadasMusica = new AtomicIntegerArray(musicas.size());
+        AtomicIntegerArray publicadasUtilizador = new AtomicIntegerArray(users.size());
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            Random random = new Random(t);
+            threads[t] = new Thread(() -> {
+                for (int r = 0; r < reproducoesPorThread; r++) {
+                    int m = random.nextInt(musicas.size());
+                    int u = random.nextInt(users.size());
+                    modelo.publicaReproducao(users.get(u), musicas.get(m), LocalDateTime.now());
+                    publicadasMusica.incrementAndGet(m);
+                    publicadasUtilizador.incrementAndGet(u);
+                }
+            }, "reproducoes-" + t);
+            threads[t].start();
+        }
+
+        // Alterações concorrentes às reproduções, com uma gravação em segundo plano a meio
+        Random random = new Random(numThreads);
+        int alteracoes = 0;
+        String ficheiroFinal = estado;
+        boolean gravado = false;
+        while (aCorrer(threads)) {
+            Utilizador u = users.get(random.nextInt(users.size()));
+            Musica m = musicas.get(random.nextInt(musicas.size()));
+            try {
+                switch (random.nextInt(5)) {
+                    case 0:
+                        String nome = "Concorrente " + alteracoes;
+                        modelo.criaPlaylist(nome, u);
+                        Playlist p = modelo.procuraPlaylist(u.getUsername(), nome);
+                        for (int i = 0; i < 5; i++) {
+                            modelo.adicionaMusicaPlaylist(p, musicas.get(random.nextInt(musicas.size())));
+                        }
+                        break;
+                    case 1:
+                        modelo.adicionaMusica("Álbum concorrente", "Nova " + alteracoes, "Intérprete concorrente", "Editora", "Rock",
+                                120 + random.nextInt(200), List.of("letra"), List.of("C", "G"));
+                        break;
+                    case 2:
+                        modelo.tornaExplicita(m);
+                        break;
+                    case 3:
+                        modelo.tornaMultimedia(m);
+                        break;
+                    default:
+                        modelo.geraListFavoritos(u, 5 + random.nextInt(10));
+                        break;
+                }
+            } catch (SemPermissoesException | PoucasMusicasException e) {
+                // O plano do utilizador não o permite, ou ainda ouviu poucas músicas
+            }
+            alteracoes++;
+            if (!gravado && publicadasTotal(publicadasUtilizador) > numThreads * reproducoesPorThread / 2) {
+                ficheiroFinal = gestor.guardaEmSegundoPlano(modelo, estadoSegundoPlano).get().getFicheiro();
+                gravado = true;
+            }
+            Thread.sleep(1);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        FilaReproducoes fila = modelo.getFilaReproducoes();
+        modelo.desativaFilaReproducoes();
+        FilaReproducoes.Metricas metricas = fila.getMetricas();
+        int publicadas = publicadasTotal(publicadasUtilizador);
+        System.out.println(publicadas + " reproduções publicadas por " + numThreads + " threads, " + alteracoes + " alterações concorrentes"
+                + (gravado ? ", estado guardado em segundo plano" : ""));
+        System.out.println(metricas);
+
+        if (metricas.getFalhas() != 0) {
+            erro(metricas.getFalhas() + " reproduções não puderam ser aplicadas pela fila");
+        }
+        long aplicadas = 0;
+        for (int i = 0; i < musicas.size(); i++) {
+            int obtidas = modelo.getNumReproducoes(musicas.get(i));
+            int esperadas = reproducoesIniciais[i] + publicadasMusica.get(i);
+            aplicadas += obtidas - reproducoesIniciais[i];
+            if (obtidas != esperadas) {
+                erro("A música " + musicas.get(i).getNome() + " tem " + obtidas + " reproduções em vez de " + esperadas);
+            }
+        }
+        if (aplicadas != publicadas) {
+            erro(aplicadas + " reproduções contadas em vez de " + publicadas);
+        }
+        for (int i = 0; i < users.size(); i++) {
+            Utilizador u = users.get(i);
+            int esperadas = reproducoesUtilizador[i] + publicadasUtilizador.get(i);
+            if (u.getNumReproducoes() != esperadas) {
+                erro(u.getUsername() + " tem " + u.getNumReproducoes() + " reproduções no histórico em vez de " + esperadas);
+            }
+            int pontos = pontosIniciais[i] + publicadasUtilizador.get(i) * PlanoBase.getPontosPorMusica();
+            if (u.getPlano() instanceof PlanoBase && u.getPontos() != pontos) {
+                erro(u.getUsername() + " tem " + u.getPontos() + " pontos em vez de " + pontos);
+            }
+        }
+
+        gestor.fecha();
+        GestorEstado recuperacao = new GestorEstado();
+        SpotifUM recuperado = recuperacao.carrega(ficheiroFinal);
+        recuperacao.fecha();
+        if (recuperacao.getOperacoesIgnoradas() != 0) {
+            erro(recuperacao.getOperacoesIgnoradas() + " operações do diário não puderam ser reaplicadas");
+        }
+        compara(modelo, recuperado);
+    }
+
+    /**
+     * Compara o modelo em uso com o modelo recuperado do estado guardado e do diário.
+     */
+    private void compara(SpotifUM modelo, SpotifUM recuperado) {
+        for (Album a : modelo.getAlbuns().values()) {
+            for (Musica m : a.getMusicas().values()) {
+                Musica r;
+                try {
+                    r = recuperado.procuraMusica(a.getNome(), m.getNome());
+                } catch (MusicaNaoExisteException e) {
+                    erro("A música " + m.getNome() + " do álbum " + a.getNome() + " não foi recuperada");
+                    continue;
+                }
+                if (r.getClass() != m.getClass()) {
+                    erro("A música " + m.getNome() + " foi recuperada como " + r.getClass().getName() + " em vez de " + m.getClass().getName());
+                }
+                if (recuperado.getNumReproducoes(r) != modelo.getNumReproducoes(m)) {
+                    erro("A música " + m.getNome() + " foi recuperada com " + recuperado.getNumReproducoes(r) + " reproduções em vez de "
+                            + modelo.getNumReproducoes(m));
+                }
+            }
+        }
+        for (Utilizador u : modelo.getUtilizadores().values()) {
+            Utilizador r = recuperado.procuraUtilizador(u.getUsername());
+            if (r.getPontos() != u.getPontos() || r.getNumReproducoes() != u.getNumReproducoes()) {
+                erro(u.getUsername() + " foi recuperado com " + r.getPontos() + " pontos e " + r.getNumReproducoes() + " reproduções em vez de "
+                        + u.getPontos() + " e " + u.getNumReproducoes());
+            }
+            Map<String, Playlist> playlists = u.getBiblioteca().getPlaylists();
+            Map<String, Playlist> recuperadas = r.getBiblioteca().getPlaylists();
+            if (!playlists.keySet().equals(recuperadas.keySet())) {
+                erro(u.getUsername() + " foi recuperado com as playlists " + recuperadas.keySet() + " em vez de " + playlists.keySet());
+                continue;
+            }
+            for (Playlist p : playlists.values()) {
+                Set<String> musicas = p.getMusicas().keySet();
+                Set<String> musicasRecuperadas = recuperadas.get(p.getNome()).getMusicas().keySet();
+                if (!musicas.equals(musicasRecuperadas)) {
+                    erro("A playlist " + p.getNome() + " de " + u.getUsername() + " foi recuperada com as músicas " + musicasRecuperadas
+                            + " em vez de " + musicas);
+                }
+            }
+        }
+    }
+
+    private void erro(String mensagem) {
+        this.erros.add(mensagem);
+    }
+
+    private static boolean aCorrer(Thread[] threads) {
+        for (Thread t : threads) {
+            if (t.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int publicadasTotal(AtomicIntegerArray publicadas) {
+        int n = 0;
+        for (int i = 0; i < publicadas.length(); i++) {
+            n += publicadas.get(i);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,180 @@
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Elementos mais frequentes de um fluxo de eventos, com pontuações que decaem exponencialmente com o tempo (uma ocorrência vale metade
+ * ao fim de uma meia-vida). Usa decaimento para a frente: cada ocorrência soma 2^((t - t0) / meiaVida), em que t0 é um instante de
+ * referência fixo, pelo que as pontuações já somadas nunca têm de ser atualizadas e a ordem entre elas não muda com o passar do tempo.
+ * Quando os pesos ficam demasiado grandes, o instante de referência avança e as pontuações são reescaladas.
+ *
+ * A memória é limitada pela capacidade, independentemente do nº de elementos distintos (algoritmo Space-Saving): quando a estrutura
+ * está cheia, um elemento novo substitui o de menor pontuação e herda-a, pelo que a pontuação de cada elemento pode estar sobrestimada,
+ * no máximo, no valor herdado. Os elementos com pontuação superior à menor pontuação guardada nunca são perdidos.
+ * @param <K> tipo dos elementos
+ */
+public class TopKDecaimento<K extends Comparable<K>> {
+    /** Expoente a partir do qual o instante de referência avança (2^256 continua muito longe do limite de um double). */
+    private static final double EXPOENTE_MAXIMO = 256;
+
+    private final int capacidade;
+    private final double meiaVidaSegundos;
+    private final Map<K, Entrada<K>> entradas;
+    private TreeSet<Entrada<K>> ordenadas;
+    private long referenciaSegundos;
+    private boolean temReferencia;
+
+    /**
+     * Entrada de um elemento, ordenada pela pontuação e, em caso de empate, pelo elemento.
+     */
+    private static class Entrada<K extends Comparable<K>> implements Comparable<Entrada<K>> {
+        private final K chave;
+        private double pontuacao;
+
+        private Entrada(K chave, double pontuacao) {
+            this.chave = chave;
+            this.pontuacao = pontuacao;
+        }
+
+        public int compareTo(Entrada<K> e) {
+            int c = Double.compare(this.pontuacao, e.pontuacao);
+            return c != 0 ? c : this.chave.compareTo(e.chave);
+        }
+    }
+
+    /**
+     * Construtor parametrizado. Aceita:
+     * @param capacidade nº máximo de elementos guardados
+     * @param meiaVidaSegundos tempo ao fim do qual uma ocorrência vale metade (em segundos)
+     */
+    public TopKDecaimento(int capacidade, double meiaVidaSegundos) {
+        if (capacidade < 1 || !(meiaVidaSegundos > 0)) {
+            throw new IllegalArgumentException("A capacidade e a meia-vida têm de ser positivas!");
+        }
+        this.capacidade = capacidade;
+        this.meiaVidaSegundos = meiaVidaSegundos;
+        this.entradas = new HashMap<K, Entrada<K>>();
+        this.ordenadas = new TreeSet<Entrada<K>>();
+        this.temReferencia = false;
+    }
+
+    /**
+     * Regista uma ocorrência de um elemento.
+     * @param chave elemento
+     * @param segundosEpoca instante da ocorrência (em segundos desde a época)
+     */
+    public synchronized void regista(K chave, long segundosEpoca) {
+        if (!this.temReferencia) {
+            this.referenciaSegundos = segundosEpoca;
+            this.temReferencia = true;
+        }
+        double expoente = (segundosEpoca - this.referenciaSegundos) / this.meiaVidaSegundos;
+        if (expoente > EXPOENTE_MAXIMO) {
+            reescala(segundosEpoca);
+            expoente = 0;
+        }
+        double peso = Math.pow(2, expoente);
+        Entrada<K> e = this.entradas.get(chave);
+        if (e != null) {
+            this.ordenadas.remove(e);
+            e.pontuacao += peso;
+        } else if (this.entradas.size() < this.capacidade) {
+            e = new Entrada<K>(chave, peso);
+            this.entradas.put(chave, e);
+        } else {
+            Entrada<K> menor = this.ordenadas.pollFirst();
+            this.entradas.remove(menor.chave);
+            e = new Entrada<K>(chave, menor.pontuacao + peso);
+            this.entradas.put(chave, e);
+        }
+        this.ordenadas.add(e);
+    }
+
+    /**
+     * Avança o instante de referência, dividindo todas as pontuações pelo peso que o novo instante tinha. As entradas são reordenadas,
+     * já que pontuações muito pequenas podem passar a empatar.
+     */
+    private void reescala(long novaReferencia) {
+        double fator = Math.pow(2, -(novaReferencia - this.referenciaSegundos) / this.meiaVidaSegundos);
+        TreeSet<Entrada<K>> novas = new TreeSet<Entrada<K>>();
+        for (Entrada<K> e : this.entradas.values()) {
+            e.pontuacao *= fator;
+            novas.add(e);
+        }
+        this.ordenadas = novas;
+        this.referenciaSegundos = novaReferencia;
+    }
+
+    /**
+     * Devolve os k elementos com maior pontuação, por ordem decrescente.
+     * @param k nº de elementos
+     * @return elementos
+     */
+    public List<K> top(int k) {
+        return top(k, chave -> true);
+    }
+
+    /**
+     * Devolve os k elementos com maior pontuação que satisfazem uma condição (p.e. ainda existirem), por ordem decrescente.
+     * @param k nº de elementos
+     * @param condicao condição
+     * @return elementos
+     */
+    public synchronized List<K> top(int k, Predicate<K> condicao) {
+        List<K> res = new ArrayList<K>(Math.min(k, this.entradas.size()));
+        Iterator<Entrada<K>> it = this.ordenadas.descendingIterator();
+        while (res.size() < k && it.hasNext()) {
+            K chave = it.next().chave;
+            if (condicao.test(chave)) {
+                res.add(chave);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Devolve a pontuação de um elemento num dado instante, isto é, a soma das suas ocorrências com o decaimento até esse instante.
+     * @param chave elemento
+     * @param segundosEpoca instante
+     * @return pontuação (0 caso o elemento não esteja guardado)
+     */
+    public synchronized double pontuacao(K chave, long segundosEpoca) {
+        Entrada<K> e = this.entradas.get(chave);
+        if (e == null) {
+            return 0;
+        }
+        return e.pontuacao * Math.pow(2, -(segundosEpoca - this.referenciaSegundos) / this.meiaVidaSegundos);
+    }
+
+    /**
+     * Diz se um elemento está guardado.
+     * @param chave elemento
+     * @return true / false
+     */
+    public synchronized boolean contem(K chave) {
+        return this.entradas.containsKey(chave);
+    }
+
+    /**
+     * Devolve o nº de elementos guardados.
+     * @return nº de elementos (nunca superior à capacidade)
+     */
+    public synchronized int size() {
+        return this.entradas.size();
+    }
+
+    /**
+     * Devolve a capacidade da estrutura.
+     * @return nº máximo de elementos guardados
+     */
+    public int getCapacidade() {
+        return this.capacidade;
+    }
+
+    /**
+     * Devolve a meia-vida das pontuações.
+     * @return meia-vida (em segundos)
+     */
+    public double getMeiaVidaSegundos() {
+        return this.meiaVidaSegundos;
+    }
+}
@@ -6,7 +6,8 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 /**
- * Implementa um utilizador.
+ * Implementa um utilizador. O histórico e os pontos são protegidos pelo próprio utilizador (métodos synchronized),
+ * para que sessões diferentes possam registar reproduções do mesmo utilizador em simultâneo.
  */
 public class Utilizador implements Serializable {
     private String username;
@@ -16,8 +17,8 @@ public class Utilizador implements Serializable {
     private String email;
     private LocalDate dataNascimento;
     private int idade;
-    private int pontos;
-    private Map<Musica,List<LocalDateTime>> musicasOuvidas; // musica - datas ouvidas
+    private volatile int pontos;
+    private HistoricoReproducoes musicasOuvidas;
     private Biblioteca biblioteca;
     private boolean isAdmin;
     private IPlanoSubscricao plano;
@@ -36,7 +37,7 @@ public class Utilizador implements Serializable {
         this.dataNascimento = LocalDate.of(2000,1,1);
         atualizaIdade();
         this.pontos = 0;
-        this.musicasOuvidas = new HashMap<Musica,List<LocalDateTime>>();
+        this.musicasOuvidas = new HistoricoReproducoes();
         this.biblioteca = new Biblioteca();
         this.isAdmin = false;
         this.plano = new PlanoBase();
@@ -62,7 +63,7 @@ public class Utilizador implements Serializable {
         this.dataNascimento = dataNascimento;
         atualizaIdade();
         this.pontos = 0;
-        this.musicasOuvidas = new HashMap<Musica,List<LocalDateTime>>();
+        this.musicasOuvidas = new HistoricoReproducoes();
         this.biblioteca = new Biblioteca();
         this.isAdmin = false;
         this.plano = new PlanoBase();
@@ -83,7 +84,7 @@ public class Utilizador implements Serializable {
         this.dataNascimento = u.getDataNascimento();
         atualizaIdade();
         this.pontos = u.getPontos();
-        this.musicasOuvidas = u.getMusicasOuvidas();
+        this.musicasOuvidas = new HistoricoReproducoes(u.musicasOuvidas);
         this.biblioteca = u.getBiblioteca();
         this.isAdmin = u.isAdmin();
         this.plano = u.getPlano();
@@ -254,7 +255,7 @@ public class Utilizador implements Serializable {
      * Atualiza os pontos.
      * @param pontos novo valor dos pontos
      */
-    public void setPontos(int pontos) {
+    public synchronized void setPontos(int pontos) {
         this.pontos = pontos;
     }
 
@@ -262,36 +263,25 @@ public class Utilizador implements Serializable {
      * Adiciona pontos
      * @param pontos pontos
      */
-    public void adicionarPontos(int pontos) {
+    public synchronized void adicionarPontos(int pontos) {
         this.pontos += pontos;
     }
 
     /**
-     * Devolve as músicas ouvidas.
+     * Devolve as músicas ouvidas, numa vista só de leitura em que cada música é associada às datas em que foi ouvida.
+     * As listas de datas são calculadas a partir do histórico quando são pedidas; para contagens, usar os métodos de consulta do histórico.
      * @return músicas ouvidas
      */
     public Map<Musica,List<LocalDateTime>> getMusicasOuvidas() {
-        Map<Musica,List<LocalDateTime>> musicasOuvidasClone = new HashMap<Musica,List<LocalDateTime>>();
-        for (Map.Entry<Musica,List<LocalDateTime>> m : this.musicasOuvidas.entrySet()) {
-            List<LocalDateTime> datasClone = new ArrayList<LocalDateTime>(m.getValue());
-            musicasOuvidasClone.put(m.getKey().clone(), datasClone);
-        }
-        return musicasOuvidasClone;
+        return this.musicasOuvidas.vista();
     }
 
     /**
      * Atualiza as músicas ouvidas.
      * @param ms novas músicas
      */
-    public void setMusicasOuvidas(Map<Musica, List<LocalDateTime>> ms) {
-        this.musicasOuvidas = new HashMap<Musica,List<LocalDateTime>>();
-
-        for (Map.Entry<Musica, List<LocalDateTime>> m : ms.entrySet()) {
-            Musica musicaClone = m.getKey().clone();
-            List<LocalDateTime> datasClone = new ArrayList<>(m.getValue());
-
-            this.musicasOuvidas.put(musicaClone, datasClone);
-        }
+    public synchronized void setMusicasOuvidas(Map<Musica, List<LocalDateTime>> ms) {
+        this.musicasOuvidas = new HistoricoReproducoes(ms);
     }
 
     /**
@@ -299,16 +289,69 @@ public class Utilizador implements Serializable {
      * @param m música
      * @return true / false
      */
-    public boolean ouviuMusica (Musica m) {
-        return this.musicasOuvidas.containsKey(m);
+    public synchronized boolean ouviuMusica (Musica m) {
+        return this.musicasOuvidas.contem(m);
     }
 
     /**
      * Devolve o número de músicas ouvidas.
      * @return número de músicas ouvidas
      */
-    public int getNumMusicasOuvidas() {
-        return this.musicasOuvidas.size();
+    public synchronized int getNumMusicasOuvidas() {
+        return this.musicasOuvidas.getNumMusicas();
+    }
+
+    /**
+     * Devolve o número total de reproduções.
+     * @return número de reproduções
+     */
+    public synchronized int getNumReproducoes() {
+        return this.musicasOuvidas.getNumReproducoes();
+    }
+
+    /**
+     * Devolve o número de reproduções de uma música.
+     * @param m música
+     * @return número de reproduções
+     */
+    public synchronized int getNumReproducoes(Musica m) {
+        return this.musicasOuvidas.getNumReproducoes(m);
+    }
+
+    /**
+     * Devolve o número de reproduções posteriores a uma data.
+     * @param data data
+     * @return número de reproduções
+     */
+    public synchronized int getNumReproducoesApos(LocalDateTime data) {
+        return this.musicasOuvidas.getNumReproducoesApos(data);
+    }
+
+    /**
+     * Devolve a data da primeira reprodução.
+     * @return data, ou null caso o histórico esteja vazio
+     */
+    public synchronized LocalDateTime getPrimeiraReproducao() {
+        return this.musicasOuvidas.getPrimeiraReproducao();
+    }
+
+    /**
+     * Devolve as músicas mais ouvidas, por ordem decrescente do nº de reproduções.
+     * @param limite nº máximo de músicas
+     * @return lista de músicas
+     */
+    public synchronized List<Musica> getMusicasMaisOuvidas(int limite) {
+        return this.musicasOuvidas.getMaisOuvidas(limite);
+    }
+
+    /**
+     * Diz se uma música está entre as mais ouvidas.
+     * @param m música
+     * @param limite nº de músicas mais ouvidas
+     * @return true / false
+     */
+    public synchronized boolean isEntreMaisOuvidas(Musica m, int limite) {
+        return this.musicasOuvidas.isEntreMaisOuvidas(m, limite);
     }
 
     /**
@@ -317,16 +360,18 @@ public class Utilizador implements Serializable {
      * Também adiciona pontos ao utilizador com base no plano de subscrição.
      * @param m música reproduzida
      */
-    public void registaReproducaoMusica (Musica m) {
+    public synchronized void registaReproducaoMusica (Musica m) {
+        registaReproducaoMusica(m, LocalDateTime.now());
+    }
+
+    /**
+     * Regista a reprodução de uma música numa dada data.
+     * @param m música reproduzida
+     * @param data data da reprodução
+     */
+    public synchronized void registaReproducaoMusica (Musica m, LocalDateTime data) {
         this.getPlano().adicionarPontos(m, this);
-        LocalDateTime agora = LocalDateTime.now();
-        if (this.musicasOuvidas.containsKey(m)) {
-            this.musicasOuvidas.get(m).add(agora);
-        } else {
-            List<LocalDateTime> datas = new ArrayList<>();
-            datas.add(agora);
-            this.musicasOuvidas.put(m, datas);
-        }
+        this.musicasOuvidas.regista(m, data);
     }
 
     /**
@@ -380,8 +425,8 @@ public class Utilizador implements Serializable {
     /**
      * Apaga o histórico de músicas ouvidas.
      */
-    public void apagaHistorico() {
-        this.musicasOuvidas.clear();
+    public synchronized void apagaHistorico() {
+        this.musicasOuvidas.apaga();
     }
 
     /**
@@ -405,7 +450,7 @@ public class Utilizador implements Serializable {
             return false;
         }
         Utilizador u = (Utilizador) o;
-        return (this.username.equals(u.getUsername())) && (this.password.equals(u.getPassword())) && (this.nome.equals(u.getNome())) && (this.morada.equals(u.getMorada())) && (this.email.equals(u.getEmail())) && (this.dataNascimento.equals(u.getDataNascimento())) && this.pontos == u.getPontos() && this.musicasOuvidas.equals(u.getMusicasOuvidas()) && this.biblioteca.equals(u.getBiblioteca());
+        return (this.username.equals(u.getUsername())) && (this.password.equals(u.getPassword())) && (this.nome.equals(u.getNome())) && (this.morada.equals(u.getMorada())) && (this.email.equals(u.getEmail())) && (this.dataNascimento.equals(u.getDataNascimento())) && this.pontos == u.getPontos() && this.musicasOuvidas.equals(u.musicasOuvidas) && this.biblioteca.equals(u.getBiblioteca());
     }
 
     /**
@@ -423,4 +468,12 @@ public class Utilizador implements Serializable {
     public String toString() {
         return "Utilizador: " + this.getUsername();
     }
+
+    /**
+     * Acesso direto ao histórico, sem cópia. Usado apenas na persistência do estado.
+     * @return histórico interno de músicas ouvidas
+     */
+    HistoricoReproducoes musicasOuvidasInternas() {
+        return this.musicasOuvidas;
+    }
 }
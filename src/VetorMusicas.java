@@ -0,0 +1,96 @@
+import java.util.*;
+
+/**
+ * Vetor com todas as músicas do catálogo, acessíveis por posição, para escolher músicas ao acaso em tempo constante.
+ * A posição de cada música é guardada pelo seu identificador, pelo que remover uma música custa O(1): a última passa para o lugar dela.
+ */
+public class VetorMusicas {
+    private final List<Musica> musicas;
+    private final Map<Integer, Integer> posicoes;
+
+    /**
+     * Construtor por omissão.
+     */
+    public VetorMusicas() {
+        this.musicas = new ArrayList<Musica>();
+        this.posicoes = new HashMap<Integer, Integer>();
+    }
+
+    /**
+     * Adiciona uma música ao vetor, substituindo a instância anterior com o mesmo identificador, caso exista.
+     * @param m música
+     */
+    public void adiciona(Musica m) {
+        Integer i = this.posicoes.get(m.getId());
+        if (i != null) {
+            this.musicas.set(i, m);
+        } else {
+            this.posicoes.put(m.getId(), this.musicas.size());
+            this.musicas.add(m);
+        }
+    }
+
+    /**
+     * Remove uma música do vetor.
+     * @param m música
+     */
+    public void remove(Musica m) {
+        Integer i = this.posicoes.remove(m.getId());
+        if (i == null) {
+            return;
+        }
+        Musica ultima = this.musicas.remove(this.musicas.size() - 1);
+        if (i < this.musicas.size()) {
+            this.musicas.set(i, ultima);
+            this.posicoes.put(ultima.getId(), i);
+        }
+    }
+
+    /**
+     * Devolve a música numa posição.
+     * @param i posição
+     * @return música
+     */
+    public Musica get(int i) {
+        return this.musicas.get(i);
+    }
+
+    /**
+     * Devolve o nº de músicas.
+     * @return nº de músicas
+     */
+    public int size() {
+        return this.musicas.size();
+    }
+
+    /**
+     * Devolve as músicas por uma ordem aleatória, sem repetições. A ordem é uma permutação de Fisher–Yates feita à medida que é percorrida,
+     * guardando só as trocas num mapa, pelo que obter as primeiras k músicas custa O(k), independentemente do tamanho do vetor.
+     * O vetor não pode ser alterado enquanto a ordem é percorrida.
+     * @param random gerador de números aleatórios (com uma semente fixa, a ordem é sempre a mesma)
+     * @return iterador das músicas
+     */
+    public Iterator<Musica> aleatorias(Random random) {
+        return new Iterator<Musica>() {
+            private final Map<Integer, Integer> trocas = new HashMap<Integer, Integer>();
+            private int proxima = 0;
+
+            public boolean hasNext() {
+                return this.proxima < musicas.size();
+            }
+
+            public Musica next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                // Troca a posição atual com uma posição ao acaso entre ela e o fim; as posições nunca trocadas valem o próprio índice
+                int j = this.proxima + random.nextInt(musicas.size() - this.proxima);
+                int escolhida = this.trocas.getOrDefault(j, j);
+                this.trocas.put(j, this.trocas.getOrDefault(this.proxima, this.proxima));
+                this.trocas.remove(this.proxima);
+                this.proxima++;
+                return musicas.get(escolhida);
+            }
+        };
+    }
+}